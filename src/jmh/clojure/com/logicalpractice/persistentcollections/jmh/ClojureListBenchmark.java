@@ -0,0 +1,87 @@
+package com.logicalpractice.persistentcollections.jmh;
+
+import clojure.lang.IPersistentVector;
+import clojure.lang.ITransientCollection;
+import clojure.lang.PersistentVector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * clojure.lang.PersistentVector under the same operations as ListBenchmark.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ClojureListBenchmark {
+
+   @Param({"10", "1000", "100000", "10000000"})
+   public int size;
+
+   private Integer[] items;
+   private int[] indices;
+   private int next;
+
+   private PersistentVector vector;
+
+   @Setup(Level.Trial)
+   public void setUp() {
+      items = new Integer[size];
+      for (int i = 0; i < size; i++)
+         items[i] = i;
+      Random random = new Random(42);
+      indices = new int[1024];
+      for (int i = 0; i < indices.length; i++)
+         indices[i] = random.nextInt(size);
+      vector = build();
+   }
+
+   private int nextIndex() {
+      return indices[next++ & 1023];
+   }
+
+   private PersistentVector build() {
+      ITransientCollection ret = PersistentVector.EMPTY.asTransient();
+      for (Integer item : items)
+         ret = ret.conj(item);
+      return (PersistentVector) ret.persistent();
+   }
+
+   @Benchmark
+   public Object get() {
+      return vector.nth(nextIndex());
+   }
+
+   @Benchmark
+   public IPersistentVector withAppended() {
+      return vector.cons(-1);
+   }
+
+   @Benchmark
+   public IPersistentVector with() {
+      return vector.assocN(nextIndex(), -1);
+   }
+
+   @Benchmark
+   public Object pop() {
+      return vector.pop();
+   }
+
+   @Benchmark
+   @OutputTimeUnit(TimeUnit.SECONDS)
+   public PersistentVector transientBuild() {
+      return build();
+   }
+}
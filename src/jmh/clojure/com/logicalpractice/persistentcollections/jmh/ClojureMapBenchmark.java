@@ -0,0 +1,78 @@
+package com.logicalpractice.persistentcollections.jmh;
+
+import clojure.lang.IPersistentMap;
+import clojure.lang.PersistentHashMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * clojure.lang.PersistentHashMap under the same operations as MapBenchmark.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ClojureMapBenchmark {
+
+   @Param({"10", "1000", "100000", "10000000"})
+   public int size;
+
+   private Integer[] keys;
+   private int next;
+
+   private PersistentHashMap map;
+
+   @Setup(Level.Trial)
+   public void setUp() {
+      Map<Integer, Integer> source = new HashMap<Integer, Integer>();
+      for (int i = 0; i < size; i++)
+         source.put(i, i);
+      Random random = new Random(42);
+      keys = new Integer[1024];
+      for (int i = 0; i < keys.length; i++)
+         keys[i] = random.nextInt(size);
+      map = (PersistentHashMap) PersistentHashMap.create(source);
+   }
+
+   private Integer nextKey() {
+      return keys[next++ & 1023];
+   }
+
+   @Benchmark
+   public Object get() {
+      return map.valAt(nextKey());
+   }
+
+   @Benchmark
+   public IPersistentMap with() {
+      return map.assoc(nextKey(), -1);
+   }
+
+   @Benchmark
+   public IPersistentMap without() {
+      return map.without(nextKey());
+   }
+
+   @Benchmark
+   @OutputTimeUnit(TimeUnit.SECONDS)
+   public void iterate(Blackhole bh) {
+      for (Iterator it = map.iterator(); it.hasNext(); )
+         bh.consume(((Map.Entry) it.next()).getValue());
+   }
+}
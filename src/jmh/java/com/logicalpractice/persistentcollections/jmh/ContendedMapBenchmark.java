@@ -0,0 +1,66 @@
+package com.logicalpractice.persistentcollections.jmh;
+
+import com.logicalpractice.persistentcollections.CombiningMapWriter;
+import com.logicalpractice.persistentcollections.PersistentHashMap;
+import com.logicalpractice.persistentcollections.PersistentMap;
+import com.logicalpractice.persistentcollections.PersistentRef;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+/**
+ * Many threads updating one shared map: every writer racing its own with() through
+ * PersistentRef.swap, against writers handing their updates to a CombiningMapWriter.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(Threads.MAX)
+public class ContendedMapBenchmark {
+
+   @Param({"1000", "100000"})
+   public int size;
+
+   private PersistentRef<PersistentMap<Integer, Integer>> ref;
+   private CombiningMapWriter<Integer, Integer> writer;
+
+   @Setup(Level.Iteration)
+   public void setUp() {
+      HashMap<Integer, Integer> initial = new HashMap<Integer, Integer>();
+      for (int i = 0; i < size; i++)
+         initial.put(i, i);
+      ref = new PersistentRef<PersistentMap<Integer, Integer>>(PersistentHashMap.create(initial));
+      writer = new CombiningMapWriter<Integer, Integer>(
+            new PersistentRef<PersistentMap<Integer, Integer>>(PersistentHashMap.create(initial)));
+   }
+
+   @Benchmark
+   public PersistentMap<Integer, Integer> swap() {
+      final Integer key = ThreadLocalRandom.current().nextInt(size);
+      return ref.swap(new UnaryOperator<PersistentMap<Integer, Integer>>() {
+         public PersistentMap<Integer, Integer> apply(PersistentMap<Integer, Integer> map) {
+            return map.with(key, -1);
+         }
+      });
+   }
+
+   @Benchmark
+   public PersistentMap<Integer, Integer> combined() {
+      return writer.put(ThreadLocalRandom.current().nextInt(size), -1).join();
+   }
+}
@@ -0,0 +1,125 @@
+package com.logicalpractice.persistentcollections.jmh;
+
+import com.logicalpractice.persistentcollections.PersistentList;
+import com.logicalpractice.persistentcollections.PersistentLists;
+import com.logicalpractice.persistentcollections.PersistentTreeList;
+import com.logicalpractice.persistentcollections.TransientList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+/**
+ * PersistentTreeList against ArrayList. Single element operations pick their index from a
+ * pregenerated random sequence so the whole trie is visited rather than one hot path.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ListBenchmark {
+
+   @Param({"10", "1000", "100000", "10000000"})
+   public int size;
+
+   private Integer[] items;
+   private int[] indices;
+   private int next;
+
+   private static final BiFunction<Long, Integer, Long> SUM = new BiFunction<Long, Integer, Long>() {
+      public Long apply(Long acc, Integer item) {
+         return acc + item;
+      }
+   };
+
+   private PersistentTreeList<Integer> persistent;
+   private ArrayList<Integer> arrayList;
+
+   @Setup(Level.Trial)
+   public void setUp() {
+      items = new Integer[size];
+      for (int i = 0; i < size; i++)
+         items[i] = i;
+      Random random = new Random(42);
+      indices = new int[1024];
+      for (int i = 0; i < indices.length; i++)
+         indices[i] = random.nextInt(size);
+      persistent = (PersistentTreeList<Integer>) PersistentLists.create(items);
+      arrayList = new ArrayList<Integer>(persistent);
+   }
+
+   private int nextIndex() {
+      return indices[next++ & 1023];
+   }
+
+   @Benchmark
+   public Integer get() {
+      return persistent.get(nextIndex());
+   }
+
+   @Benchmark
+   public PersistentList<Integer> withAppended() {
+      return persistent.withAppended(-1);
+   }
+
+   @Benchmark
+   public PersistentList<Integer> with() {
+      return persistent.with(nextIndex(), -1);
+   }
+
+   @Benchmark
+   public PersistentList<Integer> pop() {
+      return persistent.pop();
+   }
+
+   @Benchmark
+   @OutputTimeUnit(TimeUnit.SECONDS)
+   public PersistentList<Integer> transientBuild() {
+      TransientList<Integer> list = PersistentLists.<Integer>emptyPersistentList().toTransientList();
+      for (Integer item : items)
+         list.add(item);
+      return list.toPersistentList();
+   }
+
+   @Benchmark
+   @OutputTimeUnit(TimeUnit.SECONDS)
+   public long iterateSum() {
+      long sum = 0;
+      for (Integer item : persistent)
+         sum += item;
+      return sum;
+   }
+
+   @Benchmark
+   @OutputTimeUnit(TimeUnit.SECONDS)
+   public long reduceSum() {
+      return persistent.reduce(0L, SUM);
+   }
+
+   @Benchmark
+   public Integer arrayListGet() {
+      return arrayList.get(nextIndex());
+   }
+
+   @Benchmark
+   @OutputTimeUnit(TimeUnit.SECONDS)
+   public List<Integer> arrayListBuild() {
+      List<Integer> list = new ArrayList<Integer>();
+      for (Integer item : items)
+         list.add(item);
+      return list;
+   }
+}
@@ -0,0 +1,91 @@
+package com.logicalpractice.persistentcollections.jmh;
+
+import com.logicalpractice.persistentcollections.PersistentHashMap;
+import com.logicalpractice.persistentcollections.PersistentMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PersistentHashMap against HashMap, keyed by Integer. Lookups and updates use keys that are
+ * present, drawn from a pregenerated random sequence.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MapBenchmark {
+
+   @Param({"10", "1000", "100000", "10000000"})
+   public int size;
+
+   private Integer[] keys;
+   private int next;
+
+   private PersistentHashMap<Integer, Integer> persistent;
+   private HashMap<Integer, Integer> hashMap;
+
+   @Setup(Level.Trial)
+   public void setUp() {
+      hashMap = new HashMap<Integer, Integer>();
+      for (int i = 0; i < size; i++)
+         hashMap.put(i, i);
+      Random random = new Random(42);
+      keys = new Integer[1024];
+      for (int i = 0; i < keys.length; i++)
+         keys[i] = random.nextInt(size);
+      persistent = (PersistentHashMap<Integer, Integer>) PersistentHashMap.create(hashMap);
+   }
+
+   private Integer nextKey() {
+      return keys[next++ & 1023];
+   }
+
+   @Benchmark
+   public Integer get() {
+      return persistent.get(nextKey());
+   }
+
+   @Benchmark
+   public PersistentMap<Integer, Integer> with() {
+      return persistent.with(nextKey(), -1);
+   }
+
+   @Benchmark
+   public PersistentMap<Integer, Integer> without() {
+      return persistent.without(nextKey());
+   }
+
+   @Benchmark
+   @OutputTimeUnit(TimeUnit.SECONDS)
+   public void iterate(Blackhole bh) {
+      for (Map.Entry<Integer, Integer> entry : persistent.entrySet())
+         bh.consume(entry.getValue());
+   }
+
+   @Benchmark
+   public Integer hashMapGet() {
+      return hashMap.get(nextKey());
+   }
+
+   @Benchmark
+   @OutputTimeUnit(TimeUnit.SECONDS)
+   public void hashMapIterate(Blackhole bh) {
+      for (Map.Entry<Integer, Integer> entry : hashMap.entrySet())
+         bh.consume(entry.getValue());
+   }
+}
@@ -0,0 +1,94 @@
+package com.logicalpractice.persistentcollections.jmh;
+
+import com.logicalpractice.persistentcollections.PersistentSortedMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PersistentSortedMap against TreeMap: point lookups, and scans of a range of rangeSize keys
+ * starting at a random key, as for a window of time indexed data.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SortedMapBenchmark {
+
+   @Param({"100000", "10000000"})
+   public int size;
+
+   @Param({"1000"})
+   public int rangeSize;
+
+   private PersistentSortedMap<Long, Long> persistent;
+   private TreeMap<Long, Long> treeMap;
+   private long[] starts;
+   private int next;
+
+   @Setup
+   public void setUp() {
+      treeMap = new TreeMap<Long, Long>();
+      for (long i = 0; i < size; i++)
+         treeMap.put(i * 10, i);
+      persistent = PersistentSortedMap.create(treeMap);
+      Random random = new Random(42);
+      starts = new long[1024];
+      for (int i = 0; i < starts.length; i++)
+         starts[i] = (long) random.nextInt(size) * 10;
+   }
+
+   private long nextStart() {
+      return starts[next++ & (starts.length - 1)];
+   }
+
+   @Benchmark
+   public Long persistentGet() {
+      return persistent.get(nextStart());
+   }
+
+   @Benchmark
+   public Long treeMapGet() {
+      return treeMap.get(nextStart());
+   }
+
+   @Benchmark
+   public long persistentRangeScan() {
+      long from = nextStart();
+      long sum = 0;
+      for (Map.Entry<Long, Long> entry : persistent.subMap(from, from + rangeSize * 10L).entrySet())
+         sum += entry.getValue();
+      return sum;
+   }
+
+   @Benchmark
+   public long treeMapRangeScan() {
+      long from = nextStart();
+      long sum = 0;
+      for (Map.Entry<Long, Long> entry : treeMap.subMap(from, from + rangeSize * 10L).entrySet())
+         sum += entry.getValue();
+      return sum;
+   }
+
+   @Benchmark
+   public Long persistentFloor() {
+      return persistent.floorKey(nextStart() + 5);
+   }
+
+   @Benchmark
+   public Long treeMapFloor() {
+      return treeMap.floorKey(nextStart() + 5);
+   }
+}
@@ -0,0 +1,201 @@
+package com.logicalpractice.persistentcollections;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.ObjectStreamException;
+import java.io.StreamCorruptedException;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+
+/**
+ * Serialized form of the persistent collections, substituted for them by writeReplace.
+ * <p/>
+ * Rather than the trie nodes with their edit references, the stream holds a tag for the kind of
+ * collection, the element count and then the elements. Reading rebuilds the collection through its
+ * builder or a transient, so the nodes come back exactly as a freshly built collection's would.
+ */
+final class CollectionProxy implements Externalizable {
+
+   static final byte TREE_LIST = 1;
+   static final byte RRB_LIST = 2;
+   static final byte HASH_MAP = 3;
+   static final byte HASH_SET = 4;
+   static final byte LONG_LIST = 5;
+   static final byte INT_LIST = 6;
+   static final byte DOUBLE_LIST = 7;
+   static final byte LONG_MAP = 8;
+   static final byte INT_MAP = 9;
+   static final byte HASHED_MAP = 10; // a HASH_MAP with its hasher, written ahead of the entries
+   static final byte SORTED_MAP = 11;
+
+   private byte type;
+   private Object collection;
+
+   /**
+    * For deserialization only.
+    */
+   public CollectionProxy() {
+   }
+
+   CollectionProxy(byte type, Object collection) {
+      this.type = type;
+      this.collection = collection;
+   }
+
+   @Override
+   public void writeExternal(ObjectOutput out) throws IOException {
+      out.writeByte(type);
+      switch (type) {
+         case TREE_LIST:
+         case RRB_LIST:
+         case HASH_SET:
+            Collection<?> items = (Collection<?>) collection;
+            out.writeInt(items.size());
+            for (Object item : items)
+               out.writeObject(item);
+            break;
+         case HASH_MAP:
+         case HASHED_MAP:
+            Map<?, ?> map = (Map<?, ?>) collection;
+            out.writeInt(map.size());
+            if (type == HASHED_MAP)
+               out.writeObject(((PersistentHashMap<?, ?>) collection).hasher());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+               out.writeObject(entry.getKey());
+               out.writeObject(entry.getValue());
+            }
+            break;
+         case SORTED_MAP:
+            PersistentSortedMap<?, ?> sorted = (PersistentSortedMap<?, ?>) collection;
+            out.writeInt(sorted.size());
+            out.writeObject(sorted.comparator());
+            for (Map.Entry<?, ?> entry : sorted.entrySet()) {
+               out.writeObject(entry.getKey());
+               out.writeObject(entry.getValue());
+            }
+            break;
+         case LONG_LIST:
+            PersistentLongList longs = (PersistentLongList) collection;
+            out.writeInt(longs.size());
+            for (PrimitiveIterator.OfLong it = longs.iterator(); it.hasNext(); )
+               out.writeLong(it.nextLong());
+            break;
+         case INT_LIST:
+            PersistentIntList ints = (PersistentIntList) collection;
+            out.writeInt(ints.size());
+            for (PrimitiveIterator.OfInt it = ints.iterator(); it.hasNext(); )
+               out.writeInt(it.nextInt());
+            break;
+         case DOUBLE_LIST:
+            PersistentDoubleList doubles = (PersistentDoubleList) collection;
+            out.writeInt(doubles.size());
+            for (PrimitiveIterator.OfDouble it = doubles.iterator(); it.hasNext(); )
+               out.writeDouble(it.nextDouble());
+            break;
+         case LONG_MAP:
+            PersistentLongMap<?> longMap = (PersistentLongMap<?>) collection;
+            out.writeInt(longMap.size());
+            PersistentLongMap.Cursor longCursor = longMap.cursor();
+            while (longCursor.advance()) {
+               out.writeLong(longCursor.key);
+               out.writeObject(longCursor.val);
+            }
+            break;
+         case INT_MAP:
+            PersistentIntMap<?> intMap = (PersistentIntMap<?>) collection;
+            out.writeInt(intMap.size());
+            PersistentIntMap.Cursor intCursor = intMap.cursor();
+            while (intCursor.advance()) {
+               out.writeInt(intCursor.key);
+               out.writeObject(intCursor.val);
+            }
+            break;
+         default:
+            throw new InvalidObjectException("Unknown collection type " + type);
+      }
+   }
+
+   @Override
+   public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+      type = in.readByte();
+      int size = in.readInt();
+      if (size < 0)
+         throw new StreamCorruptedException("Negative size " + size);
+      switch (type) {
+         case TREE_LIST:
+         case RRB_LIST:
+            Object[] items = new Object[size];
+            for (int i = 0; i < size; i++)
+               items[i] = in.readObject();
+            collection = type == TREE_LIST ? PersistentLists.build(items, 0, size) : PersistentRrbTreeList.build(items);
+            break;
+         case HASH_SET:
+            TransientSet<Object> set = PersistentHashSet.empty().toTransientSet();
+            for (int i = 0; i < size; i++)
+               set.add(in.readObject());
+            collection = set.toPersistentSet();
+            break;
+         case HASH_MAP:
+         case HASHED_MAP:
+            Hasher<Object> hasher = type == HASHED_MAP ? (Hasher<Object>) in.readObject() : Hashers.STANDARD;
+            PersistentHashMap.TransientHashMap<Object, Object> map =
+                  PersistentHashMap.<Object, Object>empty(hasher).toTransientMap();
+            for (int i = 0; i < size; i++)
+               map.doAssoc(in.readObject(), in.readObject());
+            collection = map.toPersistentMap();
+            break;
+         case SORTED_MAP:
+            // written in order, so the tree can be built straight from the arrays
+            Comparator<Object> comparator = (Comparator<Object>) in.readObject();
+            Object[] keys = new Object[size];
+            Object[] vals = new Object[size];
+            for (int i = 0; i < size; i++) {
+               keys[i] = in.readObject();
+               vals[i] = in.readObject();
+            }
+            collection = PersistentSortedMap.fromSorted(comparator, keys, vals, size);
+            break;
+         case LONG_LIST:
+            long[] longs = new long[size];
+            for (int i = 0; i < size; i++)
+               longs[i] = in.readLong();
+            collection = PersistentLongList.create(longs);
+            break;
+         case INT_LIST:
+            int[] ints = new int[size];
+            for (int i = 0; i < size; i++)
+               ints[i] = in.readInt();
+            collection = PersistentIntList.create(ints);
+            break;
+         case DOUBLE_LIST:
+            double[] doubles = new double[size];
+            for (int i = 0; i < size; i++)
+               doubles[i] = in.readDouble();
+            collection = PersistentDoubleList.create(doubles);
+            break;
+         case LONG_MAP:
+            PersistentLongMap<Object> longMap = PersistentLongMap.empty();
+            for (int i = 0; i < size; i++)
+               longMap = longMap.with(in.readLong(), in.readObject());
+            collection = longMap;
+            break;
+         case INT_MAP:
+            PersistentIntMap<Object> intMap = PersistentIntMap.empty();
+            for (int i = 0; i < size; i++)
+               intMap = intMap.with(in.readInt(), in.readObject());
+            collection = intMap;
+            break;
+         default:
+            throw new InvalidObjectException("Unknown collection type " + type);
+      }
+   }
+
+   private Object readResolve() throws ObjectStreamException {
+      return collection;
+   }
+}
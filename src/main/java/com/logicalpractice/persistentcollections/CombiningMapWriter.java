@@ -0,0 +1,206 @@
+package com.logicalpractice.persistentcollections;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.LongBinaryOperator;
+import java.util.function.UnaryOperator;
+
+/**
+ * Group commit writer for a PersistentRef holding a map.
+ * <p/>
+ * Rather than every writer racing its own with() against the ref, writers enqueue their updates and
+ * whichever thread finds no combiner running becomes the combiner: it drains the queue into a single
+ * TransientMap, publishes one new version and completes the futures of every writer in the batch with
+ * it. Under load the batches grow, so each published version pays for one pass of path copying
+ * instead of one per writer.
+ * <p/>
+ * A writer stays in submit only until its update has been taken into a batch, combining batches
+ * itself whenever the role is free and parked otherwise. A combiner gives the role up as soon as its
+ * own update is published, so however many writers keep the queue full it combines no more batches
+ * than there were updates ahead of its own. On giving the role up it unparks the writer at the head
+ * of the queue, and every update left in the queue still has its writer waiting to take the role on.
+ * Each writer is also unparked when its update is taken.
+ * <p/>
+ * An update that throws fails only its own future and leaves nothing behind: the batch is applied
+ * again to a fresh transient without it, so only updates that completed normally are published.
+ * Other threads may swap the ref directly, the combiner then reapplies its batch like any other swap.
+ */
+public final class CombiningMapWriter<K, V> {
+
+   private static final class Pending<K, V> {
+      final Consumer<? super TransientMap<K, V>> update;
+      final CompletableFuture<PersistentMap<K, V>> future = new CompletableFuture<PersistentMap<K, V>>();
+      final Thread writer = Thread.currentThread();
+      volatile boolean taken;
+      Throwable failure;
+
+      Pending(Consumer<? super TransientMap<K, V>> update) {
+         this.update = update;
+      }
+   }
+
+   private final PersistentRef<PersistentMap<K, V>> ref;
+   private final int maxBatchSize;
+   private final ConcurrentLinkedQueue<Pending<K, V>> queue = new ConcurrentLinkedQueue<Pending<K, V>>();
+   private final AtomicBoolean combining = new AtomicBoolean();
+
+   private final LongAdder batches = new LongAdder();
+   private final LongAdder updates = new LongAdder();
+   private final LongAccumulator largestBatch = new LongAccumulator(new LongBinaryOperator() {
+      public long applyAsLong(long left, long right) {
+         return Math.max(left, right);
+      }
+   }, 0);
+
+   public CombiningMapWriter(PersistentRef<PersistentMap<K, V>> ref) {
+      this(ref, 1024);
+   }
+
+   /**
+    * @param maxBatchSize the most updates the combiner folds into one published version, bounding
+    *                     how long a combining writer is kept from its own work
+    */
+   public CombiningMapWriter(PersistentRef<PersistentMap<K, V>> ref, int maxBatchSize) {
+      if (maxBatchSize < 1)
+         throw new IllegalArgumentException("maxBatchSize must be positive: " + maxBatchSize);
+      this.ref = ref;
+      this.maxBatchSize = maxBatchSize;
+   }
+
+   public PersistentRef<PersistentMap<K, V>> ref() {
+      return ref;
+   }
+
+   /**
+    * Queues update and combines batches on this thread whenever no other thread is combining, parking
+    * while one is, until update has been taken into a batch.
+    *
+    * @return a future completed with the first published version containing the update
+    */
+   public CompletableFuture<PersistentMap<K, V>> submit(Consumer<? super TransientMap<K, V>> update) {
+      Pending<K, V> pending = new Pending<K, V>(update);
+      queue.add(pending);
+      // the role is given up after every batch, so a combiner whose update went out in it leaves and
+      // one of the writers still waiting takes over
+      while (!pending.taken) {
+         if (combining.compareAndSet(false, true)) {
+            try {
+               combine();
+            } finally {
+               combining.set(false);
+               // a writer that queued before the role was freed is seen here, and one that queues
+               // after finds the role free
+               Pending<K, V> head = queue.peek();
+               if (head != null)
+                  LockSupport.unpark(head.writer);
+            }
+         } else {
+            LockSupport.park(this);
+         }
+      }
+      return pending.future;
+   }
+
+   public CompletableFuture<PersistentMap<K, V>> put(final K key, final V value) {
+      return submit(new Consumer<TransientMap<K, V>>() {
+         public void accept(TransientMap<K, V> map) {
+            map.put(key, value);
+         }
+      });
+   }
+
+   public CompletableFuture<PersistentMap<K, V>> remove(final K key) {
+      return submit(new Consumer<TransientMap<K, V>>() {
+         public void accept(TransientMap<K, V> map) {
+            map.remove(key);
+         }
+      });
+   }
+
+   private void combine() {
+      final List<Pending<K, V>> batch = new ArrayList<Pending<K, V>>();
+      Pending<K, V> next;
+      while (batch.size() < maxBatchSize && (next = queue.poll()) != null) {
+         next.taken = true;
+         LockSupport.unpark(next.writer);
+         batch.add(next);
+      }
+      if (batch.isEmpty())
+         return;
+
+      PersistentMap<K, V> published;
+      try {
+         published = ref.swap(new UnaryOperator<PersistentMap<K, V>>() {
+            public PersistentMap<K, V> apply(PersistentMap<K, V> current) {
+               for (Pending<K, V> pending : batch)
+                  pending.failure = null;
+               // start again from current without an update that throws, dropping whatever it wrote
+               for (;;) {
+                  TransientMap<K, V> ret = current.toTransientMap();
+                  boolean failed = false;
+                  for (Pending<K, V> pending : batch) {
+                     if (pending.failure != null)
+                        continue;
+                     try {
+                        pending.update.accept(ret);
+                     } catch (RuntimeException e) {
+                        pending.failure = e;
+                        failed = true;
+                        break;
+                     }
+                  }
+                  if (!failed)
+                     return ret.toPersistentMap();
+               }
+            }
+         });
+      } catch (RuntimeException | Error e) {
+         for (Pending<K, V> pending : batch)
+            pending.future.completeExceptionally(e);
+         throw e;
+      }
+
+      batches.increment();
+      updates.add(batch.size());
+      largestBatch.accumulate(batch.size());
+      for (Pending<K, V> pending : batch) {
+         if (pending.failure != null)
+            pending.future.completeExceptionally(pending.failure);
+         else
+            pending.future.complete(published);
+      }
+   }
+
+   /**
+    * @return the number of versions published
+    */
+   public long batchCount() {
+      return batches.sum();
+   }
+
+   /**
+    * @return the number of updates applied
+    */
+   public long updateCount() {
+      return updates.sum();
+   }
+
+   /**
+    * @return the mean number of updates per published version, or 0 before the first
+    */
+   public double meanBatchSize() {
+      long n = batches.sum();
+      return n == 0 ? 0 : (double) updates.sum() / n;
+   }
+
+   public long largestBatchSize() {
+      return largestBatch.get();
+   }
+}
@@ -0,0 +1,15 @@
+package com.logicalpractice.persistentcollections;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Writes and reads single elements for Snapshots.
+ */
+public interface ElementCodec<T> {
+
+   void write(DataOutput out, T value) throws IOException;
+
+   T read(DataInput in) throws IOException;
+}
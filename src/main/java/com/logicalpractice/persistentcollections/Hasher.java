@@ -0,0 +1,13 @@
+package com.logicalpractice.persistentcollections;
+
+/**
+ * Hashing and equivalence of the keys of a PersistentHashMap. The two must agree: equivalent keys
+ * have the same hash. The map takes successive five bit slices of the hash from the low bits up,
+ * so every bit counts, see Hashers for ready made implementations.
+ */
+public interface Hasher<T> {
+
+   int hash(T key);
+
+   boolean equivalent(T key, T other);
+}
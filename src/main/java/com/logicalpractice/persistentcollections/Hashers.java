@@ -0,0 +1,96 @@
+package com.logicalpractice.persistentcollections;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Hashers for PersistentHashMap.
+ * <p/>
+ * All of them finish with mix, as many hashCodes keep their entropy in the high bits or vary in
+ * only a few bits (Float, Double and Long keys, multiples of a power of two, small strings) while the
+ * trie indexes its first levels with the low bits. Mixing is a bijection on int, so it spreads such
+ * keys over the trie without creating any collisions that were not already in the hashCodes.
+ */
+public final class Hashers {
+
+   private Hashers() {
+   }
+
+   /**
+    * The finalizer of MurmurHash3, flipping each output bit with about even odds for any change of
+    * input bit.
+    */
+   public static int mix(int h) {
+      h ^= h >>> 16;
+      h *= 0x85ebca6b;
+      h ^= h >>> 13;
+      h *= 0xc2b2ae35;
+      h ^= h >>> 16;
+      return h;
+   }
+
+   /**
+    * hashCode, mixed, and equals. The default for PersistentHashMap and PersistentHashSet.
+    */
+   public static final Hasher<Object> STANDARD = new Standard();
+
+   /**
+    * Compares byte arrays by content rather than identity.
+    */
+   public static final Hasher<byte[]> BYTE_ARRAY = new ByteArray();
+
+   /**
+    * Compares strings ignoring case, as String.equalsIgnoreCase.
+    */
+   public static final Hasher<String> CASE_INSENSITIVE = new CaseInsensitive();
+
+   private static final class Standard implements Hasher<Object>, Serializable {
+      public int hash(Object key) {
+         return mix(key.hashCode());
+      }
+
+      public boolean equivalent(Object key, Object other) {
+         return key == other || key.equals(other);
+      }
+
+      private Object readResolve() throws ObjectStreamException {
+         return STANDARD;
+      }
+   }
+
+   private static final class ByteArray implements Hasher<byte[]>, Serializable {
+      public int hash(byte[] key) {
+         return mix(Arrays.hashCode(key));
+      }
+
+      public boolean equivalent(byte[] key, byte[] other) {
+         return Arrays.equals(key, other);
+      }
+
+      private Object readResolve() throws ObjectStreamException {
+         return BYTE_ARRAY;
+      }
+   }
+
+   private static final class CaseInsensitive implements Hasher<String>, Serializable {
+      public int hash(String key) {
+         int h = 0;
+         for (int i = 0; i < key.length(); ) {
+            int cp = key.codePointAt(i);
+            // the same folding equalsIgnoreCase falls back on, so equivalent strings hash alike
+            h = 31 * h + Character.toLowerCase(Character.toUpperCase(cp));
+            i += Character.charCount(cp);
+         }
+         return mix(h);
+      }
+
+      public boolean equivalent(String key, String other) {
+         return key.equalsIgnoreCase(other);
+      }
+
+      private Object readResolve() throws ObjectStreamException {
+         return CASE_INSENSITIVE;
+      }
+   }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) Logical Practice Systems. All rights reserved.
+ * The use and distribution terms for this software are covered by the
+ * Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ * which can be found in the file epl-v10.html at the root of this distribution.
+ * By using this software in any fashion, you are agreeing to be bound by
+ * the terms of this license.
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.logicalpractice.persistentcollections;
+
+import java.util.function.Supplier;
+
+/**
+ * Sequence whose contents are computed by a thunk the first time they are needed and cached from
+ * then on, as clojure's LazySeq. The thunk returns the realized sequence, or null when it is empty,
+ * and runs at most once however many threads or traversals reach it.
+ * <p/>
+ * As a LazySequence cannot know it is empty until realized, callers holding one directly, such as
+ * the result of Sequences.map, should go through Sequences.seq before comparing it with null. The
+ * rest of a sequence is always realized, so walking rest() ends in null as usual.
+ */
+public final class LazySequence<T> implements Sequence<T> {
+
+    private Supplier<? extends Sequence<T>> thunk;
+    private Sequence<T> realized;
+
+    public LazySequence(Supplier<? extends Sequence<T>> thunk) {
+        if (thunk == null) throw new NullPointerException();
+        this.thunk = thunk;
+    }
+
+    /**
+     * @return the realized sequence with any nested LazySequences unwrapped, null when empty
+     */
+    @SuppressWarnings("unchecked")
+    synchronized Sequence<T> realize() {
+        if (thunk != null) {
+            Sequence<T> s = thunk.get();
+            while (s instanceof LazySequence)
+                s = ((LazySequence<T>) s).realize();
+            realized = s;
+            thunk = null; // let go of whatever the thunk captured
+        }
+        return realized;
+    }
+
+    public synchronized boolean isRealized() {
+        return thunk == null;
+    }
+
+    @Override
+    public T first() {
+        Sequence<T> s = realize();
+        return s == null ? null : s.first();
+    }
+
+    @Override
+    public Sequence<T> rest() {
+        Sequence<T> s = realize();
+        return s == null ? null : s.rest();
+    }
+}
@@ -0,0 +1,253 @@
+package com.logicalpractice.persistentcollections;
+
+import java.util.AbstractList;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.function.LongConsumer;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Arithmetic progression start, start + step, ... up to but excluding end, as a PersistentList.
+ * <p/>
+ * Nothing is stored beyond the three numbers, so get, size, indexOf and subList are constant time.
+ * The iterator and spliterator are primitive, letting longStream() and forEachLong run over
+ * the range without boxing, and the spliterator splits exactly in half. with and withAppended
+ * materialize the range into a PersistentTreeList first.
+ */
+public final class LongRange extends AbstractList<Long> implements PersistentList<Long> {
+
+   private final long start;
+   private final long step;
+   private final int size;
+
+   private LongRange(long start, long step, int size) {
+      this.start = start;
+      this.step = step;
+      this.size = size;
+   }
+
+   public static LongRange range(long end) {
+      return range(0, end, 1);
+   }
+
+   public static LongRange range(long start, long end) {
+      return range(start, end, 1);
+   }
+
+   /**
+    * @throws IllegalArgumentException if step is 0 or the range holds more than Integer.MAX_VALUE
+    *                                  elements
+    */
+   public static LongRange range(long start, long end, long step) {
+      if (step == 0)
+         throw new IllegalArgumentException("step must not be 0");
+      long n;
+      // the distance and step as unsigned values, which cover the whole long range without overflow
+      if (step > 0)
+         n = end <= start ? 0 : Long.divideUnsigned(end - start - 1, step) + 1;
+      else
+         n = end >= start ? 0 : Long.divideUnsigned(start - end - 1, -step) + 1;
+      if (n < 0 || n > Integer.MAX_VALUE)
+         throw new IllegalArgumentException("Range too large for a list: " + start + " to " + end + " by " + step);
+      return new LongRange(start, step, (int) n);
+   }
+
+   /**
+    * @throws IndexOutOfBoundsException if index is out of range
+    */
+   public long getLong(int index) {
+      if (index < 0 || index >= size)
+         throw new IndexOutOfBoundsException();
+      return start + index * step;
+   }
+
+   @Override
+   public Long get(int index) {
+      return getLong(index);
+   }
+
+   @Override
+   public int size() {
+      return size;
+   }
+
+   @Override
+   public int indexOf(Object o) {
+      if (!(o instanceof Long) || size == 0)
+         return -1;
+      // as in range, the distance from start in the step's direction as an unsigned value
+      long offset;
+      long stride;
+      if (step > 0) {
+         offset = (Long) o - start;
+         stride = step;
+      } else {
+         offset = start - (Long) o;
+         stride = -step;
+      }
+      if (Long.remainderUnsigned(offset, stride) != 0)
+         return -1;
+      long index = Long.divideUnsigned(offset, stride);
+      return index >= 0 && index < size ? (int) index : -1;
+   }
+
+   @Override
+   public int lastIndexOf(Object o) {
+      return indexOf(o);
+   }
+
+   @Override
+   public boolean contains(Object o) {
+      return indexOf(o) >= 0;
+   }
+
+   @Override
+   public LongRange subList(int fromIndex, int toIndex) {
+      if (fromIndex < 0 || toIndex > size || fromIndex > toIndex)
+         throw new IndexOutOfBoundsException();
+      return new LongRange(start + fromIndex * step, step, toIndex - fromIndex);
+   }
+
+   public PersistentList<Long> with(int i, Long val) {
+      return materialize().with(i, val);
+   }
+
+   public PersistentList<Long> withAppended(Long val) {
+      return materialize().withAppended(val);
+   }
+
+   public TransientList<Long> toTransientList() {
+      return materialize().toTransientList();
+   }
+
+   public PersistentTreeList<Long> materialize() {
+      return PersistentLists.build(toArray(), 0, size);
+   }
+
+   public long[] toLongArray() {
+      long[] ret = new long[size];
+      long val = start;
+      for (int i = 0; i < size; i++, val += step)
+         ret[i] = val;
+      return ret;
+   }
+
+   /**
+    * Named apart from forEach(Consumer) so that lambdas passed to either are not ambiguous.
+    */
+   public void forEachLong(LongConsumer action) {
+      long val = start;
+      for (int i = 0; i < size; i++, val += step)
+         action.accept(val);
+   }
+
+   public LongStream longStream() {
+      return StreamSupport.longStream(spliterator(), false);
+   }
+
+   @Override
+   public PrimitiveIterator.OfLong iterator() {
+      return new RangeIterator();
+   }
+
+   @Override
+   public Spliterator.OfLong spliterator() {
+      return new RangeSpliterator(start, step, 0, size);
+   }
+
+   @Override
+   public boolean equals(Object o) {
+      if (o instanceof LongRange) {
+         LongRange other = (LongRange) o;
+         return size == other.size && (size == 0 || start == other.start && (size == 1 || step == other.step));
+      }
+      return super.equals(o);
+   }
+
+   @Override
+   public int hashCode() {
+      int hash = 1;
+      long val = start;
+      for (int i = 0; i < size; i++, val += step)
+         hash = 31 * hash + (int) (val ^ (val >>> 32));
+      return hash;
+   }
+
+   @Override
+   public String toString() {
+      return "LongRange[" + start + ", " + (start + size * step) + ", " + step + "]";
+   }
+
+   private final class RangeIterator implements PrimitiveIterator.OfLong {
+      private int i;
+
+      @Override
+      public boolean hasNext() {
+         return i < size;
+      }
+
+      @Override
+      public long nextLong() {
+         if (i >= size)
+            throw new NoSuchElementException();
+         return start + (i++) * step;
+      }
+
+      @Override
+      public void remove() {
+         throw new UnsupportedOperationException();
+      }
+   }
+
+   static final class RangeSpliterator implements Spliterator.OfLong {
+      private final long start;
+      private final long step;
+      private int index;
+      private final int end;
+
+      RangeSpliterator(long start, long step, int index, int end) {
+         this.start = start;
+         this.step = step;
+         this.index = index;
+         this.end = end;
+      }
+
+      @Override
+      public Spliterator.OfLong trySplit() {
+         int mid = (index + end) >>> 1;
+         if (mid <= index)
+            return null;
+         RangeSpliterator prefix = new RangeSpliterator(start, step, index, mid);
+         index = mid;
+         return prefix;
+      }
+
+      @Override
+      public boolean tryAdvance(LongConsumer action) {
+         if (index >= end)
+            return false;
+         action.accept(start + (index++) * step);
+         return true;
+      }
+
+      @Override
+      public void forEachRemaining(LongConsumer action) {
+         long val = start + index * step;
+         for (int i = index; i < end; i++, val += step)
+            action.accept(val);
+         index = end;
+      }
+
+      @Override
+      public long estimateSize() {
+         return end - index;
+      }
+
+      @Override
+      public int characteristics() {
+         return ORDERED | SIZED | SUBSIZED | IMMUTABLE | NONNULL | DISTINCT;
+      }
+   }
+}
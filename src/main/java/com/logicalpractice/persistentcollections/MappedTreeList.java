@@ -0,0 +1,305 @@
+package com.logicalpractice.persistentcollections;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+
+/**
+ * Read only PersistentList over a file written by write(), mapped into memory with FileChannel.map.
+ * <p/>
+ * The file mirrors the trie of the PersistentTreeList it was written from. A header holding the
+ * count, shift and the offsets of the root and tail is followed by leaf blocks and internal nodes:
+ * <pre>
+ *    header   int magic, int cnt, int shift, int root offset, int tail offset
+ *    leaf     int n, int[n] element offsets relative to the end of the table, encoded elements
+ *    node     int[32] child offsets, 0 where there is no child
+ * </pre>
+ * get(i) walks the offset tables just as PersistentTreeList walks its nodes and decodes the one
+ * element with the ElementCodec, so opening a file costs nothing up front and processes mapping the
+ * same file share its pages. A single mapping limits files to 2GB.
+ * <p/>
+ * with and withAppended materialize the list into a PersistentTreeList first.
+ */
+public final class MappedTreeList<T> extends AbstractList<T> implements PersistentList<T> {
+
+   private static final int MAGIC = 0x50544c31; // PTL1
+   private static final int HEADER = 20;
+
+   private final ByteBuffer buffer;
+   private final ElementCodec<? extends T> codec;
+   private final int cnt;
+   private final int shift;
+   private final int root;
+   private final int tail;
+
+   private MappedTreeList(ByteBuffer buffer, ElementCodec<? extends T> codec) throws IOException {
+      if (buffer.capacity() < HEADER || buffer.getInt(0) != MAGIC)
+         throw new IOException("Not a MappedTreeList file");
+      this.buffer = buffer;
+      this.codec = codec;
+      this.cnt = buffer.getInt(4);
+      this.shift = buffer.getInt(8);
+      this.root = buffer.getInt(12);
+      this.tail = buffer.getInt(16);
+   }
+
+   public static <T> MappedTreeList<T> open(Path file, ElementCodec<? extends T> codec) throws IOException {
+      FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+      try {
+         if (channel.size() > Integer.MAX_VALUE)
+            throw new IOException("File too large to map: " + channel.size());
+         // the mapping stays valid once the channel is closed
+         MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+         return new MappedTreeList<T>(buffer, codec);
+      } finally {
+         channel.close();
+      }
+   }
+
+   /**
+    * Writes list to file, replacing anything already there, in the layout open() maps.
+    */
+   public static <T> void write(Path file, PersistentTreeList<? extends T> list, ElementCodec<? super T> codec) throws IOException {
+      FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+      try {
+         channel.position(HEADER);
+         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+         ByteArrayOutputStream scratch = new ByteArrayOutputStream();
+         int cnt = list.size();
+         int tailoff = list.tailoff();
+
+         int count = tailoff >>> 5;
+         int[] offsets = new int[count];
+         for (int i = 0; i < count; i++)
+            offsets[i] = writeLeaf(out, scratch, list.arrayFor(i << 5), 32, codec);
+         int tailOffset = writeLeaf(out, scratch, cnt == 0 ? new Object[0] : list.arrayFor(tailoff), cnt - tailoff, codec);
+
+         int shift = 5;
+         int rootOffset = 0;
+         if (count > 0) {
+            while (count > 32) {
+               int parents = (count + 31) >>> 5;
+               for (int i = 0; i < parents; i++)
+                  offsets[i] = writeNode(out, offsets, i << 5, Math.min(32, count - (i << 5)));
+               count = parents;
+               shift += 5;
+            }
+            rootOffset = writeNode(out, offsets, 0, count);
+         }
+         out.flush();
+
+         ByteBuffer header = ByteBuffer.allocate(HEADER);
+         header.putInt(MAGIC).putInt(cnt).putInt(shift).putInt(rootOffset).putInt(tailOffset).flip();
+         while (header.hasRemaining())
+            channel.write(header, header.position());
+      } finally {
+         channel.close();
+      }
+   }
+
+   private static int position(DataOutputStream out) throws IOException {
+      int position = HEADER + out.size();
+      if (position < 0 || out.size() == Integer.MAX_VALUE)
+         throw new IOException("List too large for a single 2GB mapping");
+      return position;
+   }
+
+   @SuppressWarnings("unchecked")
+   private static <T> int writeLeaf(DataOutputStream out, ByteArrayOutputStream scratch, Object[] array, int n,
+                                    ElementCodec<? super T> codec) throws IOException {
+      int offset = position(out);
+      scratch.reset();
+      DataOutputStream elements = new DataOutputStream(scratch);
+      out.writeInt(n);
+      for (int j = 0; j < n; j++) {
+         out.writeInt(elements.size());
+         codec.write(elements, (T) array[j]);
+      }
+      scratch.writeTo(out);
+      return offset;
+   }
+
+   private static int writeNode(DataOutputStream out, int[] offsets, int from, int n) throws IOException {
+      int offset = position(out);
+      for (int j = 0; j < 32; j++)
+         out.writeInt(j < n ? offsets[from + j] : 0);
+      return offset;
+   }
+
+   private int tailoff() {
+      if (cnt < 32)
+         return 0;
+      return ((cnt - 1) >>> 5) << 5;
+   }
+
+   private int leafFor(int i) {
+      if (i >= 0 && i < cnt) {
+         if (i >= tailoff())
+            return tail;
+         int node = root;
+         for (int level = shift; level > 0; level -= 5)
+            node = buffer.getInt(node + (((i >>> level) & 0x01f) << 2));
+         return node;
+      }
+      throw new IndexOutOfBoundsException();
+   }
+
+   /**
+    * {@inheritDoc}
+    *
+    * @throws IndexOutOfBoundsException {@inheritDoc}
+    */
+   @Override
+   public T get(int index) {
+      int leaf = leafFor(index);
+      int n = buffer.getInt(leaf);
+      int elements = leaf + 4 + (n << 2);
+      int offset = buffer.getInt(leaf + 4 + ((index & 0x01f) << 2));
+      try {
+         return codec.read(new BufferInput(buffer, elements + offset));
+      } catch (IOException e) {
+         throw new IllegalStateException("Corrupt element at " + index, e);
+      }
+   }
+
+   @Override
+   public int size() {
+      return cnt;
+   }
+
+   /**
+    * Decodes every element into a PersistentTreeList.
+    */
+   public PersistentTreeList<T> materialize() {
+      return PersistentLists.build(toArray(), 0, cnt);
+   }
+
+   public PersistentList<T> with(int i, T val) {
+      return materialize().with(i, val);
+   }
+
+   public PersistentList<T> withAppended(T val) {
+      return materialize().withAppended(val);
+   }
+
+   public TransientList<T> toTransientList() {
+      return materialize().toTransientList();
+   }
+
+   /**
+    * DataInput reading forwards from a position in the buffer with absolute gets, so concurrent
+    * readers never disturb each other or the buffer's own position.
+    */
+   private static final class BufferInput implements DataInput {
+      private final ByteBuffer buffer;
+      private int position;
+
+      BufferInput(ByteBuffer buffer, int position) {
+         this.buffer = buffer;
+         this.position = position;
+      }
+
+      private int advance(int n) throws EOFException {
+         int at = position;
+         if (at + n > buffer.limit())
+            throw new EOFException();
+         position += n;
+         return at;
+      }
+
+      public void readFully(byte[] b) throws IOException {
+         readFully(b, 0, b.length);
+      }
+
+      public void readFully(byte[] b, int off, int len) throws IOException {
+         int at = advance(len);
+         for (int j = 0; j < len; j++)
+            b[off + j] = buffer.get(at + j);
+      }
+
+      public int skipBytes(int n) {
+         int skipped = Math.max(0, Math.min(n, buffer.limit() - position));
+         position += skipped;
+         return skipped;
+      }
+
+      public boolean readBoolean() throws IOException {
+         return buffer.get(advance(1)) != 0;
+      }
+
+      public byte readByte() throws IOException {
+         return buffer.get(advance(1));
+      }
+
+      public int readUnsignedByte() throws IOException {
+         return buffer.get(advance(1)) & 0xff;
+      }
+
+      public short readShort() throws IOException {
+         return buffer.getShort(advance(2));
+      }
+
+      public int readUnsignedShort() throws IOException {
+         return buffer.getShort(advance(2)) & 0xffff;
+      }
+
+      public char readChar() throws IOException {
+         return buffer.getChar(advance(2));
+      }
+
+      public int readInt() throws IOException {
+         return buffer.getInt(advance(4));
+      }
+
+      public long readLong() throws IOException {
+         return buffer.getLong(advance(8));
+      }
+
+      public float readFloat() throws IOException {
+         return buffer.getFloat(advance(4));
+      }
+
+      public double readDouble() throws IOException {
+         return buffer.getDouble(advance(8));
+      }
+
+      /**
+       * As DataInputStream.readLine: bytes up to a \n, \r or \r\n, each taken as a char, and null at
+       * the end of the buffer.
+       */
+      public String readLine() {
+         int limit = buffer.limit();
+         if (position >= limit)
+            return null;
+         StringBuilder line = new StringBuilder();
+         while (position < limit) {
+            int c = buffer.get(position++) & 0xff;
+            if (c == '\n')
+               break;
+            if (c == '\r') {
+               if (position < limit && buffer.get(position) == '\n')
+                  position++;
+               break;
+            }
+            line.append((char) c);
+         }
+         return line.toString();
+      }
+
+      public String readUTF() throws IOException {
+         return DataInputStream.readUTF(this);
+      }
+   }
+}
@@ -0,0 +1,84 @@
+package com.logicalpractice.persistentcollections;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Fixed size blocks of off heap memory for OffHeapLongList leaves, each block holding the 32 longs
+ * of one leaf. Blocks are carved from direct ByteBuffer slabs and recycled through a free list once
+ * the last list version sharing them is closed.
+ * <p/>
+ * Closing the arena drops every slab at once, the memory going back when the buffers are collected.
+ * Lists allocated from the arena must not be used after that.
+ */
+public final class OffHeapArena implements AutoCloseable {
+
+   static final int BLOCK_SIZE = 32 * 8;
+   private static final int BLOCK_BITS = 12;
+   private static final int BLOCKS_PER_SLAB = 1 << BLOCK_BITS;
+
+   // replaced rather than grown in place so readers never need the lock
+   private volatile ByteBuffer[] slabs = new ByteBuffer[0];
+   private int[] free = new int[64];
+   private int freeCount;
+   private int next;
+   private boolean closed;
+
+   synchronized int allocate() {
+      if (closed)
+         throw new IllegalStateException("Arena is closed");
+      if (freeCount > 0)
+         return free[--freeCount];
+      if (next == slabs.length << BLOCK_BITS) {
+         ByteBuffer[] grown = Arrays.copyOf(slabs, slabs.length + 1);
+         grown[slabs.length] = ByteBuffer.allocateDirect(BLOCK_SIZE * BLOCKS_PER_SLAB).order(ByteOrder.nativeOrder());
+         slabs = grown;
+      }
+      return next++;
+   }
+
+   synchronized void free(int block) {
+      if (closed)
+         return;
+      if (freeCount == free.length)
+         free = Arrays.copyOf(free, freeCount * 2);
+      free[freeCount++] = block;
+   }
+
+   long get(int block, int i) {
+      return slabs[block >>> BLOCK_BITS].getLong(((block & (BLOCKS_PER_SLAB - 1)) * BLOCK_SIZE) + (i << 3));
+   }
+
+   void put(int block, int i, long val) {
+      slabs[block >>> BLOCK_BITS].putLong(((block & (BLOCKS_PER_SLAB - 1)) * BLOCK_SIZE) + (i << 3), val);
+   }
+
+   void copy(int from, int to) {
+      for (int i = 0; i < 32; i++)
+         put(to, i, get(from, i));
+   }
+
+   /**
+    * @return the number of blocks held by open list versions
+    */
+   public synchronized int blocksInUse() {
+      return next - freeCount;
+   }
+
+   /**
+    * @return the bytes of direct memory allocated for slabs
+    */
+   public synchronized long reservedBytes() {
+      return (long) slabs.length * BLOCKS_PER_SLAB * BLOCK_SIZE;
+   }
+
+   @Override
+   public synchronized void close() {
+      closed = true;
+      slabs = new ByteBuffer[0];
+      free = new int[0];
+      freeCount = 0;
+      next = 0;
+   }
+}
@@ -0,0 +1,289 @@
+package com.logicalpractice.persistentcollections;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+
+/**
+ * PersistentLongList with its leaves held off heap in blocks of an OffHeapArena, so a multi GB
+ * series leaves the collector nothing to scan but the small internal nodes.
+ * <p/>
+ * The trie has PersistentLongList's shape and path copying: with and withAppended copy the path to
+ * the changed leaf and share every other node and leaf block with the version they came from. The
+ * tail stays on heap as a long[] until it fills.
+ * <p/>
+ * As blocks are not garbage collected every node counts the parents and list versions referring to
+ * it. close() gives up a version's reference to its root, and a node or leaf is released when its
+ * last reference goes, returning its block to the arena. A closed version must not be used again;
+ * versions derived from it are unaffected.
+ */
+public final class OffHeapLongList implements AutoCloseable {
+
+   static abstract class Ref {
+      private final AtomicInteger refs = new AtomicInteger(1);
+
+      final void retain() {
+         refs.incrementAndGet();
+      }
+
+      final void release(OffHeapArena arena) {
+         if (refs.decrementAndGet() == 0)
+            free(arena);
+      }
+
+      abstract void free(OffHeapArena arena);
+   }
+
+   static final class Leaf extends Ref {
+      final int block;
+
+      Leaf(int block) {
+         this.block = block;
+      }
+
+      void free(OffHeapArena arena) {
+         arena.free(block);
+      }
+   }
+
+   static final class Node extends Ref {
+      final Object[] array;
+
+      Node(Object[] array) {
+         this.array = array;
+      }
+
+      void free(OffHeapArena arena) {
+         for (Object child : array)
+            if (child != null)
+               ((Ref) child).release(arena);
+      }
+   }
+
+   private final OffHeapArena arena;
+   private final int cnt;
+   private final int shift;
+   private final Node root;
+   private final long[] tail;
+   private final AtomicBoolean closed = new AtomicBoolean();
+
+   private OffHeapLongList(OffHeapArena arena, int cnt, int shift, Node root, long[] tail) {
+      this.arena = arena;
+      this.cnt = cnt;
+      this.shift = shift;
+      this.root = root;
+      this.tail = tail;
+   }
+
+   public static OffHeapLongList empty(OffHeapArena arena) {
+      return new OffHeapLongList(arena, 0, 5, new Node(new Object[32]), new long[0]);
+   }
+
+   /**
+    * Builds the list bottom up, writing whole leaves straight into arena blocks.
+    */
+   public static OffHeapLongList create(OffHeapArena arena, long... items) {
+      int cnt = items.length;
+      if (cnt == 0)
+         return empty(arena);
+      int tailLength = ((cnt - 1) & 0x01f) + 1;
+      int tailoff = cnt - tailLength;
+      long[] tail = Arrays.copyOfRange(items, tailoff, cnt);
+      int count = tailoff >>> 5;
+      if (count == 0)
+         return new OffHeapLongList(arena, cnt, 5, new Node(new Object[32]), tail);
+      Object[] nodes = new Object[count];
+      for (int i = 0; i < count; i++)
+         nodes[i] = writeLeaf(arena, items, i << 5);
+      int shift = 5;
+      while (count > 32) {
+         int parents = (count + 31) >>> 5;
+         for (int i = 0; i < parents; i++) {
+            Object[] array = new Object[32];
+            System.arraycopy(nodes, i << 5, array, 0, Math.min(32, count - (i << 5)));
+            nodes[i] = new Node(array);
+         }
+         count = parents;
+         shift += 5;
+      }
+      Object[] array = new Object[32];
+      System.arraycopy(nodes, 0, array, 0, count);
+      return new OffHeapLongList(arena, cnt, shift, new Node(array), tail);
+   }
+
+   private static Leaf writeLeaf(OffHeapArena arena, long[] items, int from) {
+      int block = arena.allocate();
+      for (int j = 0; j < 32; j++)
+         arena.put(block, j, items[from + j]);
+      return new Leaf(block);
+   }
+
+   private void ensureOpen() {
+      if (closed.get())
+         throw new IllegalStateException("List has been closed");
+   }
+
+   /**
+    * Releases this version's hold on its nodes. Blocks no other open version shares go back to the
+    * arena. Closing more than once has no further effect.
+    */
+   @Override
+   public void close() {
+      if (closed.compareAndSet(false, true))
+         root.release(arena);
+   }
+
+   private int tailoff() {
+      if (cnt < 32)
+         return 0;
+      return ((cnt - 1) >>> 5) << 5;
+   }
+
+   private Leaf leafFor(int i) {
+      Node node = root;
+      for (int level = shift; level > 5; level -= 5)
+         node = (Node) node.array[(i >>> level) & 0x01f];
+      return (Leaf) node.array[(i >>> 5) & 0x01f];
+   }
+
+   /**
+    * @throws IndexOutOfBoundsException if index is out of range
+    */
+   public long get(int index) {
+      ensureOpen();
+      if (index < 0 || index >= cnt)
+         throw new IndexOutOfBoundsException();
+      if (index >= tailoff())
+         return tail[index & 0x01f];
+      return arena.get(leafFor(index).block, index & 0x01f);
+   }
+
+   public int size() {
+      return cnt;
+   }
+
+   public boolean isEmpty() {
+      return cnt == 0;
+   }
+
+   public OffHeapLongList with(int i, long val) {
+      ensureOpen();
+      if (i >= 0 && i < cnt) {
+         if (i >= tailoff()) {
+            long[] newTail = tail.clone();
+            newTail[i & 0x01f] = val;
+            root.retain();
+            return new OffHeapLongList(arena, cnt, shift, root, newTail);
+         }
+         return new OffHeapLongList(arena, cnt, shift, doAssoc(shift, root, i, val), tail);
+      }
+      if (i == cnt)
+         return withAppended(val);
+      throw new IndexOutOfBoundsException();
+   }
+
+   /**
+    * Copies node for a new path, taking a reference on every child but the one being replaced.
+    */
+   private static Node copyExcept(Node node, int subidx) {
+      Object[] array = node.array.clone();
+      for (int j = 0; j < 32; j++)
+         if (j != subidx && array[j] != null)
+            ((Ref) array[j]).retain();
+      return new Node(array);
+   }
+
+   private Node doAssoc(int level, Node node, int i, long val) {
+      int subidx = (i >>> level) & 0x01f;
+      Node ret = copyExcept(node, subidx);
+      if (level == 5) {
+         int block = arena.allocate();
+         arena.copy(((Leaf) node.array[subidx]).block, block);
+         arena.put(block, i & 0x01f, val);
+         ret.array[subidx] = new Leaf(block);
+      } else {
+         ret.array[subidx] = doAssoc(level - 5, (Node) node.array[subidx], i, val);
+      }
+      return ret;
+   }
+
+   public OffHeapLongList withAppended(long val) {
+      ensureOpen();
+      //room in tail?
+      if (cnt - tailoff() < 32) {
+         long[] newTail = Arrays.copyOf(tail, tail.length + 1);
+         newTail[tail.length] = val;
+         root.retain();
+         return new OffHeapLongList(arena, cnt + 1, shift, root, newTail);
+      }
+      //full tail, push into tree
+      Node newroot;
+      Leaf tailnode = writeLeaf(arena, tail, 0);
+      int newshift = shift;
+      //overflow root?
+      if ((cnt >>> 5) > (1 << shift)) {
+         root.retain();
+         newroot = new Node(new Object[32]);
+         newroot.array[0] = root;
+         newroot.array[1] = newPath(shift, tailnode);
+         newshift += 5;
+      } else
+         newroot = pushTail(shift, root, tailnode);
+      return new OffHeapLongList(arena, cnt + 1, newshift, newroot, new long[]{val});
+   }
+
+   private static Ref newPath(int level, Ref node) {
+      if (level == 0)
+         return node;
+      Node ret = new Node(new Object[32]);
+      ret.array[0] = newPath(level - 5, node);
+      return ret;
+   }
+
+   private Node pushTail(int level, Node parent, Leaf tailnode) {
+      int subidx = ((cnt - 1) >>> level) & 0x01f;
+      Node ret = copyExcept(parent, subidx);
+      Ref nodeToInsert;
+      if (level == 5) {
+         nodeToInsert = tailnode;
+      } else {
+         Node child = (Node) parent.array[subidx];
+         nodeToInsert = (child != null) ?
+               pushTail(level - 5, child, tailnode)
+               : newPath(level - 5, tailnode);
+      }
+      ret.array[subidx] = nodeToInsert;
+      return ret;
+   }
+
+   public long[] toArray() {
+      ensureOpen();
+      long[] ret = new long[cnt];
+      int tailoff = tailoff();
+      for (int i = 0; i < tailoff; i += 32) {
+         int block = leafFor(i).block;
+         for (int j = 0; j < 32; j++)
+            ret[i + j] = arena.get(block, j);
+      }
+      System.arraycopy(tail, 0, ret, tailoff, cnt - tailoff);
+      return ret;
+   }
+
+   public void forEach(LongConsumer action) {
+      ensureOpen();
+      int tailoff = tailoff();
+      for (int i = 0; i < tailoff; i += 32) {
+         int block = leafFor(i).block;
+         for (int j = 0; j < 32; j++)
+            action.accept(arena.get(block, j));
+      }
+      for (int i = tailoff; i < cnt; i++)
+         action.accept(tail[i & 0x01f]);
+   }
+
+   @Override
+   public String toString() {
+      return Arrays.toString(toArray());
+   }
+}
@@ -0,0 +1,220 @@
+package com.logicalpractice.persistentcollections;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collector;
+
+import com.logicalpractice.persistentcollections.PersistentHashMap.TransientHashMap;
+import com.logicalpractice.persistentcollections.PersistentHashSet.TransientHashSet;
+
+/**
+ * Collectors ending a stream in a persistent collection, accumulating straight into a transient
+ * rather than into an ArrayList or HashMap that then has to be copied.
+ * <p/>
+ * Transients are owned by the thread that created them, while a parallel stream may accumulate,
+ * combine and finish on different threads. Each step claims the transient for the thread running it,
+ * which is safe as the stream framework never lets two threads at one container. Partial sets are
+ * combined by walking both tries with union; partial maps by adding the right half's entries to the
+ * left, as map merge skips the merge function for identical values. Partial lists are only chained
+ * when combined, the finisher then appends them in order sharing every leaf it can, so each element
+ * is copied at most once more however deep the combining goes.
+ */
+public final class PersistentCollectors {
+
+   private static final Set<Collector.Characteristics> NONE = Collections.emptySet();
+
+   private PersistentCollectors() {
+   }
+
+   private static final class Of<T, A, R> implements Collector<T, A, R> {
+      private final Supplier<A> supplier;
+      private final BiConsumer<A, T> accumulator;
+      private final BinaryOperator<A> combiner;
+      private final Function<A, R> finisher;
+
+      Of(Supplier<A> supplier, BiConsumer<A, T> accumulator, BinaryOperator<A> combiner, Function<A, R> finisher) {
+         this.supplier = supplier;
+         this.accumulator = accumulator;
+         this.combiner = combiner;
+         this.finisher = finisher;
+      }
+
+      public Supplier<A> supplier() {
+         return supplier;
+      }
+
+      public BiConsumer<A, T> accumulator() {
+         return accumulator;
+      }
+
+      public BinaryOperator<A> combiner() {
+         return combiner;
+      }
+
+      public Function<A, R> finisher() {
+         return finisher;
+      }
+
+      public Set<Characteristics> characteristics() {
+         return NONE;
+      }
+   }
+
+   /**
+    * The parts of a list collected so far, in encounter order: lists already closed by combining,
+    * then the transient still being accumulated into.
+    */
+   private static final class ListParts<T> {
+      final List<PersistentTreeList<T>> closed = new ArrayList<PersistentTreeList<T>>();
+      TransientTreeList<T> open;
+
+      @SuppressWarnings("unchecked")
+      ListParts() {
+         open = ((PersistentTreeList<T>) PersistentLists.EMPTY).toTransientList();
+      }
+
+      void close() {
+         open.claim();
+         closed.add((PersistentTreeList<T>) open.toPersistentList());
+         open = null;
+      }
+   }
+
+   /**
+    * Collects the elements, in encounter order, into a PersistentTreeList.
+    */
+   public static <T> Collector<T, ?, PersistentList<T>> toList() {
+      return new Of<T, ListParts<T>, PersistentList<T>>(
+            new Supplier<ListParts<T>>() {
+               public ListParts<T> get() {
+                  return new ListParts<T>();
+               }
+            },
+            new BiConsumer<ListParts<T>, T>() {
+               public void accept(ListParts<T> parts, T item) {
+                  parts.open.claim();
+                  parts.open.add(item);
+               }
+            },
+            new BinaryOperator<ListParts<T>>() {
+               public ListParts<T> apply(ListParts<T> left, ListParts<T> right) {
+                  left.close();
+                  left.closed.addAll(right.closed);
+                  left.open = right.open;
+                  return left;
+               }
+            },
+            new Function<ListParts<T>, PersistentList<T>>() {
+               public PersistentList<T> apply(ListParts<T> parts) {
+                  parts.close();
+                  if (parts.closed.size() == 1)
+                     return parts.closed.get(0);
+                  TransientTreeList<T> ret = parts.closed.get(0).toTransientList();
+                  for (int i = 1; i < parts.closed.size(); i++)
+                     ret.appendAll(parts.closed.get(i));
+                  return ret.toPersistentList();
+               }
+            });
+   }
+
+   /**
+    * Collects the elements into a PersistentHashSet.
+    *
+    * @throws IllegalArgumentException from the collect when an element is null
+    */
+   public static <T> Collector<T, ?, PersistentSet<T>> toSet() {
+      return new Of<T, TransientHashSet<T>, PersistentSet<T>>(
+            new Supplier<TransientHashSet<T>>() {
+               public TransientHashSet<T> get() {
+                  return (TransientHashSet<T>) PersistentHashSet.<T>empty().toTransientSet();
+               }
+            },
+            new BiConsumer<TransientHashSet<T>, T>() {
+               public void accept(TransientHashSet<T> set, T item) {
+                  set.claim();
+                  set.add(item);
+               }
+            },
+            new BinaryOperator<TransientHashSet<T>>() {
+               public TransientHashSet<T> apply(TransientHashSet<T> left, TransientHashSet<T> right) {
+                  left.claim();
+                  right.claim();
+                  PersistentHashSet<T> union = ((PersistentHashSet<T>) left.toPersistentSet())
+                        .union((PersistentHashSet<T>) right.toPersistentSet());
+                  return (TransientHashSet<T>) union.toTransientSet();
+               }
+            },
+            new Function<TransientHashSet<T>, PersistentSet<T>>() {
+               public PersistentSet<T> apply(TransientHashSet<T> set) {
+                  set.claim();
+                  return set.toPersistentSet();
+               }
+            });
+   }
+
+   private static <K, V> void put(TransientHashMap<K, V> map, K key, V val, BinaryOperator<V> mergeFunction) {
+      V existing = map.get(key);
+      if (existing != null || map.containsKey(key)) {
+         if (mergeFunction == null)
+            throw new IllegalStateException("Duplicate key " + key
+                  + " (attempted merging values " + existing + " and " + val + ")");
+         val = mergeFunction.apply(existing, val);
+      }
+      map.put(key, val);
+   }
+
+   /**
+    * Collects the elements into a PersistentHashMap, as Collectors.toMap.
+    *
+    * @throws IllegalStateException from the collect when two elements map to the same key
+    */
+   public static <T, K, V> Collector<T, ?, PersistentMap<K, V>> toMap(Function<? super T, ? extends K> keyMapper,
+                                                                     Function<? super T, ? extends V> valueMapper) {
+      return toMap(keyMapper, valueMapper, null);
+   }
+
+   /**
+    * Collects the elements into a PersistentHashMap, as Collectors.toMap. Values for a key already
+    * present are combined with mergeFunction(existing, new).
+    */
+   public static <T, K, V> Collector<T, ?, PersistentMap<K, V>> toMap(final Function<? super T, ? extends K> keyMapper,
+                                                                     final Function<? super T, ? extends V> valueMapper,
+                                                                     final BinaryOperator<V> mergeFunction) {
+      if (keyMapper == null || valueMapper == null)
+         throw new NullPointerException();
+      return new Of<T, TransientHashMap<K, V>, PersistentMap<K, V>>(
+            new Supplier<TransientHashMap<K, V>>() {
+               public TransientHashMap<K, V> get() {
+                  return ((PersistentHashMap<K, V>) PersistentHashMap.<K, V>empty()).toTransientMap();
+               }
+            },
+            new BiConsumer<TransientHashMap<K, V>, T>() {
+               public void accept(TransientHashMap<K, V> map, T item) {
+                  map.claim();
+                  put(map, keyMapper.apply(item), valueMapper.apply(item), mergeFunction);
+               }
+            },
+            new BinaryOperator<TransientHashMap<K, V>>() {
+               public TransientHashMap<K, V> apply(TransientHashMap<K, V> left, TransientHashMap<K, V> right) {
+                  left.claim();
+                  right.claim();
+                  for (Map.Entry<K, V> entry : right.entrySet())
+                     put(left, entry.getKey(), entry.getValue(), mergeFunction);
+                  return left;
+               }
+            },
+            new Function<TransientHashMap<K, V>, PersistentMap<K, V>>() {
+               public PersistentMap<K, V> apply(TransientHashMap<K, V> map) {
+                  map.claim();
+                  return map.toPersistentMap();
+               }
+            });
+   }
+}
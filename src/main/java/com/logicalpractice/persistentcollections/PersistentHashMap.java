@@ -4,11 +4,20 @@ package com.logicalpractice.persistentcollections;
 //import clojure.lang.Cons;
 //import clojure.lang.ISeq;
 
-import clojure.lang.ISeq;
-
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.IntUnaryOperator;
+import java.util.function.Predicate;
 
 //import clojure.lang.IMapEntry;
 //import clojure.lang.TransientMap;
@@ -27,15 +36,19 @@ import java.util.concurrent.atomic.AtomicReference;
  * No sub-tree pools or root-resizing
  * Any errors are my own
  *
- *
+ * <p/>
+ * Keys are hashed and compared by a Hasher, by default Hashers.STANDARD which mixes hashCode so
+ * that keys differing only in their high bits still spread across the trie rather than piling into
+ * a few slots and HashCollisionNodes. Give empty or create another hasher for keys whose own
+ * hashCode and equals don't suit, such as byte arrays.
  */
-public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements PersistentMap<K, V> {
+public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements PersistentMap<K, V>, Serializable {
 
    private static class MapEntry<K, V> implements Entry<K, V> {
       private final K key;
       private final V value;
 
-      private MapEntry(K key, V value) {
+      MapEntry(K key, V value) {
          this.key = key;
          this.value = value;
       }
@@ -56,18 +69,18 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
       @Override
       public boolean equals(Object o) {
          if (this == o) return true;
-         if (o == null || getClass() != o.getClass()) return false;
 
-         MapEntry mapEntry = (MapEntry) o;
+         if (!(o instanceof Entry)) return false;
+
+         Entry entry = (Entry) o;
 
-         return key.equals(mapEntry.key) && !(value != null ? !value.equals(mapEntry.value) : mapEntry.value != null);
+         return Util.equals(key, entry.getKey()) && Util.equals(value, entry.getValue());
       }
 
       @Override
       public int hashCode() {
-         int result = key.hashCode();
-         result = 31 * result + (value != null ? value.hashCode() : 0);
-         return result;
+         // as specified by Map.Entry so we compare equal with other maps
+         return (key != null ? key.hashCode() : 0) ^ (value != null ? value.hashCode() : 0);
       }
 
       @Override
@@ -92,18 +105,41 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
    private final MapNode root;
    private final boolean hasNull;
    private final Object nullValue;
+   private final Hasher hasher;
 
-   private final static PersistentHashMap EMPTY = new PersistentHashMap(0, null, false, null);
+   private final static PersistentHashMap EMPTY = new PersistentHashMap(0, null, false, null, Hashers.STANDARD);
 
    private final static Object NOT_FOUND = new Object();
 
+   // the value of every key held in a key only node, see BitmapIndexedKeyNode
+   final static Object PRESENT = new Object();
+
+   // entries a fold task handles itself before splitting, the same default as clojure's fold
+   private final static int FOLD_THRESHOLD = 512;
+
+   // below this many entries createParallel hands over to create
+   final static int PARALLEL_THRESHOLD = 8192;
+
    @SuppressWarnings("unchecked")
-   private static <K, V> PersistentMap<K, V> empty() {
+   static <K, V> PersistentMap<K, V> empty() {
       return EMPTY;
    }
 
+   /**
+    * An empty map hashing and comparing its keys with hasher rather than hashCode and equals.
+    */
+   public static <K, V> PersistentHashMap<K, V> empty(Hasher<? super K> hasher) {
+      if (hasher == null)
+         throw new NullPointerException();
+      return new PersistentHashMap<K, V>(0, null, false, null, hasher);
+   }
+
    public static <K, V> PersistentMap<K, V> create(Map<K, V> other) {
-      TransientMap<K, V> ret = PersistentHashMap.<K, V>empty().toTransientMap();
+      return create(other, Hashers.STANDARD);
+   }
+
+   public static <K, V> PersistentMap<K, V> create(Map<K, V> other, Hasher<? super K> hasher) {
+      TransientMap<K, V> ret = PersistentHashMap.<K, V>empty(hasher).toTransientMap();
 
       for (Entry<K, V> entry : other.entrySet()) {
          ret.put(entry.getKey(), entry.getValue());
@@ -111,19 +147,93 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
       return ret.toPersistentMap();
    }
 
+   /**
+    * As create, but spreading the work over the common ForkJoinPool. Keys are hashed in parallel and
+    * bucketed by their root level slot, then each of the 32 slots is built as its own subtree by a
+    * separate task with its own edit, so the tasks never touch a shared node and the root ArrayNode
+    * is assembled from their results without any merging. Maps smaller than PARALLEL_THRESHOLD are
+    * built by create.
+    */
+   public static <K, V> PersistentMap<K, V> createParallel(Map<K, V> other) {
+      return createParallel(other, Hashers.STANDARD);
+   }
 
-   PersistentHashMap(int count, MapNode root, boolean hasNull, Object nullValue) {
+   @SuppressWarnings("unchecked")
+   public static <K, V> PersistentMap<K, V> createParallel(Map<K, V> other, final Hasher<? super K> hasher) {
+      if (other.size() < PARALLEL_THRESHOLD)
+         return create(other, hasher);
+      final Object[] entries = other.entrySet().toArray();
+      final int[] hashes = new int[entries.length];
+      Arrays.parallelSetAll(hashes, new IntUnaryOperator() {
+         @Override
+         public int applyAsInt(int i) {
+            K key = ((Entry<K, V>) entries[i]).getKey();
+            return key == null ? 0 : hasher.hash(key);
+         }
+      });
+
+      // counting sort of the entry indexes by root slot, leaving the null key out
+      boolean hasNull = false;
+      Object nullValue = null;
+      int[] starts = new int[33];
+      for (int i = 0; i < entries.length; i++) {
+         if (((Entry) entries[i]).getKey() == null) {
+            hasNull = true;
+            nullValue = ((Entry) entries[i]).getValue();
+         } else
+            starts[mask(hashes[i], 0) + 1]++;
+      }
+      for (int slot = 0; slot < 32; slot++)
+         starts[slot + 1] += starts[slot];
+      int[] order = new int[starts[32]];
+      int[] fill = Arrays.copyOf(starts, 32);
+      for (int i = 0; i < entries.length; i++)
+         if (((Entry) entries[i]).getKey() != null)
+            order[fill[mask(hashes[i], 0)]++] = i;
+
+      final List<SlotTask> tasks = new ArrayList<SlotTask>();
+      for (int slot = 0; slot < 32; slot++)
+         if (starts[slot] != starts[slot + 1])
+            tasks.add(new SlotTask(hasher, slot, entries, hashes, order, starts[slot], starts[slot + 1]));
+      ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+         @Override
+         protected void compute() {
+            invokeAll(tasks);
+         }
+      });
+
+      MapNode[] nodes = new MapNode[32];
+      int count = 0;
+      for (SlotTask task : tasks) {
+         nodes[task.slot] = task.node;
+         count += task.count;
+      }
+      MapNode root = tasks.isEmpty() ? null : new ArrayNode(null, tasks.size(), nodes);
+      return new PersistentHashMap<K, V>(hasNull ? count + 1 : count, root, hasNull, nullValue, hasher);
+   }
+
+
+   PersistentHashMap(int count, MapNode root, boolean hasNull, Object nullValue, Hasher hasher) {
       this.count = count;
       this.root = root;
       this.hasNull = hasNull;
       this.nullValue = nullValue;
+      this.hasher = hasher;
+   }
+
+   /**
+    * @return the hasher the keys are hashed and compared with, Hashers.STANDARD unless given
+    */
+   @SuppressWarnings("unchecked")
+   public Hasher<? super K> hasher() {
+      return hasher;
    }
 
    public boolean containsKey(Object key) {
       if (key == null)
          return hasNull;
 
-      return (root != null) && root.find(0, Util.hashCode(key), key, NOT_FOUND) != NOT_FOUND;
+      return (root != null) && root.find(hasher, 0, hasher.hash(key), key, NOT_FOUND) != NOT_FOUND;
    }
 
 //public Map.Entry<K,V> entryAt(Object key){
@@ -138,18 +248,18 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
       }
       Box addedLeaf = new Box(null);
       MapNode newroot = (root == null ? BitmapIndexedNode.EMPTY : root)
-            .assoc(0, Util.hashCode(key), key, val, addedLeaf);
+            .assoc(hasher, 0, hasher.hash(key), key, val, addedLeaf);
       if (newroot == root)
          return this;
-      return new PersistentHashMap<K, V>(addedLeaf.val == null ? count : count + 1, newroot, hasNull, nullValue);
+      return new PersistentHashMap<K, V>(addedLeaf.val == null ? count : count + 1, newroot, hasNull, nullValue, hasher);
    }
 
    @SuppressWarnings("unchecked")
    public V get(Object key) {
       if (key == null)
-         return null; // cannot contain null
+         return hasNull ? (V) nullValue : null;
 
-      return root != null ? (V) root.find(0, Util.hashCode(key), key, null) : null;
+      return root != null ? (V) root.find(hasher, 0, hasher.hash(key), key, null) : null;
    }
    //public Object valAt(Object key, Object notFound){
    //	if(key == null)
@@ -169,11 +279,11 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
       if (root == null)
          return this;
 
-      MapNode newroot = root.without(0, Util.hashCode(key), key);
+      MapNode newroot = root.without(hasher, 0, hasher.hash(key), key);
       if (newroot == root)
          return this;
 
-      return new PersistentHashMap<K, V>(count - 1, newroot, hasNull, nullValue);
+      return new PersistentHashMap<K, V>(count - 1, newroot, hasNull, nullValue, hasher);
    }
 
 //public Iterator iterator(){
@@ -189,16 +299,299 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
       return new AbstractSet<Entry<K, V>>() {
          @Override
          public Iterator<Entry<K, V>> iterator() {
-            return PersistentHashMap.this.root.iterator();
+            return new EntryIterator<K, V>(root, hasNull, nullValue);
+         }
+
+         @Override
+         public Spliterator<Entry<K, V>> spliterator() {
+            return new NodeSpliterator<Entry<K, V>>(root, hasNull, nullValue, count, Spliterator.DISTINCT,
+                  new BiFunction<Object, Object, Entry<K, V>>() {
+                     @SuppressWarnings("unchecked")
+                     @Override
+                     public Entry<K, V> apply(Object key, Object val) {
+                        return new MapEntry<K, V>((K) key, (V) val);
+                     }
+                  });
          }
 
          @Override
          public int size() {
-            return PersistentHashMap.this.size();
+            return count;
          }
       };
    }
 
+   @Override
+   public Set<K> keySet() {
+      return new AbstractSet<K>() {
+         @Override
+         public Iterator<K> iterator() {
+            return new KeyIterator<K>(root, hasNull, nullValue);
+         }
+
+         @Override
+         public Spliterator<K> spliterator() {
+            return new NodeSpliterator<K>(root, hasNull, nullValue, count, Spliterator.DISTINCT,
+                  new BiFunction<Object, Object, K>() {
+                     @SuppressWarnings("unchecked")
+                     @Override
+                     public K apply(Object key, Object val) {
+                        return (K) key;
+                     }
+                  });
+         }
+
+         @Override
+         public boolean contains(Object o) {
+            return containsKey(o);
+         }
+
+         @Override
+         public int size() {
+            return count;
+         }
+      };
+   }
+
+   @Override
+   public Collection<V> values() {
+      return new AbstractCollection<V>() {
+         @Override
+         public Iterator<V> iterator() {
+            return new ValueIterator<V>(root, hasNull, nullValue);
+         }
+
+         @Override
+         public Spliterator<V> spliterator() {
+            return new NodeSpliterator<V>(root, hasNull, nullValue, count, 0,
+                  new BiFunction<Object, Object, V>() {
+                     @SuppressWarnings("unchecked")
+                     @Override
+                     public V apply(Object key, Object val) {
+                        return (V) val;
+                     }
+                  });
+         }
+
+         @Override
+         public int size() {
+            return count;
+         }
+      };
+   }
+
+   @SuppressWarnings("unchecked")
+   @Override
+   public void forEach(BiConsumer<? super K, ? super V> action) {
+      if (action == null)
+         throw new NullPointerException();
+      if (hasNull)
+         action.accept(null, (V) nullValue);
+      NodeIterator cursor = new NodeIterator(root);
+      while (cursor.advance())
+         action.accept((K) cursor.key, (V) cursor.val);
+   }
+
+   /**
+    * Applies the action to every entry, splitting the trie along its node children and running the
+    * parts on the common ForkJoinPool. The action is called concurrently and in no particular order.
+    */
+   public void parallelForEach(final BiConsumer<? super K, ? super V> action) {
+      if (action == null)
+         throw new NullPointerException();
+      fold(null, new EntryReducer<Object>() {
+         @SuppressWarnings("unchecked")
+         @Override
+         public Object apply(Object acc, Object key, Object val) {
+            action.accept((K) key, (V) val);
+            return null;
+         }
+      }, new BinaryOperator<Object>() {
+         @Override
+         public Object apply(Object left, Object right) {
+            return null;
+         }
+      });
+   }
+
+   /**
+    * Parallel reduction in the style of clojure's reducers fold. The trie is split along its node
+    * children, each part is reduced from identity on the common ForkJoinPool and the partial results
+    * are joined with the combiner. As with Stream.reduce, identity must be an identity for the combiner
+    * and the combiner must be associative.
+    */
+   public <R> R fold(R identity, final BiFunction<R, ? super Entry<K, V>, R> reducer, BinaryOperator<R> combiner) {
+      if (reducer == null || combiner == null)
+         throw new NullPointerException();
+      return fold(identity, new EntryReducer<R>() {
+         @SuppressWarnings("unchecked")
+         @Override
+         public R apply(R acc, Object key, Object val) {
+            return reducer.apply(acc, new MapEntry<K, V>((K) key, (V) val));
+         }
+      }, combiner);
+   }
+
+   /**
+    * Walks the node arrays directly, without an iterator or any Entry objects.
+    */
+   @SuppressWarnings("unchecked")
+   @Override
+   public <R> R reduce(R init, EntryFunction<R, ? super K, ? super V> fn) {
+      R acc = init;
+      if (hasNull)
+         acc = fn.apply(acc, null, (V) nullValue);
+      return root == null ? acc : (R) reduceNode(root, acc, fn, null, null);
+   }
+
+   @SuppressWarnings("unchecked")
+   @Override
+   public <R> R reduce(R init, EntryFunction<R, ? super K, ? super V> fn, Predicate<? super R> done) {
+      R acc = init;
+      if (done.test(acc))
+         return acc;
+      if (hasNull) {
+         acc = fn.apply(acc, null, (V) nullValue);
+         if (done.test(acc))
+            return acc;
+      }
+      return root == null ? acc : (R) reduceNode(root, acc, fn, done, new Box(null));
+   }
+
+   /**
+    * Reduces the entries under node in iteration order. Once done accepts, stopped.val is set so the
+    * callers further up unwind without visiting anything more.
+    */
+   @SuppressWarnings("unchecked")
+   private static Object reduceNode(MapNode node, Object acc, EntryFunction fn, Predicate done, Box stopped) {
+      if (node instanceof ArrayNode) {
+         for (MapNode child : ((ArrayNode) node).array) {
+            if (child != null) {
+               acc = reduceNode(child, acc, fn, done, stopped);
+               if (stopped != null && stopped.val != null)
+                  return acc;
+            }
+         }
+      } else if (node instanceof BitmapIndexedNode) {
+         Object[] array = ((BitmapIndexedNode) node).array;
+         for (int i = 0; i < array.length; i += 2) {
+            Object key = array[i];
+            if (key != null) {
+               acc = fn.apply(acc, key, array[i + 1]);
+               if (done != null && done.test(acc)) {
+                  stopped.val = stopped;
+                  return acc;
+               }
+            } else if (array[i + 1] != null) {
+               acc = reduceNode((MapNode) array[i + 1], acc, fn, done, stopped);
+               if (stopped != null && stopped.val != null)
+                  return acc;
+            }
+         }
+      } else {
+         HashCollisionNode collisions = (HashCollisionNode) node;
+         Object[] array = collisions.array;
+         for (int i = 0; i < 2 * collisions.count; i += 2) {
+            acc = fn.apply(acc, array[i], array[i + 1]);
+            if (done != null && done.test(acc)) {
+               stopped.val = stopped;
+               return acc;
+            }
+         }
+      }
+      return acc;
+   }
+
+   private <R> R fold(R identity, EntryReducer<R> reducer, BinaryOperator<R> combiner) {
+      R result = ForkJoinPool.commonPool().invoke(new FoldTask<R>(new NodeIterator(root), count, identity, reducer, combiner));
+      if (hasNull)
+         result = combiner.apply(reducer.apply(identity, null, nullValue), result);
+      return result;
+   }
+
+   /**
+    * All the entries of this map and other, walking both tries together rather than adding other's
+    * entries one at a time. Where both maps have a key the value is resolver(this value, other value),
+    * unless the two values are the same instance. Subtrees the maps share are reused without being
+    * visited, so merging maps derived from a common ancestor costs roughly the size of their
+    * differences. A map with another hasher is added an entry at a time, keys matching by this map's.
+    */
+   @SuppressWarnings("unchecked")
+   public PersistentHashMap<K, V> merge(PersistentMap<? extends K, ? extends V> other, BiFunction<? super V, ? super V, ? extends V> resolver) {
+      if (resolver == null)
+         throw new NullPointerException();
+      if (!(other instanceof PersistentHashMap) || ((PersistentHashMap) other).hasher != hasher) {
+         TransientHashMap<K, V> ret = toTransientMap();
+         for (Entry<? extends K, ? extends V> entry : other.entrySet()) {
+            Object current = ret.doValAt(entry.getKey(), NOT_FOUND);
+            V val = entry.getValue();
+            if (current != NOT_FOUND && current != val)
+               val = resolver.apply((V) current, val);
+            ret.doAssoc(entry.getKey(), val);
+         }
+         return (PersistentHashMap<K, V>) ret.toPersistentMap();
+      }
+      PersistentHashMap<? extends K, ? extends V> that = (PersistentHashMap<? extends K, ? extends V>) other;
+      BiFunction<Object, Object, Object> resolve = (BiFunction<Object, Object, Object>) resolver;
+      Count added = new Count();
+      MapNode newroot;
+      if (that.root == null)
+         newroot = root;
+      else if (root == null) {
+         newroot = that.root;
+         added.n = that.count - (that.hasNull ? 1 : 0);
+      } else
+         newroot = mergeNodes(hasher, root, that.root, 0, resolve, added);
+      Object newNullValue = nullValue;
+      if (that.hasNull) {
+         if (!hasNull)
+            added.n++;
+         newNullValue = !hasNull || nullValue == that.nullValue ? that.nullValue : resolve.apply(nullValue, that.nullValue);
+      }
+      if (added.n == 0 && newroot == root && newNullValue == nullValue)
+         return this;
+      return new PersistentHashMap<K, V>(count + added.n, newroot, hasNull || that.hasNull, newNullValue, hasher);
+   }
+
+   /**
+    * Receives the differences found by diff.
+    */
+   public interface DiffVisitor<K, V> {
+      void added(K key, V value);
+
+      void removed(K key, V value);
+
+      void changed(K key, V oldValue, V newValue);
+   }
+
+   /**
+    * Reports the entries added, removed and changed going from this map to other. Subtrees the two
+    * maps share are skipped without being visited, so diffing one snapshot against another derived
+    * from it costs roughly the number of edits between them rather than the size of the map. Values
+    * are compared with equals, and when the maps' hashers differ keys are matched by this map's.
+    */
+   @SuppressWarnings("unchecked")
+   public void diff(PersistentHashMap<K, V> other, DiffVisitor<? super K, ? super V> visitor) {
+      if (visitor == null)
+         throw new NullPointerException();
+      DiffVisitor<Object, Object> v = (DiffVisitor<Object, Object>) visitor;
+      if (other.hasher != hasher)
+         other = (PersistentHashMap<K, V>) create(other, hasher);
+      if (hasNull && other.hasNull) {
+         if (!Util.equals(nullValue, other.nullValue))
+            v.changed(null, nullValue, other.nullValue);
+      } else if (hasNull) {
+         v.removed(null, nullValue);
+      } else if (other.hasNull) {
+         v.added(null, other.nullValue);
+      }
+      if (root == null || other.root == null) {
+         reportAll(root, v, true);
+         reportAll(other.root, v, false);
+      } else
+         diffNodes(hasher, root, other.root, 0, v);
+   }
+
 //   public ISeq seq() {
 //      ISeq s = root != null ? root.nodeSeq() : null;
 //      return hasNull ? new Cons(new MapEntry(null, nullValue), s) : s;
@@ -223,19 +616,58 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
       int count;
       boolean hasNull;
       Object nullValue;
+      final Hasher hasher;
       final Box leafFlag = new Box(null);
 
 
       TransientHashMap(PersistentHashMap m) {
-         this(new AtomicReference<Thread>(Thread.currentThread()), m.root, m.count, m.hasNull, m.nullValue);
+         this(new AtomicReference<Thread>(Thread.currentThread()), m.root, m.count, m.hasNull, m.nullValue, m.hasher);
       }
 
-      TransientHashMap(AtomicReference<Thread> edit, MapNode root, int count, boolean hasNull, Object nullValue) {
+      TransientHashMap(AtomicReference<Thread> edit, MapNode root, int count, boolean hasNull, Object nullValue, Hasher hasher) {
          this.edit = edit;
          this.root = root;
          this.count = count;
          this.hasNull = hasNull;
          this.nullValue = nullValue;
+         this.hasher = hasher;
+      }
+
+      @SuppressWarnings("unchecked")
+      @Override
+      public V put(K key, V value) {
+         ensureEditable();
+         V previous = (V) doValAt(key, null);
+         doAssoc(key, value);
+         return previous;
+      }
+
+      @SuppressWarnings("unchecked")
+      @Override
+      public V get(Object key) {
+         ensureEditable();
+         return (V) doValAt(key, null);
+      }
+
+      @Override
+      public boolean containsKey(Object key) {
+         ensureEditable();
+         return doValAt(key, NOT_FOUND) != NOT_FOUND;
+      }
+
+      @SuppressWarnings("unchecked")
+      @Override
+      public V remove(Object key) {
+         ensureEditable();
+         V previous = (V) doValAt(key, null);
+         doWithout(key);
+         return previous;
+      }
+
+      @Override
+      public int size() {
+         ensureEditable();
+         return count;
       }
 
       TransientMap doAssoc(Object key, Object val) {
@@ -251,7 +683,7 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
 //		Box leafFlag = new Box(null);
          leafFlag.val = null;
          MapNode n = (root == null ? BitmapIndexedNode.EMPTY : root)
-               .assoc(edit, 0, Util.hashCode(key), key, val, leafFlag);
+               .assoc(edit, hasher, 0, hasher.hash(key), key, val, leafFlag);
          if (n != this.root)
             this.root = n;
          if (leafFlag.val != null) this.count++;
@@ -269,7 +701,7 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
          if (root == null) return this;
 //		Box leafFlag = new Box(null);
          leafFlag.val = null;
-         MapNode n = root.without(edit, 0, Util.hashCode(key), key, leafFlag);
+         MapNode n = root.without(edit, hasher, 0, hasher.hash(key), key, leafFlag);
          if (n != root)
             this.root = n;
          if (leafFlag.val != null) this.count--;
@@ -279,7 +711,7 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
       @Override
       public PersistentMap<K,V> toPersistentMap() {
          edit.set(null);
-         return new PersistentHashMap(count, root, hasNull, nullValue);
+         return new PersistentHashMap(count, root, hasNull, nullValue, hasher);
       }
 
       Object doValAt(Object key, Object notFound) {
@@ -289,8 +721,8 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
             else
                return notFound;
          if (root == null)
-            return null;
-         return root.find(0, Util.hashCode(key), key, notFound);
+            return notFound;
+         return root.find(hasher, 0, hasher.hash(key), key, notFound);
       }
 
       int doCount() {
@@ -306,11 +738,23 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
          throw new IllegalAccessError("Transient used after persistent! call");
       }
 
+      /**
+       * Makes the calling thread the owner, see TransientTreeList.claim.
+       */
+      void claim() {
+         Thread owner = edit.get();
+         if (owner == null)
+            throw new IllegalAccessError("Transient used after persistent! call");
+         if (owner != Thread.currentThread())
+            edit.set(Thread.currentThread());
+      }
+
       public Set<Map.Entry<K,V>> entrySet(){
          return new AbstractSet<Entry<K, V>>() {
             @Override
             public Iterator<Entry<K, V>> iterator() {
-               return TransientHashMap.this.root.iterator();
+               ensureEditable();
+               return new EntryIterator<K, V>(root, hasNull, nullValue);
             }
             @Override
             public int size() {
@@ -322,21 +766,22 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
 
    static interface MapNode<K, V> extends Serializable {
 
-      MapNode<K, V> assoc(int shift, int hash, K key, V val, Box addedLeaf);
+      MapNode<K, V> assoc(Hasher h, int shift, int hash, K key, V val, Box addedLeaf);
 
-      MapNode<K, V> without(int shift, int hash, K key);
+      MapNode<K, V> without(Hasher h, int shift, int hash, K key);
 
-      MapNode<K, V> without(AtomicReference<Thread> edit, int shift, int hash, K key, Box removedLeaf);
+      MapNode<K, V> without(AtomicReference<Thread> edit, Hasher h, int shift, int hash, K key, Box removedLeaf);
 
-      Map.Entry<K, V> find(int shift, int hash, Object key);
+      Map.Entry<K, V> find(Hasher h, int shift, int hash, Object key);
 
-      V find(int shift, int hash, Object key, V notFound);
+      V find(Hasher h, int shift, int hash, Object key, V notFound);
 
-      ISeq nodeSeq();
+      /**
+       * Pushes the array this node iterates over onto the cursor's stack.
+       */
+      void pushFrame(NodeIterator cursor);
 
-      Iterator<Map.Entry<K,V>> iterator();
-
-      MapNode<K, V> assoc(AtomicReference<Thread> edit, int shift, int hash, K key, V val, Box addedLeaf);
+      MapNode<K, V> assoc(AtomicReference<Thread> edit, Hasher h, int shift, int hash, K key, V val, Box addedLeaf);
 
    }
 
@@ -351,23 +796,23 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
          this.count = count;
       }
 
-      public MapNode<K, V> assoc(int shift, int hash, K key, V val, Box addedLeaf) {
+      public MapNode<K, V> assoc(Hasher h, int shift, int hash, K key, V val, Box addedLeaf) {
          int idx = mask(hash, shift);
          MapNode<K, V> node = array[idx];
          if (node == null)
-            return new ArrayNode<K, V>(null, count + 1, cloneAndSet(array, idx, BitmapIndexedNode.<K, V>empty().assoc(shift + 5, hash, key, val, addedLeaf)));
-         MapNode<K, V> n = node.assoc(shift + 5, hash, key, val, addedLeaf);
+            return new ArrayNode<K, V>(null, count + 1, cloneAndSet(array, idx, BitmapIndexedNode.<K, V>empty().assoc(h, shift + 5, hash, key, val, addedLeaf)));
+         MapNode<K, V> n = node.assoc(h, shift + 5, hash, key, val, addedLeaf);
          if (n == node)
             return this;
          return new ArrayNode<K, V>(null, count, cloneAndSet(array, idx, n));
       }
 
-      public MapNode<K, V> without(int shift, int hash, K key) {
+      public MapNode<K, V> without(Hasher h, int shift, int hash, K key) {
          int idx = mask(hash, shift);
          MapNode<K, V> node = array[idx];
          if (node == null)
             return this;
-         MapNode<K, V> n = node.without(shift + 5, hash, key);
+         MapNode<K, V> n = node.without(h, shift + 5, hash, key);
          if (n == node)
             return this;
          if (n == null) {
@@ -378,30 +823,24 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
             return new ArrayNode<K, V>(null, count, cloneAndSet(array, idx, n));
       }
 
-      public Map.Entry<K, V> find(int shift, int hash, Object key) {
+      public Map.Entry<K, V> find(Hasher h, int shift, int hash, Object key) {
          int idx = mask(hash, shift);
          MapNode<K, V> node = array[idx];
          if (node == null)
             return null;
-         return node.find(shift + 5, hash, key);
+         return node.find(h, shift + 5, hash, key);
       }
 
-      public V find(int shift, int hash, Object key, V notFound) {
+      public V find(Hasher h, int shift, int hash, Object key, V notFound) {
          int idx = mask(hash, shift);
          MapNode<K, V> node = array[idx];
          if (node == null)
             return notFound;
-         return node.find(shift + 5, hash, key, notFound);
+         return node.find(h, shift + 5, hash, key, notFound);
       }
 
-      public ISeq nodeSeq() {
-         //return PersistentTreeMap.Seq.create(array);
-         throw new UnsupportedOperationException();
-      }
-
-      @Override
-      public Iterator<Map.Entry<K,V>> iterator() {
-         throw new UnsupportedOperationException();
+      public void pushFrame(NodeIterator cursor) {
+         cursor.push(array, array.length, 1);
       }
 
       private ArrayNode<K, V> ensureEditable(AtomicReference<Thread> edit) {
@@ -436,26 +875,26 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
          return new BitmapIndexedNode<K, V>(edit, bitmap, newArray);
       }
 
-      public MapNode<K, V> assoc(AtomicReference<Thread> edit, int shift, int hash, K key, V val, Box addedLeaf) {
+      public MapNode<K, V> assoc(AtomicReference<Thread> edit, Hasher h, int shift, int hash, K key, V val, Box addedLeaf) {
          int idx = mask(hash, shift);
          MapNode<K, V> node = array[idx];
          if (node == null) {
-            ArrayNode<K, V> editable = editAndSet(edit, idx, BitmapIndexedNode.<K, V>empty().assoc(edit, shift + 5, hash, key, val, addedLeaf));
+            ArrayNode<K, V> editable = editAndSet(edit, idx, BitmapIndexedNode.<K, V>empty().assoc(edit, h, shift + 5, hash, key, val, addedLeaf));
             editable.count++;
             return editable;
          }
-         MapNode<K, V> n = node.assoc(edit, shift + 5, hash, key, val, addedLeaf);
+         MapNode<K, V> n = node.assoc(edit, h, shift + 5, hash, key, val, addedLeaf);
          if (n == node)
             return this;
          return editAndSet(edit, idx, n);
       }
 
-      public MapNode<K, V> without(AtomicReference<Thread> edit, int shift, int hash, K key, Box removedLeaf) {
+      public MapNode<K, V> without(AtomicReference<Thread> edit, Hasher h, int shift, int hash, K key, Box removedLeaf) {
          int idx = mask(hash, shift);
          MapNode<K, V> node = array[idx];
          if (node == null)
             return this;
-         MapNode<K, V> n = node.without(edit, shift + 5, hash, key, removedLeaf);
+         MapNode<K, V> n = node.without(edit, h, shift + 5, hash, key, removedLeaf);
          if (n == node)
             return this;
          if (n == null) {
@@ -482,11 +921,6 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
       Object[] array;
       final AtomicReference<Thread> edit;
 
-      @Override
-      public Iterator<Map.Entry<K,V>> iterator() {
-         throw new UnsupportedOperationException();
-      }
-
       final int index(int bit) {
          return Integer.bitCount(bitmap & (bit - 1));
       }
@@ -497,19 +931,19 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
          this.edit = edit;
       }
 
-      public MapNode<K, V> assoc(int shift, int hash, K key, V val, Box addedLeaf) {
+      public MapNode<K, V> assoc(Hasher h, int shift, int hash, K key, V val, Box addedLeaf) {
          int bit = bitpos(hash, shift);
          int idx = index(bit);
          if ((bitmap & bit) != 0) {
             Object keyOrNull = array[2 * idx];
             Object valOrNode = array[2 * idx + 1];
             if (keyOrNull == null) {
-               MapNode<K, V> n = ((MapNode<K, V>) valOrNode).assoc(shift + 5, hash, key, val, addedLeaf);
+               MapNode<K, V> n = ((MapNode<K, V>) valOrNode).assoc(h, shift + 5, hash, key, val, addedLeaf);
                if (n == valOrNode)
                   return this;
                return new BitmapIndexedNode<K, V>(null, bitmap, cloneAndSet(array, 2 * idx + 1, n));
             }
-            if (Util.equals(key, keyOrNull)) {
+            if (h.equivalent(key, keyOrNull)) {
                if (val == valOrNode)
                   return this;
                return new BitmapIndexedNode<K, V>(null, bitmap, cloneAndSet(array, 2 * idx + 1, val));
@@ -518,20 +952,20 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
             return new BitmapIndexedNode<K, V>(null, bitmap,
                   cloneAndSet(array,
                         2 * idx, null,
-                        2 * idx + 1, createNode(shift + 5, keyOrNull, valOrNode, hash, key, val)));
+                        2 * idx + 1, createNode(h, shift + 5, keyOrNull, valOrNode, hash, key, val)));
          } else {
             int n = Integer.bitCount(bitmap);
             if (n >= 16) {
                MapNode<K, V>[] nodes = new MapNode[32];
                int jdx = mask(hash, shift);
-               nodes[jdx] = BitmapIndexedNode.<K, V>empty().assoc(shift + 5, hash, key, val, addedLeaf);
+               nodes[jdx] = BitmapIndexedNode.<K, V>empty().assoc(h, shift + 5, hash, key, val, addedLeaf);
                int j = 0;
                for (int i = 0; i < 32; i++)
                   if (((bitmap >>> i) & 1) != 0) {
                      if (array[j] == null)
                         nodes[i] = (MapNode<K, V>) array[j + 1];
                      else
-                        nodes[i] = BitmapIndexedNode.<K, V>empty().assoc(shift + 5, Util.hashCode(array[j]), (K) array[j], (V) array[j + 1], addedLeaf);
+                        nodes[i] = BitmapIndexedNode.<K, V>empty().assoc(h, shift + 5, h.hash(array[j]), (K) array[j], (V) array[j + 1], addedLeaf);
                      j += 2;
                   }
                return new ArrayNode<K, V>(null, n + 1, nodes);
@@ -547,7 +981,7 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
          }
       }
 
-      public MapNode<K, V> without(int shift, int hash, K key) {
+      public MapNode<K, V> without(Hasher h, int shift, int hash, K key) {
          int bit = bitpos(hash, shift);
          if ((bitmap & bit) == 0)
             return this;
@@ -555,7 +989,7 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
          Object keyOrNull = array[2 * idx];
          Object valOrNode = array[2 * idx + 1];
          if (keyOrNull == null) {
-            MapNode<K, V> n = ((MapNode<K, V>) valOrNode).without(shift + 5, hash, key);
+            MapNode<K, V> n = ((MapNode<K, V>) valOrNode).without(h, shift + 5, hash, key);
             if (n == valOrNode)
                return this;
             if (n != null)
@@ -564,13 +998,13 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
                return null;
             return new BitmapIndexedNode<K, V>(null, bitmap ^ bit, removePair(array, idx));
          }
-         if (Util.equals(key, keyOrNull))
+         if (h.equivalent(key, keyOrNull))
             // TODO: collapse
             return new BitmapIndexedNode<K, V>(null, bitmap ^ bit, removePair(array, idx));
          return this;
       }
 
-      public Map.Entry<K, V> find(int shift, int hash, Object key) {
+      public Map.Entry<K, V> find(Hasher h, int shift, int hash, Object key) {
          int bit = bitpos(hash, shift);
          if ((bitmap & bit) == 0)
             return null;
@@ -578,13 +1012,13 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
          Object keyOrNull = array[2 * idx];
          Object valOrNode = array[2 * idx + 1];
          if (keyOrNull == null)
-            return ((MapNode<K, V>) valOrNode).find(shift + 5, hash, key);
-         if (Util.equals(key, keyOrNull))
+            return ((MapNode<K, V>) valOrNode).find(h, shift + 5, hash, key);
+         if (h.equivalent(key, keyOrNull))
             return new MapEntry<K, V>((K) keyOrNull, (V) valOrNode);
          return null;
       }
 
-      public V find(int shift, int hash, Object key, V notFound) {
+      public V find(Hasher h, int shift, int hash, Object key, V notFound) {
          int bit = bitpos(hash, shift);
          if ((bitmap & bit) == 0)
             return notFound;
@@ -592,15 +1026,14 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
          Object keyOrNull = array[2 * idx];
          Object valOrNode = array[2 * idx + 1];
          if (keyOrNull == null)
-            return ((MapNode<K, V>) valOrNode).find(shift + 5, hash, key, notFound);
-         if (Util.equals(key, keyOrNull))
+            return ((MapNode<K, V>) valOrNode).find(h, shift + 5, hash, key, notFound);
+         if (h.equivalent(key, keyOrNull))
             return (V) valOrNode;
          return notFound;
       }
 
-      public ISeq nodeSeq() {
-//		return NodeSeq.create(array);
-         throw new UnsupportedOperationException();
+      public void pushFrame(NodeIterator cursor) {
+         cursor.push(array, array.length, 2);
       }
 
       private BitmapIndexedNode<K, V> ensureEditable(AtomicReference<Thread> edit) {
@@ -636,26 +1069,26 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
          return editable;
       }
 
-      public MapNode<K, V> assoc(AtomicReference<Thread> edit, int shift, int hash, K key, V val, Box addedLeaf) {
+      public MapNode<K, V> assoc(AtomicReference<Thread> edit, Hasher h, int shift, int hash, K key, V val, Box addedLeaf) {
          int bit = bitpos(hash, shift);
          int idx = index(bit);
          if ((bitmap & bit) != 0) {
             Object keyOrNull = array[2 * idx];
             Object valOrNode = array[2 * idx + 1];
             if (keyOrNull == null) {
-               MapNode<K, V> n = ((MapNode<K, V>) valOrNode).assoc(edit, shift + 5, hash, key, val, addedLeaf);
+               MapNode<K, V> n = ((MapNode<K, V>) valOrNode).assoc(edit, h, shift + 5, hash, key, val, addedLeaf);
                if (n == valOrNode)
                   return this;
                return editAndSet(edit, 2 * idx + 1, n);
             }
-            if (Util.equals(key, keyOrNull)) {
+            if (h.equivalent(key, keyOrNull)) {
                if (val == valOrNode)
                   return this;
                return editAndSet(edit, 2 * idx + 1, val);
             }
             addedLeaf.val = addedLeaf;
             return editAndSet(edit, 2 * idx, null, 2 * idx + 1,
-                  createNode(edit, shift + 5, keyOrNull, valOrNode, hash, key, val));
+                  createNode(edit, h, shift + 5, keyOrNull, valOrNode, hash, key, val));
          } else {
             int n = Integer.bitCount(bitmap);
             if (n * 2 < array.length) {
@@ -670,14 +1103,14 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
             if (n >= 16) {
                MapNode<K, V>[] nodes = new MapNode[32];
                int jdx = mask(hash, shift);
-               nodes[jdx] = BitmapIndexedNode.<K, V>empty().assoc(edit, shift + 5, hash, key, val, addedLeaf);
+               nodes[jdx] = BitmapIndexedNode.<K, V>empty().assoc(edit, h, shift + 5, hash, key, val, addedLeaf);
                int j = 0;
                for (int i = 0; i < 32; i++)
                   if (((bitmap >>> i) & 1) != 0) {
                      if (array[j] == null)
                         nodes[i] = (MapNode<K, V>) array[j + 1];
                      else
-                        nodes[i] = BitmapIndexedNode.<K, V>empty().assoc(edit, shift + 5, Util.hashCode(array[j]), (K) array[j], (V) array[j + 1], addedLeaf);
+                        nodes[i] = BitmapIndexedNode.<K, V>empty().assoc(edit, h, shift + 5, h.hash(array[j]), (K) array[j], (V) array[j + 1], addedLeaf);
                      j += 2;
                   }
                return new ArrayNode<K, V>(edit, n + 1, nodes);
@@ -696,7 +1129,7 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
          }
       }
 
-      public MapNode<K, V> without(AtomicReference<Thread> edit, int shift, int hash, K key, Box removedLeaf) {
+      public MapNode<K, V> without(AtomicReference<Thread> edit, Hasher h, int shift, int hash, K key, Box removedLeaf) {
          int bit = bitpos(hash, shift);
          if ((bitmap & bit) == 0)
             return this;
@@ -704,7 +1137,7 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
          Object keyOrNull = array[2 * idx];
          Object valOrNode = array[2 * idx + 1];
          if (keyOrNull == null) {
-            MapNode<K, V> n = ((MapNode<K, V>) valOrNode).without(edit, shift + 5, hash, key, removedLeaf);
+            MapNode<K, V> n = ((MapNode<K, V>) valOrNode).without(edit, h, shift + 5, hash, key, removedLeaf);
             if (n == valOrNode)
                return this;
             if (n != null)
@@ -714,7 +1147,7 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
             removedLeaf.val = removedLeaf;
             return editAndRemovePair(edit, bit, idx);
          }
-         if (Util.equals(key, keyOrNull)) {
+         if (h.equivalent(key, keyOrNull)) {
             removedLeaf.val = removedLeaf;
             // TODO: collapse
             return editAndRemovePair(edit, bit, idx);
@@ -737,14 +1170,9 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
          this.array = array;
       }
 
-      @Override
-      public Iterator<Map.Entry<K,V>> iterator() {
-         throw new UnsupportedOperationException();
-      }
-
-      public MapNode<K, V> assoc(int shift, int hash, K key, V val, Box addedLeaf) {
+      public MapNode<K, V> assoc(Hasher h, int shift, int hash, K key, V val, Box addedLeaf) {
          if (hash == this.hash) {
-            int idx = findIndex(key);
+            int idx = findIndex(h, key);
             if (idx != -1) {
                if (array[idx + 1] == val)
                   return this;
@@ -759,11 +1187,11 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
          }
          // nest it in a bitmap node
          return new BitmapIndexedNode<K, V>(null, bitpos(this.hash, shift), new Object[]{null, this})
-               .assoc(shift, hash, key, val, addedLeaf);
+               .assoc(h, shift, hash, key, val, addedLeaf);
       }
 
-      public MapNode<K, V> without(int shift, int hash, K key) {
-         int idx = findIndex(key);
+      public MapNode<K, V> without(Hasher h, int shift, int hash, K key) {
+         int idx = findIndex(h, key);
          if (idx == -1)
             return this;
          if (count == 1)
@@ -771,32 +1199,27 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
          return new HashCollisionNode<K, V>(null, hash, count - 1, removePair(array, idx / 2));
       }
 
-      public Map.Entry<K, V> find(int shift, int hash, Object key) {
-         int idx = findIndex(key);
+      public Map.Entry<K, V> find(Hasher h, int shift, int hash, Object key) {
+         int idx = findIndex(h, key);
          if (idx < 0)
             return null;
-         if (Util.equals(key, array[idx]))
-            return new MapEntry<K, V>((K) array[idx], (V) array[idx + 1]);
-         return null;
+         return new MapEntry<K, V>((K) array[idx], (V) array[idx + 1]);
       }
 
-      public V find(int shift, int hash, Object key, V notFound) {
-         int idx = findIndex(key);
+      public V find(Hasher h, int shift, int hash, Object key, V notFound) {
+         int idx = findIndex(h, key);
          if (idx < 0)
             return notFound;
-         if (Util.equals(key, array[idx]))
-            return (V) array[idx + 1];
-         return notFound;
+         return (V) array[idx + 1];
       }
 
-      public ISeq nodeSeq() {
-//		return NodeSeq.create(array);
-         throw new UnsupportedOperationException();
+      public void pushFrame(NodeIterator cursor) {
+         cursor.push(array, 2 * count, 2);
       }
 
-      public int findIndex(Object key) {
+      public int findIndex(Hasher h, Object key) {
          for (int i = 0; i < 2 * count; i += 2) {
-            if (Util.equals(key, array[i]))
+            if (h.equivalent(key, array[i]))
                return i;
          }
          return -1;
@@ -831,9 +1254,9 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
       }
 
 
-      public MapNode<K,V> assoc(AtomicReference<Thread> edit, int shift, int hash, K key, V val, Box addedLeaf) {
+      public MapNode<K,V> assoc(AtomicReference<Thread> edit, Hasher h, int shift, int hash, K key, V val, Box addedLeaf) {
          if (hash == this.hash) {
-            int idx = findIndex(key);
+            int idx = findIndex(h, key);
             if (idx != -1) {
                if (array[idx + 1] == val)
                   return this;
@@ -854,13 +1277,14 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
          }
          // nest it in a bitmap node
          return new BitmapIndexedNode(edit, bitpos(this.hash, shift), new Object[]{null, this, null, null})
-               .assoc(edit, shift, hash, key, val, addedLeaf);
+               .assoc(edit, h, shift, hash, key, val, addedLeaf);
       }
 
-      public MapNode<K,V> without(AtomicReference<Thread> edit, int shift, int hash, K key, Box removedLeaf) {
-         int idx = findIndex(key);
+      public MapNode<K,V> without(AtomicReference<Thread> edit, Hasher h, int shift, int hash, K key, Box removedLeaf) {
+         int idx = findIndex(h, key);
          if (idx == -1)
             return this;
+         removedLeaf.val = removedLeaf;
          if (count == 1)
             return null;
          HashCollisionNode editable = ensureEditable(edit);
@@ -872,92 +1296,684 @@ public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Persis
       }
    }
 
-/*
-public static void main(String[] args){
-	try
-		{
-		ArrayList words = new ArrayList();
-		Scanner s = new Scanner(new File(args[0]));
-		s.useDelimiter(Pattern.compile("\\W"));
-		while(s.hasNext())
-			{
-			String word = s.next();
-			words.add(word);
-			}
-		System.out.println("words: " + words.size());
-		IPersistentMap map = PersistentHashMap.EMPTY;
-		//IPersistentMap map = new PersistentTreeMap();
-		//Map ht = new Hashtable();
-		Map ht = new HashMap();
-		Random rand;
-
-		System.out.println("Building map");
-		long startTime = System.nanoTime();
-		for(Object word5 : words)
-			{
-			map = map.assoc(word5, word5);
-			}
-		rand = new Random(42);
-		IPersistentMap snapshotMap = map;
-		for(int i = 0; i < words.size() / 200; i++)
-			{
-			map = map.without(words.get(rand.nextInt(words.size() / 2)));
-			}
-		long estimatedTime = System.nanoTime() - startTime;
-		System.out.println("count = " + map.count() + ", time: " + estimatedTime / 1000000);
-
-		System.out.println("Building ht");
-		startTime = System.nanoTime();
-		for(Object word1 : words)
-			{
-			ht.put(word1, word1);
-			}
-		rand = new Random(42);
-		for(int i = 0; i < words.size() / 200; i++)
-			{
-			ht.remove(words.get(rand.nextInt(words.size() / 2)));
-			}
-		estimatedTime = System.nanoTime() - startTime;
-		System.out.println("count = " + ht.size() + ", time: " + estimatedTime / 1000000);
-
-		System.out.println("map lookup");
-		startTime = System.nanoTime();
-		int c = 0;
-		for(Object word2 : words)
-			{
-			if(!map.contains(word2))
-				++c;
-			}
-		estimatedTime = System.nanoTime() - startTime;
-		System.out.println("notfound = " + c + ", time: " + estimatedTime / 1000000);
-		System.out.println("ht lookup");
-		startTime = System.nanoTime();
-		c = 0;
-		for(Object word3 : words)
-			{
-			if(!ht.containsKey(word3))
-				++c;
-			}
-		estimatedTime = System.nanoTime() - startTime;
-		System.out.println("notfound = " + c + ", time: " + estimatedTime / 1000000);
-		System.out.println("snapshotMap lookup");
-		startTime = System.nanoTime();
-		c = 0;
-		for(Object word4 : words)
-			{
-			if(!snapshotMap.contains(word4))
-				++c;
-			}
-		estimatedTime = System.nanoTime() - startTime;
-		System.out.println("notfound = " + c + ", time: " + estimatedTime / 1000000);
-		}
-	catch(FileNotFoundException e)
-		{
-		e.printStackTrace();
-		}
+   /**
+    * A BitmapIndexedNode without values, for PersistentHashSet. Each occupied position holds either
+    * a bare key or a child node, told apart by datamap and nodemap, so an entry takes one slot of the
+    * array rather than a key and value pair. The keys fill the array from the front in position
+    * order and the child nodes from the back, which leaves any spare room a transient keeps in the
+    * middle. Every key's value is PRESENT, the val given to assoc is ignored.
+    * <p/>
+    * There is no ArrayNode above it, a node with all 32 positions occupied is already one slot to a
+    * position.
+    */
+   final static class BitmapIndexedKeyNode<K, V> implements MapNode<K, V> {
+      static final BitmapIndexedKeyNode EMPTY = new BitmapIndexedKeyNode(null, 0, 0, new Object[0]);
+
+      int datamap;
+      int nodemap;
+      Object[] array;
+      final AtomicReference<Thread> edit;
 
-}
-*/
+      BitmapIndexedKeyNode(AtomicReference<Thread> edit, int datamap, int nodemap, Object[] array) {
+         this.datamap = datamap;
+         this.nodemap = nodemap;
+         this.array = array;
+         this.edit = edit;
+      }
+
+      final int keyIndex(int bit) {
+         return Integer.bitCount(datamap & (bit - 1));
+      }
+
+      final int nodeIndex(int bit) {
+         return array.length - 1 - Integer.bitCount(nodemap & (bit - 1));
+      }
+
+      public MapNode<K, V> assoc(Hasher h, int shift, int hash, K key, V val, Box addedLeaf) {
+         int bit = bitpos(hash, shift);
+         if ((datamap & bit) != 0) {
+            Object existing = array[keyIndex(bit)];
+            if (h.equivalent(key, existing))
+               return this;
+            addedLeaf.val = addedLeaf;
+            BitmapIndexedKeyNode<K, V> copy = new BitmapIndexedKeyNode<K, V>(null, datamap, nodemap, copyArray(0));
+            copy.keyToNode(bit, createKeyNode(new AtomicReference<Thread>(), h, shift + 5, existing, hash, key));
+            return copy;
+         }
+         if ((nodemap & bit) != 0) {
+            int idx = nodeIndex(bit);
+            MapNode<K, V> node = (MapNode<K, V>) array[idx];
+            MapNode<K, V> n = node.assoc(h, shift + 5, hash, key, val, addedLeaf);
+            if (n == node)
+               return this;
+            return new BitmapIndexedKeyNode<K, V>(null, datamap, nodemap, cloneAndSet(array, idx, n));
+         }
+         addedLeaf.val = addedLeaf;
+         BitmapIndexedKeyNode<K, V> copy = new BitmapIndexedKeyNode<K, V>(null, datamap, nodemap, copyArray(1));
+         copy.insertKey(bit, key);
+         return copy;
+      }
+
+      public MapNode<K, V> without(Hasher h, int shift, int hash, K key) {
+         int bit = bitpos(hash, shift);
+         if ((datamap & bit) != 0) {
+            int idx = keyIndex(bit);
+            if (!h.equivalent(key, array[idx]))
+               return this;
+            if (datamap == bit && nodemap == 0)
+               return null;
+            return new BitmapIndexedKeyNode<K, V>(null, datamap ^ bit, nodemap, removeSlot(array, idx));
+         }
+         if ((nodemap & bit) != 0) {
+            int idx = nodeIndex(bit);
+            MapNode<K, V> node = (MapNode<K, V>) array[idx];
+            MapNode<K, V> n = node.without(h, shift + 5, hash, key);
+            if (n == node)
+               return this;
+            if (n != null)
+               return new BitmapIndexedKeyNode<K, V>(null, datamap, nodemap, cloneAndSet(array, idx, n));
+            if (nodemap == bit && datamap == 0)
+               return null;
+            return new BitmapIndexedKeyNode<K, V>(null, datamap, nodemap ^ bit, removeSlot(array, idx));
+         }
+         return this;
+      }
+
+      public Map.Entry<K, V> find(Hasher h, int shift, int hash, Object key) {
+         int bit = bitpos(hash, shift);
+         if ((datamap & bit) != 0) {
+            Object existing = array[keyIndex(bit)];
+            return h.equivalent(key, existing) ? new MapEntry<K, V>((K) existing, (V) PRESENT) : null;
+         }
+         if ((nodemap & bit) != 0)
+            return ((MapNode<K, V>) array[nodeIndex(bit)]).find(h, shift + 5, hash, key);
+         return null;
+      }
+
+      public V find(Hasher h, int shift, int hash, Object key, V notFound) {
+         int bit = bitpos(hash, shift);
+         if ((datamap & bit) != 0)
+            return h.equivalent(key, array[keyIndex(bit)]) ? (V) PRESENT : notFound;
+         if ((nodemap & bit) != 0)
+            return ((MapNode<K, V>) array[nodeIndex(bit)]).find(h, shift + 5, hash, key, notFound);
+         return notFound;
+      }
+
+      public void pushFrame(NodeIterator cursor) {
+         int nodes = Integer.bitCount(nodemap);
+         if (nodes != 0)
+            cursor.push(array, array.length - nodes, array.length, 1, false);
+         cursor.pushKeys(array, Integer.bitCount(datamap));
+      }
+
+      /**
+       * @return a copy of the array with spare slots between the keys and the nodes
+       */
+      private Object[] copyArray(int spare) {
+         int keys = Integer.bitCount(datamap);
+         int nodes = Integer.bitCount(nodemap);
+         Object[] newArray = new Object[keys + nodes + spare];
+         System.arraycopy(array, 0, newArray, 0, keys);
+         System.arraycopy(array, array.length - nodes, newArray, newArray.length - nodes, nodes);
+         return newArray;
+      }
+
+      // the edits below work in place, so need a node whose array is its own
+
+      private void insertKey(int bit, Object key) {
+         int idx = keyIndex(bit);
+         System.arraycopy(array, idx, array, idx + 1, Integer.bitCount(datamap) - idx);
+         array[idx] = key;
+         datamap |= bit;
+      }
+
+      private void removeKey(int bit) {
+         int idx = keyIndex(bit);
+         int keys = Integer.bitCount(datamap);
+         System.arraycopy(array, idx + 1, array, idx, keys - idx - 1);
+         array[keys - 1] = null;
+         datamap ^= bit;
+      }
+
+      private void removeNode(int bit) {
+         int idx = nodeIndex(bit);
+         int first = array.length - Integer.bitCount(nodemap);
+         System.arraycopy(array, first, array, first + 1, idx - first);
+         array[first] = null;
+         nodemap ^= bit;
+      }
+
+      // swaps the key at bit for node, the slot freed by the key making room for it
+      private void keyToNode(int bit, MapNode<K, V> node) {
+         removeKey(bit);
+         int idx = nodeIndex(bit);
+         int first = array.length - Integer.bitCount(nodemap);
+         System.arraycopy(array, first, array, first - 1, idx - first + 1);
+         array[idx] = node;
+         nodemap |= bit;
+      }
+
+      private BitmapIndexedKeyNode<K, V> ensureEditable(AtomicReference<Thread> edit) {
+         if (this.edit == edit)
+            return this;
+         return new BitmapIndexedKeyNode<K, V>(edit, datamap, nodemap, copyArray(1)); // room for the next assoc
+      }
+
+      public MapNode<K, V> assoc(AtomicReference<Thread> edit, Hasher h, int shift, int hash, K key, V val, Box addedLeaf) {
+         int bit = bitpos(hash, shift);
+         if ((datamap & bit) != 0) {
+            Object existing = array[keyIndex(bit)];
+            if (h.equivalent(key, existing))
+               return this;
+            addedLeaf.val = addedLeaf;
+            BitmapIndexedKeyNode<K, V> editable = ensureEditable(edit);
+            editable.keyToNode(bit, createKeyNode(edit, h, shift + 5, existing, hash, key));
+            return editable;
+         }
+         if ((nodemap & bit) != 0) {
+            MapNode<K, V> node = (MapNode<K, V>) array[nodeIndex(bit)];
+            MapNode<K, V> n = node.assoc(edit, h, shift + 5, hash, key, val, addedLeaf);
+            if (n == node)
+               return this;
+            BitmapIndexedKeyNode<K, V> editable = ensureEditable(edit);
+            editable.array[editable.nodeIndex(bit)] = n;
+            return editable;
+         }
+         addedLeaf.val = addedLeaf;
+         BitmapIndexedKeyNode<K, V> editable = ensureEditable(edit);
+         if (Integer.bitCount(editable.datamap | editable.nodemap) == editable.array.length)
+            editable.array = editable.copyArray(4);
+         editable.insertKey(bit, key);
+         return editable;
+      }
+
+      public MapNode<K, V> without(AtomicReference<Thread> edit, Hasher h, int shift, int hash, K key, Box removedLeaf) {
+         int bit = bitpos(hash, shift);
+         if ((datamap & bit) != 0) {
+            if (!h.equivalent(key, array[keyIndex(bit)]))
+               return this;
+            removedLeaf.val = removedLeaf;
+            if (datamap == bit && nodemap == 0)
+               return null;
+            BitmapIndexedKeyNode<K, V> editable = ensureEditable(edit);
+            editable.removeKey(bit);
+            return editable;
+         }
+         if ((nodemap & bit) != 0) {
+            MapNode<K, V> node = (MapNode<K, V>) array[nodeIndex(bit)];
+            MapNode<K, V> n = node.without(edit, h, shift + 5, hash, key, removedLeaf);
+            if (n == node)
+               return this;
+            if (n == null && nodemap == bit && datamap == 0)
+               return null;
+            BitmapIndexedKeyNode<K, V> editable = ensureEditable(edit);
+            if (n == null)
+               editable.removeNode(bit);
+            else
+               editable.array[editable.nodeIndex(bit)] = n;
+            return editable;
+         }
+         return this;
+      }
+   }
+
+   /**
+    * A HashCollisionNode without values, for PersistentHashSet, holding just the keys.
+    */
+   final static class HashCollisionKeyNode<K, V> implements MapNode<K, V> {
+
+      final int hash;
+      int count;
+      Object[] array;
+      final AtomicReference<Thread> edit;
+
+      HashCollisionKeyNode(AtomicReference<Thread> edit, int hash, int count, Object... array) {
+         this.edit = edit;
+         this.hash = hash;
+         this.count = count;
+         this.array = array;
+      }
+
+      public MapNode<K, V> assoc(Hasher h, int shift, int hash, K key, V val, Box addedLeaf) {
+         if (hash == this.hash) {
+            if (findIndex(h, key) != -1)
+               return this;
+            Object[] newArray = Arrays.copyOf(array, count + 1);
+            newArray[count] = key;
+            addedLeaf.val = addedLeaf;
+            return new HashCollisionKeyNode<K, V>(null, hash, count + 1, newArray);
+         }
+         // nest it in a bitmap node
+         return new BitmapIndexedKeyNode<K, V>(null, 0, bitpos(this.hash, shift), new Object[]{this})
+               .assoc(h, shift, hash, key, val, addedLeaf);
+      }
+
+      public MapNode<K, V> without(Hasher h, int shift, int hash, K key) {
+         int idx = findIndex(h, key);
+         if (idx == -1)
+            return this;
+         if (count == 1)
+            return null;
+         Object[] newArray = new Object[count - 1];
+         System.arraycopy(array, 0, newArray, 0, idx);
+         System.arraycopy(array, idx + 1, newArray, idx, count - idx - 1);
+         return new HashCollisionKeyNode<K, V>(null, hash, count - 1, newArray);
+      }
+
+      public Map.Entry<K, V> find(Hasher h, int shift, int hash, Object key) {
+         int idx = findIndex(h, key);
+         if (idx < 0)
+            return null;
+         return new MapEntry<K, V>((K) array[idx], (V) PRESENT);
+      }
+
+      public V find(Hasher h, int shift, int hash, Object key, V notFound) {
+         return findIndex(h, key) < 0 ? notFound : (V) PRESENT;
+      }
+
+      public void pushFrame(NodeIterator cursor) {
+         cursor.pushKeys(array, count);
+      }
+
+      public int findIndex(Hasher h, Object key) {
+         for (int i = 0; i < count; i++) {
+            if (h.equivalent(key, array[i]))
+               return i;
+         }
+         return -1;
+      }
+
+      private HashCollisionKeyNode<K, V> ensureEditable(AtomicReference<Thread> edit) {
+         if (this.edit == edit)
+            return this;
+         return new HashCollisionKeyNode<K, V>(edit, hash, count, Arrays.copyOf(array, count + 1));
+      }
+
+      public MapNode<K, V> assoc(AtomicReference<Thread> edit, Hasher h, int shift, int hash, K key, V val, Box addedLeaf) {
+         if (hash == this.hash) {
+            if (findIndex(h, key) != -1)
+               return this;
+            addedLeaf.val = addedLeaf;
+            HashCollisionKeyNode<K, V> editable = ensureEditable(edit);
+            if (editable.count == editable.array.length)
+               editable.array = Arrays.copyOf(editable.array, editable.count + 2);
+            editable.array[editable.count++] = key;
+            return editable;
+         }
+         // nest it in a bitmap node
+         return new BitmapIndexedKeyNode<K, V>(edit, 0, bitpos(this.hash, shift), new Object[]{null, this})
+               .assoc(edit, h, shift, hash, key, val, addedLeaf);
+      }
+
+      public MapNode<K, V> without(AtomicReference<Thread> edit, Hasher h, int shift, int hash, K key, Box removedLeaf) {
+         int idx = findIndex(h, key);
+         if (idx == -1)
+            return this;
+         removedLeaf.val = removedLeaf;
+         if (count == 1)
+            return null;
+         HashCollisionKeyNode<K, V> editable = ensureEditable(edit);
+         editable.array[idx] = editable.array[editable.count - 1];
+         editable.array[--editable.count] = null;
+         return editable;
+      }
+   }
+
+   /**
+    * Depth first walk over the trie which keeps an explicit stack of node arrays rather than
+    * recursing or allocating per node. The iterator is its own cursor, after advance() returns
+    * true the current entry is held in key and val.
+    * <p/>
+    * Frames either hold child nodes (ArrayNode, stride 1) or key/value pairs (stride 2) where a
+    * null key marks a nested node and a null key and value marks an unused slot. The key only nodes
+    * push a frame of bare keys (stride 1, yielded with PRESENT as the value) above one of their
+    * child nodes.
+    */
+   static final class NodeIterator {
+      // 7 levels of 5 bits covers the hash, plus one for a collision node
+      private Object[][] arrays = new Object[8][];
+      private int[] positions = new int[8];
+      private int[] ends = new int[8];
+      private int[] strides = new int[8];
+      private boolean[] keyFrames = new boolean[8];
+      private int depth = -1;
+
+      Object key;
+      Object val;
+
+      NodeIterator(MapNode root) {
+         if (root != null)
+            root.pushFrame(this);
+      }
+
+      /**
+       * Hands the first half of the remaining children to a new cursor. Only possible while the cursor
+       * is positioned in a single node; a node with a single child is descended into first.
+       */
+      NodeIterator trySplit() {
+         while (depth == 0) {
+            int lo = positions[0];
+            int stride = strides[0];
+            int slots = (ends[0] - lo) / stride;
+            Object[] array = arrays[0];
+            if (slots >= 2) {
+               int mid = lo + (slots >>> 1) * stride;
+               NodeIterator prefix = new NodeIterator(null);
+               prefix.push(array, lo, mid, stride, keyFrames[0]);
+               positions[0] = mid;
+               return prefix;
+            }
+            if (slots == 0)
+               return null;
+            Object node = keyFrames[0] ? null : stride == 1 ? array[lo] : (array[lo] == null ? array[lo + 1] : null);
+            if (node == null)
+               return null; // a single entry or an unused slot
+            arrays[depth--] = null;
+            ((MapNode) node).pushFrame(this);
+         }
+         return null;
+      }
+
+      void push(Object[] array, int end, int stride) {
+         push(array, 0, end, stride, false);
+      }
+
+      void pushKeys(Object[] array, int end) {
+         push(array, 0, end, 1, true);
+      }
+
+      void push(Object[] array, int start, int end, int stride, boolean keys) {
+         if (++depth == arrays.length) {
+            arrays = Arrays.copyOf(arrays, depth * 2);
+            positions = Arrays.copyOf(positions, depth * 2);
+            ends = Arrays.copyOf(ends, depth * 2);
+            strides = Arrays.copyOf(strides, depth * 2);
+            keyFrames = Arrays.copyOf(keyFrames, depth * 2);
+         }
+         arrays[depth] = array;
+         positions[depth] = start;
+         ends[depth] = end;
+         strides[depth] = stride;
+         keyFrames[depth] = keys;
+      }
+
+      boolean advance() {
+         while (depth >= 0) {
+            int i = positions[depth];
+            if (i >= ends[depth]) {
+               arrays[depth--] = null;
+               continue;
+            }
+            Object[] array = arrays[depth];
+            if (keyFrames[depth]) {
+               positions[depth] = i + 1;
+               key = array[i];
+               val = PRESENT;
+               return true;
+            } else if (strides[depth] == 1) {
+               positions[depth] = i + 1;
+               if (array[i] != null)
+                  ((MapNode) array[i]).pushFrame(this);
+            } else {
+               positions[depth] = i + 2;
+               Object keyOrNull = array[i];
+               Object valOrNode = array[i + 1];
+               if (keyOrNull != null) {
+                  key = keyOrNull;
+                  val = valOrNode;
+                  return true;
+               }
+               if (valOrNode != null)
+                  ((MapNode) valOrNode).pushFrame(this);
+            }
+         }
+         key = val = null;
+         return false;
+      }
+   }
+
+   /**
+    * Adapts a NodeIterator to java.util.Iterator, yielding the null key's entry first.
+    */
+   abstract static class CursorIterator<E> implements Iterator<E> {
+      private final NodeIterator cursor;
+      private boolean nullPending;
+      private final Object nullValue;
+      private boolean advanced;
+      private boolean more;
+
+      CursorIterator(MapNode root, boolean hasNull, Object nullValue) {
+         this.cursor = new NodeIterator(root);
+         this.nullPending = hasNull;
+         this.nullValue = nullValue;
+      }
+
+      abstract E element(Object key, Object val);
+
+      @Override
+      public boolean hasNext() {
+         if (nullPending)
+            return true;
+         if (!advanced) {
+            more = cursor.advance();
+            advanced = true;
+         }
+         return more;
+      }
+
+      @Override
+      public E next() {
+         if (!hasNext())
+            throw new NoSuchElementException();
+         if (nullPending) {
+            nullPending = false;
+            return element(null, nullValue);
+         }
+         advanced = false;
+         return element(cursor.key, cursor.val);
+      }
+
+      @Override
+      public void remove() {
+         throw new UnsupportedOperationException();
+      }
+   }
+
+   static final class NodeSpliterator<E> implements Spliterator<E> {
+      private final NodeIterator cursor;
+      private boolean nullPending;
+      private final Object nullValue;
+      private long estimate;
+      private boolean sized = true;
+      private final int characteristics;
+      private final BiFunction<Object, Object, ? extends E> project;
+
+      NodeSpliterator(MapNode root, boolean hasNull, Object nullValue, long size, int characteristics,
+                      BiFunction<Object, Object, ? extends E> project) {
+         this(new NodeIterator(root), hasNull, nullValue, size, characteristics, project);
+      }
+
+      private NodeSpliterator(NodeIterator cursor, boolean hasNull, Object nullValue, long estimate, int characteristics,
+                              BiFunction<Object, Object, ? extends E> project) {
+         this.cursor = cursor;
+         this.nullPending = hasNull;
+         this.nullValue = nullValue;
+         this.estimate = estimate;
+         this.characteristics = characteristics;
+         this.project = project;
+      }
+
+      @Override
+      public boolean tryAdvance(Consumer<? super E> action) {
+         if (action == null)
+            throw new NullPointerException();
+         if (nullPending) {
+            nullPending = false;
+            action.accept(project.apply(null, nullValue));
+         } else if (cursor.advance()) {
+            action.accept(project.apply(cursor.key, cursor.val));
+         } else {
+            return false;
+         }
+         if (estimate > 0)
+            estimate--;
+         return true;
+      }
+
+      @Override
+      public void forEachRemaining(Consumer<? super E> action) {
+         if (action == null)
+            throw new NullPointerException();
+         if (nullPending) {
+            nullPending = false;
+            action.accept(project.apply(null, nullValue));
+         }
+         while (cursor.advance())
+            action.accept(project.apply(cursor.key, cursor.val));
+         estimate = 0;
+      }
+
+      @Override
+      public Spliterator<E> trySplit() {
+         NodeIterator prefix = cursor.trySplit();
+         if (prefix == null)
+            return null;
+         sized = false;
+         long half = estimate >>> 1;
+         estimate -= half;
+         NodeSpliterator<E> split = new NodeSpliterator<E>(prefix, false, null, half, characteristics, project);
+         split.sized = false;
+         return split;
+      }
+
+      @Override
+      public long estimateSize() {
+         return estimate;
+      }
+
+      @Override
+      public int characteristics() {
+         return characteristics | Spliterator.IMMUTABLE | (sized ? Spliterator.SIZED : 0);
+      }
+   }
+
+   interface EntryReducer<R> {
+      R apply(R acc, Object key, Object val);
+   }
+
+   /**
+    * Builds the subtree under one root slot from a run of the bucketed entries, with an edit of its
+    * own so the nodes are mutated in place as a transient would.
+    */
+   static final class SlotTask extends RecursiveAction {
+      private final Hasher hasher;
+      final int slot;
+      private final Object[] entries;
+      private final int[] hashes;
+      private final int[] order;
+      private final int from;
+      private final int to;
+      MapNode node;
+      int count;
+
+      SlotTask(Hasher hasher, int slot, Object[] entries, int[] hashes, int[] order, int from, int to) {
+         this.hasher = hasher;
+         this.slot = slot;
+         this.entries = entries;
+         this.hashes = hashes;
+         this.order = order;
+         this.from = from;
+         this.to = to;
+      }
+
+      @SuppressWarnings("unchecked")
+      @Override
+      protected void compute() {
+         AtomicReference<Thread> edit = new AtomicReference<Thread>(Thread.currentThread());
+         Box addedLeaf = new Box(null);
+         MapNode ret = BitmapIndexedNode.EMPTY;
+         for (int j = from; j < to; j++) {
+            int i = order[j];
+            Entry entry = (Entry) entries[i];
+            addedLeaf.val = null;
+            ret = ret.assoc(edit, hasher, 5, hashes[i], entry.getKey(), entry.getValue(), addedLeaf);
+            if (addedLeaf.val != null)
+               count++;
+         }
+         edit.set(null);
+         node = ret;
+      }
+   }
+
+   static final class FoldTask<R> extends RecursiveTask<R> {
+      private final NodeIterator cursor;
+      private final long estimate;
+      private final R identity;
+      private final EntryReducer<R> reducer;
+      private final BinaryOperator<R> combiner;
+
+      FoldTask(NodeIterator cursor, long estimate, R identity, EntryReducer<R> reducer, BinaryOperator<R> combiner) {
+         this.cursor = cursor;
+         this.estimate = estimate;
+         this.identity = identity;
+         this.reducer = reducer;
+         this.combiner = combiner;
+      }
+
+      @Override
+      protected R compute() {
+         if (estimate > FOLD_THRESHOLD) {
+            NodeIterator prefix = cursor.trySplit();
+            if (prefix != null) {
+               long half = estimate >>> 1;
+               FoldTask<R> left = new FoldTask<R>(prefix, half, identity, reducer, combiner);
+               left.fork();
+               R right = new FoldTask<R>(cursor, estimate - half, identity, reducer, combiner).compute();
+               return combiner.apply(left.join(), right);
+            }
+         }
+         R acc = identity;
+         while (cursor.advance())
+            acc = reducer.apply(acc, cursor.key, cursor.val);
+         return acc;
+      }
+   }
+
+   static final class EntryIterator<K, V> extends CursorIterator<Entry<K, V>> {
+      EntryIterator(MapNode root, boolean hasNull, Object nullValue) {
+         super(root, hasNull, nullValue);
+      }
+
+      @SuppressWarnings("unchecked")
+      @Override
+      Entry<K, V> element(Object key, Object val) {
+         return new MapEntry<K, V>((K) key, (V) val);
+      }
+   }
+
+   static final class KeyIterator<K> extends CursorIterator<K> {
+      KeyIterator(MapNode root, boolean hasNull, Object nullValue) {
+         super(root, hasNull, nullValue);
+      }
+
+      @SuppressWarnings("unchecked")
+      @Override
+      K element(Object key, Object val) {
+         return (K) key;
+      }
+   }
+
+   static final class ValueIterator<V> extends CursorIterator<V> {
+      ValueIterator(MapNode root, boolean hasNull, Object nullValue) {
+         super(root, hasNull, nullValue);
+      }
+
+      @SuppressWarnings("unchecked")
+      @Override
+      V element(Object key, Object val) {
+         return (V) val;
+      }
+   }
 
    private static <K, V> MapNode<K, V>[] cloneAndSet(MapNode<K, V>[] array, int i, MapNode<K, V> a) {
       MapNode<K, V>[] clone = array.clone();
@@ -985,28 +2001,469 @@ public static void main(String[] args){
       return newArray;
    }
 
-   private static <K, V> MapNode<K, V> createNode(int shift, K key1, V val1, int key2hash, K key2, V val2) {
-      int key1hash = Util.hashCode(key1);
+   private static Object[] removeSlot(Object[] array, int i) {
+      Object[] newArray = new Object[array.length - 1];
+      System.arraycopy(array, 0, newArray, 0, i);
+      System.arraycopy(array, i + 1, newArray, i, newArray.length - i);
+      return newArray;
+   }
+
+   private static <K, V> MapNode<K, V> createNode(Hasher h, int shift, K key1, V val1, int key2hash, K key2, V val2) {
+      int key1hash = h.hash(key1);
       if (key1hash == key2hash)
          return new HashCollisionNode<K, V>(null, key1hash, 2, new Object[]{key1, val1, key2, val2});
       Box _ = new Box(null);
       AtomicReference<Thread> edit = new AtomicReference<Thread>();
       return BitmapIndexedNode.<K, V>empty()
-            .assoc(edit, shift, key1hash, key1, val1, _)
-            .assoc(edit, shift, key2hash, key2, val2, _);
+            .assoc(edit, h, shift, key1hash, key1, val1, _)
+            .assoc(edit, h, shift, key2hash, key2, val2, _);
    }
 
-   private static <K, V> MapNode<K, V> createNode(AtomicReference<Thread> edit, int shift, Object key1, Object val1, int key2hash, Object key2, Object val2) {
-      int key1hash = Util.hashCode(key1);
+   private static <K, V> MapNode<K, V> createNode(AtomicReference<Thread> edit, Hasher h, int shift, Object key1, Object val1, int key2hash, Object key2, Object val2) {
+      int key1hash = h.hash(key1);
       if (key1hash == key2hash)
          return new HashCollisionNode(null, key1hash, 2, new Object[]{key1, val1, key2, val2});
       Box _ = new Box(null);
       return BitmapIndexedNode.EMPTY
-            .assoc(edit, shift, key1hash, key1, val1, _)
-            .assoc(edit, shift, key2hash, key2, val2, _);
+            .assoc(edit, h, shift, key1hash, key1, val1, _)
+            .assoc(edit, h, shift, key2hash, key2, val2, _);
+   }
+
+   private static <K, V> MapNode<K, V> createKeyNode(AtomicReference<Thread> edit, Hasher h, int shift, Object key1, int key2hash, Object key2) {
+      int key1hash = h.hash(key1);
+      if (key1hash == key2hash)
+         return new HashCollisionKeyNode<K, V>(null, key1hash, 2, new Object[]{key1, key2});
+      Box addedLeaf = new Box(null);
+      return BitmapIndexedKeyNode.EMPTY
+            .assoc(edit, h, shift, key1hash, key1, null, addedLeaf)
+            .assoc(edit, h, shift, key2hash, key2, null, addedLeaf);
+   }
+
+   /**
+    * @return whether node is one of the key only nodes of a PersistentHashSet
+    */
+   private static boolean keysOnly(MapNode node) {
+      return node instanceof BitmapIndexedKeyNode || node instanceof HashCollisionKeyNode;
+   }
+
+   /**
+    * Spreads the node over the 32 positions at its level: an entry is a key and value, a child node is
+    * a null key with the node as the value, and a bare key has PRESENT as its value. A HashCollisionNode
+    * or HashCollisionKeyNode becomes a child at its hash's position.
+    *
+    * @return the bitmap of occupied positions
+    */
+   private static int spread(MapNode node, int shift, Object[] keys, Object[] vals) {
+      if (node instanceof ArrayNode) {
+         MapNode[] array = ((ArrayNode) node).array;
+         int bitmap = 0;
+         for (int i = 0; i < 32; i++)
+            if (array[i] != null) {
+               vals[i] = array[i];
+               bitmap |= 1 << i;
+            }
+         return bitmap;
+      }
+      if (node instanceof BitmapIndexedNode) {
+         BitmapIndexedNode b = (BitmapIndexedNode) node;
+         int j = 0;
+         for (int rest = b.bitmap; rest != 0; rest &= rest - 1) {
+            int i = Integer.numberOfTrailingZeros(rest);
+            keys[i] = b.array[j];
+            vals[i] = b.array[j + 1];
+            j += 2;
+         }
+         return b.bitmap;
+      }
+      if (node instanceof BitmapIndexedKeyNode) {
+         BitmapIndexedKeyNode b = (BitmapIndexedKeyNode) node;
+         int j = 0;
+         for (int rest = b.datamap; rest != 0; rest &= rest - 1) {
+            int i = Integer.numberOfTrailingZeros(rest);
+            keys[i] = b.array[j++];
+            vals[i] = PRESENT;
+         }
+         j = b.array.length;
+         for (int rest = b.nodemap; rest != 0; rest &= rest - 1)
+            vals[Integer.numberOfTrailingZeros(rest)] = b.array[--j];
+         return b.datamap | b.nodemap;
+      }
+      int hash = node instanceof HashCollisionNode ? ((HashCollisionNode) node).hash : ((HashCollisionKeyNode) node).hash;
+      int i = mask(hash, shift);
+      vals[i] = node;
+      return 1 << i;
+   }
+
+   static int nodeSize(MapNode node) {
+      if (node instanceof HashCollisionNode)
+         return ((HashCollisionNode) node).count;
+      if (node instanceof HashCollisionKeyNode)
+         return ((HashCollisionKeyNode) node).count;
+      int size = 0;
+      if (node instanceof ArrayNode) {
+         for (MapNode child : ((ArrayNode) node).array)
+            if (child != null)
+               size += nodeSize(child);
+         return size;
+      }
+      if (node instanceof BitmapIndexedKeyNode) {
+         BitmapIndexedKeyNode b = (BitmapIndexedKeyNode) node;
+         size = Integer.bitCount(b.datamap);
+         for (int j = b.array.length - Integer.bitCount(b.nodemap); j < b.array.length; j++)
+            size += nodeSize((MapNode) b.array[j]);
+         return size;
+      }
+      BitmapIndexedNode b = (BitmapIndexedNode) node;
+      for (int j = 0; j < 2 * Integer.bitCount(b.bitmap); j += 2)
+         size += b.array[j] == null ? nodeSize((MapNode) b.array[j + 1]) : 1;
+      return size;
+   }
+
+   /**
+    * Merges b into a, counting the entries of the result that were not in a in added.
+    */
+   @SuppressWarnings("unchecked")
+   static MapNode mergeNodes(Hasher h, MapNode a, MapNode b, int shift, BiFunction<Object, Object, Object> resolver, Count added) {
+      if (a == b)
+         return a;
+      if (a instanceof HashCollisionNode && b instanceof HashCollisionNode
+            && ((HashCollisionNode) a).hash == ((HashCollisionNode) b).hash) {
+         HashCollisionNode c = (HashCollisionNode) b;
+         for (int i = 0; i < 2 * c.count; i += 2)
+            a = mergeEntry(h, a, shift, c.array[i], c.array[i + 1], false, resolver, added);
+         return a;
+      }
+      if (a instanceof HashCollisionKeyNode && b instanceof HashCollisionKeyNode
+            && ((HashCollisionKeyNode) a).hash == ((HashCollisionKeyNode) b).hash) {
+         HashCollisionKeyNode c = (HashCollisionKeyNode) b;
+         for (int i = 0; i < c.count; i++)
+            a = mergeEntry(h, a, shift, c.array[i], PRESENT, false, resolver, added);
+         return a;
+      }
+      boolean keysOnly = keysOnly(a);
+      Object[] keys = new Object[32];
+      Object[] vals = new Object[32];
+      Object[] otherKeys = new Object[32];
+      Object[] otherVals = new Object[32];
+      int mine = spread(a, shift, keys, vals);
+      int theirs = spread(b, shift, otherKeys, otherVals);
+      int bitmap = mine | theirs;
+      boolean same = bitmap == mine;
+      for (int rest = theirs; rest != 0; rest &= rest - 1) {
+         int i = Integer.numberOfTrailingZeros(rest);
+         Object ak = keys[i], av = vals[i], bk = otherKeys[i], bv = otherVals[i];
+         Object k = null, v;
+         if ((mine & (1 << i)) == 0) {
+            k = bk;
+            v = bv;
+            added.n += bk == null ? nodeSize((MapNode) bv) : 1;
+         } else if (ak == null) {
+            v = bk == null
+                  ? mergeNodes(h, (MapNode) av, (MapNode) bv, shift + 5, resolver, added)
+                  : mergeEntry(h, (MapNode) av, shift + 5, bk, bv, false, resolver, added);
+         } else if (bk == null) {
+            // every entry of b's node is new apart from one matching ak
+            added.n += nodeSize((MapNode) bv) - 1;
+            v = mergeEntry(h, (MapNode) bv, shift + 5, ak, av, true, resolver, added);
+         } else if (h.equivalent(ak, bk)) {
+            k = ak;
+            v = av == bv ? av : resolver.apply(av, bv);
+         } else {
+            v = keysOnly
+                  ? createKeyNode(new AtomicReference<Thread>(), h, shift + 5, ak, h.hash(bk), bk)
+                  : createNode(h, shift + 5, ak, av, h.hash(bk), bk, bv);
+            added.n++;
+         }
+         if (k != ak || v != av) {
+            same = false;
+            keys[i] = k;
+            vals[i] = v;
+         }
+      }
+      if (same)
+         return a;
+      return buildNode(h, shift, bitmap, keys, vals, keysOnly);
+   }
+
+   /**
+    * The node for the positions in bitmap, laid out as spread leaves them: a BitmapIndexedKeyNode
+    * when keysOnly, otherwise an ArrayNode when more than 16 are occupied or a BitmapIndexedNode.
+    */
+   @SuppressWarnings("unchecked")
+   private static MapNode buildNode(Hasher h, int shift, int bitmap, Object[] keys, Object[] vals, boolean keysOnly) {
+      int n = Integer.bitCount(bitmap);
+      if (keysOnly) {
+         Object[] array = new Object[n];
+         int datamap = 0;
+         int j = 0;
+         int last = n;
+         for (int rest = bitmap; rest != 0; rest &= rest - 1) {
+            int i = Integer.numberOfTrailingZeros(rest);
+            if (keys[i] != null) {
+               array[j++] = keys[i];
+               datamap |= 1 << i;
+            } else
+               array[--last] = vals[i];
+         }
+         return new BitmapIndexedKeyNode(null, datamap, bitmap ^ datamap, array);
+      }
+      if (n > 16) {
+         MapNode[] nodes = new MapNode[32];
+         Box addedLeaf = new Box(null);
+         for (int rest = bitmap; rest != 0; rest &= rest - 1) {
+            int i = Integer.numberOfTrailingZeros(rest);
+            nodes[i] = keys[i] == null ? (MapNode) vals[i]
+                  : BitmapIndexedNode.EMPTY.assoc(h, shift + 5, h.hash(keys[i]), keys[i], vals[i], addedLeaf);
+         }
+         return new ArrayNode(null, n, nodes);
+      }
+      Object[] array = new Object[2 * n];
+      int j = 0;
+      for (int rest = bitmap; rest != 0; rest &= rest - 1) {
+         int i = Integer.numberOfTrailingZeros(rest);
+         array[j++] = keys[i];
+         array[j++] = vals[i];
+      }
+      return new BitmapIndexedNode(null, bitmap, array);
+   }
+
+   /**
+    * The entries of a whose keys are in b when keep is true, or are not in b otherwise, walking both
+    * tries together as mergeNodes does. Counts the entries of a whose keys are not in b in unmatched,
+    * which comes to nothing for a subtree the two share, so those are kept or dropped whole without
+    * being visited.
+    *
+    * @return null when no entries are left
+    */
+   @SuppressWarnings("unchecked")
+   static MapNode filterNodes(Hasher h, MapNode a, MapNode b, int shift, boolean keep, Count unmatched) {
+      if (a == b)
+         return keep ? a : null;
+      if (a instanceof HashCollisionNode || a instanceof HashCollisionKeyNode) {
+         MapNode ret = a;
+         NodeIterator cursor = new NodeIterator(a);
+         while (cursor.advance()) {
+            int hash = h.hash(cursor.key);
+            boolean found = b.find(h, shift, hash, cursor.key, NOT_FOUND) != NOT_FOUND;
+            if (!found)
+               unmatched.n++;
+            if (found != keep)
+               ret = ret.without(h, shift, hash, cursor.key);
+         }
+         return ret;
+      }
+      if (b instanceof HashCollisionNode || b instanceof HashCollisionKeyNode) {
+         // whatever a has in common with b has b's hash, so is found by looking b's keys up in a
+         MapNode ret = keep ? null : a;
+         int found = 0;
+         Box addedLeaf = new Box(null);
+         NodeIterator cursor = new NodeIterator(b);
+         while (cursor.advance()) {
+            int hash = h.hash(cursor.key);
+            Map.Entry entry = a.find(h, shift, hash, cursor.key);
+            if (entry == null)
+               continue;
+            found++;
+            if (keep)
+               ret = (ret == null ? keysOnly(a) ? BitmapIndexedKeyNode.EMPTY : BitmapIndexedNode.EMPTY : ret)
+                     .assoc(h, shift, hash, entry.getKey(), entry.getValue(), addedLeaf);
+            else
+               ret = nonEmpty(ret.without(h, shift, hash, cursor.key));
+         }
+         unmatched.n += nodeSize(a) - found;
+         return ret;
+      }
+      boolean keysOnly = keysOnly(a);
+      Object[] keys = new Object[32];
+      Object[] vals = new Object[32];
+      Object[] otherKeys = new Object[32];
+      Object[] otherVals = new Object[32];
+      int mine = spread(a, shift, keys, vals);
+      int theirs = spread(b, shift, otherKeys, otherVals);
+      int bitmap = 0;
+      boolean same = true;
+      for (int rest = mine; rest != 0; rest &= rest - 1) {
+         int i = Integer.numberOfTrailingZeros(rest);
+         Object ak = keys[i], av = vals[i];
+         Object k = ak, v = av;
+         if ((theirs & (1 << i)) == 0) {
+            unmatched.n += ak == null ? nodeSize((MapNode) av) : 1;
+            if (keep)
+               k = v = null;
+         } else {
+            Object bk = otherKeys[i], bv = otherVals[i];
+            if (ak == null && bk == null) {
+               v = filterNodes(h, (MapNode) av, (MapNode) bv, shift + 5, keep, unmatched);
+            } else if (ak == null) {
+               MapNode node = (MapNode) av;
+               Map.Entry entry = node.find(h, shift + 5, h.hash(bk), bk);
+               unmatched.n += nodeSize(node) - (entry == null ? 0 : 1);
+               if (keep) {
+                  if (entry != null) {
+                     k = entry.getKey();
+                     v = entry.getValue();
+                  } else
+                     v = null;
+               } else if (entry != null)
+                  v = nonEmpty(node.without(h, shift + 5, h.hash(bk), bk));
+            } else {
+               boolean found = bk == null
+                     ? ((MapNode) bv).find(h, shift + 5, h.hash(ak), ak, NOT_FOUND) != NOT_FOUND
+                     : h.equivalent(ak, bk);
+               if (!found)
+                  unmatched.n++;
+               if (found != keep)
+                  k = v = null;
+            }
+         }
+         if (k != ak || v != av) {
+            same = false;
+            keys[i] = k;
+            vals[i] = v;
+         }
+         if (v != null)
+            bitmap |= 1 << i;
+      }
+      if (same)
+         return a;
+      if (bitmap == 0)
+         return null;
+      return buildNode(h, shift, bitmap, keys, vals, keysOnly);
+   }
+
+   /**
+    * @return node, or null when it is a BitmapIndexedNode left with nothing in it, as without can
+    * leave behind
+    */
+   private static MapNode nonEmpty(MapNode node) {
+      if (node instanceof BitmapIndexedNode && ((BitmapIndexedNode) node).bitmap == 0)
+         return null;
+      return node;
+   }
+
+   /**
+    * Adds a single entry to node, resolving against any value node already has for the key. The
+    * entry counts as added when the key is new to node.
+    */
+   @SuppressWarnings("unchecked")
+   private static MapNode mergeEntry(Hasher h, MapNode node, int shift, Object key, Object val, boolean entryIsLeft,
+                                     BiFunction<Object, Object, Object> resolver, Count added) {
+      int hash = h.hash(key);
+      Object existing = node.find(h, shift, hash, key, NOT_FOUND);
+      if (existing == NOT_FOUND)
+         added.n++;
+      else if (existing == val)
+         return node;
+      else
+         val = entryIsLeft ? resolver.apply(val, existing) : resolver.apply(existing, val);
+      return node.assoc(h, shift, hash, key, val, new Box(null));
+   }
+
+   private static void reportAll(MapNode node, DiffVisitor<Object, Object> visitor, boolean removed) {
+      NodeIterator cursor = new NodeIterator(node);
+      while (cursor.advance())
+         if (removed)
+            visitor.removed(cursor.key, cursor.val);
+         else
+            visitor.added(cursor.key, cursor.val);
+   }
+
+   private static void diffNodes(Hasher h, MapNode a, MapNode b, int shift, DiffVisitor<Object, Object> visitor) {
+      if (a == b)
+         return;
+      if (a instanceof HashCollisionNode && b instanceof HashCollisionNode
+            && ((HashCollisionNode) a).hash == ((HashCollisionNode) b).hash) {
+         HashCollisionNode x = (HashCollisionNode) a;
+         HashCollisionNode y = (HashCollisionNode) b;
+         for (int i = 0; i < 2 * x.count; i += 2) {
+            int j = y.findIndex(h, x.array[i]);
+            if (j == -1)
+               visitor.removed(x.array[i], x.array[i + 1]);
+            else if (!Util.equals(x.array[i + 1], y.array[j + 1]))
+               visitor.changed(x.array[i], x.array[i + 1], y.array[j + 1]);
+         }
+         for (int j = 0; j < 2 * y.count; j += 2)
+            if (x.findIndex(h, y.array[j]) == -1)
+               visitor.added(y.array[j], y.array[j + 1]);
+         return;
+      }
+      Object[] keys = new Object[32];
+      Object[] vals = new Object[32];
+      Object[] otherKeys = new Object[32];
+      Object[] otherVals = new Object[32];
+      int mine = spread(a, shift, keys, vals);
+      int theirs = spread(b, shift, otherKeys, otherVals);
+      for (int rest = mine | theirs; rest != 0; rest &= rest - 1) {
+         int i = Integer.numberOfTrailingZeros(rest);
+         Object ak = keys[i], av = vals[i], bk = otherKeys[i], bv = otherVals[i];
+         if ((theirs & (1 << i)) == 0) {
+            if (ak == null)
+               reportAll((MapNode) av, visitor, true);
+            else
+               visitor.removed(ak, av);
+         } else if ((mine & (1 << i)) == 0) {
+            if (bk == null)
+               reportAll((MapNode) bv, visitor, false);
+            else
+               visitor.added(bk, bv);
+         } else if (ak == null) {
+            if (bk == null)
+               diffNodes(h, (MapNode) av, (MapNode) bv, shift + 5, visitor);
+            else
+               diffEntry(h, bk, bv, (MapNode) av, shift + 5, false, visitor);
+         } else if (bk == null) {
+            diffEntry(h, ak, av, (MapNode) bv, shift + 5, true, visitor);
+         } else if (h.equivalent(ak, bk)) {
+            if (av != bv && !Util.equals(av, bv))
+               visitor.changed(ak, av, bv);
+         } else {
+            visitor.removed(ak, av);
+            visitor.added(bk, bv);
+         }
+      }
+   }
+
+   /**
+    * Diffs a single entry against a node, the entry being from the old map when entryIsOld.
+    */
+   private static void diffEntry(Hasher h, Object key, Object val, MapNode node, int shift, boolean entryIsOld,
+                                 DiffVisitor<Object, Object> visitor) {
+      Object match = node.find(h, shift, h.hash(key), key, NOT_FOUND);
+      NodeIterator cursor = new NodeIterator(node);
+      while (cursor.advance()) {
+         if (match != NOT_FOUND && h.equivalent(cursor.key, key))
+            continue;
+         if (entryIsOld)
+            visitor.added(cursor.key, cursor.val);
+         else
+            visitor.removed(cursor.key, cursor.val);
+      }
+      if (match == NOT_FOUND) {
+         if (entryIsOld)
+            visitor.removed(key, val);
+         else
+            visitor.added(key, val);
+      } else if (match != val && !Util.equals(match, val)) {
+         if (entryIsOld)
+            visitor.changed(key, val, match);
+         else
+            visitor.changed(key, match, val);
+      }
+   }
+
+   static final class Count {
+      int n;
    }
 
    private static int bitpos(int hash, int shift) {
       return 1 << mask(hash, shift);
    }
-}
\ No newline at end of file
+
+   private Object writeReplace() {
+      return new CollectionProxy(hasher == Hashers.STANDARD ? CollectionProxy.HASH_MAP : CollectionProxy.HASHED_MAP, this);
+   }
+
+   private void readObject(ObjectInputStream in) throws InvalidObjectException {
+      throw new InvalidObjectException("Proxy required");
+   }
+}
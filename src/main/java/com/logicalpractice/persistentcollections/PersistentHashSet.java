@@ -0,0 +1,215 @@
+package com.logicalpractice.persistentcollections;
+
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.logicalpractice.persistentcollections.PersistentHashMap.BitmapIndexedKeyNode;
+import com.logicalpractice.persistentcollections.PersistentHashMap.Box;
+import com.logicalpractice.persistentcollections.PersistentHashMap.Count;
+import com.logicalpractice.persistentcollections.PersistentHashMap.KeyIterator;
+import com.logicalpractice.persistentcollections.PersistentHashMap.MapNode;
+import com.logicalpractice.persistentcollections.PersistentHashMap.TransientHashMap;
+
+/**
+ * PersistentHashSet, a PersistentHashMap trie of key only nodes: BitmapIndexedKeyNode and
+ * HashCollisionKeyNode hold the elements alone, one array slot each, where the map's nodes hold a
+ * key and value pair. Hashing (Hashers.STANDARD), transient editing and iteration are the map's.
+ * <p/>
+ * union is PersistentHashMap's structural merge, and intersection and difference its structural
+ * filter, so each walks both tries together a bitmap at a time. Subtrees only one side has are taken
+ * as they are, and subtrees both sides share are recognised by identity and not visited at all.
+ */
+public class PersistentHashSet<T> extends AbstractSet<T> implements PersistentSet<T>, Serializable {
+
+   private final static PersistentHashSet EMPTY = new PersistentHashSet(0, null);
+
+   private final static Hasher HASHER = Hashers.STANDARD;
+
+   final int count;
+   final MapNode root;
+
+   PersistentHashSet(int count, MapNode root) {
+      this.count = count;
+      this.root = root;
+   }
+
+   @SuppressWarnings("unchecked")
+   public static <T> PersistentHashSet<T> empty() {
+      return EMPTY;
+   }
+
+   public static <T> PersistentHashSet<T> create(Iterable<? extends T> items) {
+      TransientSet<T> ret = PersistentHashSet.<T>empty().toTransientSet();
+      for (T item : items)
+         ret.add(item);
+      return (PersistentHashSet<T>) ret.toPersistentSet();
+   }
+
+   public static <T> PersistentHashSet<T> create(T... items) {
+      return create(Arrays.asList(items));
+   }
+
+   @Override
+   public boolean contains(Object o) {
+      return o != null && root != null && root.find(HASHER, 0, HASHER.hash(o), o, null) != null;
+   }
+
+   @SuppressWarnings("unchecked")
+   public PersistentHashSet<T> with(T val) {
+      if (val == null) {
+         throw new IllegalArgumentException("Null elements are not allowed");
+      }
+      Box addedLeaf = new Box(null);
+      MapNode newroot = (root == null ? BitmapIndexedKeyNode.EMPTY : root).assoc(HASHER, 0, HASHER.hash(val), val, null, addedLeaf);
+      if (newroot == root)
+         return this;
+      return new PersistentHashSet<T>(addedLeaf.val == null ? count : count + 1, newroot);
+   }
+
+   @SuppressWarnings("unchecked")
+   public PersistentHashSet<T> without(Object val) {
+      if (val == null || root == null)
+         return this;
+      MapNode newroot = root.without(HASHER, 0, HASHER.hash(val), val);
+      if (newroot == root)
+         return this;
+      return new PersistentHashSet<T>(count - 1, newroot);
+   }
+
+   /**
+    * @return the elements in either set, reusing this set's structure wherever other adds nothing
+    */
+   @SuppressWarnings("unchecked")
+   public PersistentHashSet<T> union(PersistentHashSet<? extends T> other) {
+      if (other.root == null)
+         return this;
+      if (root == null)
+         return (PersistentHashSet<T>) other;
+      Count added = new Count();
+      // keys carry no values to resolve, so the resolver is never called
+      MapNode newroot = PersistentHashMap.mergeNodes(HASHER, root, other.root, 0, null, added);
+      if (newroot == root)
+         return this;
+      return new PersistentHashSet<T>(count + added.n, newroot);
+   }
+
+   /**
+    * @return the elements of this set that are also in other
+    */
+   public PersistentHashSet<T> intersection(PersistentHashSet<?> other) {
+      if (root == null || other.root == null)
+         return empty();
+      Count dropped = new Count();
+      MapNode newroot = PersistentHashMap.filterNodes(HASHER, root, other.root, 0, true, dropped);
+      if (newroot == root)
+         return this;
+      return new PersistentHashSet<T>(count - dropped.n, newroot);
+   }
+
+   /**
+    * @return the elements of this set that are not in other
+    */
+   public PersistentHashSet<T> difference(PersistentHashSet<?> other) {
+      if (root == null || other.root == null)
+         return this;
+      Count kept = new Count();
+      MapNode newroot = PersistentHashMap.filterNodes(HASHER, root, other.root, 0, false, kept);
+      if (newroot == root)
+         return this;
+      return new PersistentHashSet<T>(kept.n, newroot);
+   }
+
+   @Override
+   public Iterator<T> iterator() {
+      return new KeyIterator<T>(root, false, null);
+   }
+
+   @Override
+   public int size() {
+      return count;
+   }
+
+   public TransientSet<T> toTransientSet() {
+      return new TransientHashSet<T>(this);
+   }
+
+   /**
+    * A TransientHashMap over key only nodes, the elements being its keys.
+    */
+   static final class TransientHashSet<T> extends AbstractSet<T> implements TransientSet<T> {
+
+      final TransientHashMap<T, Object> map;
+
+      @SuppressWarnings("unchecked")
+      TransientHashSet(PersistentHashSet<T> s) {
+         this.map = new TransientHashMap<T, Object>(new AtomicReference<Thread>(Thread.currentThread()), s.root, s.count, false, null, HASHER);
+      }
+
+      @Override
+      public boolean add(T val) {
+         map.ensureEditable();
+         if (val == null) {
+            throw new IllegalArgumentException("Null elements are not allowed");
+         }
+         if (map.root == null)
+            map.root = BitmapIndexedKeyNode.EMPTY;
+         int before = map.count;
+         map.doAssoc(val, null);
+         return map.count != before;
+      }
+
+      @Override
+      public boolean remove(Object val) {
+         map.ensureEditable();
+         if (val == null)
+            return false;
+         int before = map.count;
+         map.doWithout(val);
+         return map.count != before;
+      }
+
+      @Override
+      public boolean contains(Object o) {
+         map.ensureEditable();
+         return o != null && map.doValAt(o, null) != null;
+      }
+
+      @Override
+      public Iterator<T> iterator() {
+         map.ensureEditable();
+         return new KeyIterator<T>(map.root, false, null);
+      }
+
+      @Override
+      public int size() {
+         map.ensureEditable();
+         return map.count;
+      }
+
+      public PersistentSet<T> toPersistentSet() {
+         map.ensureEditable();
+         map.edit.set(null);
+         return new PersistentHashSet<T>(map.count, map.root);
+      }
+
+      /**
+       * Makes the calling thread the owner, see TransientTreeList.claim.
+       */
+      void claim() {
+         map.claim();
+      }
+   }
+
+   private Object writeReplace() {
+      return new CollectionProxy(CollectionProxy.HASH_SET, this);
+   }
+
+   private void readObject(ObjectInputStream in) throws InvalidObjectException {
+      throw new InvalidObjectException("Proxy required");
+   }
+}
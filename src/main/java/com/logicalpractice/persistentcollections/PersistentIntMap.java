@@ -0,0 +1,470 @@
+package com.logicalpractice.persistentcollections;
+
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Hash array mapped trie keyed by unboxed ints, the int counterpart of PersistentLongMap and
+ * laid out the same way.
+ */
+public final class PersistentIntMap<V> implements Serializable {
+
+   /**
+    * Receives the entries of the map without boxing the key.
+    */
+   public interface EntryConsumer<V> {
+      void accept(int key, V value);
+   }
+
+   private static final PersistentIntMap EMPTY = new PersistentIntMap(0, BitmapNode.EMPTY);
+
+   private final int count;
+   private final Node root;
+
+   PersistentIntMap(int count, Node root) {
+      this.count = count;
+      this.root = root;
+   }
+
+   @SuppressWarnings("unchecked")
+   public static <V> PersistentIntMap<V> empty() {
+      return EMPTY;
+   }
+
+   /**
+    * The finalizer from MurmurHash3's 32 bit variant.
+    */
+   static int hash(int key) {
+      key ^= key >>> 16;
+      key *= 0x85ebca6b;
+      key ^= key >>> 13;
+      key *= 0xc2b2ae35;
+      key ^= key >>> 16;
+      return key;
+   }
+
+   public int size() {
+      return count;
+   }
+
+   public boolean isEmpty() {
+      return count == 0;
+   }
+
+   public boolean containsKey(int key) {
+      return root.find(key, hash(key), 0, NOT_FOUND) != NOT_FOUND;
+   }
+
+   public V get(int key) {
+      return getOrDefault(key, null);
+   }
+
+   @SuppressWarnings("unchecked")
+   public V getOrDefault(int key, V notFound) {
+      return (V) root.find(key, hash(key), 0, notFound);
+   }
+
+   public PersistentIntMap<V> with(int key, V val) {
+      PersistentHashMap.Box addedLeaf = new PersistentHashMap.Box(null);
+      Node newroot = root.assoc(key, hash(key), 0, val, addedLeaf);
+      if (newroot == root)
+         return this;
+      return new PersistentIntMap<V>(addedLeaf.val == null ? count : count + 1, newroot);
+   }
+
+   public PersistentIntMap<V> without(int key) {
+      Node newroot = root.without(key, hash(key), 0);
+      if (newroot == root)
+         return this;
+      return new PersistentIntMap<V>(count - 1, newroot);
+   }
+
+   @SuppressWarnings("unchecked")
+   public void forEach(EntryConsumer<? super V> action) {
+      Cursor cursor = new Cursor(root);
+      while (cursor.advance())
+         action.accept(cursor.key, (V) cursor.val);
+   }
+
+   Cursor cursor() {
+      return new Cursor(root);
+   }
+
+   public PrimitiveIterator.OfInt keyIterator() {
+      return new PrimitiveIterator.OfInt() {
+         private final Cursor cursor = new Cursor(root);
+         private boolean advanced;
+         private boolean more;
+
+         @Override
+         public boolean hasNext() {
+            if (!advanced) {
+               more = cursor.advance();
+               advanced = true;
+            }
+            return more;
+         }
+
+         @Override
+         public int nextInt() {
+            if (!hasNext())
+               throw new NoSuchElementException();
+            advanced = false;
+            return cursor.key;
+         }
+      };
+   }
+
+   @Override
+   public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof PersistentIntMap)) return false;
+
+      PersistentIntMap other = (PersistentIntMap) o;
+      if (count != other.count)
+         return false;
+      Cursor cursor = new Cursor(root);
+      while (cursor.advance()) {
+         Object theirs = other.root.find(cursor.key, hash(cursor.key), 0, NOT_FOUND);
+         if (theirs == NOT_FOUND || !Util.equals(cursor.val, theirs))
+            return false;
+      }
+      return true;
+   }
+
+   @Override
+   public int hashCode() {
+      // matches Map.hashCode for the boxed equivalent
+      int result = 0;
+      Cursor cursor = new Cursor(root);
+      while (cursor.advance())
+         result += Integer.hashCode(cursor.key) ^ (cursor.val == null ? 0 : cursor.val.hashCode());
+      return result;
+   }
+
+   @Override
+   public String toString() {
+      final StringBuilder sb = new StringBuilder("{");
+      Cursor cursor = new Cursor(root);
+      while (cursor.advance()) {
+         if (sb.length() > 1)
+            sb.append(", ");
+         sb.append(cursor.key).append('=').append(cursor.val);
+      }
+      return sb.append('}').toString();
+   }
+
+   private final static Object NOT_FOUND = new Object();
+
+   static int mask(int hash, int shift) {
+      return (hash >>> shift) & 0x01f;
+   }
+
+   static abstract class Node implements Serializable {
+
+      abstract Object find(int key, int hash, int shift, Object notFound);
+
+      abstract Node assoc(int key, int hash, int shift, Object val, PersistentHashMap.Box addedLeaf);
+
+      abstract Node without(int key, int hash, int shift);
+
+      abstract void pushFrame(Cursor cursor);
+   }
+
+   static final class BitmapNode extends Node {
+      static final BitmapNode EMPTY = new BitmapNode(0, 0, new int[0], new Object[0]);
+
+      final int datamap;
+      final int nodemap;
+      final int[] keys;
+      // values for each key followed by the child nodes
+      final Object[] slots;
+
+      BitmapNode(int datamap, int nodemap, int[] keys, Object[] slots) {
+         this.datamap = datamap;
+         this.nodemap = nodemap;
+         this.keys = keys;
+         this.slots = slots;
+      }
+
+      boolean isSingleEntry() {
+         return nodemap == 0 && keys.length == 1;
+      }
+
+      Object find(int key, int hash, int shift, Object notFound) {
+         int bit = 1 << mask(hash, shift);
+         if ((datamap & bit) != 0) {
+            int idx = Integer.bitCount(datamap & (bit - 1));
+            return keys[idx] == key ? slots[idx] : notFound;
+         }
+         if ((nodemap & bit) != 0)
+            return child(bit).find(key, hash, shift + 5, notFound);
+         return notFound;
+      }
+
+      private int childIndex(int bit) {
+         return keys.length + Integer.bitCount(nodemap & (bit - 1));
+      }
+
+      private Node child(int bit) {
+         return (Node) slots[childIndex(bit)];
+      }
+
+      Node assoc(int key, int hash, int shift, Object val, PersistentHashMap.Box addedLeaf) {
+         int bit = 1 << mask(hash, shift);
+         if ((datamap & bit) != 0) {
+            int idx = Integer.bitCount(datamap & (bit - 1));
+            if (keys[idx] == key) {
+               if (slots[idx] == val)
+                  return this;
+               Object[] newSlots = slots.clone();
+               newSlots[idx] = val;
+               return new BitmapNode(datamap, nodemap, keys, newSlots);
+            }
+            addedLeaf.val = addedLeaf;
+            Node node = createNode(shift + 5, keys[idx], slots[idx], key, hash, val);
+            return migrateToNode(bit, idx, node);
+         }
+         if ((nodemap & bit) != 0) {
+            int idx = childIndex(bit);
+            Node node = (Node) slots[idx];
+            Node n = node.assoc(key, hash, shift + 5, val, addedLeaf);
+            if (n == node)
+               return this;
+            Object[] newSlots = slots.clone();
+            newSlots[idx] = n;
+            return new BitmapNode(datamap, nodemap, keys, newSlots);
+         }
+         addedLeaf.val = addedLeaf;
+         int idx = Integer.bitCount(datamap & (bit - 1));
+         int[] newKeys = new int[keys.length + 1];
+         System.arraycopy(keys, 0, newKeys, 0, idx);
+         newKeys[idx] = key;
+         System.arraycopy(keys, idx, newKeys, idx + 1, keys.length - idx);
+         Object[] newSlots = new Object[slots.length + 1];
+         System.arraycopy(slots, 0, newSlots, 0, idx);
+         newSlots[idx] = val;
+         System.arraycopy(slots, idx, newSlots, idx + 1, slots.length - idx);
+         return new BitmapNode(datamap | bit, nodemap, newKeys, newSlots);
+      }
+
+      Node without(int key, int hash, int shift) {
+         int bit = 1 << mask(hash, shift);
+         if ((datamap & bit) != 0) {
+            int idx = Integer.bitCount(datamap & (bit - 1));
+            if (keys[idx] != key)
+               return this;
+            int[] newKeys = new int[keys.length - 1];
+            System.arraycopy(keys, 0, newKeys, 0, idx);
+            System.arraycopy(keys, idx + 1, newKeys, idx, newKeys.length - idx);
+            Object[] newSlots = new Object[slots.length - 1];
+            System.arraycopy(slots, 0, newSlots, 0, idx);
+            System.arraycopy(slots, idx + 1, newSlots, idx, newSlots.length - idx);
+            return new BitmapNode(datamap ^ bit, nodemap, newKeys, newSlots);
+         }
+         if ((nodemap & bit) != 0) {
+            int idx = childIndex(bit);
+            Node node = (Node) slots[idx];
+            Node n = node.without(key, hash, shift + 5);
+            if (n == node)
+               return this;
+            if (n instanceof BitmapNode && ((BitmapNode) n).isSingleEntry())
+               return migrateToData(bit, idx, ((BitmapNode) n).keys[0], ((BitmapNode) n).slots[0]);
+            Object[] newSlots = slots.clone();
+            newSlots[idx] = n;
+            return new BitmapNode(datamap, nodemap, keys, newSlots);
+         }
+         return this;
+      }
+
+      private BitmapNode migrateToNode(int bit, int dataIdx, Node node) {
+         int[] newKeys = new int[keys.length - 1];
+         System.arraycopy(keys, 0, newKeys, 0, dataIdx);
+         System.arraycopy(keys, dataIdx + 1, newKeys, dataIdx, newKeys.length - dataIdx);
+         int nodeIdx = newKeys.length + Integer.bitCount(nodemap & (bit - 1));
+         Object[] newSlots = new Object[slots.length];
+         System.arraycopy(slots, 0, newSlots, 0, dataIdx);
+         System.arraycopy(slots, dataIdx + 1, newSlots, dataIdx, nodeIdx - dataIdx);
+         newSlots[nodeIdx] = node;
+         System.arraycopy(slots, nodeIdx + 1, newSlots, nodeIdx + 1, slots.length - nodeIdx - 1);
+         return new BitmapNode(datamap ^ bit, nodemap | bit, newKeys, newSlots);
+      }
+
+      private BitmapNode migrateToData(int bit, int nodeIdx, int key, Object val) {
+         int dataIdx = Integer.bitCount(datamap & (bit - 1));
+         int[] newKeys = new int[keys.length + 1];
+         System.arraycopy(keys, 0, newKeys, 0, dataIdx);
+         newKeys[dataIdx] = key;
+         System.arraycopy(keys, dataIdx, newKeys, dataIdx + 1, keys.length - dataIdx);
+         Object[] newSlots = new Object[slots.length];
+         System.arraycopy(slots, 0, newSlots, 0, dataIdx);
+         newSlots[dataIdx] = val;
+         System.arraycopy(slots, dataIdx, newSlots, dataIdx + 1, nodeIdx - dataIdx);
+         System.arraycopy(slots, nodeIdx + 1, newSlots, nodeIdx + 1, slots.length - nodeIdx - 1);
+         return new BitmapNode(datamap | bit, nodemap ^ bit, newKeys, newSlots);
+      }
+
+      void pushFrame(Cursor cursor) {
+         cursor.push(this);
+      }
+   }
+
+   /**
+    * Keys whose mixed hashes are equal.
+    */
+   static final class CollisionNode extends Node {
+      final int hash;
+      final int[] keys;
+      final Object[] vals;
+
+      CollisionNode(int hash, int[] keys, Object[] vals) {
+         this.hash = hash;
+         this.keys = keys;
+         this.vals = vals;
+      }
+
+      private int findIndex(int key) {
+         for (int i = 0; i < keys.length; i++)
+            if (keys[i] == key)
+               return i;
+         return -1;
+      }
+
+      Object find(int key, int hash, int shift, Object notFound) {
+         int idx = findIndex(key);
+         return idx < 0 ? notFound : vals[idx];
+      }
+
+      Node assoc(int key, int hash, int shift, Object val, PersistentHashMap.Box addedLeaf) {
+         if (hash == this.hash) {
+            int idx = findIndex(key);
+            if (idx != -1) {
+               if (vals[idx] == val)
+                  return this;
+               Object[] newVals = vals.clone();
+               newVals[idx] = val;
+               return new CollisionNode(hash, keys, newVals);
+            }
+            addedLeaf.val = addedLeaf;
+            int[] newKeys = Arrays.copyOf(keys, keys.length + 1);
+            newKeys[keys.length] = key;
+            Object[] newVals = Arrays.copyOf(vals, vals.length + 1);
+            newVals[vals.length] = val;
+            return new CollisionNode(hash, newKeys, newVals);
+         }
+         // nest it in a bitmap node
+         return new BitmapNode(0, 1 << mask(this.hash, shift), new int[0], new Object[]{this})
+               .assoc(key, hash, shift, val, addedLeaf);
+      }
+
+      Node without(int key, int hash, int shift) {
+         int idx = findIndex(key);
+         if (idx == -1)
+            return this;
+         if (keys.length == 2) // the parent pulls the survivor up
+            return new BitmapNode(1, 0, new int[]{keys[1 - idx]}, new Object[]{vals[1 - idx]});
+         int[] newKeys = new int[keys.length - 1];
+         System.arraycopy(keys, 0, newKeys, 0, idx);
+         System.arraycopy(keys, idx + 1, newKeys, idx, newKeys.length - idx);
+         Object[] newVals = new Object[vals.length - 1];
+         System.arraycopy(vals, 0, newVals, 0, idx);
+         System.arraycopy(vals, idx + 1, newVals, idx, newVals.length - idx);
+         return new CollisionNode(hash, newKeys, newVals);
+      }
+
+      void pushFrame(Cursor cursor) {
+         cursor.push(this);
+      }
+   }
+
+   private static Node createNode(int shift, int key1, Object val1, int key2, int key2hash, Object val2) {
+      int key1hash = hash(key1);
+      if (key1hash == key2hash)
+         return new CollisionNode(key1hash, new int[]{key1, key2}, new Object[]{val1, val2});
+      int mask1 = mask(key1hash, shift);
+      int mask2 = mask(key2hash, shift);
+      if (mask1 == mask2)
+         return new BitmapNode(0, 1 << mask1, new int[0],
+               new Object[]{createNode(shift + 5, key1, val1, key2, key2hash, val2)});
+      if (mask1 < mask2)
+         return new BitmapNode((1 << mask1) | (1 << mask2), 0, new int[]{key1, key2}, new Object[]{val1, val2});
+      return new BitmapNode((1 << mask1) | (1 << mask2), 0, new int[]{key2, key1}, new Object[]{val2, val1});
+   }
+
+   /**
+    * Depth first walk over the trie with an explicit stack, as PersistentHashMap.NodeIterator.
+    * After advance() returns true the current entry is held in key and val.
+    */
+   static final class Cursor {
+      // 7 levels of 5 bits covers the hash, plus one for a collision node
+      private int[][] keyArrays = new int[8][];
+      private Object[][] slotArrays = new Object[8][];
+      private int[] positions = new int[8];
+      private int[] childPositions = new int[8];
+      private int depth = -1;
+
+      int key;
+      Object val;
+
+      Cursor(Node root) {
+         root.pushFrame(this);
+      }
+
+      void push(BitmapNode node) {
+         push(node.keys, node.slots);
+      }
+
+      void push(CollisionNode node) {
+         push(node.keys, node.vals);
+      }
+
+      private void push(int[] keys, Object[] slots) {
+         if (++depth == keyArrays.length) {
+            keyArrays = Arrays.copyOf(keyArrays, depth * 2);
+            slotArrays = Arrays.copyOf(slotArrays, depth * 2);
+            positions = Arrays.copyOf(positions, depth * 2);
+            childPositions = Arrays.copyOf(childPositions, depth * 2);
+         }
+         keyArrays[depth] = keys;
+         slotArrays[depth] = slots;
+         positions[depth] = 0;
+         childPositions[depth] = keys.length;
+      }
+
+      boolean advance() {
+         while (depth >= 0) {
+            int[] keys = keyArrays[depth];
+            int i = positions[depth];
+            if (i < keys.length) {
+               positions[depth] = i + 1;
+               key = keys[i];
+               val = slotArrays[depth][i];
+               return true;
+            }
+            Object[] slots = slotArrays[depth];
+            int c = childPositions[depth];
+            if (c < slots.length) {
+               childPositions[depth] = c + 1;
+               ((Node) slots[c]).pushFrame(this);
+               continue;
+            }
+            keyArrays[depth] = null;
+            slotArrays[depth--] = null;
+         }
+         val = null;
+         return false;
+      }
+   }
+
+   private Object writeReplace() {
+      return new CollectionProxy(CollectionProxy.INT_MAP, this);
+   }
+
+   private void readObject(ObjectInputStream in) throws InvalidObjectException {
+      throw new InvalidObjectException("Proxy required");
+   }
+}
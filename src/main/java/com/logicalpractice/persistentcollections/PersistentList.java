@@ -2,6 +2,9 @@ package com.logicalpractice.persistentcollections;
 
 import java.util.List;
 import java.util.RandomAccess;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 /**
  *
@@ -13,4 +16,43 @@ public interface PersistentList<T> extends List<T>, RandomAccess {
    PersistentList<T> withAppended(T val);
 
    TransientList<T> toTransientList();
+
+   /**
+    * Folds the elements in order into init with fn, with no iterator involved.
+    */
+   default <R> R reduce(R init, BiFunction<R, ? super T, R> fn) {
+      R acc = init;
+      for (int i = 0, n = size(); i < n; i++)
+         acc = fn.apply(acc, get(i));
+      return acc;
+   }
+
+   /**
+    * As reduce, stopping as soon as done accepts the accumulated value.
+    */
+   default <R> R reduce(R init, BiFunction<R, ? super T, R> fn, Predicate<? super R> done) {
+      R acc = init;
+      if (done.test(acc))
+         return acc;
+      for (int i = 0, n = size(); i < n; i++) {
+         acc = fn.apply(acc, get(i));
+         if (done.test(acc))
+            break;
+      }
+      return acc;
+   }
+
+   /**
+    * Hands the elements over in order as a series of full arrays, up to 32 elements each. The arrays
+    * may be the list's own storage and must not be modified or kept.
+    */
+   default void forEachChunk(Consumer<Object[]> action) {
+      int n = size();
+      for (int i = 0; i < n; i += 32) {
+         Object[] chunk = new Object[Math.min(32, n - i)];
+         for (int j = 0; j < chunk.length; j++)
+            chunk[j] = get(i + j);
+         action.accept(chunk);
+      }
+   }
 }
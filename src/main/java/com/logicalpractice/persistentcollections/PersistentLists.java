@@ -1,27 +1,45 @@
 package com.logicalpractice.persistentcollections;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 /**
  *
  */
 public class PersistentLists {
-   private final static AtomicReference<Thread> NOEDIT = new AtomicReference<Thread>(null);
+   final static AtomicReference<Thread> NOEDIT = new AtomicReference<Thread>(null);
    final static Node EMPTY_NODE = new Node(NOEDIT, new Object[32]);
    public final static PersistentTreeList EMPTY = new PersistentTreeList(0, 5, EMPTY_NODE, new Object[]{});
 
+   // below this many items createParallel hands over to create
+   final static int PARALLEL_THRESHOLD = 8192;
+
+   // createParallel splits its items into runs of no more than this many for separate tasks
+   final static int PARALLEL_RUN = 4096;
+
    @SuppressWarnings("unchecked")
    static public <T> PersistentList<T> emptyPersistentList() { return EMPTY ;}
 
    static public <T> PersistentList<T> create(Sequence<T> items) {
       TransientList<T> ret = PersistentLists.<T>emptyPersistentList().toTransientList();
-      for (; items != null; items = items.rest())
-         ret.add(items.first());
+      for (T item : Sequences.iterable(items))
+         ret.add(item);
       return ret.toPersistentList();
    }
 
    static public <T> PersistentList<T> create(Iterable<T> items) {
+      if (items instanceof Collection) {
+         // a concurrent collection's size may not match the array it hands out
+         Object[] array = ((Collection<?>) items).toArray();
+         return build(array, 0, array.length);
+      }
       TransientList<T> ret = PersistentLists.<T>emptyPersistentList().toTransientList();
       for (T item : items)
          ret.add(item);
@@ -29,10 +47,173 @@ public class PersistentLists {
    }
 
    static public <T> PersistentList<T> create(T... items) {
-      TransientList<T> ret = PersistentLists.<T>emptyPersistentList().toTransientList();
+      return build(items, 0, items.length);
+   }
+
+   /**
+    * Builds a list from a block of items in one pass, copying whole leaves with arraycopy and then
+    * assembling each level of the trie from the one below, rather than pushing every item through
+    * a transient.
+    */
+   @SuppressWarnings("unchecked")
+   static <T> PersistentTreeList<T> build(Object[] items, int from, int to) {
+      int cnt = to - from;
+      if (cnt == 0)
+         return EMPTY;
+      int tailLength = ((cnt - 1) & 0x01f) + 1;
+      int tailoff = cnt - tailLength;
+      Object[] tail = new Object[tailLength];
+      System.arraycopy(items, from + tailoff, tail, 0, tailLength);
+
+      Node[] leaves = new Node[tailoff >>> 5];
+      for (int i = 0; i < leaves.length; i++) {
+         Object[] array = new Object[32];
+         System.arraycopy(items, from + (i << 5), array, 0, 32);
+         leaves[i] = new Node(NOEDIT, array);
+      }
+      return fromLeaves(leaves, leaves.length, cnt, tail);
+   }
+
+   /**
+    * As create, but filling the leaves on the common ForkJoinPool. The collection's spliterator is
+    * split into runs, every one but the last a whole number of leaves, and each task copies its run
+    * into leaves of its own. The runs join by concatenating their leaves and the levels above are
+    * assembled over them as in build. Collections smaller than PARALLEL_THRESHOLD, or whose
+    * spliterator can't give the exact size of its splits, are built by create.
+    */
+   @SuppressWarnings("unchecked")
+   static public <T> PersistentList<T> createParallel(Collection<T> items) {
+      Spliterator<T> spliterator = items.spliterator();
+      if (spliterator.getExactSizeIfKnown() < PARALLEL_THRESHOLD || !spliterator.hasCharacteristics(Spliterator.SUBSIZED))
+         return create(items);
+      LeafRun run = ForkJoinPool.commonPool().invoke(new LeafRunTask(spliterator, new Object[0]));
+      int count = run.count;
+      Object[] tail;
+      if (run.restCount != 0) {
+         tail = Arrays.copyOf(run.rest, run.restCount);
+      } else {
+         // the last whole leaf becomes the tail
+         count--;
+         tail = run.leaves[count].array;
+      }
+      return fromLeaves(run.leaves, count, (count << 5) + tail.length, tail);
+   }
+
+   /**
+    * Items copied into leaves: count whole leaves, then restCount items that don't fill one.
+    */
+   static final class LeafRun implements Consumer<Object> {
+      Node[] leaves;
+      int count;
+      Object[] rest = new Object[32];
+      int restCount;
+
+      LeafRun(long size) {
+         this.leaves = new Node[(int) (size >>> 5)];
+      }
+
+      @Override
+      public void accept(Object item) {
+         rest[restCount++] = item;
+         if (restCount == 32) {
+            leaves[count++] = new Node(NOEDIT, rest);
+            rest = new Object[32];
+            restCount = 0;
+         }
+      }
+
+      /**
+       * Appends the leaves of the run after this one, which this must end on a whole leaf to allow.
+       */
+      LeafRun join(LeafRun after) {
+         if (after.count == 0 && after.restCount == 0)
+            return this;
+         Node[] joined = Arrays.copyOf(leaves, count + after.count);
+         System.arraycopy(after.leaves, 0, joined, count, after.count);
+         leaves = joined;
+         count += after.count;
+         rest = after.rest;
+         restCount = after.restCount;
+         return this;
+      }
+   }
+
+   /**
+    * Copies the items of a spliterator, followed by any carried over from the run after it, into a
+    * LeafRun. A run longer than PARALLEL_RUN is split in two, the first half carrying enough items
+    * from the front of the second to end on a whole leaf.
+    */
+   static final class LeafRunTask extends RecursiveTask<LeafRun> {
+      private final Spliterator<?> items;
+      private final Object[] carried;
+
+      LeafRunTask(Spliterator<?> items, Object[] carried) {
+         this.items = items;
+         this.carried = carried;
+      }
+
+      @Override
+      protected LeafRun compute() {
+         Spliterator<?> prefix;
+         if (items.estimateSize() > PARALLEL_RUN && (prefix = items.trySplit()) != null) {
+            LeafRun carry = new LeafRun(0);
+            int needed = (int) (-prefix.getExactSizeIfKnown() & 0x01f);
+            while (carry.restCount < needed)
+               if (!items.tryAdvance(carry))
+                  break;
+            int taken = Math.min(needed - carry.restCount, carried.length);
+            System.arraycopy(carried, 0, carry.rest, carry.restCount, taken);
+            LeafRunTask first = new LeafRunTask(prefix, Arrays.copyOf(carry.rest, carry.restCount + taken));
+            LeafRunTask second = new LeafRunTask(items, Arrays.copyOfRange(carried, taken, carried.length));
+            second.fork();
+            return first.compute().join(second.join());
+         }
+         LeafRun ret = new LeafRun(items.getExactSizeIfKnown() + carried.length);
+         items.forEachRemaining(ret);
+         for (Object item : carried)
+            ret.accept(item);
+         return ret;
+      }
+   }
+
+   /**
+    * Assembles the internal levels over the first count full leaves. The nodes array is reused to
+    * hold each level as it is built.
+    */
+   static <T> PersistentTreeList<T> fromLeaves(Node[] nodes, int count, int cnt, Object[] tail) {
+      if (count == 0)
+         return new PersistentTreeList<T>(cnt, 5, EMPTY_NODE, tail);
+      int shift = 5;
+      while (count > 32) {
+         int parents = (count + 31) >>> 5;
+         for (int i = 0; i < parents; i++) {
+            Object[] array = new Object[32];
+            System.arraycopy(nodes, i << 5, array, 0, Math.min(32, count - (i << 5)));
+            nodes[i] = new Node(NOEDIT, array);
+         }
+         count = parents;
+         shift += 5;
+      }
+      Object[] array = new Object[32];
+      System.arraycopy(nodes, 0, array, 0, count);
+      return new PersistentTreeList<T>(cnt, shift, new Node(NOEDIT, array), tail);
+   }
+
+   /**
+    * Creates a relaxed radix balanced list, which supports concat, slice and insertAt in
+    * logarithmic time.
+    */
+   static public <T> PersistentRrbTreeList<T> createRelaxed(Iterable<T> items) {
+      if (items instanceof Collection)
+         return PersistentRrbTreeList.build(((Collection<?>) items).toArray());
+      ArrayList<T> ret = new ArrayList<T>();
       for (T item : items)
          ret.add(item);
-      return ret.toPersistentList();
+      return PersistentRrbTreeList.build(ret.toArray());
+   }
+
+   static public <T> PersistentRrbTreeList<T> createRelaxed(T... items) {
+      return PersistentRrbTreeList.build(items);
    }
 
    static Node doAssoc(int level, Node node, int i, Object val) {
@@ -68,4 +249,17 @@ public class PersistentLists {
          this.array = new Object[32];
       }
    }
+
+   /**
+    * Internal node of a relaxed radix balanced trie. Children may hold fewer items than a full
+    * subtree so sizes holds the cumulative item count up to and including each child.
+    */
+   static final class RelaxedNode extends Node {
+      final int[] sizes;
+
+      RelaxedNode(AtomicReference<Thread> edit, Object[] array, int[] sizes) {
+         super(edit, array);
+         this.sizes = sizes;
+      }
+   }
 }
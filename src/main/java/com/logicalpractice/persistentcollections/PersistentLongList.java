@@ -0,0 +1,404 @@
+package com.logicalpractice.persistentcollections;
+
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongConsumer;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * PersistentTreeList specialised for long items. The trie has the same shape, tail and transient
+ * editing model but the leaves are long[] arrays, so no item is ever boxed.
+ * <p/>
+ * Internal nodes are PersistentLists.Node, the nodes at the bottom level point to Leaf.
+ */
+public final class PersistentLongList implements Serializable {
+
+   static final class Leaf implements Serializable {
+      transient final AtomicReference<Thread> edit;
+      final long[] array;
+
+      Leaf(AtomicReference<Thread> edit, long[] array) {
+         this.edit = edit;
+         this.array = array;
+      }
+   }
+
+   public final static PersistentLongList EMPTY = new PersistentLongList(0, 5, PersistentLists.EMPTY_NODE, new long[]{});
+
+   private final int cnt;
+   private final int shift;
+   private final PersistentLists.Node root;
+   private final long[] tail;
+
+   PersistentLongList(int cnt, int shift, PersistentLists.Node root, long[] tail) {
+      this.cnt = cnt;
+      this.shift = shift;
+      this.root = root;
+      this.tail = tail;
+   }
+
+   /**
+    * Builds the list bottom up, copying whole leaves out of items.
+    */
+   public static PersistentLongList create(long... items) {
+      int cnt = items.length;
+      if (cnt == 0)
+         return EMPTY;
+      int tailLength = ((cnt - 1) & 0x01f) + 1;
+      int tailoff = cnt - tailLength;
+      long[] tail = Arrays.copyOfRange(items, tailoff, cnt);
+      int count = tailoff >>> 5;
+      if (count == 0)
+         return new PersistentLongList(cnt, 5, PersistentLists.EMPTY_NODE, tail);
+      Object[] nodes = new Object[count];
+      for (int i = 0; i < count; i++)
+         nodes[i] = new Leaf(PersistentLists.NOEDIT, Arrays.copyOfRange(items, i << 5, (i + 1) << 5));
+      int shift = 5;
+      while (count > 32) {
+         int parents = (count + 31) >>> 5;
+         for (int i = 0; i < parents; i++) {
+            Object[] array = new Object[32];
+            System.arraycopy(nodes, i << 5, array, 0, Math.min(32, count - (i << 5)));
+            nodes[i] = new PersistentLists.Node(PersistentLists.NOEDIT, array);
+         }
+         count = parents;
+         shift += 5;
+      }
+      Object[] array = new Object[32];
+      System.arraycopy(nodes, 0, array, 0, count);
+      return new PersistentLongList(cnt, shift, new PersistentLists.Node(PersistentLists.NOEDIT, array), tail);
+   }
+
+   private static PersistentLists.Node editableRoot(PersistentLists.Node node) {
+      return new PersistentLists.Node(new AtomicReference<Thread>(Thread.currentThread()), node.array.clone());
+   }
+
+   private static long[] editableTail(long[] tl) {
+      long[] ret = new long[32];
+      System.arraycopy(tl, 0, ret, 0, tl.length);
+      return ret;
+   }
+
+   public TransientLongList toTransientList() {
+      return new TransientLongList(this.cnt, this.shift, editableRoot(this.root), editableTail(this.tail));
+   }
+
+   final int tailoff() {
+      if (cnt < 32)
+         return 0;
+      return ((cnt - 1) >>> 5) << 5;
+   }
+
+   long[] arrayFor(int i) {
+      if (i >= 0 && i < cnt) {
+         if (i >= tailoff())
+            return tail;
+         PersistentLists.Node node = root;
+         for (int level = shift; level > 5; level -= 5)
+            node = (PersistentLists.Node) node.array[(i >>> level) & 0x01f];
+         return ((Leaf) node.array[(i >>> 5) & 0x01f]).array;
+      }
+      throw new IndexOutOfBoundsException();
+   }
+
+   /**
+    * @throws IndexOutOfBoundsException if index is out of range
+    */
+   public long get(int index) {
+      return arrayFor(index)[index & 0x01f];
+   }
+
+   public int size() {
+      return cnt;
+   }
+
+   public boolean isEmpty() {
+      return cnt == 0;
+   }
+
+   public PersistentLongList with(int i, long val) {
+      if (i >= 0 && i < cnt) {
+         if (i >= tailoff()) {
+            long[] newTail = tail.clone();
+            newTail[i & 0x01f] = val;
+            return new PersistentLongList(cnt, shift, root, newTail);
+         }
+         return new PersistentLongList(cnt, shift, doAssoc(shift, root, i, val), tail);
+      }
+      if (i == cnt)
+         return withAppended(val);
+      throw new IndexOutOfBoundsException();
+   }
+
+   private static PersistentLists.Node doAssoc(int level, PersistentLists.Node node, int i, long val) {
+      PersistentLists.Node ret = new PersistentLists.Node(node.edit, node.array.clone());
+      int subidx = (i >>> level) & 0x01f;
+      if (level == 5) {
+         Leaf leaf = (Leaf) node.array[subidx];
+         long[] array = leaf.array.clone();
+         array[i & 0x01f] = val;
+         ret.array[subidx] = new Leaf(leaf.edit, array);
+      } else {
+         ret.array[subidx] = doAssoc(level - 5, (PersistentLists.Node) node.array[subidx], i, val);
+      }
+      return ret;
+   }
+
+   public PersistentLongList withAppended(long val) {
+      //room in tail?
+      if (cnt - tailoff() < 32) {
+         long[] newTail = Arrays.copyOf(tail, tail.length + 1);
+         newTail[tail.length] = val;
+         return new PersistentLongList(cnt + 1, shift, root, newTail);
+      }
+      //full tail, push into tree
+      PersistentLists.Node newroot;
+      Leaf tailnode = new Leaf(root.edit, tail);
+      int newshift = shift;
+      //overflow root?
+      if ((cnt >>> 5) > (1 << shift)) {
+         newroot = new PersistentLists.Node(root.edit);
+         newroot.array[0] = root;
+         newroot.array[1] = newPath(root.edit, shift, tailnode);
+         newshift += 5;
+      } else
+         newroot = pushTail(shift, root, tailnode);
+      return new PersistentLongList(cnt + 1, newshift, newroot, new long[]{val});
+   }
+
+   static Object newPath(AtomicReference<Thread> edit, int level, Object node) {
+      if (level == 0)
+         return node;
+      PersistentLists.Node ret = new PersistentLists.Node(edit);
+      ret.array[0] = newPath(edit, level - 5, node);
+      return ret;
+   }
+
+   private PersistentLists.Node pushTail(int level, PersistentLists.Node parent, Leaf tailnode) {
+      int subidx = ((cnt - 1) >>> level) & 0x01f;
+      PersistentLists.Node ret = new PersistentLists.Node(parent.edit, parent.array.clone());
+      Object nodeToInsert;
+      if (level == 5) {
+         nodeToInsert = tailnode;
+      } else {
+         PersistentLists.Node child = (PersistentLists.Node) parent.array[subidx];
+         nodeToInsert = (child != null) ?
+               pushTail(level - 5, child, tailnode)
+               : newPath(root.edit, level - 5, tailnode);
+      }
+      ret.array[subidx] = nodeToInsert;
+      return ret;
+   }
+
+   public PersistentLongList pop() {
+      if (cnt == 0)
+         throw new IllegalStateException("Can't pop empty vector");
+      if (cnt == 1)
+         return EMPTY;
+      if (cnt - tailoff() > 1) {
+         long[] newTail = Arrays.copyOf(tail, tail.length - 1);
+         return new PersistentLongList(cnt - 1, shift, root, newTail);
+      }
+      long[] newtail = arrayFor(cnt - 2);
+
+      PersistentLists.Node newroot = popTail(shift, root);
+      int newshift = shift;
+      if (newroot == null) {
+         newroot = PersistentLists.EMPTY_NODE;
+      }
+      if (shift > 5 && newroot.array[1] == null) {
+         newroot = (PersistentLists.Node) newroot.array[0];
+         newshift -= 5;
+      }
+      return new PersistentLongList(cnt - 1, newshift, newroot, newtail);
+   }
+
+   private PersistentLists.Node popTail(int level, PersistentLists.Node node) {
+      int subidx = ((cnt - 2) >>> level) & 0x01f;
+      if (level > 5) {
+         PersistentLists.Node newchild = popTail(level - 5, (PersistentLists.Node) node.array[subidx]);
+         if (newchild == null && subidx == 0)
+            return null;
+         else {
+            PersistentLists.Node ret = new PersistentLists.Node(root.edit, node.array.clone());
+            ret.array[subidx] = newchild;
+            return ret;
+         }
+      } else if (subidx == 0)
+         return null;
+      else {
+         PersistentLists.Node ret = new PersistentLists.Node(root.edit, node.array.clone());
+         ret.array[subidx] = null;
+         return ret;
+      }
+   }
+
+   /**
+    * @return the index of the first element equal to val, or -1 if there is none
+    */
+   public int indexOf(long val) {
+      for (int i = 0; i < cnt; i += 32) {
+         long[] array = arrayFor(i);
+         int n = Math.min(32, cnt - i);
+         for (int j = 0; j < n; j++)
+            if (array[j] == val)
+               return i + j;
+      }
+      return -1;
+   }
+
+   public long[] toArray() {
+      long[] ret = new long[cnt];
+      for (int i = 0; i < cnt; i += 32)
+         System.arraycopy(arrayFor(i), 0, ret, i, Math.min(32, cnt - i));
+      return ret;
+   }
+
+   public void forEach(LongConsumer action) {
+      for (int i = 0; i < cnt; i += 32) {
+         long[] array = arrayFor(i);
+         int n = Math.min(32, cnt - i);
+         for (int j = 0; j < n; j++)
+            action.accept(array[j]);
+      }
+   }
+
+   public PrimitiveIterator.OfLong iterator() {
+      return new ChunkedIterator();
+   }
+
+   public Spliterator.OfLong spliterator() {
+      return new ChunkedSpliterator(0, cnt);
+   }
+
+   public LongStream stream() {
+      return StreamSupport.longStream(spliterator(), false);
+   }
+
+   @Override
+   public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof PersistentLongList)) return false;
+
+      PersistentLongList other = (PersistentLongList) o;
+      if (cnt != other.cnt)
+         return false;
+      for (int i = 0; i < cnt; i += 32) {
+         long[] mine = arrayFor(i);
+         long[] theirs = other.arrayFor(i);
+         int n = Math.min(32, cnt - i);
+         for (int j = 0; j < n; j++)
+            if (Long.compare(mine[j], theirs[j]) != 0)
+               return false;
+      }
+      return true;
+   }
+
+   @Override
+   public int hashCode() {
+      int result = 1;
+      for (int i = 0; i < cnt; i += 32) {
+         long[] array = arrayFor(i);
+         int n = Math.min(32, cnt - i);
+         for (int j = 0; j < n; j++)
+            result = 31 * result + Long.hashCode(array[j]);
+      }
+      return result;
+   }
+
+   @Override
+   public String toString() {
+      return Arrays.toString(toArray());
+   }
+
+   private final class ChunkedIterator implements PrimitiveIterator.OfLong {
+      private int i;
+      private long[] array;
+
+      @Override
+      public boolean hasNext() {
+         return i < cnt;
+      }
+
+      @Override
+      public long nextLong() {
+         if (i >= cnt)
+            throw new NoSuchElementException();
+         if ((i & 0x01f) == 0)
+            array = arrayFor(i);
+         return array[i++ & 0x01f];
+      }
+   }
+
+   private final class ChunkedSpliterator implements Spliterator.OfLong {
+      private final int fence;
+      private int index;
+      private long[] array;
+
+      ChunkedSpliterator(int origin, int fence) {
+         this.index = origin;
+         this.fence = fence;
+      }
+
+      @Override
+      public Spliterator.OfLong trySplit() {
+         int lo = index;
+         int mid = ((lo + fence) >>> 1) & ~0x01f;
+         if (mid <= lo)
+            return null;
+         index = mid;
+         array = null;
+         return new ChunkedSpliterator(lo, mid);
+      }
+
+      @Override
+      public boolean tryAdvance(LongConsumer action) {
+         if (index >= fence)
+            return false;
+         if (array == null || (index & 0x01f) == 0)
+            array = arrayFor(index);
+         action.accept(array[index++ & 0x01f]);
+         return true;
+      }
+
+      @Override
+      public void forEachRemaining(LongConsumer action) {
+         int i = index;
+         int hi = fence;
+         index = hi;
+         while (i < hi) {
+            long[] leaf = arrayFor(i);
+            int from = i & 0x01f;
+            int to = Math.min(32, from + hi - i);
+            for (int j = from; j < to; j++)
+               action.accept(leaf[j]);
+            i += to - from;
+         }
+      }
+
+      @Override
+      public long estimateSize() {
+         return fence - index;
+      }
+
+      @Override
+      public int characteristics() {
+         return Spliterator.ORDERED | Spliterator.SIZED | Spliterator.SUBSIZED | Spliterator.IMMUTABLE;
+      }
+   }
+
+   private Object writeReplace() {
+      return new CollectionProxy(CollectionProxy.LONG_LIST, this);
+   }
+
+   private void readObject(ObjectInputStream in) throws InvalidObjectException {
+      throw new InvalidObjectException("Proxy required");
+   }
+}
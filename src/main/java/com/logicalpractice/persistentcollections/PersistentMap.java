@@ -1,13 +1,46 @@
 package com.logicalpractice.persistentcollections;
 
 import java.util.Map;
+import java.util.function.Predicate;
 
 /**
  *
  */
 public interface PersistentMap<K,V> extends Map<K,V> {
+
+   /**
+    * Step of a reduction over a map's entries, taking the key and value apart so no Entry is made.
+    */
+   interface EntryFunction<R, K, V> {
+      R apply(R acc, K key, V value);
+   }
    
    PersistentMap<K,V> with(K key, V value);
 
    TransientMap<K,V> toTransientMap();
+
+   /**
+    * Folds every entry into init with fn, in the map's iteration order.
+    */
+   default <R> R reduce(R init, EntryFunction<R, ? super K, ? super V> fn) {
+      R acc = init;
+      for (Entry<K, V> entry : entrySet())
+         acc = fn.apply(acc, entry.getKey(), entry.getValue());
+      return acc;
+   }
+
+   /**
+    * As reduce, stopping as soon as done accepts the accumulated value.
+    */
+   default <R> R reduce(R init, EntryFunction<R, ? super K, ? super V> fn, Predicate<? super R> done) {
+      R acc = init;
+      if (done.test(acc))
+         return acc;
+      for (Entry<K, V> entry : entrySet()) {
+         acc = fn.apply(acc, entry.getKey(), entry.getValue());
+         if (done.test(acc))
+            break;
+      }
+      return acc;
+   }
 }
@@ -0,0 +1,146 @@
+package com.logicalpractice.persistentcollections;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Holder publishing successive versions of a persistent collection to other threads, in the manner
+ * of a clojure atom.
+ * <p/>
+ * Writers derive the next version from the current one with swap, which retries the update function
+ * against the latest version whenever another writer got in first, so update functions must be free
+ * of side effects. Readers simply get() and work with a consistent version for as long as they like.
+ * <p/>
+ * swapMap and swapList apply a whole batch of updates to one transient per attempt, so a contended
+ * writer redoes a single pass over the batch rather than a chain of with() calls, each copying a path.
+ * <p/>
+ * The ref counts successful swaps, failed compare and sets, and the time swaps spent including their
+ * retries, for spotting contention.
+ */
+public final class PersistentRef<C> {
+
+   private final AtomicReference<C> value;
+   private final LongAdder swaps = new LongAdder();
+   private final LongAdder retries = new LongAdder();
+   private final LongAdder swapNanos = new LongAdder();
+
+   public PersistentRef(C initial) {
+      this.value = new AtomicReference<C>(initial);
+   }
+
+   public C get() {
+      return value.get();
+   }
+
+   /**
+    * Sets the value if it is still expected, compared by identity.
+    */
+   public boolean compareAndSet(C expected, C update) {
+      return value.compareAndSet(expected, update);
+   }
+
+   /**
+    * Unconditionally replaces the value.
+    *
+    * @return the previous value
+    */
+   public C reset(C update) {
+      return value.getAndSet(update);
+   }
+
+   /**
+    * Applies fn to the current value and publishes the result, retrying against the new value when
+    * another thread changed it in the meantime.
+    *
+    * @return the value published
+    */
+   public C swap(UnaryOperator<C> fn) {
+      long start = System.nanoTime();
+      for (; ; ) {
+         C current = value.get();
+         C next = fn.apply(current);
+         if (value.compareAndSet(current, next)) {
+            swaps.increment();
+            swapNanos.add(System.nanoTime() - start);
+            return next;
+         }
+         retries.increment();
+      }
+   }
+
+   /**
+    * Applies every update, in order, to a single transient of the current map and publishes the
+    * result, retrying the whole batch if another thread swapped first.
+    *
+    * @return the map published
+    */
+   public static <K, V> PersistentMap<K, V> swapMap(PersistentRef<PersistentMap<K, V>> ref,
+                                                    final Collection<? extends Consumer<? super TransientMap<K, V>>> updates) {
+      return ref.swap(new UnaryOperator<PersistentMap<K, V>>() {
+         public PersistentMap<K, V> apply(PersistentMap<K, V> current) {
+            if (updates.isEmpty())
+               return current;
+            TransientMap<K, V> ret = current.toTransientMap();
+            for (Consumer<? super TransientMap<K, V>> update : updates)
+               update.accept(ret);
+            return ret.toPersistentMap();
+         }
+      });
+   }
+
+   /**
+    * As swapMap, for lists.
+    *
+    * @return the list published
+    */
+   public static <T> PersistentList<T> swapList(PersistentRef<PersistentList<T>> ref,
+                                                final Collection<? extends Consumer<? super TransientList<T>>> updates) {
+      return ref.swap(new UnaryOperator<PersistentList<T>>() {
+         public PersistentList<T> apply(PersistentList<T> current) {
+            if (updates.isEmpty())
+               return current;
+            TransientList<T> ret = current.toTransientList();
+            for (Consumer<? super TransientList<T>> update : updates)
+               update.accept(ret);
+            return ret.toPersistentList();
+         }
+      });
+   }
+
+   /**
+    * @return the number of successful swaps
+    */
+   public long swapCount() {
+      return swaps.sum();
+   }
+
+   /**
+    * @return the number of times a swap lost the race and reapplied its update
+    */
+   public long retryCount() {
+      return retries.sum();
+   }
+
+   /**
+    * @return the total nanoseconds successful swaps took, retries included
+    */
+   public long swapNanos() {
+      return swapNanos.sum();
+   }
+
+   /**
+    * @return the mean nanoseconds per successful swap, or 0 before the first
+    */
+   public double meanSwapNanos() {
+      long n = swaps.sum();
+      return n == 0 ? 0 : (double) swapNanos.sum() / n;
+   }
+
+   @Override
+   public String toString() {
+      return "PersistentRef[" + value.get() + "]";
+   }
+}
@@ -0,0 +1,523 @@
+package com.logicalpractice.persistentcollections;
+
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import com.logicalpractice.persistentcollections.PersistentHashMap.Box;
+
+import static com.logicalpractice.persistentcollections.PersistentLists.NOEDIT;
+import static com.logicalpractice.persistentcollections.PersistentLists.Node;
+import static com.logicalpractice.persistentcollections.PersistentLists.RelaxedNode;
+
+/**
+ * Relaxed Radix Balanced variant of the PersistentTreeList trie, after Bagwell and Rompf's
+ * "RRB-Trees: Efficient Immutable Vectors".
+ * <p/>
+ * Leaves hold up to 32 items in exactly sized arrays and every internal node is a RelaxedNode
+ * carrying a table of cumulative child sizes, so subtrees need not be full. That lets concat,
+ * slice and insertAt share all but a logarithmic number of nodes with the lists they came from.
+ * Lookups still start from the radix position of an index and step forward through the size
+ * table, which concatenation keeps short by rebalancing the nodes along the seam.
+ * <p/>
+ * There is no tail, appending copies the path to the last leaf. PersistentTreeList remains the
+ * better choice for lists that are only ever appended to.
+ */
+public final class PersistentRrbTreeList<T> extends AbstractList<T> implements PersistentList<T>, Serializable {
+
+   // nodes a level may hold beyond the optimum before concatenation rebalances it
+   private static final int EXTRAS = 2;
+
+   private static final PersistentRrbTreeList EMPTY = new PersistentRrbTreeList(0, 0, new Node(NOEDIT, new Object[0]));
+
+   private final int cnt;
+   private final int shift;
+   private final Node root;
+
+   PersistentRrbTreeList(int cnt, int shift, Node root) {
+      this.cnt = cnt;
+      this.shift = shift;
+      this.root = root;
+   }
+
+   @SuppressWarnings("unchecked")
+   static <T> PersistentRrbTreeList<T> empty() {
+      return EMPTY;
+   }
+
+   /**
+    * Builds a list with full leaves and internal nodes from the items, bottom up.
+    */
+   static <T> PersistentRrbTreeList<T> build(Object[] items) {
+      if (items.length == 0)
+         return empty();
+      Object[] nodes = new Object[(items.length + 31) >>> 5];
+      for (int i = 0; i < nodes.length; i++)
+         nodes[i] = new Node(NOEDIT, Arrays.copyOfRange(items, i << 5, Math.min(items.length, (i + 1) << 5)));
+      int count = nodes.length;
+      int level = 0;
+      while (count > 1) {
+         level += 5;
+         int parents = (count + 31) >>> 5;
+         for (int i = 0; i < parents; i++)
+            nodes[i] = relaxed(Arrays.copyOfRange(nodes, i << 5, Math.min(count, (i + 1) << 5)), level);
+         count = parents;
+      }
+      return new PersistentRrbTreeList<T>(items.length, level, (Node) nodes[0]);
+   }
+
+   @SuppressWarnings("unchecked")
+   @Override
+   public T get(int index) {
+      if (index < 0 || index >= cnt)
+         throw new IndexOutOfBoundsException();
+      Node node = root;
+      for (int level = shift; level > 0; level -= 5) {
+         int[] sizes = ((RelaxedNode) node).sizes;
+         int idx = childIndex(sizes, index, level);
+         if (idx > 0)
+            index -= sizes[idx - 1];
+         node = (Node) node.array[idx];
+      }
+      return (T) node.array[index];
+   }
+
+   @Override
+   public int size() {
+      return cnt;
+   }
+
+   @Override
+   public PersistentRrbTreeList<T> with(int i, T val) {
+      if (i >= 0 && i < cnt)
+         return new PersistentRrbTreeList<T>(cnt, shift, doAssoc(shift, root, i, val));
+      if (i == cnt)
+         return withAppended(val);
+      throw new IndexOutOfBoundsException();
+   }
+
+   @Override
+   public PersistentRrbTreeList<T> withAppended(T val) {
+      Node newroot = appendInto(shift, root, val);
+      if (newroot != null)
+         return new PersistentRrbTreeList<T>(cnt + 1, shift, newroot);
+      //overflow root
+      Node path = newPath(shift, new Node(NOEDIT, new Object[]{val}));
+      return new PersistentRrbTreeList<T>(cnt + 1, shift + 5, relaxed(new Object[]{root, path}, shift + 5));
+   }
+
+   public PersistentRrbTreeList<T> pop() {
+      if (cnt == 0)
+         throw new IllegalStateException("Can't pop empty vector");
+      return slice(0, cnt - 1);
+   }
+
+   /**
+    * Returns the items from index from (inclusive) to index to (exclusive), sharing every node
+    * outside the two paths to the new ends.
+    */
+   public PersistentRrbTreeList<T> slice(int from, int to) {
+      if (from < 0 || to > cnt || from > to)
+         throw new IndexOutOfBoundsException();
+      if (from == to)
+         return empty();
+      if (from == 0 && to == cnt)
+         return this;
+      Node node = dropFront(shift, takeFront(shift, root, to), from);
+      int level = shift;
+      while (level > 0 && node.array.length == 1) {
+         node = (Node) node.array[0];
+         level -= 5;
+      }
+      return new PersistentRrbTreeList<T>(to - from, level, node);
+   }
+
+   /**
+    * Appends all of other, merging the right edge of this trie with the left edge of the other.
+    * Lists of another type are first copied into a PersistentRrbTreeList.
+    */
+   @SuppressWarnings("unchecked")
+   public PersistentRrbTreeList<T> concat(PersistentList<? extends T> other) {
+      PersistentRrbTreeList<T> right = other instanceof PersistentRrbTreeList
+            ? (PersistentRrbTreeList<T>) other
+            : PersistentRrbTreeList.<T>build(other.toArray());
+      if (right.cnt == 0)
+         return this;
+      if (cnt == 0)
+         return right;
+      Node merged = concatSubTree(root, shift, right.root, right.shift);
+      int level = Math.max(shift, right.shift) + 5;
+      if (merged.array.length == 1) {
+         merged = (Node) merged.array[0];
+         level -= 5;
+      }
+      return new PersistentRrbTreeList<T>(cnt + right.cnt, level, merged);
+   }
+
+   public PersistentRrbTreeList<T> insertAt(int i, T val) {
+      if (i == cnt)
+         return withAppended(val);
+      if (i < 0 || i > cnt)
+         throw new IndexOutOfBoundsException();
+      return slice(0, i).withAppended(val).concat(slice(i, cnt));
+   }
+
+   /**
+    * Transients are only supported by PersistentTreeList, so the items are copied into one.
+    */
+   @Override
+   public TransientList<T> toTransientList() {
+      return PersistentLists.<T>build(toArray(), 0, cnt).toTransientList();
+   }
+
+   @Override
+   public Iterator<T> iterator() {
+      return new LeafIterator();
+   }
+
+   private static int childIndex(int[] sizes, int index, int level) {
+      // no child holds more than a full subtree so the radix position is never past the right child
+      int idx = index >>> level;
+      while (sizes[idx] <= index)
+         idx++;
+      return idx;
+   }
+
+   private static int sizeOf(Node node, int level) {
+      if (level == 0)
+         return node.array.length;
+      int[] sizes = ((RelaxedNode) node).sizes;
+      return sizes[sizes.length - 1];
+   }
+
+   private static RelaxedNode relaxed(Object[] children, int level) {
+      int[] sizes = new int[children.length];
+      int total = 0;
+      for (int i = 0; i < children.length; i++) {
+         total += sizeOf((Node) children[i], level - 5);
+         sizes[i] = total;
+      }
+      return new RelaxedNode(NOEDIT, children, sizes);
+   }
+
+   private static Node newPath(int level, Node node) {
+      if (level == 0)
+         return node;
+      return relaxed(new Object[]{newPath(level - 5, node)}, level);
+   }
+
+   private static Node doAssoc(int level, Node node, int i, Object val) {
+      Object[] array = node.array.clone();
+      if (level == 0) {
+         array[i] = val;
+         return new Node(NOEDIT, array);
+      }
+      int[] sizes = ((RelaxedNode) node).sizes;
+      int idx = childIndex(sizes, i, level);
+      array[idx] = doAssoc(level - 5, (Node) array[idx], idx == 0 ? i : i - sizes[idx - 1], val);
+      return new RelaxedNode(NOEDIT, array, sizes);
+   }
+
+   /**
+    * Returns the node with val appended to its last leaf, or null when there is no room left in it.
+    */
+   private static Node appendInto(int level, Node node, Object val) {
+      int length = node.array.length;
+      if (level == 0) {
+         if (length == 32)
+            return null;
+         Object[] array = Arrays.copyOf(node.array, length + 1);
+         array[length] = val;
+         return new Node(NOEDIT, array);
+      }
+      int[] sizes = ((RelaxedNode) node).sizes;
+      Node child = appendInto(level - 5, (Node) node.array[length - 1], val);
+      if (child != null) {
+         Object[] array = node.array.clone();
+         array[length - 1] = child;
+         int[] newSizes = sizes.clone();
+         newSizes[length - 1]++;
+         return new RelaxedNode(NOEDIT, array, newSizes);
+      }
+      if (length == 32)
+         return null;
+      Object[] array = Arrays.copyOf(node.array, length + 1);
+      array[length] = newPath(level - 5, new Node(NOEDIT, new Object[]{val}));
+      int[] newSizes = Arrays.copyOf(sizes, length + 1);
+      newSizes[length] = sizes[length - 1] + 1;
+      return new RelaxedNode(NOEDIT, array, newSizes);
+   }
+
+   /**
+    * Keeps the first n (at least one) items of the subtree.
+    */
+   private static Node takeFront(int level, Node node, int n) {
+      if (n == sizeOf(node, level))
+         return node;
+      if (level == 0)
+         return new Node(NOEDIT, Arrays.copyOf(node.array, n));
+      int[] sizes = ((RelaxedNode) node).sizes;
+      int idx = childIndex(sizes, n - 1, level);
+      Object[] array = Arrays.copyOf(node.array, idx + 1);
+      int[] newSizes = Arrays.copyOf(sizes, idx + 1);
+      array[idx] = takeFront(level - 5, (Node) array[idx], idx == 0 ? n : n - sizes[idx - 1]);
+      newSizes[idx] = n;
+      return new RelaxedNode(NOEDIT, array, newSizes);
+   }
+
+   /**
+    * Drops the first n items of the subtree, n being less than its size.
+    */
+   private static Node dropFront(int level, Node node, int n) {
+      if (n == 0)
+         return node;
+      int length = node.array.length;
+      if (level == 0)
+         return new Node(NOEDIT, Arrays.copyOfRange(node.array, n, length));
+      int[] sizes = ((RelaxedNode) node).sizes;
+      int idx = childIndex(sizes, n, level);
+      Object[] array = Arrays.copyOfRange(node.array, idx, length);
+      int[] newSizes = new int[length - idx];
+      for (int j = 0; j < newSizes.length; j++)
+         newSizes[j] = sizes[idx + j] - n;
+      array[0] = dropFront(level - 5, (Node) array[0], idx == 0 ? n : n - sizes[idx - 1]);
+      return new RelaxedNode(NOEDIT, array, newSizes);
+   }
+
+   /**
+    * Merges the right edge of left with the left edge of right. The result sits one level above
+    * the taller of the two and holds one or two children.
+    */
+   private static RelaxedNode concatSubTree(Node left, int leftLevel, Node right, int rightLevel) {
+      if (leftLevel > rightLevel) {
+         RelaxedNode centre = concatSubTree(lastChild(left), leftLevel - 5, right, rightLevel);
+         return rebalance(left, centre, null, leftLevel);
+      }
+      if (leftLevel < rightLevel) {
+         RelaxedNode centre = concatSubTree(left, leftLevel, firstChild(right), rightLevel - 5);
+         return rebalance(null, centre, right, rightLevel);
+      }
+      if (leftLevel == 0) {
+         if (left.array.length + right.array.length <= 32) {
+            Object[] array = Arrays.copyOf(left.array, left.array.length + right.array.length);
+            System.arraycopy(right.array, 0, array, left.array.length, right.array.length);
+            return relaxed(new Object[]{new Node(NOEDIT, array)}, 5);
+         }
+         return relaxed(new Object[]{left, right}, 5);
+      }
+      RelaxedNode centre = concatSubTree(lastChild(left), leftLevel - 5, firstChild(right), rightLevel - 5);
+      return rebalance(left, centre, right, leftLevel);
+   }
+
+   private static Node lastChild(Node node) {
+      return (Node) node.array[node.array.length - 1];
+   }
+
+   private static Node firstChild(Node node) {
+      return (Node) node.array[0];
+   }
+
+   /**
+    * Lays out the children of left (less its last), centre and right (less its first), all at
+    * level - 5, redistributing them as the concatenation plan dictates, and packs them into one or
+    * two nodes at level under a new parent.
+    */
+   private static RelaxedNode rebalance(Node left, RelaxedNode centre, Node right, int level) {
+      int leftCount = left == null ? 0 : left.array.length - 1;
+      int rightCount = right == null ? 0 : right.array.length - 1;
+      Object[] all = new Object[leftCount + centre.array.length + rightCount];
+      if (left != null)
+         System.arraycopy(left.array, 0, all, 0, leftCount);
+      System.arraycopy(centre.array, 0, all, leftCount, centre.array.length);
+      if (right != null)
+         System.arraycopy(right.array, 1, all, leftCount + centre.array.length, rightCount);
+
+      Object[] children = executePlan(all, level - 5);
+      if (children.length <= 32)
+         return relaxed(new Object[]{relaxed(children, level)}, level + 5);
+      return relaxed(new Object[]{
+            relaxed(Arrays.copyOfRange(children, 0, 32), level),
+            relaxed(Arrays.copyOfRange(children, 32, children.length), level)}, level + 5);
+   }
+
+   /**
+    * Merges underfull nodes until there are no more than EXTRAS nodes beyond the minimum needed
+    * to hold their slots. Nodes the plan leaves untouched are reused as they are.
+    */
+   private static Object[] executePlan(Object[] nodes, int level) {
+      int n = nodes.length;
+      int[] counts = new int[n];
+      int total = 0;
+      for (int i = 0; i < n; i++) {
+         counts[i] = ((Node) nodes[i]).array.length;
+         total += counts[i];
+      }
+      int optimal = (total + 31) >>> 5;
+      int i = 0;
+      while (n > optimal + EXTRAS) {
+         while (counts[i] >= 32)
+            i++;
+         // spread node i over the ones following it, which frees up one node
+         int remaining = counts[i];
+         do {
+            int size = Math.min(remaining + counts[i + 1], 32);
+            remaining += counts[i + 1] - size;
+            counts[i++] = size;
+         } while (remaining > 0);
+         System.arraycopy(counts, i + 1, counts, i, n - i - 1);
+         n--;
+         i--;
+      }
+
+      Object[] result = new Object[n];
+      int src = 0;
+      int offset = 0;
+      for (int k = 0; k < n; k++) {
+         Node current = (Node) nodes[src];
+         if (offset == 0 && current.array.length == counts[k]) {
+            result[k] = current;
+            src++;
+            continue;
+         }
+         Object[] array = new Object[counts[k]];
+         int filled = 0;
+         while (filled < array.length) {
+            Object[] from = ((Node) nodes[src]).array;
+            int length = Math.min(array.length - filled, from.length - offset);
+            System.arraycopy(from, offset, array, filled, length);
+            filled += length;
+            offset += length;
+            if (offset == from.length) {
+               src++;
+               offset = 0;
+            }
+         }
+         result[k] = level == 0 ? new Node(NOEDIT, array) : relaxed(array, level);
+      }
+      return result;
+   }
+
+   @SuppressWarnings("unchecked")
+   @Override
+   public <R> R reduce(R init, BiFunction<R, ? super T, R> fn) {
+      return cnt == 0 ? init : (R) reduceNode(root, shift, init, fn, null, null);
+   }
+
+   @SuppressWarnings("unchecked")
+   @Override
+   public <R> R reduce(R init, BiFunction<R, ? super T, R> fn, Predicate<? super R> done) {
+      if (done.test(init) || cnt == 0)
+         return init;
+      return (R) reduceNode(root, shift, init, fn, done, new Box(null));
+   }
+
+   /**
+    * Reduces the leaves under node in order, setting stopped.val once done accepts so the levels
+    * above return straight away.
+    */
+   @SuppressWarnings("unchecked")
+   private static Object reduceNode(Node node, int level, Object acc, BiFunction fn, Predicate done, Box stopped) {
+      Object[] array = node.array;
+      if (level == 0) {
+         for (Object item : array) {
+            acc = fn.apply(acc, item);
+            if (done != null && done.test(acc)) {
+               stopped.val = stopped;
+               return acc;
+            }
+         }
+         return acc;
+      }
+      for (Object child : array) {
+         acc = reduceNode((Node) child, level - 5, acc, fn, done, stopped);
+         if (stopped != null && stopped.val != null)
+            return acc;
+      }
+      return acc;
+   }
+
+   /**
+    * Passes the leaf arrays themselves, which may hold fewer than 32 elements in a relaxed tree.
+    */
+   @Override
+   public void forEachChunk(Consumer<Object[]> action) {
+      if (cnt > 0)
+         forEachLeaf(root, shift, action);
+   }
+
+   private static void forEachLeaf(Node node, int level, Consumer<Object[]> action) {
+      if (level == 0) {
+         action.accept(node.array);
+         return;
+      }
+      for (Object child : node.array)
+         forEachLeaf((Node) child, level - 5, action);
+   }
+
+   /**
+    * Walks the leaves left to right holding the path from the root, so each step to the next
+    * leaf only revisits the levels that change.
+    */
+   private final class LeafIterator implements Iterator<T> {
+      private final Node[] path = new Node[shift / 5 + 1];
+      private final int[] positions = new int[shift / 5 + 1];
+      private Object[] leaf;
+      private int i;
+      private int remaining = cnt;
+
+      LeafIterator() {
+         path[0] = root;
+         descend(0);
+      }
+
+      private void descend(int depth) {
+         for (; depth < path.length - 1; depth++) {
+            positions[depth + 1] = 0;
+            path[depth + 1] = (Node) path[depth].array[positions[depth]];
+         }
+         leaf = path[path.length - 1].array;
+         i = 0;
+      }
+
+      @Override
+      public boolean hasNext() {
+         return remaining > 0;
+      }
+
+      @SuppressWarnings("unchecked")
+      @Override
+      public T next() {
+         if (remaining == 0)
+            throw new NoSuchElementException();
+         if (i == leaf.length) {
+            int depth = path.length - 2;
+            while (positions[depth] + 1 == path[depth].array.length)
+               depth--;
+            positions[depth]++;
+            descend(depth);
+         }
+         remaining--;
+         return (T) leaf[i++];
+      }
+
+      @Override
+      public void remove() {
+         throw new UnsupportedOperationException();
+      }
+   }
+
+   private Object writeReplace() {
+      return new CollectionProxy(CollectionProxy.RRB_LIST, this);
+   }
+
+   private void readObject(ObjectInputStream in) throws InvalidObjectException {
+      throw new InvalidObjectException("Proxy required");
+   }
+}
@@ -0,0 +1,15 @@
+package com.logicalpractice.persistentcollections;
+
+import java.util.Set;
+
+/**
+ *
+ */
+public interface PersistentSet<T> extends Set<T> {
+
+   PersistentSet<T> with(T val);
+
+   PersistentSet<T> without(Object val);
+
+   TransientSet<T> toTransientSet();
+}
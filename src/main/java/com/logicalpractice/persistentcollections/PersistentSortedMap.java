@@ -0,0 +1,996 @@
+package com.logicalpractice.persistentcollections;
+
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.logicalpractice.persistentcollections.PersistentHashMap.Box;
+
+/**
+ * Persistent sorted map, a B+tree of wide nodes with path copying.
+ * <p/>
+ * Leaves hold up to MAX keys and values in sorted arrays, branches up to MAX children, so a
+ * lookup touches a handful of nodes and is a binary search over a contiguous array in each. Every
+ * node but the root holds at least MIN. A branch's keys[i] is a lower bound for the keys under
+ * children[i]; keys[0] is never searched. Bounds are left as they are when keys are removed, as
+ * they still route correctly. Branches also count the entries beneath them, so the size of a range
+ * is found from two descents.
+ * <p/>
+ * subMap, headMap and tailMap are views sharing this map's nodes. Iteration walks the leaves with
+ * an explicit stack of branches, starting from a descent to the lower bound, so scanning a range
+ * costs a descent plus the entries in the range. Keys are ordered by their natural ordering or the
+ * comparator given, and may not be null.
+ */
+public class PersistentSortedMap<K, V> extends AbstractMap<K, V> implements PersistentMap<K, V>, SortedMap<K, V>, Serializable {
+
+   static final int MAX = 32;
+   static final int MIN = MAX / 2;
+
+   // deeper than any tree with fewer than Integer.MAX_VALUE entries can grow, nodes having MIN or more
+   private static final int MAX_DEPTH = 16;
+
+   private static final PersistentSortedMap EMPTY = new PersistentSortedMap(null, 0, null);
+
+   final Comparator<? super K> comparator;
+   final int count;
+   final Node root;
+
+   PersistentSortedMap(Comparator<? super K> comparator, int count, Node root) {
+      this.comparator = comparator;
+      this.count = count;
+      this.root = root;
+   }
+
+   /**
+    * An empty map ordering its keys by their natural ordering.
+    */
+   @SuppressWarnings("unchecked")
+   public static <K extends Comparable<? super K>, V> PersistentSortedMap<K, V> empty() {
+      return EMPTY;
+   }
+
+   /**
+    * An empty map ordering its keys with comparator, or by their natural ordering when it is null.
+    */
+   public static <K, V> PersistentSortedMap<K, V> empty(Comparator<? super K> comparator) {
+      return new PersistentSortedMap<K, V>(comparator, 0, null);
+   }
+
+   public static <K extends Comparable<? super K>, V> PersistentSortedMap<K, V> create(Map<? extends K, ? extends V> other) {
+      return create(other, null);
+   }
+
+   /**
+    * The entries of other ordered by comparator. The entries are sorted once and the tree is built
+    * bottom up from full leaves rather than by adding them one at a time. Where comparator finds
+    * two keys equal the entry iterated last is kept.
+    *
+    * @throws IllegalArgumentException if other has a null key
+    */
+   @SuppressWarnings("unchecked")
+   public static <K, V> PersistentSortedMap<K, V> create(Map<? extends K, ? extends V> other, final Comparator<? super K> comparator) {
+      Object[] entries = other.entrySet().toArray();
+      for (Object entry : entries)
+         if (((Entry) entry).getKey() == null)
+            throw new IllegalArgumentException("Null keys are not allowed");
+      // stable, so entries comparing equal stay in iteration order, and linear when already sorted
+      Arrays.sort(entries, new Comparator<Object>() {
+         @Override
+         public int compare(Object a, Object b) {
+            return PersistentSortedMap.compare(comparator, ((Entry) a).getKey(), ((Entry) b).getKey());
+         }
+      });
+      Object[] keys = new Object[entries.length];
+      Object[] vals = new Object[entries.length];
+      int n = 0;
+      for (Object o : entries) {
+         Entry entry = (Entry) o;
+         if (n > 0 && compare(comparator, keys[n - 1], entry.getKey()) == 0)
+            n--;
+         keys[n] = entry.getKey();
+         vals[n] = entry.getValue();
+         n++;
+      }
+      return fromSorted(comparator, keys, vals, n);
+   }
+
+   /**
+    * Builds a map from keys that are already in strictly ascending order, filling the leaves
+    * evenly so each holds between MIN and MAX entries, and then each level of branches the same way.
+    */
+   static <K, V> PersistentSortedMap<K, V> fromSorted(Comparator<? super K> comparator, Object[] keys, Object[] vals, int n) {
+      if (n == 0)
+         return new PersistentSortedMap<K, V>(comparator, 0, null);
+      int width = (n + MAX - 1) / MAX;
+      Node[] level = new Node[width];
+      for (int j = 0; j < width; j++) {
+         int from = (int) ((long) n * j / width);
+         int to = (int) ((long) n * (j + 1) / width);
+         level[j] = new Leaf(null, Arrays.copyOfRange(keys, from, to), Arrays.copyOfRange(vals, from, to), to - from);
+      }
+      while (level.length > 1) {
+         width = (level.length + MAX - 1) / MAX;
+         Node[] parents = new Node[width];
+         for (int j = 0; j < width; j++) {
+            int from = (int) ((long) level.length * j / width);
+            int to = (int) ((long) level.length * (j + 1) / width);
+            Node[] children = Arrays.copyOfRange(level, from, to);
+            Object[] bounds = new Object[children.length];
+            int entries = 0;
+            for (int i = 0; i < children.length; i++) {
+               bounds[i] = children[i].keys[0];
+               entries += children[i].count();
+            }
+            parents[j] = new Branch(null, bounds, children, children.length, entries);
+         }
+         level = parents;
+      }
+      return new PersistentSortedMap<K, V>(comparator, n, level[0]);
+   }
+
+   @SuppressWarnings("unchecked")
+   static int compare(Comparator comparator, Object a, Object b) {
+      return comparator == null ? ((Comparable) a).compareTo(b) : comparator.compare(a, b);
+   }
+
+   @Override
+   public Comparator<? super K> comparator() {
+      return comparator;
+   }
+
+   @Override
+   public int size() {
+      return count;
+   }
+
+   @Override
+   public boolean containsKey(Object key) {
+      return key != null && root != null && root.find(comparator, key, NOT_FOUND) != NOT_FOUND;
+   }
+
+   @SuppressWarnings("unchecked")
+   @Override
+   public V get(Object key) {
+      return key == null || root == null ? null : (V) root.find(comparator, key, null);
+   }
+
+   @Override
+   public PersistentSortedMap<K, V> with(K key, V val) {
+      if (key == null)
+         throw new IllegalArgumentException("Null keys are not allowed");
+      if (root == null) {
+         compare(comparator, key, key); // type check, as TreeMap does
+         return new PersistentSortedMap<K, V>(comparator, 1, new Leaf(null, new Object[]{key}, new Object[]{val}, 1));
+      }
+      Box addedLeaf = new Box(null);
+      Node newroot = root.assoc(null, comparator, key, val, addedLeaf);
+      if (newroot == root)
+         return this;
+      int newcount = addedLeaf.val == null ? count : count + 1;
+      return new PersistentSortedMap<K, V>(comparator, newcount, grow(null, newroot, newcount));
+   }
+
+   public PersistentSortedMap<K, V> without(Object key) {
+      if (key == null || root == null)
+         return this;
+      Box removedLeaf = new Box(null);
+      Node newroot = root.without(null, comparator, key, removedLeaf);
+      if (removedLeaf.val == null)
+         return this;
+      return new PersistentSortedMap<K, V>(comparator, count - 1, shrink(newroot));
+   }
+
+   /**
+    * Splits a root that has overflowed under a new branch.
+    */
+   private static Node grow(AtomicReference<Thread> edit, Node root, int count) {
+      if (root.n <= MAX)
+         return root;
+      Node[] halves = root.split(edit);
+      return new Branch(edit, capacity(new Object[]{null, halves[1].keys[0]}, edit),
+            capacity(new Node[]{halves[0], halves[1]}, edit), 2, count);
+   }
+
+   /**
+    * Drops an empty leaf root, or a branch root left with a single child.
+    */
+   private static Node shrink(Node root) {
+      if (root.n == 0)
+         return null;
+      if (root instanceof Branch && root.n == 1)
+         return ((Branch) root).children[0];
+      return root;
+   }
+
+   @Override
+   public K firstKey() {
+      if (root == null)
+         throw new NoSuchElementException();
+      return key(first(root));
+   }
+
+   @Override
+   public K lastKey() {
+      if (root == null)
+         throw new NoSuchElementException();
+      return key(last(root));
+   }
+
+   /**
+    * @return the entry with the greatest key less than or equal to key, null if there is none
+    */
+   public Entry<K, V> floorEntry(K key) {
+      return root == null ? null : PersistentSortedMap.<K, V>floor(root, comparator, key, true);
+   }
+
+   /**
+    * @return the entry with the least key greater than or equal to key, null if there is none
+    */
+   public Entry<K, V> ceilingEntry(K key) {
+      return root == null ? null : PersistentSortedMap.<K, V>ceiling(root, comparator, key, true);
+   }
+
+   /**
+    * @return the entry with the greatest key strictly less than key, null if there is none
+    */
+   public Entry<K, V> lowerEntry(K key) {
+      return root == null ? null : PersistentSortedMap.<K, V>floor(root, comparator, key, false);
+   }
+
+   /**
+    * @return the entry with the least key strictly greater than key, null if there is none
+    */
+   public Entry<K, V> higherEntry(K key) {
+      return root == null ? null : PersistentSortedMap.<K, V>ceiling(root, comparator, key, false);
+   }
+
+   public K floorKey(K key) {
+      return key(floorEntry(key));
+   }
+
+   public K ceilingKey(K key) {
+      return key(ceilingEntry(key));
+   }
+
+   public K lowerKey(K key) {
+      return key(lowerEntry(key));
+   }
+
+   public K higherKey(K key) {
+      return key(higherEntry(key));
+   }
+
+   private static <K> K key(Entry<K, ?> entry) {
+      return entry == null ? null : entry.getKey();
+   }
+
+   /**
+    * A view of the keys from fromKey, inclusive, to toKey, exclusive.
+    *
+    * @throws IllegalArgumentException if fromKey is greater than toKey
+    */
+   @Override
+   public SortedMap<K, V> subMap(K fromKey, K toKey) {
+      if (fromKey == null || toKey == null)
+         throw new NullPointerException();
+      if (compare(comparator, fromKey, toKey) > 0)
+         throw new IllegalArgumentException("fromKey > toKey");
+      return new Range<K, V>(this, fromKey, toKey);
+   }
+
+   @Override
+   public SortedMap<K, V> headMap(K toKey) {
+      if (toKey == null)
+         throw new NullPointerException();
+      return new Range<K, V>(this, null, toKey);
+   }
+
+   @Override
+   public SortedMap<K, V> tailMap(K fromKey) {
+      if (fromKey == null)
+         throw new NullPointerException();
+      return new Range<K, V>(this, fromKey, null);
+   }
+
+   @Override
+   public Set<Entry<K, V>> entrySet() {
+      return new EntrySet<K, V>(this, null, null, count);
+   }
+
+   @Override
+   public TransientSortedMap<K, V> toTransientMap() {
+      return new TransientSortedMap<K, V>(this);
+   }
+
+   /**
+    * The number of keys less than key, or also equal to it when inclusive.
+    */
+   int rank(Object key, boolean inclusive) {
+      int rank = 0;
+      Node node = root;
+      if (node == null)
+         return 0;
+      while (node instanceof Branch) {
+         Branch branch = (Branch) node;
+         int i = branch.childIndex(comparator, key);
+         for (int j = 0; j < i; j++)
+            rank += branch.children[j].count();
+         node = branch.children[i];
+      }
+      int i = Arrays.binarySearch(node.keys, 0, node.n, key, (Comparator<Object>) comparator);
+      return rank + (i >= 0 ? (inclusive ? i + 1 : i) : -i - 1);
+   }
+
+   private static final Object NOT_FOUND = new Object();
+
+   @SuppressWarnings("unchecked")
+   private static <K, V> Entry<K, V> entry(Node leaf, int i) {
+      return new SimpleImmutableEntry<K, V>((K) leaf.keys[i], (V) ((Leaf) leaf).vals[i]);
+   }
+
+   private static <K, V> Entry<K, V> first(Node node) {
+      while (node instanceof Branch)
+         node = ((Branch) node).children[0];
+      return entry(node, 0);
+   }
+
+   private static <K, V> Entry<K, V> last(Node node) {
+      while (node instanceof Branch)
+         node = ((Branch) node).children[node.n - 1];
+      return entry(node, node.n - 1);
+   }
+
+   @SuppressWarnings("unchecked")
+   private static <K, V> Entry<K, V> floor(Node node, Comparator comparator, Object key, boolean inclusive) {
+      if (node instanceof Leaf) {
+         int i = Arrays.binarySearch(node.keys, 0, node.n, key, comparator);
+         int at = i >= 0 ? (inclusive ? i : i - 1) : -i - 2;
+         return at >= 0 ? PersistentSortedMap.<K, V>entry(node, at) : null;
+      }
+      Branch branch = (Branch) node;
+      int i = branch.childIndex(comparator, key);
+      Entry<K, V> found = floor(branch.children[i], comparator, key, inclusive);
+      // every key in the child to the left is below the bound that routed key here
+      if (found == null && i > 0)
+         found = last(branch.children[i - 1]);
+      return found;
+   }
+
+   @SuppressWarnings("unchecked")
+   private static <K, V> Entry<K, V> ceiling(Node node, Comparator comparator, Object key, boolean inclusive) {
+      if (node instanceof Leaf) {
+         int i = Arrays.binarySearch(node.keys, 0, node.n, key, comparator);
+         int at = i >= 0 ? (inclusive ? i : i + 1) : -i - 1;
+         return at < node.n ? PersistentSortedMap.<K, V>entry(node, at) : null;
+      }
+      Branch branch = (Branch) node;
+      int i = branch.childIndex(comparator, key);
+      Entry<K, V> found = ceiling(branch.children[i], comparator, key, inclusive);
+      if (found == null && i + 1 < branch.n)
+         found = first(branch.children[i + 1]);
+      return found;
+   }
+
+   /**
+    * array widened to the capacity a node owned by edit keeps, so it can take an entry or child
+    * more than MAX before being split. Nodes without an edit are allocated to size.
+    */
+   private static <T> T[] capacity(T[] array, AtomicReference<Thread> edit) {
+      return edit == null || array.length > MAX ? array : Arrays.copyOf(array, MAX + 1);
+   }
+
+   private static <T> T[] slice(T[] array, int from, int to, AtomicReference<Thread> edit) {
+      return capacity(Arrays.copyOfRange(array, from, to), edit);
+   }
+
+   abstract static class Node implements Serializable {
+      final AtomicReference<Thread> edit;
+      Object[] keys;
+      int n;
+
+      Node(AtomicReference<Thread> edit, Object[] keys, int n) {
+         this.edit = edit;
+         this.keys = keys;
+         this.n = n;
+      }
+
+      final boolean ownedBy(AtomicReference<Thread> edit) {
+         return edit != null && this.edit == edit;
+      }
+
+      /**
+       * @return the number of entries beneath this node
+       */
+      abstract int count();
+
+      abstract Object find(Comparator comparator, Object key, Object notFound);
+
+      /**
+       * @return the node with key set to val, which may hold one more than MAX and need splitting
+       */
+      abstract Node assoc(AtomicReference<Thread> edit, Comparator comparator, Object key, Object val, Box addedLeaf);
+
+      /**
+       * @return the node without key, which may hold fewer than MIN
+       */
+      abstract Node without(AtomicReference<Thread> edit, Comparator comparator, Object key, Box removedLeaf);
+
+      /**
+       * @return this node's contents divided evenly between two new nodes
+       */
+      abstract Node[] split(AtomicReference<Thread> edit);
+
+      /**
+       * @return a new node holding this node's contents followed by right's, bound being the lower
+       * bound for right
+       */
+      abstract Node join(AtomicReference<Thread> edit, Node right, Object bound);
+   }
+
+   static final class Leaf extends Node {
+      Object[] vals;
+
+      Leaf(AtomicReference<Thread> edit, Object[] keys, Object[] vals, int n) {
+         super(edit, keys, n);
+         this.vals = vals;
+      }
+
+      @Override
+      int count() {
+         return n;
+      }
+
+      private Leaf ensureEditable(AtomicReference<Thread> edit, int size) {
+         if (ownedBy(edit))
+            return this;
+         int length = edit == null ? size : MAX + 1;
+         return new Leaf(edit, Arrays.copyOf(keys, length), Arrays.copyOf(vals, length), n);
+      }
+
+      @SuppressWarnings("unchecked")
+      @Override
+      Object find(Comparator comparator, Object key, Object notFound) {
+         int i = Arrays.binarySearch(keys, 0, n, key, comparator);
+         return i >= 0 ? vals[i] : notFound;
+      }
+
+      @SuppressWarnings("unchecked")
+      @Override
+      Node assoc(AtomicReference<Thread> edit, Comparator comparator, Object key, Object val, Box addedLeaf) {
+         int i = Arrays.binarySearch(keys, 0, n, key, comparator);
+         if (i >= 0) {
+            if (vals[i] == val)
+               return this;
+            Leaf editable = ensureEditable(edit, n);
+            editable.vals[i] = val;
+            return editable;
+         }
+         i = -i - 1;
+         addedLeaf.val = addedLeaf;
+         Leaf editable = ensureEditable(edit, n + 1);
+         System.arraycopy(editable.keys, i, editable.keys, i + 1, n - i);
+         System.arraycopy(editable.vals, i, editable.vals, i + 1, n - i);
+         editable.keys[i] = key;
+         editable.vals[i] = val;
+         editable.n++;
+         return editable;
+      }
+
+      @SuppressWarnings("unchecked")
+      @Override
+      Node without(AtomicReference<Thread> edit, Comparator comparator, Object key, Box removedLeaf) {
+         int i = Arrays.binarySearch(keys, 0, n, key, comparator);
+         if (i < 0)
+            return this;
+         removedLeaf.val = removedLeaf;
+         if (!ownedBy(edit)) {
+            Object[] newKeys = new Object[edit == null ? n - 1 : MAX + 1];
+            Object[] newVals = new Object[newKeys.length];
+            System.arraycopy(keys, 0, newKeys, 0, i);
+            System.arraycopy(keys, i + 1, newKeys, i, n - i - 1);
+            System.arraycopy(vals, 0, newVals, 0, i);
+            System.arraycopy(vals, i + 1, newVals, i, n - i - 1);
+            return new Leaf(edit, newKeys, newVals, n - 1);
+         }
+         System.arraycopy(keys, i + 1, keys, i, n - i - 1);
+         System.arraycopy(vals, i + 1, vals, i, n - i - 1);
+         n--;
+         keys[n] = vals[n] = null;
+         return this;
+      }
+
+      @Override
+      Node[] split(AtomicReference<Thread> edit) {
+         int mid = n / 2;
+         return new Node[]{
+               new Leaf(edit, slice(keys, 0, mid, edit), slice(vals, 0, mid, edit), mid),
+               new Leaf(edit, slice(keys, mid, n, edit), slice(vals, mid, n, edit), n - mid)};
+      }
+
+      @Override
+      Node join(AtomicReference<Thread> edit, Node right, Object bound) {
+         Leaf other = (Leaf) right;
+         int size = n + other.n;
+         Object[] newKeys = capacity(Arrays.copyOf(keys, size), edit);
+         Object[] newVals = capacity(Arrays.copyOf(vals, size), edit);
+         System.arraycopy(other.keys, 0, newKeys, n, other.n);
+         System.arraycopy(other.vals, 0, newVals, n, other.n);
+         return new Leaf(edit, newKeys, newVals, size);
+      }
+   }
+
+   static final class Branch extends Node {
+      Node[] children;
+      int count;
+
+      Branch(AtomicReference<Thread> edit, Object[] keys, Node[] children, int n, int count) {
+         super(edit, keys, n);
+         this.children = children;
+         this.count = count;
+      }
+
+      @Override
+      int count() {
+         return count;
+      }
+
+      private Branch ensureEditable(AtomicReference<Thread> edit, int size) {
+         if (ownedBy(edit))
+            return this;
+         int length = edit == null ? size : MAX + 1;
+         return new Branch(edit, Arrays.copyOf(keys, length), Arrays.copyOf(children, length), n, count);
+      }
+
+      /**
+       * @return the index of the child whose range holds key, the last whose bound is no greater
+       */
+      @SuppressWarnings("unchecked")
+      int childIndex(Comparator comparator, Object key) {
+         int i = Arrays.binarySearch(keys, 1, n, key, comparator);
+         return i >= 0 ? i : -i - 2;
+      }
+
+      @Override
+      Object find(Comparator comparator, Object key, Object notFound) {
+         Node node = this;
+         while (node instanceof Branch)
+            node = ((Branch) node).children[((Branch) node).childIndex(comparator, key)];
+         return node.find(comparator, key, notFound);
+      }
+
+      @Override
+      Node assoc(AtomicReference<Thread> edit, Comparator comparator, Object key, Object val, Box addedLeaf) {
+         int i = childIndex(comparator, key);
+         Node child = children[i];
+         Node n = child.assoc(edit, comparator, key, val, addedLeaf);
+         if (n == child && addedLeaf.val == null)
+            return this;
+         Branch editable;
+         if (n.n > MAX) {
+            Node[] halves = n.split(edit);
+            editable = ensureEditable(edit, this.n + 1);
+            System.arraycopy(editable.keys, i + 1, editable.keys, i + 2, this.n - i - 1);
+            System.arraycopy(editable.children, i + 1, editable.children, i + 2, this.n - i - 1);
+            editable.children[i] = halves[0];
+            editable.children[i + 1] = halves[1];
+            editable.keys[i + 1] = halves[1].keys[0];
+            editable.n++;
+         } else {
+            editable = ensureEditable(edit, this.n);
+            editable.children[i] = n;
+         }
+         if (addedLeaf.val != null)
+            editable.count++;
+         return editable;
+      }
+
+      @Override
+      Node without(AtomicReference<Thread> edit, Comparator comparator, Object key, Box removedLeaf) {
+         int i = childIndex(comparator, key);
+         Node child = children[i];
+         Node n = child.without(edit, comparator, key, removedLeaf);
+         if (removedLeaf.val == null)
+            return this;
+         Branch editable = ensureEditable(edit, this.n);
+         editable.count--;
+         if (n.n >= MIN || this.n == 1) {
+            editable.children[i] = n;
+            return editable;
+         }
+         // too small: join with a neighbour, splitting the two again if that makes one too many
+         int left = i > 0 ? i - 1 : i;
+         Node joined = left == i
+               ? n.join(edit, children[i + 1], keys[i + 1])
+               : children[left].join(edit, n, keys[i]);
+         if (joined.n > MAX) {
+            Node[] halves = joined.split(edit);
+            editable.children[left] = halves[0];
+            editable.children[left + 1] = halves[1];
+            editable.keys[left + 1] = halves[1].keys[0];
+            return editable;
+         }
+         editable.children[left] = joined;
+         System.arraycopy(editable.keys, left + 2, editable.keys, left + 1, this.n - left - 2);
+         System.arraycopy(editable.children, left + 2, editable.children, left + 1, this.n - left - 2);
+         editable.n--;
+         editable.keys[editable.n] = null;
+         editable.children[editable.n] = null;
+         return editable;
+      }
+
+      @Override
+      Node[] split(AtomicReference<Thread> edit) {
+         int mid = n / 2;
+         return new Node[]{
+               new Branch(edit, slice(keys, 0, mid, edit), slice(children, 0, mid, edit), mid, sum(0, mid)),
+               new Branch(edit, slice(keys, mid, n, edit), slice(children, mid, n, edit), n - mid, sum(mid, n))};
+      }
+
+      private int sum(int from, int to) {
+         int sum = 0;
+         for (int i = from; i < to; i++)
+            sum += children[i].count();
+         return sum;
+      }
+
+      @Override
+      Node join(AtomicReference<Thread> edit, Node right, Object bound) {
+         Branch other = (Branch) right;
+         int size = n + other.n;
+         Object[] newKeys = capacity(Arrays.copyOf(keys, size), edit);
+         Node[] newChildren = capacity(Arrays.copyOf(children, size), edit);
+         System.arraycopy(other.keys, 0, newKeys, n, other.n);
+         System.arraycopy(other.children, 0, newChildren, n, other.n);
+         newKeys[n] = bound;
+         return new Branch(edit, newKeys, newChildren, size, count + other.count);
+      }
+   }
+
+   /**
+    * Walks the leaves in order from a starting key, keeping the branches above the current leaf
+    * on a stack. After advance() returns true the current entry is held in key and val.
+    */
+   static final class Cursor {
+      private final Branch[] branches = new Branch[MAX_DEPTH];
+      private final int[] indexes = new int[MAX_DEPTH];
+      private int depth;
+      private Leaf leaf;
+      private int index;
+      private final Comparator comparator;
+      private final Object hi;
+
+      Object key;
+      Object val;
+
+      /**
+       * Positioned before the first key no less than lo, or the first key at all when lo is null,
+       * and stopping before hi, if it isn't null.
+       */
+      @SuppressWarnings("unchecked")
+      Cursor(Node root, Comparator comparator, Object lo, Object hi) {
+         this.comparator = comparator;
+         this.hi = hi;
+         if (root == null)
+            return;
+         Node node = root;
+         while (node instanceof Branch) {
+            Branch branch = (Branch) node;
+            int i = lo == null ? 0 : branch.childIndex(comparator, lo);
+            branches[depth] = branch;
+            indexes[depth++] = i;
+            node = branch.children[i];
+         }
+         leaf = (Leaf) node;
+         if (lo != null) {
+            int i = Arrays.binarySearch(leaf.keys, 0, leaf.n, lo, comparator);
+            index = i >= 0 ? i : -i - 1;
+         }
+      }
+
+      boolean advance() {
+         if (leaf == null)
+            return false;
+         while (index >= leaf.n) {
+            // up to the nearest branch with a child further right, then down its leftmost path
+            while (depth > 0 && indexes[depth - 1] + 1 >= branches[depth - 1].n)
+               depth--;
+            if (depth == 0) {
+               leaf = null;
+               return false;
+            }
+            Node node = branches[depth - 1].children[++indexes[depth - 1]];
+            while (node instanceof Branch) {
+               branches[depth] = (Branch) node;
+               indexes[depth++] = 0;
+               node = ((Branch) node).children[0];
+            }
+            leaf = (Leaf) node;
+            index = 0;
+         }
+         Object k = leaf.keys[index];
+         if (hi != null && compare(comparator, k, hi) >= 0) {
+            leaf = null;
+            return false;
+         }
+         key = k;
+         val = leaf.vals[index++];
+         return true;
+      }
+   }
+
+   static final class EntryIterator<K, V> implements Iterator<Entry<K, V>> {
+      private final Cursor cursor;
+      private boolean ready;
+      private boolean done;
+
+      EntryIterator(Cursor cursor) {
+         this.cursor = cursor;
+      }
+
+      @Override
+      public boolean hasNext() {
+         if (!ready && !done) {
+            ready = cursor.advance();
+            done = !ready;
+         }
+         return ready;
+      }
+
+      @SuppressWarnings("unchecked")
+      @Override
+      public Entry<K, V> next() {
+         if (!hasNext())
+            throw new NoSuchElementException();
+         ready = false;
+         return new SimpleImmutableEntry<K, V>((K) cursor.key, (V) cursor.val);
+      }
+
+      @Override
+      public void remove() {
+         throw new UnsupportedOperationException();
+      }
+   }
+
+   static final class EntrySet<K, V> extends AbstractSet<Entry<K, V>> {
+      private final PersistentSortedMap<K, V> map;
+      private final Object lo;
+      private final Object hi;
+      private final int size;
+
+      EntrySet(PersistentSortedMap<K, V> map, Object lo, Object hi, int size) {
+         this.map = map;
+         this.lo = lo;
+         this.hi = hi;
+         this.size = size;
+      }
+
+      @Override
+      public Iterator<Entry<K, V>> iterator() {
+         return new EntryIterator<K, V>(new Cursor(map.root, map.comparator, lo, hi));
+      }
+
+      @Override
+      public int size() {
+         return size;
+      }
+   }
+
+   /**
+    * A read only view of the keys of map from lo, inclusive, up to hi, exclusive, either bound being
+    * null when the range is open at that end.
+    */
+   static final class Range<K, V> extends AbstractMap<K, V> implements SortedMap<K, V> {
+      private final PersistentSortedMap<K, V> map;
+      private final K lo;
+      private final K hi;
+
+      Range(PersistentSortedMap<K, V> map, K lo, K hi) {
+         this.map = map;
+         this.lo = lo;
+         this.hi = hi;
+      }
+
+      private boolean inRange(Object key) {
+         return (lo == null || compare(map.comparator, key, lo) >= 0)
+               && (hi == null || compare(map.comparator, key, hi) < 0);
+      }
+
+      private boolean inClosedRange(Object key) {
+         return (lo == null || compare(map.comparator, key, lo) >= 0)
+               && (hi == null || compare(map.comparator, key, hi) <= 0);
+      }
+
+      @Override
+      public Comparator<? super K> comparator() {
+         return map.comparator;
+      }
+
+      @Override
+      public int size() {
+         int size = (hi == null ? map.count : map.rank(hi, false)) - (lo == null ? 0 : map.rank(lo, false));
+         return Math.max(size, 0);
+      }
+
+      @Override
+      public boolean containsKey(Object key) {
+         return key != null && inRange(key) && map.containsKey(key);
+      }
+
+      @Override
+      public V get(Object key) {
+         return key != null && inRange(key) ? map.get(key) : null;
+      }
+
+      @Override
+      public K firstKey() {
+         Entry<K, V> first = lo == null ? (map.root == null ? null : PersistentSortedMap.<K, V>first(map.root)) : map.ceilingEntry(lo);
+         if (first == null || !inRange(first.getKey()))
+            throw new NoSuchElementException();
+         return first.getKey();
+      }
+
+      @Override
+      public K lastKey() {
+         Entry<K, V> last = hi == null ? (map.root == null ? null : PersistentSortedMap.<K, V>last(map.root)) : map.lowerEntry(hi);
+         if (last == null || !inRange(last.getKey()))
+            throw new NoSuchElementException();
+         return last.getKey();
+      }
+
+      @Override
+      public SortedMap<K, V> subMap(K fromKey, K toKey) {
+         if (fromKey == null || toKey == null)
+            throw new NullPointerException();
+         if (compare(map.comparator, fromKey, toKey) > 0)
+            throw new IllegalArgumentException("fromKey > toKey");
+         if (!inClosedRange(fromKey) || !inClosedRange(toKey))
+            throw new IllegalArgumentException("key out of range");
+         return new Range<K, V>(map, fromKey, toKey);
+      }
+
+      @Override
+      public SortedMap<K, V> headMap(K toKey) {
+         if (toKey == null)
+            throw new NullPointerException();
+         if (!inClosedRange(toKey))
+            throw new IllegalArgumentException("toKey out of range");
+         return new Range<K, V>(map, lo, toKey);
+      }
+
+      @Override
+      public SortedMap<K, V> tailMap(K fromKey) {
+         if (fromKey == null)
+            throw new NullPointerException();
+         if (!inClosedRange(fromKey))
+            throw new IllegalArgumentException("fromKey out of range");
+         return new Range<K, V>(map, fromKey, hi);
+      }
+
+      @Override
+      public Set<Entry<K, V>> entrySet() {
+         return new EntrySet<K, V>(map, lo, hi, size());
+      }
+   }
+
+   public static final class TransientSortedMap<K, V> extends AbstractMap<K, V> implements TransientMap<K, V> {
+
+      final AtomicReference<Thread> edit;
+      final Comparator<? super K> comparator;
+      Node root;
+      int count;
+      final Box leafFlag = new Box(null);
+
+      TransientSortedMap(PersistentSortedMap<K, V> m) {
+         this.edit = new AtomicReference<Thread>(Thread.currentThread());
+         this.comparator = m.comparator;
+         this.root = m.root;
+         this.count = m.count;
+      }
+
+      @SuppressWarnings("unchecked")
+      @Override
+      public V put(K key, V value) {
+         ensureEditable();
+         if (key == null)
+            throw new IllegalArgumentException("Null keys are not allowed");
+         if (root == null) {
+            compare(comparator, key, key);
+            root = new Leaf(edit, capacity(new Object[]{key}, edit), capacity(new Object[]{value}, edit), 1);
+            count = 1;
+            return null;
+         }
+         V previous = (V) root.find(comparator, key, null);
+         leafFlag.val = null;
+         root = root.assoc(edit, comparator, key, value, leafFlag);
+         if (leafFlag.val != null)
+            count++;
+         root = grow(edit, root, count);
+         return previous;
+      }
+
+      @SuppressWarnings("unchecked")
+      @Override
+      public V get(Object key) {
+         ensureEditable();
+         return key == null || root == null ? null : (V) root.find(comparator, key, null);
+      }
+
+      @Override
+      public boolean containsKey(Object key) {
+         ensureEditable();
+         return key != null && root != null && root.find(comparator, key, NOT_FOUND) != NOT_FOUND;
+      }
+
+      @SuppressWarnings("unchecked")
+      @Override
+      public V remove(Object key) {
+         ensureEditable();
+         if (key == null || root == null)
+            return null;
+         V previous = (V) root.find(comparator, key, null);
+         leafFlag.val = null;
+         root = root.without(edit, comparator, key, leafFlag);
+         if (leafFlag.val != null) {
+            count--;
+            root = shrink(root);
+         }
+         return previous;
+      }
+
+      @Override
+      public int size() {
+         ensureEditable();
+         return count;
+      }
+
+      @Override
+      public Set<Entry<K, V>> entrySet() {
+         return new AbstractSet<Entry<K, V>>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+               ensureEditable();
+               return new EntryIterator<K, V>(new Cursor(root, comparator, null, null));
+            }
+
+            @Override
+            public int size() {
+               return TransientSortedMap.this.size();
+            }
+         };
+      }
+
+      @Override
+      public PersistentSortedMap<K, V> toPersistentMap() {
+         ensureEditable();
+         edit.set(null);
+         return new PersistentSortedMap<K, V>(comparator, count, root);
+      }
+
+      void ensureEditable() {
+         Thread owner = edit.get();
+         if (owner == Thread.currentThread())
+            return;
+         if (owner != null)
+            throw new IllegalAccessError("Transient used by non-owner thread");
+         throw new IllegalAccessError("Transient used after persistent! call");
+      }
+   }
+
+   private Object writeReplace() {
+      return new CollectionProxy(CollectionProxy.SORTED_MAP, this);
+   }
+
+   private void readObject(ObjectInputStream in) throws InvalidObjectException {
+      throw new InvalidObjectException("Proxy required");
+   }
+}
@@ -1,8 +1,17 @@
 package com.logicalpractice.persistentcollections;
 
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 /**
  *
@@ -41,6 +50,16 @@ public final class PersistentTreeList<T> extends AbstractList<T> implements Pers
       return ((cnt - 1) >>> 5) << 5;
    }
 
+   /**
+    * @return the trie's leaf node holding index i, which must be below tailoff
+    */
+   PersistentLists.Node leafFor(int i) {
+      PersistentLists.Node node = root;
+      for (int level = shift; level > 0; level -= 5)
+         node = (PersistentLists.Node) node.array[(i >>> level) & 0x01f];
+      return node;
+   }
+
    public Object[] arrayFor(int i) {
       if (i >= 0 && i < cnt) {
          if (i >= tailoff())
@@ -162,6 +181,70 @@ public final class PersistentTreeList<T> extends AbstractList<T> implements Pers
       }
    }
 
+   /**
+    * Receives the differences found by diff, by index.
+    */
+   public interface DiffVisitor<T> {
+      void added(int index, T value);
+
+      void removed(int index, T value);
+
+      void changed(int index, T oldValue, T newValue);
+   }
+
+   /**
+    * Compares this list with other index by index, reporting elements that differ, elements other
+    * has past the end of this list as added and elements of this list past the end of other as
+    * removed. Trie nodes the lists share are skipped without being visited, so the cost follows the
+    * number of changed leaves rather than the length of the list.
+    */
+   public void diff(PersistentTreeList<T> other, DiffVisitor<? super T> visitor) {
+      if (visitor == null)
+         throw new NullPointerException();
+      int limit = Math.min(tailoff(), other.tailoff());
+      if (limit > 0) {
+         PersistentLists.Node mine = root;
+         PersistentLists.Node theirs = other.root;
+         // a taller trie holds the shorter one's whole range under its first child
+         for (int s = shift; s > other.shift; s -= 5)
+            mine = (PersistentLists.Node) mine.array[0];
+         for (int s = other.shift; s > shift; s -= 5)
+            theirs = (PersistentLists.Node) theirs.array[0];
+         diffNodes(mine, theirs, Math.min(shift, other.shift), 0, limit, visitor);
+      }
+      int common = Math.min(cnt, other.cnt);
+      for (int i = limit; i < common; i++)
+         compare(i, get(i), other.get(i), visitor);
+      for (int i = common; i < other.cnt; i++)
+         visitor.added(i, other.get(i));
+      for (int i = common; i < cnt; i++)
+         visitor.removed(i, get(i));
+   }
+
+   @SuppressWarnings("unchecked")
+   private static <T> void diffNodes(PersistentLists.Node a, PersistentLists.Node b, int level, int base, int limit,
+                                     DiffVisitor<? super T> visitor) {
+      if (a == b)
+         return;
+      if (level == 0) {
+         int n = Math.min(32, limit - base);
+         for (int j = 0; j < n; j++)
+            compare(base + j, (T) a.array[j], (T) b.array[j], visitor);
+         return;
+      }
+      for (int i = 0; i < 32; i++) {
+         int childBase = base + (i << level);
+         if (childBase >= limit)
+            break;
+         diffNodes((PersistentLists.Node) a.array[i], (PersistentLists.Node) b.array[i], level - 5, childBase, limit, visitor);
+      }
+   }
+
+   private static <T> void compare(int index, T oldValue, T newValue, DiffVisitor<? super T> visitor) {
+      if (oldValue != newValue && !Util.equals(oldValue, newValue))
+         visitor.changed(index, oldValue, newValue);
+   }
+
    /**
     * {@inheritDoc}
     *
@@ -179,7 +262,185 @@ public final class PersistentTreeList<T> extends AbstractList<T> implements Pers
       return cnt;
    }
 
-}
-   
+   /**
+    * Iterates the list a leaf at a time, only walking the trie when stepping onto the next
+    * 32 element array rather than for every element as AbstractList's iterator would.
+    */
+   @Override
+   public Iterator<T> iterator() {
+      return new ChunkedIterator(0, cnt);
+   }
+
+   @SuppressWarnings("unchecked")
+   @Override
+   public void forEach(Consumer<? super T> action) {
+      if (action == null)
+         throw new NullPointerException();
+      for (int i = 0; i < cnt; i += 32) {
+         Object[] array = arrayFor(i);
+         int n = Math.min(32, cnt - i);
+         for (int j = 0; j < n; j++)
+            action.accept((T) array[j]);
+      }
+   }
+
+   @SuppressWarnings("unchecked")
+   @Override
+   public <R> R reduce(R init, BiFunction<R, ? super T, R> fn) {
+      R acc = init;
+      for (int i = 0; i < cnt; i += 32) {
+         Object[] array = arrayFor(i);
+         int n = Math.min(32, cnt - i);
+         for (int j = 0; j < n; j++)
+            acc = fn.apply(acc, (T) array[j]);
+      }
+      return acc;
+   }
+
+   @SuppressWarnings("unchecked")
+   @Override
+   public <R> R reduce(R init, BiFunction<R, ? super T, R> fn, Predicate<? super R> done) {
+      R acc = init;
+      if (done.test(acc))
+         return acc;
+      for (int i = 0; i < cnt; i += 32) {
+         Object[] array = arrayFor(i);
+         int n = Math.min(32, cnt - i);
+         for (int j = 0; j < n; j++) {
+            acc = fn.apply(acc, (T) array[j]);
+            if (done.test(acc))
+               return acc;
+         }
+      }
+      return acc;
+   }
+
+   /**
+    * Passes the leaf arrays themselves, the tail as a copy only when it is longer than the list
+    * uses of it.
+    */
+   @Override
+   public void forEachChunk(Consumer<Object[]> action) {
+      for (int i = 0; i < cnt; i += 32) {
+         Object[] array = arrayFor(i);
+         int n = Math.min(32, cnt - i);
+         action.accept(array.length == n ? array : Arrays.copyOf(array, n));
+      }
+   }
+
+   /**
+    * The returned spliterator splits on leaf boundaries so each half covers whole trie nodes,
+    * letting parallel streams divide the list without re-walking it.
+    */
+   @Override
+   public Spliterator<T> spliterator() {
+      return new ChunkedSpliterator(0, cnt);
+   }
+
+   private final class ChunkedIterator implements Iterator<T> {
+      private final int end;
+      private int i;
+      private int base;
+      private Object[] array;
+
+      ChunkedIterator(int start, int end) {
+         this.i = start;
+         this.end = end;
+         this.base = start & ~0x01f;
+         this.array = start < end ? arrayFor(start) : null;
+      }
+
+      @Override
+      public boolean hasNext() {
+         return i < end;
+      }
+
+      @SuppressWarnings("unchecked")
+      @Override
+      public T next() {
+         if (i >= end)
+            throw new NoSuchElementException();
+         if (i - base == 32) {
+            array = arrayFor(i);
+            base = i;
+         }
+         return (T) array[i++ & 0x01f];
+      }
+
+      @Override
+      public void remove() {
+         throw new UnsupportedOperationException();
+      }
+   }
+
+   final class ChunkedSpliterator implements Spliterator<T> {
+      private final int fence;
+      private int index;
+      private Object[] array;
 
+      ChunkedSpliterator(int origin, int fence) {
+         this.index = origin;
+         this.fence = fence;
+      }
 
+      @Override
+      public Spliterator<T> trySplit() {
+         int lo = index;
+         int mid = ((lo + fence) >>> 1) & ~0x01f;
+         if (mid <= lo)
+            return null;
+         index = mid;
+         array = null;
+         return new ChunkedSpliterator(lo, mid);
+      }
+
+      @SuppressWarnings("unchecked")
+      @Override
+      public boolean tryAdvance(Consumer<? super T> action) {
+         if (action == null)
+            throw new NullPointerException();
+         if (index >= fence)
+            return false;
+         if (array == null || (index & 0x01f) == 0)
+            array = arrayFor(index);
+         action.accept((T) array[index++ & 0x01f]);
+         return true;
+      }
+
+      @SuppressWarnings("unchecked")
+      @Override
+      public void forEachRemaining(Consumer<? super T> action) {
+         if (action == null)
+            throw new NullPointerException();
+         int i = index;
+         int hi = fence;
+         index = hi;
+         while (i < hi) {
+            Object[] leaf = arrayFor(i);
+            int from = i & 0x01f;
+            int to = Math.min(32, from + hi - i);
+            for (int j = from; j < to; j++)
+               action.accept((T) leaf[j]);
+            i += to - from;
+         }
+      }
+
+      @Override
+      public long estimateSize() {
+         return fence - index;
+      }
+
+      @Override
+      public int characteristics() {
+         return Spliterator.ORDERED | Spliterator.SIZED | Spliterator.SUBSIZED | Spliterator.IMMUTABLE;
+      }
+   }
+
+   private Object writeReplace() {
+      return new CollectionProxy(CollectionProxy.TREE_LIST, this);
+   }
+
+   private void readObject(ObjectInputStream in) throws InvalidObjectException {
+      throw new InvalidObjectException("Proxy required");
+   }
+}
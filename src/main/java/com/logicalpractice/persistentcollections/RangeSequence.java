@@ -11,16 +11,25 @@
 package com.logicalpractice.persistentcollections;
 
 /**
- *
+ * The integers from, from + step, ... as far as to, inclusive.
  */
 public class RangeSequence implements Sequence<Integer> {
     private final int from;
     private final int to;
-    private int step = 1;
+    private final int step;
 
     public RangeSequence(int from, int to) {
+        this(from, to, 1);
+    }
+
+    /**
+     * @param step a positive step counts up to to, a negative one down to it
+     */
+    public RangeSequence(int from, int to, int step) {
+        if (step == 0) throw new IllegalArgumentException("step must not be 0");
         this.from = from;
         this.to = to;
+        this.step = step;
     }
 
     @Override
@@ -30,7 +39,9 @@ public class RangeSequence implements Sequence<Integer> {
 
     @Override
     public Sequence<Integer> rest() {
-        if( from >= to ) return null;
-        return new RangeSequence(from + step, to);
+        // compared as longs so a step past Integer.MAX_VALUE ends the sequence rather than wrapping
+        long next = (long) from + step;
+        if (step > 0 ? next > to : next < to) return null;
+        return new RangeSequence((int) next, to, step);
     }
 }
@@ -0,0 +1,26 @@
+package com.logicalpractice.persistentcollections;
+
+/**
+ * Step function of a reduction, as transformed by a Transducer.
+ * <p/>
+ * Reducers produced by stateful transducers such as take and partitionAll hold per reduction state,
+ * so each is used for a single reduction only.
+ */
+public interface Reducer<A, T> {
+
+   A step(A acc, T item);
+
+   /**
+    * Called once after the last step, for reducers holding back items to flush them downstream.
+    */
+   default A complete(A acc) {
+      return acc;
+   }
+
+   /**
+    * @return true once no further step can change the result, so the source may stop early
+    */
+   default boolean isDone() {
+      return false;
+   }
+}
@@ -11,27 +11,211 @@
 package com.logicalpractice.persistentcollections;
 
 import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 /**
+ * Sequence construction, combinators and adapters.
+ * <p/>
+ * map, filter, take, concat and sequence are lazy and work a chunk of up to 32 elements at a time in
+ * the manner of clojure's chunked seqs: each step realizes a whole chunk into one array, so a pipeline
+ * allocates per chunk rather than per element and every element is computed once, however many times
+ * the result is traversed. The iterators read chunks straight from their arrays.
  */
 public class Sequences {
 
+    static final int CHUNK_SIZE = 32;
+
     public static <T> Iterable<T> iterable(Sequence<T> sequence){
         return new IterableSequence<T>(sequence);
     }
-    
+
     public static <T> Iterable<T> headlessIterable(Sequence<T> sequence){
         return new HeadlessIterable<T>(sequence);
     }
-    
+
     public static <T> Sequence<T> construct(T obj){
         return new DefaultSequence<T>(obj);
     }
-    
+
     public static <T> Sequence<T> construct(T obj, Sequence<T> sequence){
         return new DefaultSequence<T>(obj, sequence);
     }
 
+    /**
+     * Realizes any laziness at the head of sequence.
+     *
+     * @return sequence, or null when it is empty
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Sequence<T> seq(Sequence<T> sequence) {
+        if (sequence instanceof LazySequence)
+            return ((LazySequence<T>) sequence).realize();
+        return sequence;
+    }
+
+    /**
+     * Lazy sequence over the remaining items of iterator, read a chunk at a time. The iterator must
+     * not be used elsewhere afterwards.
+     */
+    public static <T> Sequence<T> sequence(final Iterator<? extends T> iterator) {
+        return new LazySequence<T>(new Supplier<Sequence<T>>() {
+            @Override
+            public Sequence<T> get() {
+                if (!iterator.hasNext())
+                    return null;
+                Object[] array = new Object[CHUNK_SIZE];
+                int n = 0;
+                while (n < CHUNK_SIZE && iterator.hasNext())
+                    array[n++] = iterator.next();
+                return new ChunkedSequence<T>(array, 0, n, sequence(iterator));
+            }
+        });
+    }
+
+    public static <T> Sequence<T> sequence(Iterable<? extends T> items) {
+        return sequence(items.iterator());
+    }
+
+    public static <T, R> Sequence<R> map(final Function<? super T, ? extends R> fn, final Sequence<T> sequence) {
+        return new LazySequence<R>(new Supplier<Sequence<R>>() {
+            @Override
+            public Sequence<R> get() {
+                ChunkedSequence<T> chunk = chunk(seq(sequence), CHUNK_SIZE);
+                if (chunk == null)
+                    return null;
+                int n = chunk.end - chunk.offset;
+                Object[] array = new Object[n];
+                for (int i = 0; i < n; i++)
+                    array[i] = fn.apply(chunk.get(chunk.offset + i));
+                return new ChunkedSequence<R>(array, 0, n, map(fn, chunk.more));
+            }
+        });
+    }
+
+    public static <T> Sequence<T> filter(final Predicate<? super T> pred, final Sequence<T> sequence) {
+        return new LazySequence<T>(new Supplier<Sequence<T>>() {
+            @Override
+            public Sequence<T> get() {
+                // skips chunks without a match here rather than nesting a LazySequence per chunk
+                for (Sequence<T> s = seq(sequence); s != null; ) {
+                    ChunkedSequence<T> chunk = chunk(s, CHUNK_SIZE);
+                    Object[] array = null;
+                    int n = 0;
+                    for (int i = chunk.offset; i < chunk.end; i++) {
+                        T item = chunk.get(i);
+                        if (pred.test(item)) {
+                            if (array == null)
+                                array = new Object[chunk.end - i];
+                            array[n++] = item;
+                        }
+                    }
+                    if (n > 0)
+                        return new ChunkedSequence<T>(array, 0, n, filter(pred, chunk.more));
+                    s = seq(chunk.more);
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * The first n elements of sequence. Chunks are shared with sequence rather than copied, and no
+     * more than n elements of a sequence that is not already chunked are realized.
+     */
+    public static <T> Sequence<T> take(final int n, final Sequence<T> sequence) {
+        return new LazySequence<T>(new Supplier<Sequence<T>>() {
+            @Override
+            public Sequence<T> get() {
+                if (n <= 0)
+                    return null;
+                ChunkedSequence<T> chunk = chunk(seq(sequence), Math.min(n, CHUNK_SIZE));
+                if (chunk == null)
+                    return null;
+                int size = chunk.end - chunk.offset;
+                if (size >= n)
+                    return new ChunkedSequence<T>(chunk.array, chunk.offset, chunk.offset + n, null);
+                return new ChunkedSequence<T>(chunk.array, chunk.offset, chunk.end, take(n - size, chunk.more));
+            }
+        });
+    }
+
+    public static <T> Sequence<T> concat(final Sequence<T> first, final Sequence<T> second) {
+        return new LazySequence<T>(new Supplier<Sequence<T>>() {
+            @Override
+            public Sequence<T> get() {
+                ChunkedSequence<T> chunk = chunk(seq(first), CHUNK_SIZE);
+                if (chunk == null)
+                    return second;
+                return new ChunkedSequence<T>(chunk.array, chunk.offset, chunk.end, concat(chunk.more, second));
+            }
+        });
+    }
+
+    @SafeVarargs
+    public static <T> Sequence<T> concat(Sequence<T>... sequences) {
+        Sequence<T> ret = null;
+        for (int i = sequences.length - 1; i >= 0; i--)
+            ret = ret == null ? sequences[i] : concat(sequences[i], ret);
+        return ret;
+    }
+
+    /**
+     * The realized sequence as a chunk: itself when already chunked, otherwise up to max of its
+     * elements gathered into a new one.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> ChunkedSequence<T> chunk(Sequence<T> sequence, int max) {
+        if (sequence == null)
+            return null;
+        if (sequence instanceof ChunkedSequence)
+            return (ChunkedSequence<T>) sequence;
+        Object[] array = new Object[max];
+        int n = 0;
+        Sequence<T> s = sequence;
+        while (n < max && s != null) {
+            array[n++] = s.first();
+            s = n < max ? seq(s.rest()) : s.rest();
+        }
+        return new ChunkedSequence<T>(array, 0, n, s);
+    }
+
+    /**
+     * A realized run of elements array[offset, end) followed by the possibly lazy more.
+     */
+    static final class ChunkedSequence<T> implements Sequence<T> {
+        final Object[] array;
+        final int offset;
+        final int end;
+        final Sequence<T> more;
+
+        ChunkedSequence(Object[] array, int offset, int end, Sequence<T> more) {
+            this.array = array;
+            this.offset = offset;
+            this.end = end;
+            this.more = more;
+        }
+
+        @SuppressWarnings("unchecked")
+        T get(int i) {
+            return (T) array[i];
+        }
+
+        @Override
+        public T first() {
+            return get(offset);
+        }
+
+        @Override
+        public Sequence<T> rest() {
+            if (offset + 1 < end)
+                return new ChunkedSequence<T>(array, offset + 1, end, more);
+            return seq(more); // realized so that the end of the sequence is null, as for any other
+        }
+    }
+
     private static class DefaultSequence<T> implements Sequence<T> {
         private final T value;
         private final Sequence<T> rest;
@@ -55,7 +239,7 @@ public class Sequences {
             return rest; // maybe null at end of sequence
         }
     }
-    
+
     private static class IterableSequence<T> implements Iterable<T> {
 
         private final Sequence<T> sequence;
@@ -69,7 +253,7 @@ public class Sequences {
             return new SequenceIterator<T>(sequence);
         }
     }
-    
+
     private static class HeadlessIterable<T> implements Iterable<T> {
 
         private Sequence<T> sequence;
@@ -88,9 +272,15 @@ public class Sequences {
         }
     }
 
+    /**
+     * Walks chunks in place, only stepping through first and rest for sequences that aren't chunked.
+     */
     private static class SequenceIterator<T> implements Iterator<T> {
-        
+
         private Sequence<T> sequence;
+        private Object[] chunk;
+        private int index;
+        private int end;
 
         public SequenceIterator(Sequence<T> sequence) {
             this.sequence = sequence;
@@ -98,11 +288,24 @@ public class Sequences {
 
         @Override
         public boolean hasNext() {
-            return sequence != null; 
+            if (index < end) return true;
+            sequence = seq(sequence);
+            return sequence != null;
         }
 
+        @SuppressWarnings("unchecked")
         @Override
         public T next() {
+            if (index < end) return (T) chunk[index++];
+            if (!hasNext()) throw new NoSuchElementException();
+            if (sequence instanceof ChunkedSequence) {
+                ChunkedSequence<T> chunked = (ChunkedSequence<T>) sequence;
+                chunk = chunked.array;
+                index = chunked.offset + 1;
+                end = chunked.end;
+                sequence = chunked.more;
+                return (T) chunk[chunked.offset];
+            }
             T next = sequence.first();
             sequence = sequence.rest();
             return next;
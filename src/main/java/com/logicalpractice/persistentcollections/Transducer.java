@@ -0,0 +1,24 @@
+package com.logicalpractice.persistentcollections;
+
+/**
+ * Transformation of a reduction, as clojure's transducers: given the Reducer taking U's downstream it
+ * returns one taking T's. Composed transducers wrap each other's reducers, so a pipeline of stages is
+ * applied to each item in a single pass with no collection between the stages.
+ */
+public interface Transducer<T, U> {
+
+   <A> Reducer<A, T> apply(Reducer<A, U> downstream);
+
+   /**
+    * @return a transducer applying this and then next to each item
+    */
+   default <V> Transducer<T, V> then(final Transducer<U, V> next) {
+      final Transducer<T, U> self = this;
+      return new Transducer<T, V>() {
+         @Override
+         public <A> Reducer<A, T> apply(Reducer<A, V> downstream) {
+            return self.apply(next.apply(downstream));
+         }
+      };
+   }
+}
@@ -0,0 +1,265 @@
+package com.logicalpractice.persistentcollections;
+
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import com.logicalpractice.persistentcollections.Sequences.ChunkedSequence;
+
+/**
+ * Transducers and the means to run them over Sequences, Iterables, persistent lists and streams.
+ * <p/>
+ * A source is reduced with the transformed Reducer straight into the sink. PersistentLists are
+ * reduced through their own reduce, which loops over the leaf arrays, and chunked sequences a chunk
+ * at a time, so neither pays for an iterator. Reductions stop pulling from the source once the
+ * reducer reports it is done, so take over an infinite sequence terminates.
+ */
+public final class Transducers {
+
+   private Transducers() {
+   }
+
+   /**
+    * Reducer passing completion and done through to the reducer downstream.
+    */
+   private static abstract class Forwarding<A, T, U> implements Reducer<A, T> {
+      final Reducer<A, U> downstream;
+
+      Forwarding(Reducer<A, U> downstream) {
+         this.downstream = downstream;
+      }
+
+      @Override
+      public A complete(A acc) {
+         return downstream.complete(acc);
+      }
+
+      @Override
+      public boolean isDone() {
+         return downstream.isDone();
+      }
+   }
+
+   public static <T, U> Transducer<T, U> map(final Function<? super T, ? extends U> fn) {
+      return new Transducer<T, U>() {
+         @Override
+         public <A> Reducer<A, T> apply(Reducer<A, U> downstream) {
+            return new Forwarding<A, T, U>(downstream) {
+               @Override
+               public A step(A acc, T item) {
+                  return this.downstream.step(acc, fn.apply(item));
+               }
+            };
+         }
+      };
+   }
+
+   public static <T> Transducer<T, T> filter(final Predicate<? super T> pred) {
+      return new Transducer<T, T>() {
+         @Override
+         public <A> Reducer<A, T> apply(Reducer<A, T> downstream) {
+            return new Forwarding<A, T, T>(downstream) {
+               @Override
+               public A step(A acc, T item) {
+                  return pred.test(item) ? this.downstream.step(acc, item) : acc;
+               }
+            };
+         }
+      };
+   }
+
+   /**
+    * Passes on the first n items and then reports done.
+    */
+   public static <T> Transducer<T, T> take(final long n) {
+      return new Transducer<T, T>() {
+         @Override
+         public <A> Reducer<A, T> apply(Reducer<A, T> downstream) {
+            return new Forwarding<A, T, T>(downstream) {
+               private long remaining = n;
+
+               @Override
+               public A step(A acc, T item) {
+                  if (remaining <= 0)
+                     return acc;
+                  remaining--;
+                  return this.downstream.step(acc, item);
+               }
+
+               @Override
+               public boolean isDone() {
+                  return remaining <= 0 || this.downstream.isDone();
+               }
+            };
+         }
+      };
+   }
+
+   /**
+    * Groups the items into lists of size, the last holding whatever is left over.
+    */
+   public static <T> Transducer<T, PersistentList<T>> partitionAll(final int size) {
+      if (size < 1)
+         throw new IllegalArgumentException("size must be positive: " + size);
+      return new Transducer<T, PersistentList<T>>() {
+         @Override
+         public <A> Reducer<A, T> apply(Reducer<A, PersistentList<T>> downstream) {
+            return new Forwarding<A, T, PersistentList<T>>(downstream) {
+               private TransientList<T> partition;
+               private int count;
+
+               @Override
+               public A step(A acc, T item) {
+                  if (partition == null)
+                     partition = PersistentLists.<T>emptyPersistentList().toTransientList();
+                  partition.add(item);
+                  if (++count < size)
+                     return acc;
+                  return flush(acc);
+               }
+
+               private A flush(A acc) {
+                  PersistentList<T> full = partition.toPersistentList();
+                  partition = null;
+                  count = 0;
+                  return this.downstream.step(acc, full);
+               }
+
+               @Override
+               public A complete(A acc) {
+                  if (partition != null && !this.downstream.isDone())
+                     acc = flush(acc);
+                  return this.downstream.complete(acc);
+               }
+            };
+         }
+      };
+   }
+
+   /**
+    * Sink adding each item to a TransientList.
+    */
+   public static <T> Reducer<TransientList<T>, T> listSink() {
+      return new Reducer<TransientList<T>, T>() {
+         @Override
+         public TransientList<T> step(TransientList<T> acc, T item) {
+            acc.add(item);
+            return acc;
+         }
+      };
+   }
+
+   /**
+    * Sink putting each entry into a TransientMap, later entries replacing earlier ones.
+    */
+   public static <K, V> Reducer<TransientMap<K, V>, Map.Entry<K, V>> mapSink() {
+      return new Reducer<TransientMap<K, V>, Map.Entry<K, V>>() {
+         @Override
+         public TransientMap<K, V> step(TransientMap<K, V> acc, Map.Entry<K, V> entry) {
+            acc.put(entry.getKey(), entry.getValue());
+            return acc;
+         }
+      };
+   }
+
+   public static <T, U, A> A transduce(Transducer<T, U> xf, Reducer<A, U> sink, A init, Sequence<T> source) {
+      Reducer<A, T> rf = xf.apply(sink);
+      A acc = init;
+      Sequence<T> s = Sequences.seq(source);
+      while (s != null && !rf.isDone()) {
+         if (s instanceof ChunkedSequence) {
+            ChunkedSequence<T> chunk = (ChunkedSequence<T>) s;
+            for (int i = chunk.offset; i < chunk.end && !rf.isDone(); i++)
+               acc = rf.step(acc, chunk.get(i));
+            s = Sequences.seq(chunk.more);
+         } else {
+            acc = rf.step(acc, s.first());
+            s = Sequences.seq(s.rest());
+         }
+      }
+      return rf.complete(acc);
+   }
+
+   public static <T, U, A> A transduce(Transducer<T, U> xf, Reducer<A, U> sink, A init, Iterable<T> source) {
+      final Reducer<A, T> rf = xf.apply(sink);
+      A acc = init;
+      if (source instanceof PersistentList) {
+         acc = ((PersistentList<T>) source).reduce(acc, new BiFunction<A, T, A>() {
+            @Override
+            public A apply(A acc, T item) {
+               return rf.step(acc, item);
+            }
+         }, new Predicate<A>() {
+            @Override
+            public boolean test(A acc) {
+               return rf.isDone();
+            }
+         });
+      } else {
+         for (T item : source) {
+            if (rf.isDone())
+               break;
+            acc = rf.step(acc, item);
+         }
+      }
+      return rf.complete(acc);
+   }
+
+   public static <T, U, A> A transduce(Transducer<T, U> xf, Reducer<A, U> sink, A init, Stream<T> source) {
+      final Reducer<A, T> rf = xf.apply(sink);
+      Step<A, T> step = new Step<A, T>(rf, init);
+      Spliterator<T> spliterator = source.spliterator();
+      while (!rf.isDone() && spliterator.tryAdvance(step))
+         ;
+      return rf.complete(step.acc);
+   }
+
+   private static final class Step<A, T> implements Consumer<T> {
+      private final Reducer<A, T> rf;
+      A acc;
+
+      Step(Reducer<A, T> rf, A acc) {
+         this.rf = rf;
+         this.acc = acc;
+      }
+
+      @Override
+      public void accept(T item) {
+         acc = rf.step(acc, item);
+      }
+   }
+
+   public static <T, U> PersistentList<U> intoList(Transducer<T, U> xf, Sequence<T> source) {
+      return transduce(xf, Transducers.<U>listSink(), PersistentLists.<U>emptyPersistentList().toTransientList(), source)
+            .toPersistentList();
+   }
+
+   public static <T, U> PersistentList<U> intoList(Transducer<T, U> xf, Iterable<T> source) {
+      return transduce(xf, Transducers.<U>listSink(), PersistentLists.<U>emptyPersistentList().toTransientList(), source)
+            .toPersistentList();
+   }
+
+   public static <T, U> PersistentList<U> intoList(Transducer<T, U> xf, Stream<T> source) {
+      return transduce(xf, Transducers.<U>listSink(), PersistentLists.<U>emptyPersistentList().toTransientList(), source)
+            .toPersistentList();
+   }
+
+   public static <T, K, V> PersistentMap<K, V> intoMap(Transducer<T, Map.Entry<K, V>> xf, Sequence<T> source) {
+      return transduce(xf, Transducers.<K, V>mapSink(),
+            PersistentHashMap.<K, V>empty().toTransientMap(), source).toPersistentMap();
+   }
+
+   public static <T, K, V> PersistentMap<K, V> intoMap(Transducer<T, Map.Entry<K, V>> xf, Iterable<T> source) {
+      return transduce(xf, Transducers.<K, V>mapSink(),
+            PersistentHashMap.<K, V>empty().toTransientMap(), source).toPersistentMap();
+   }
+
+   public static <T, K, V> PersistentMap<K, V> intoMap(Transducer<T, Map.Entry<K, V>> xf, Stream<T> source) {
+      return transduce(xf, Transducers.<K, V>mapSink(),
+            PersistentHashMap.<K, V>empty().toTransientMap(), source).toPersistentMap();
+   }
+}
@@ -0,0 +1,171 @@
+package com.logicalpractice.persistentcollections;
+
+/**
+ * Mutable partner to PersistentDoubleList, following the same editing rules as TransientTreeList.
+ */
+public final class TransientDoubleList {
+
+   private int cnt;
+   private int shift;
+   private PersistentLists.Node root;
+   private double[] tail;
+
+   TransientDoubleList(int cnt, int shift, PersistentLists.Node root, double[] tail) {
+      this.cnt = cnt;
+      this.shift = shift;
+      this.root = root;
+      this.tail = tail;
+   }
+
+   PersistentLists.Node ensureEditable(PersistentLists.Node node) {
+      if (node.edit == root.edit)
+         return node;
+      return new PersistentLists.Node(root.edit, node.array.clone());
+   }
+
+   PersistentDoubleList.Leaf ensureEditable(PersistentDoubleList.Leaf leaf) {
+      if (leaf.edit == root.edit)
+         return leaf;
+      return new PersistentDoubleList.Leaf(root.edit, leaf.array.clone());
+   }
+
+   void ensureEditable() {
+      Thread owner = root.edit.get();
+      if (owner == Thread.currentThread())
+         return;
+      if (owner != null)
+         throw new IllegalAccessError("Transient used by non-owner thread");
+      throw new IllegalAccessError("Transient used after persistent! call");
+   }
+
+   public PersistentDoubleList toPersistentList() {
+      ensureEditable();
+      root.edit.set(null);
+      double[] trimmedTail = new double[cnt - tailoff()];
+      System.arraycopy(tail, 0, trimmedTail, 0, trimmedTail.length);
+      return new PersistentDoubleList(cnt, shift, root, trimmedTail);
+   }
+
+   public void add(double val) {
+      ensureEditable();
+      //room in tail?
+      if (cnt - tailoff() < 32) {
+         tail[cnt & 0x01f] = val;
+         ++cnt;
+         return;
+      }
+      double[] newTail = new double[32];
+      newTail[0] = val;
+      pushFullTail(newTail);
+      ++cnt;
+   }
+
+   /**
+    * Appends the items a tail at a time.
+    */
+   public void addAll(double... items) {
+      ensureEditable();
+      int offset = 0;
+      int length = items.length;
+      while (length > 0) {
+         int inTail = cnt - tailoff();
+         if (inTail == 32) {
+            pushFullTail(new double[32]);
+            inTail = 0;
+         }
+         int n = Math.min(32 - inTail, length);
+         System.arraycopy(items, offset, tail, inTail, n);
+         cnt += n;
+         offset += n;
+         length -= n;
+      }
+   }
+
+   private void pushFullTail(double[] newTail) {
+      PersistentLists.Node newroot;
+      PersistentDoubleList.Leaf tailnode = new PersistentDoubleList.Leaf(root.edit, tail);
+      int newshift = shift;
+      //overflow root?
+      if ((cnt >>> 5) > (1 << shift)) {
+         newroot = new PersistentLists.Node(root.edit);
+         newroot.array[0] = root;
+         newroot.array[1] = PersistentDoubleList.newPath(root.edit, shift, tailnode);
+         newshift += 5;
+      } else
+         newroot = pushTail(shift, root, tailnode);
+      root = newroot;
+      shift = newshift;
+      tail = newTail;
+   }
+
+   private PersistentLists.Node pushTail(int level, PersistentLists.Node parent, PersistentDoubleList.Leaf tailnode) {
+      parent = ensureEditable(parent);
+      int subidx = ((cnt - 1) >>> level) & 0x01f;
+      Object nodeToInsert;
+      if (level == 5) {
+         nodeToInsert = tailnode;
+      } else {
+         PersistentLists.Node child = (PersistentLists.Node) parent.array[subidx];
+         nodeToInsert = (child != null) ?
+               pushTail(level - 5, child, tailnode)
+               : PersistentDoubleList.newPath(root.edit, level - 5, tailnode);
+      }
+      parent.array[subidx] = nodeToInsert;
+      return parent;
+   }
+
+   private int tailoff() {
+      if (cnt < 32)
+         return 0;
+      return ((cnt - 1) >>> 5) << 5;
+   }
+
+   private double[] arrayFor(int i) {
+      if (i >= 0 && i < cnt) {
+         if (i >= tailoff())
+            return tail;
+         PersistentLists.Node node = root;
+         for (int level = shift; level > 5; level -= 5)
+            node = (PersistentLists.Node) node.array[(i >>> level) & 0x01f];
+         return ((PersistentDoubleList.Leaf) node.array[(i >>> 5) & 0x01f]).array;
+      }
+      throw new IndexOutOfBoundsException();
+   }
+
+   public double set(int i, double val) {
+      ensureEditable();
+      double previous = arrayFor(i)[i & 0x01f];
+      if (i >= tailoff()) {
+         tail[i & 0x01f] = val;
+         return previous;
+      }
+      root = doAssoc(shift, root, i, val);
+      return previous;
+   }
+
+   private PersistentLists.Node doAssoc(int level, PersistentLists.Node node, int i, double val) {
+      node = ensureEditable(node);
+      int subidx = (i >>> level) & 0x01f;
+      if (level == 5) {
+         PersistentDoubleList.Leaf leaf = ensureEditable((PersistentDoubleList.Leaf) node.array[subidx]);
+         leaf.array[i & 0x01f] = val;
+         node.array[subidx] = leaf;
+      } else {
+         node.array[subidx] = doAssoc(level - 5, (PersistentLists.Node) node.array[subidx], i, val);
+      }
+      return node;
+   }
+
+   /**
+    * @throws IndexOutOfBoundsException if index is out of range
+    */
+   public double get(int index) {
+      ensureEditable();
+      return arrayFor(index)[index & 0x01f];
+   }
+
+   public int size() {
+      ensureEditable();
+      return cnt;
+   }
+}
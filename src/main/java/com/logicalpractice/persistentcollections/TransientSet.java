@@ -0,0 +1,11 @@
+package com.logicalpractice.persistentcollections;
+
+import java.util.Set;
+
+/**
+ *
+ */
+public interface TransientSet<T> extends Set<T> {
+
+   PersistentSet<T> toPersistentSet();
+}
@@ -1,6 +1,8 @@
 package com.logicalpractice.persistentcollections;
 
 import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.RandomAccess;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -36,6 +38,19 @@ final class TransientTreeList<T> extends AbstractList<T> implements TransientLis
       throw new IllegalAccessError("Transient used after persistent! call");
    }
 
+   /**
+    * Makes the calling thread the owner, for handing a transient between the threads of a stream
+    * pipeline. The caller must ensure the previous owner has finished with it and that its writes
+    * are visible, as the Collector contract does between accumulation and combining.
+    */
+   void claim() {
+      Thread owner = root.edit.get();
+      if (owner == null)
+         throw new IllegalAccessError("Transient used after persistent! call");
+      if (owner != Thread.currentThread())
+         root.edit.set(Thread.currentThread());
+   }
+
    @Override
    public PersistentList<T> toPersistentList() {
       ensureEditable();
@@ -55,23 +70,166 @@ final class TransientTreeList<T> extends AbstractList<T> implements TransientLis
          return true;
       }
       //full tail, push into tree
-      PersistentLists.Node newroot;
-      PersistentLists.Node tailnode = new PersistentLists.Node(root.edit, tail);
-      tail = new Object[32];
-      tail[0] = val;
-      int newshift = shift;
+      Object[] newTail = new Object[32];
+      newTail[0] = val;
+      pushFullTail(newTail);
+      ++cnt;
+      return true;
+   }
+
+   @Override
+   public boolean addAll(Collection<? extends T> c) {
+      ensureEditable();
+      Object[] items = c.toArray();
+      append(items, 0, items.length);
+      return items.length != 0;
+   }
+
+   @Override
+   public boolean addAll(int index, Collection<? extends T> c) {
+      ensureEditable();
+      if (index < 0 || index > cnt)
+         throw new IndexOutOfBoundsException();
+      Object[] items = c.toArray();
+      if (items.length == 0)
+         return false;
+      Object[] trailing = copyRange(index, cnt);
+      truncate(index);
+      append(items, 0, items.length);
+      append(trailing, 0, trailing.length);
+      return true;
+   }
+
+   /**
+    * Appends all of other. When this list ends on a whole leaf, other's full leaves go into the
+    * trie as they are, shared rather than copied, and only its tail is copied. Otherwise its items
+    * are copied in a leaf at a time.
+    */
+   void appendAll(PersistentTreeList<? extends T> other) {
+      ensureEditable();
+      int otherCnt = other.size();
+      if (otherCnt == 0)
+         return;
+      int otherTailoff = other.tailoff();
+      Object[] otherTail = other.arrayFor(otherCnt - 1);
+      if ((cnt & 0x01f) != 0) {
+         for (int i = 0; i < otherTailoff; i += 32)
+            append(other.arrayFor(i), 0, 32);
+         append(otherTail, 0, otherCnt - otherTailoff);
+         return;
+      }
+      if (otherTailoff > 0) {
+         // the full tail goes in first, leaving the trie to end on a whole leaf
+         if (cnt > 0)
+            pushLeaf(new PersistentLists.Node(root.edit, tail));
+         for (int i = 0; i < otherTailoff; i += 32) {
+            cnt += 32;
+            pushLeaf(other.leafFor(i));
+         }
+         tail = new Object[32];
+         System.arraycopy(otherTail, 0, tail, 0, otherCnt - otherTailoff);
+         cnt += otherCnt - otherTailoff;
+      } else
+         append(otherTail, 0, otherCnt);
+   }
+
+   /**
+    * Moves the full tail into the tree, the caller must add at least one item to the new tail
+    * as cnt still counts the items in the old one.
+    */
+   private void pushFullTail(Object[] newTail) {
+      pushLeaf(new PersistentLists.Node(root.edit, tail));
+      tail = newTail;
+   }
+
+   /**
+    * Puts a full leaf into the tree after the last, cnt already counting its items.
+    */
+   private void pushLeaf(PersistentLists.Node leaf) {
       //overflow root?
       if ((cnt >>> 5) > (1 << shift)) {
-         newroot = new PersistentLists.Node(root.edit);
+         PersistentLists.Node newroot = new PersistentLists.Node(root.edit);
          newroot.array[0] = root;
-         newroot.array[1] = PersistentLists.newPath(root.edit, shift, tailnode);
-         newshift += 5;
+         newroot.array[1] = PersistentLists.newPath(root.edit, shift, leaf);
+         root = newroot;
+         shift += 5;
       } else
-         newroot = pushTail(shift, root, tailnode);
-      root = newroot;
-      shift = newshift;
-      ++cnt;
-      return true;
+         root = pushTail(shift, root, leaf);
+   }
+
+   /**
+    * Appends items a tail at a time, one arraycopy and at most one push into the tree per leaf.
+    */
+   private void append(Object[] items, int offset, int length) {
+      while (length > 0) {
+         int inTail = cnt - tailoff();
+         if (inTail == 32) {
+            pushFullTail(new Object[32]);
+            inTail = 0;
+         }
+         int n = Math.min(32 - inTail, length);
+         System.arraycopy(items, offset, tail, inTail, n);
+         cnt += n;
+         offset += n;
+         length -= n;
+      }
+   }
+
+   private Object[] copyRange(int from, int to) {
+      Object[] ret = new Object[to - from];
+      for (int i = from; i < to; ) {
+         Object[] array = arrayFor(i);
+         int offset = i & 0x01f;
+         int n = Math.min(32 - offset, to - i);
+         System.arraycopy(array, offset, ret, i - from, n);
+         i += n;
+      }
+      return ret;
+   }
+
+   /**
+    * Drops every item from newCnt onwards. Only the nodes along the path to the new last leaf are
+    * touched, everything to the right of it is simply cut off.
+    */
+   private void truncate(int newCnt) {
+      if (newCnt == 0) {
+         root = new PersistentLists.Node(root.edit);
+         shift = 5;
+         tail = new Object[32];
+         cnt = 0;
+         return;
+      }
+      int oldTailoff = tailoff();
+      if (newCnt > oldTailoff) {
+         Arrays.fill(tail, newCnt - oldTailoff, cnt - oldTailoff, null);
+         cnt = newCnt;
+         return;
+      }
+      int tailLength = ((newCnt - 1) & 0x01f) + 1;
+      Object[] newTail = new Object[32];
+      System.arraycopy(arrayFor(newCnt - 1), 0, newTail, 0, tailLength);
+      int newTailoff = newCnt - tailLength;
+      if (newTailoff == 0) {
+         root = new PersistentLists.Node(root.edit);
+         shift = 5;
+      } else {
+         root = trimTree(shift, root, newTailoff - 1);
+         while (shift > 5 && root.array[1] == null) {
+            root = ensureEditable((PersistentLists.Node) root.array[0]);
+            shift -= 5;
+         }
+      }
+      tail = newTail;
+      cnt = newCnt;
+   }
+
+   private PersistentLists.Node trimTree(int level, PersistentLists.Node node, int last) {
+      node = ensureEditable(node);
+      int subidx = (last >>> level) & 0x01f;
+      Arrays.fill(node.array, subidx + 1, 32, null);
+      if (level > 5)
+         node.array[subidx] = trimTree(level - 5, (PersistentLists.Node) node.array[subidx], last);
+      return node;
    }
 
    private PersistentLists.Node pushTail(int level, PersistentLists.Node parent, PersistentLists.Node tailnode) {
@@ -148,73 +306,31 @@ final class TransientTreeList<T> extends AbstractList<T> implements TransientLis
          throw new IllegalStateException("Can't pop empty vector");
       }
       T lastItem = get(index);
-      int toSave = cnt - 1 - index ;
-      Object [] saved = null;
-      if ( toSave > 0 ) {
-         saved = new Object[toSave];
-         for( int i = 0 ; i < toSave; i ++ ){
-            saved[i] = get(index + i + 1);
-         }
-      }
-      while( cnt != index ){
-         pop();
-      }
-      if ( saved != null ){
-         for (Object o : saved) {
-            add((T)o);
-         }
-      }
+      removeRange(index, index + 1);
       return lastItem;
    }
 
-   private void pop() {
-      if (cnt == 1) {
-         cnt = 0;
-         return ;
-      }
-      int i = cnt - 1;
-      //pop in tail?
-      if ((i & 0x01f) > 0) {
-         --cnt;
-         return ;
-      }
-
-      Object[] newtail = arrayFor(cnt - 2);
-
-      PersistentLists.Node newroot = popTail(shift, root);
-      int newshift = shift;
-      if (newroot == null) {
-         newroot = new PersistentLists.Node(root.edit);
-      }
-      if (shift > 5 && newroot.array[1] == null) {
-         newroot = ensureEditable((PersistentLists.Node) newroot.array[0]);
-         newshift -= 5;
-      }
-      root = newroot;
-      shift = newshift;
-      --cnt;
-      tail = newtail;
+   /**
+    * Copies the items after toIndex out a leaf at a time, cuts the list back to fromIndex and
+    * appends them again, so the cost is in the leaves after fromIndex rather than in single pops.
+    * Also backs subList(from, to).clear().
+    */
+   @Override
+   protected void removeRange(int fromIndex, int toIndex) {
+      ensureEditable();
+      if (fromIndex < 0 || toIndex > cnt || fromIndex > toIndex)
+         throw new IndexOutOfBoundsException();
+      if (fromIndex == toIndex)
+         return;
+      Object[] trailing = copyRange(toIndex, cnt);
+      truncate(fromIndex);
+      append(trailing, 0, trailing.length);
    }
-   
-   private PersistentLists.Node popTail(int level, PersistentLists.Node node) {
-      node = ensureEditable(node);
-      int subidx = ((cnt - 2) >>> level) & 0x01f;
-      if (level > 5) {
-         PersistentLists.Node newchild = popTail(level - 5, (PersistentLists.Node) node.array[subidx]);
-         if (newchild == null && subidx == 0)
-            return null;
-         else {
-            PersistentLists.Node ret = node;
-            ret.array[subidx] = newchild;
-            return ret;
-         }
-      } else if (subidx == 0)
-         return null;
-      else {
-         PersistentLists.Node ret = node;
-         ret.array[subidx] = null;
-         return ret;
-      }
+
+   @Override
+   public void clear() {
+      ensureEditable();
+      truncate(0);
    }
 
    /**
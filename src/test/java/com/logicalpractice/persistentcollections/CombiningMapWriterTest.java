@@ -0,0 +1,197 @@
+package com.logicalpractice.persistentcollections;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ *
+ */
+public class CombiningMapWriterTest {
+
+   private static PersistentRef<PersistentMap<Integer, Integer>> emptyRef() {
+      return new PersistentRef<PersistentMap<Integer, Integer>>(PersistentHashMap.create(new HashMap<Integer, Integer>()));
+   }
+
+   @Test
+   public void everyUpdateIsPublished() throws Exception {
+      final CombiningMapWriter<Integer, Integer> testObject = new CombiningMapWriter<Integer, Integer>(emptyRef());
+      final int threads = 4;
+      final int perThread = 5000;
+      final AtomicBoolean early = new AtomicBoolean();
+
+      List<Thread> workers = new ArrayList<Thread>();
+      for (int t = 0; t < threads; t++) {
+         final int base = t * perThread;
+         workers.add(new Thread(() -> {
+            List<CompletableFuture<PersistentMap<Integer, Integer>>> futures = new ArrayList<CompletableFuture<PersistentMap<Integer, Integer>>>();
+            for (int i = 0; i < perThread; i++)
+               futures.add(testObject.put(base + i, i));
+            for (int i = 0; i < perThread; i++)
+               if (!futures.get(i).join().containsKey(base + i))
+                  early.set(true);
+         }));
+      }
+      for (Thread worker : workers)
+         worker.start();
+      for (Thread worker : workers)
+         worker.join();
+
+      assertThat(early.get(), equalTo(false)); // no future completes before its update is published
+      assertThat(testObject.ref().get().size(), equalTo(threads * perThread));
+      assertThat(testObject.updateCount(), equalTo((long) threads * perThread));
+      assertThat(testObject.batchCount(), equalTo(testObject.ref().swapCount()));
+      assertThat(testObject.largestBatchSize(), greaterThanOrEqualTo(1L));
+   }
+
+   @Test
+   public void failingUpdateFailsOnlyItsOwnFuture() throws Exception {
+      CombiningMapWriter<Integer, Integer> testObject = new CombiningMapWriter<Integer, Integer>(emptyRef());
+
+      CompletableFuture<PersistentMap<Integer, Integer>> failed = testObject.submit(m -> {
+         throw new IllegalArgumentException("bad update");
+      });
+      CompletableFuture<PersistentMap<Integer, Integer>> put = testObject.put(1, 1);
+
+      try {
+         failed.get();
+         throw new AssertionError("expected failure");
+      } catch (ExecutionException e) {
+         assertThat(e.getCause().getMessage(), equalTo("bad update"));
+      }
+      assertThat(put.get().get(1), equalTo(1));
+   }
+
+   @Test
+   public void failedUpdateLeavesNoTrace() throws Exception {
+      CombiningMapWriter<Integer, Integer> testObject = new CombiningMapWriter<Integer, Integer>(emptyRef());
+
+      CompletableFuture<PersistentMap<Integer, Integer>> failed = testObject.submit(m -> {
+         m.put(1, 1);
+         throw new IllegalStateException("half done");
+      });
+
+      assertThat(failed.isCompletedExceptionally(), equalTo(true));
+      assertThat(testObject.ref().get().containsKey(1), equalTo(false));
+   }
+
+   @Test
+   public void waitingWritersParkAndABatchDropsOnlyItsFailedUpdate() throws Exception {
+      final CombiningMapWriter<Integer, Integer> testObject = new CombiningMapWriter<Integer, Integer>(emptyRef());
+      final CountDownLatch combining = new CountDownLatch(1);
+      final CountDownLatch release = new CountDownLatch(1);
+      final AtomicReference<CompletableFuture<PersistentMap<Integer, Integer>>> failed = new AtomicReference<CompletableFuture<PersistentMap<Integer, Integer>>>();
+      final AtomicReference<CompletableFuture<PersistentMap<Integer, Integer>>> put = new AtomicReference<CompletableFuture<PersistentMap<Integer, Integer>>>();
+
+      // holds the combining role until both other writers are parked behind it
+      Thread combiner = new Thread(() -> testObject.submit(m -> {
+         combining.countDown();
+         try {
+            release.await();
+         } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+         }
+         m.put(0, 0);
+      }));
+      Thread failing = new Thread(() -> failed.set(testObject.submit(m -> {
+         m.put(1, 1);
+         throw new IllegalStateException("half done");
+      })));
+      Thread putting = new Thread(() -> put.set(testObject.put(2, 2)));
+
+      combiner.start();
+      combining.await();
+      failing.start();
+      awaitParked(failing);
+      putting.start();
+      awaitParked(putting);
+      release.countDown();
+      combiner.join();
+      failing.join();
+      putting.join();
+
+      assertThat(testObject.largestBatchSize(), equalTo(2L)); // the failing update and the put went out together
+      assertThat(failed.get().isCompletedExceptionally(), equalTo(true));
+      assertThat(put.get().get().get(2), equalTo(2));
+      PersistentMap<Integer, Integer> published = testObject.ref().get();
+      assertThat(published.containsKey(1), equalTo(false));
+      assertThat(published.get(0), equalTo(0));
+      assertThat(published.get(2), equalTo(2));
+   }
+
+   private static void awaitParked(Thread writer) throws InterruptedException {
+      long deadline = System.currentTimeMillis() + 10000;
+      while (writer.getState() != Thread.State.WAITING) {
+         if (System.currentTimeMillis() > deadline)
+            throw new AssertionError("writer did not park, it is " + writer.getState());
+         Thread.sleep(1);
+      }
+   }
+
+   @Test
+   public void removeAndPutInOneThread() throws Exception {
+      CombiningMapWriter<Integer, Integer> testObject = new CombiningMapWriter<Integer, Integer>(emptyRef(), 1);
+
+      testObject.put(1, 1);
+      testObject.put(2, 2);
+      PersistentMap<Integer, Integer> result = testObject.remove(1).join();
+
+      assertThat(result.containsKey(1), equalTo(false));
+      assertThat(result.get(2), equalTo(2));
+      assertThat(testObject.batchCount(), equalTo(3L));
+      assertThat(testObject.meanBatchSize(), equalTo(1.0));
+   }
+
+   @Test
+   public void combinerLeavesOnceItsOwnUpdateIsPublished() throws Exception {
+      final CombiningMapWriter<Integer, Integer> testObject = new CombiningMapWriter<Integer, Integer>(emptyRef(), 2);
+      final int spinners = 6;
+      final AtomicBoolean stop = new AtomicBoolean();
+      final Thread measured = Thread.currentThread();
+      final AtomicInteger appliedForOthers = new AtomicInteger();
+
+      List<Thread> workers = new ArrayList<Thread>();
+      for (int t = 0; t < spinners; t++) {
+         final int base = (t + 1) * 1000000;
+         workers.add(new Thread(() -> {
+            for (int i = 0; !stop.get(); i++) {
+               final int key = base + i % 1000;
+               testObject.submit(m -> {
+                  if (Thread.currentThread() == measured)
+                     appliedForOthers.incrementAndGet();
+                  m.put(key, key);
+               });
+            }
+         }));
+      }
+      for (Thread worker : workers)
+         worker.start();
+      try {
+         for (int i = 0; i < 2000; i++) {
+            appliedForOthers.set(0);
+            testObject.put(i, i).join();
+            // every other writer has at most one update queued ahead of this one
+            assertThat(appliedForOthers.get(), lessThanOrEqualTo(spinners));
+         }
+      } finally {
+         stop.set(true);
+         for (Thread worker : workers)
+            worker.join();
+      }
+      for (int i = 0; i < 2000; i++)
+         assertThat(testObject.ref().get().get(i), equalTo(i));
+   }
+}
@@ -0,0 +1,122 @@
+package com.logicalpractice.persistentcollections;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ *
+ */
+public class LongRangeTest {
+
+   private static List<Long> expected(long start, long end, long step) {
+      List<Long> ret = new ArrayList<Long>();
+      for (long i = start; step > 0 ? i < end : i > end; i += step)
+         ret.add(i);
+      return ret;
+   }
+
+   @Test
+   public void matchesSteppedLoop() throws Exception {
+      long[][] cases = {{0, 10, 1}, {0, 10, 3}, {0, 9, 3}, {5, 5, 1}, {10, 0, -1}, {10, 0, -4}, {-7, 100, 7}, {3, 0, 1}};
+      for (long[] c : cases) {
+         LongRange testObject = LongRange.range(c[0], c[1], c[2]);
+         List<Long> expected = expected(c[0], c[1], c[2]);
+
+         assertThat(testObject.size(), equalTo(expected.size()));
+         assertThat(testObject, equalTo(expected));
+         assertThat(expected, equalTo((List<Long>) testObject));
+         assertThat(testObject.hashCode(), equalTo(expected.hashCode()));
+         for (int i = 0; i < expected.size(); i++) {
+            assertThat(testObject.get(i), equalTo(expected.get(i)));
+            assertThat(testObject.indexOf(expected.get(i)), equalTo(i));
+         }
+      }
+   }
+
+   @Test
+   public void indexOfAndSubList() throws Exception {
+      LongRange testObject = LongRange.range(0, 100, 5);
+
+      assertThat(testObject.indexOf(35L), equalTo(7));
+      assertThat(testObject.contains(36L), equalTo(false));
+      assertThat(testObject.contains(100L), equalTo(false));
+      assertThat(testObject.contains(35), equalTo(false)); // an Integer is never equal to a Long
+      assertThat(testObject.subList(2, 5), equalTo(Arrays.asList(10L, 15L, 20L)));
+   }
+
+   @Test
+   public void primitiveIterationAndStreams() throws Exception {
+      LongRange testObject = LongRange.range(1, 1000001);
+
+      long sum = 0;
+      for (PrimitiveIterator.OfLong it = testObject.iterator(); it.hasNext(); )
+         sum += it.nextLong();
+      assertThat(sum, equalTo(500000500000L));
+      assertThat(testObject.longStream().parallel().sum(), equalTo(500000500000L));
+      assertThat(testObject.longStream().filter(i -> i % 100000 == 0).boxed().collect(Collectors.toList()),
+            equalTo(LongStream.rangeClosed(1, 10).map(i -> i * 100000).boxed().collect(Collectors.toList())));
+   }
+
+   @Test
+   public void spliteratorSplitsInHalf() throws Exception {
+      Spliterator.OfLong right = LongRange.range(0, 101).spliterator();
+
+      Spliterator.OfLong left = right.trySplit();
+
+      assertThat(left.estimateSize(), equalTo(50L));
+      assertThat(right.estimateSize(), equalTo(51L));
+      final long[] first = new long[1];
+      right.tryAdvance((long l) -> first[0] = l);
+      assertThat(first[0], equalTo(50L));
+   }
+
+   @Test
+   public void updatesMaterialize() throws Exception {
+      LongRange testObject = LongRange.range(3);
+
+      assertThat(testObject.with(1, -1L), equalTo(Arrays.asList(0L, -1L, 2L)));
+      assertThat(testObject.withAppended(3L), equalTo(Arrays.asList(0L, 1L, 2L, 3L)));
+      assertThat(testObject, equalTo(Arrays.asList(0L, 1L, 2L)));
+   }
+
+   @Test
+   public void indexOfAcrossTheWholeLongRange() throws Exception {
+      long[][] cases = {{Long.MIN_VALUE, Long.MAX_VALUE, 1L << 34}, {Long.MAX_VALUE, Long.MIN_VALUE, -(1L << 34)},
+            {Long.MIN_VALUE, Long.MAX_VALUE, Long.MAX_VALUE}, {Long.MAX_VALUE, Long.MIN_VALUE, Long.MIN_VALUE}};
+      for (long[] c : cases) {
+         LongRange testObject = LongRange.range(c[0], c[1], c[2]);
+         int last = testObject.size() - 1;
+
+         assertThat(testObject.indexOf(testObject.getLong(last)), equalTo(last));
+         assertThat(testObject.contains(testObject.getLong(last)), equalTo(true));
+         assertThat(testObject.indexOf(testObject.getLong(last / 2)), equalTo(last / 2));
+         assertThat(testObject.indexOf(testObject.getLong(0)), equalTo(0));
+         assertThat(testObject.contains(testObject.getLong(last) + c[2] / 2), equalTo(false));
+      }
+   }
+
+   @Test
+   public void forEachLongTakesALambda() throws Exception {
+      final long[] sum = new long[1];
+
+      LongRange.range(10).forEachLong(x -> sum[0] += x);
+      LongRange.range(10).forEach(x -> sum[0] += x);
+
+      assertThat(sum[0], equalTo(90L));
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void rejectsRangesBeyondAList() throws Exception {
+      LongRange.range(Long.MIN_VALUE, Long.MAX_VALUE);
+   }
+}
@@ -0,0 +1,72 @@
+package com.logicalpractice.persistentcollections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ *
+ */
+public class MappedTreeListTest {
+
+   @Rule
+   public TemporaryFolder folder = new TemporaryFolder();
+
+   @Test
+   public void readsBackWhatWasWritten() throws Exception {
+      for (int size : new int[]{0, 1, 32, 33, 1056, 40000}) {
+         List<String> items = new ArrayList<String>();
+         for (int i = 0; i < size; i++)
+            items.add("item " + i);
+         Path file = folder.newFile("list" + size).toPath();
+
+         MappedTreeList.write(file, (PersistentTreeList<String>) PersistentLists.create(items), Snapshots.STRING);
+         MappedTreeList<String> testObject = MappedTreeList.open(file, Snapshots.STRING);
+
+         assertThat(testObject.size(), equalTo(size));
+         assertThat(testObject, equalTo(items));
+      }
+   }
+
+   @Test
+   public void updatesMaterializeACopy() throws Exception {
+      Path file = folder.newFile("list").toPath();
+      MappedTreeList.write(file, (PersistentTreeList<Integer>) PersistentLists.create(1, 2, 3), Snapshots.INTEGER);
+      MappedTreeList<Integer> testObject = MappedTreeList.open(file, Snapshots.INTEGER);
+
+      PersistentList<Integer> result = testObject.with(1, 20).withAppended(4);
+
+      assertThat(result, equalTo(PersistentLists.create(1, 20, 3, 4)));
+      assertThat(testObject, equalTo(PersistentLists.create(1, 2, 3)));
+   }
+
+   @Test
+   public void readLineStopsAtEitherLineEnding() throws Exception {
+      ElementCodec<String> lines = new ElementCodec<String>() {
+         public void write(DataOutput out, String value) throws IOException {
+            out.writeBytes(value);
+         }
+
+         public String read(DataInput in) throws IOException {
+            return in.readLine() + "|" + in.readLine();
+         }
+      };
+      Path file = folder.newFile("lines").toPath();
+      MappedTreeList.write(file, (PersistentTreeList<String>) PersistentLists.create("a\nb\n", "c\r\nd\r", "\r\ne"), lines);
+      MappedTreeList<String> testObject = MappedTreeList.open(file, lines);
+
+      assertThat(testObject.get(0), equalTo("a|b"));
+      assertThat(testObject.get(1), equalTo("c|d"));
+      assertThat(testObject.get(2), equalTo("|e")); // the last element ends the file, and so its line
+   }
+}
@@ -0,0 +1,115 @@
+package com.logicalpractice.persistentcollections;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ *
+ */
+public class OffHeapLongListTest {
+
+   private static long[] range(int size) {
+      long[] items = new long[size];
+      for (int i = 0; i < size; i++)
+         items[i] = i * 3L;
+      return items;
+   }
+
+   @Test
+   public void createAndGet() throws Exception {
+      OffHeapArena arena = new OffHeapArena();
+      try {
+         for (int size : new int[]{0, 1, 32, 33, 1056, 1057, 40000}) {
+            long[] items = range(size);
+            OffHeapLongList testObject = OffHeapLongList.create(arena, items);
+
+            assertThat(testObject.size(), equalTo(size));
+            assertThat(testObject.toArray(), equalTo(items));
+            for (int i = 0; i < size; i += 7)
+               assertThat(testObject.get(i), equalTo(items[i]));
+            testObject.close();
+         }
+         assertThat(arena.blocksInUse(), equalTo(0));
+      } finally {
+         arena.close();
+      }
+   }
+
+   @Test
+   public void withAppendedMatchesCreate() throws Exception {
+      OffHeapArena arena = new OffHeapArena();
+      try {
+         long[] items = range(40000);
+         OffHeapLongList testObject = OffHeapLongList.empty(arena);
+         for (long item : items) {
+            OffHeapLongList next = testObject.withAppended(item);
+            testObject.close();
+            testObject = next;
+         }
+
+         assertThat(testObject.toArray(), equalTo(items));
+         assertThat(arena.blocksInUse(), equalTo(40000 / 32 - 1));
+         testObject.close();
+         assertThat(arena.blocksInUse(), equalTo(0));
+      } finally {
+         arena.close();
+      }
+   }
+
+   @Test
+   public void versionsShareLeafBlocks() throws Exception {
+      OffHeapArena arena = new OffHeapArena();
+      try {
+         long[] items = range(3200);
+         OffHeapLongList original = OffHeapLongList.create(arena, items);
+         int blocks = arena.blocksInUse();
+
+         OffHeapLongList updated = original.with(1000, -1L);
+
+         assertThat(arena.blocksInUse(), equalTo(blocks + 1));
+         assertThat(updated.get(1000), equalTo(-1L));
+         assertThat(original.get(1000), equalTo(3000L));
+
+         original.close();
+         assertThat(arena.blocksInUse(), equalTo(blocks));
+         items[1000] = -1L;
+         assertThat(updated.toArray(), equalTo(items));
+
+         updated.close();
+         assertThat(arena.blocksInUse(), equalTo(0));
+      } finally {
+         arena.close();
+      }
+   }
+
+   @Test
+   public void closeIsIdempotent() throws Exception {
+      OffHeapArena arena = new OffHeapArena();
+      try {
+         OffHeapLongList testObject = OffHeapLongList.create(arena, range(100));
+         OffHeapLongList other = testObject.withAppended(1L);
+         testObject.close();
+         testObject.close();
+
+         assertThat(other.get(99), equalTo(297L));
+         other.close();
+         assertThat(arena.blocksInUse(), equalTo(0));
+      } finally {
+         arena.close();
+      }
+   }
+
+   @Test(expected = IllegalStateException.class)
+   public void getAfterCloseFails() throws Exception {
+      OffHeapArena arena = new OffHeapArena();
+      try {
+         OffHeapLongList testObject = OffHeapLongList.create(arena, range(100));
+         testObject.close();
+         testObject.get(0);
+      } finally {
+         arena.close();
+      }
+   }
+}
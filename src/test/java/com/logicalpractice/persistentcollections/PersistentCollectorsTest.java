@@ -0,0 +1,82 @@
+package com.logicalpractice.persistentcollections;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ *
+ */
+public class PersistentCollectorsTest {
+
+   @Test
+   public void toListKeepsEncounterOrder() throws Exception {
+      List<Integer> expected = IntStream.range(0, 100000).boxed().collect(Collectors.toList());
+
+      PersistentList<Integer> sequential = expected.stream().collect(PersistentCollectors.<Integer>toList());
+      PersistentList<Integer> parallel = expected.parallelStream().collect(PersistentCollectors.<Integer>toList());
+
+      assertThat(sequential, equalTo(expected));
+      assertThat(parallel, equalTo(expected));
+      assertThat(parallel.withAppended(-1).size(), equalTo(100001));
+   }
+
+   @Test
+   public void toListInParallelAtLargeSizes() throws Exception {
+      for (int size : new int[]{1 << 20, (1 << 20) + 17}) {
+         List<Integer> expected = IntStream.range(0, size).boxed().collect(Collectors.toList());
+
+         PersistentList<Integer> fromRange = IntStream.range(0, size).parallel().boxed()
+               .collect(PersistentCollectors.<Integer>toList());
+         PersistentList<Integer> filtered = expected.parallelStream().filter(i -> i % 7 != 3)
+               .collect(PersistentCollectors.<Integer>toList());
+
+         assertThat(fromRange, equalTo(expected));
+         assertThat(filtered, equalTo(expected.stream().filter(i -> i % 7 != 3).collect(Collectors.toList())));
+      }
+   }
+
+   @Test
+   public void toSetInParallel() throws Exception {
+      PersistentSet<Integer> testObject = IntStream.range(0, 100000).parallel().boxed()
+            .map(i -> i % 5000)
+            .collect(PersistentCollectors.<Integer>toSet());
+
+      assertThat(testObject.size(), equalTo(5000));
+      assertThat(new HashSet<Integer>(testObject), equalTo(IntStream.range(0, 5000).boxed().collect(Collectors.toSet())));
+   }
+
+   @Test
+   public void toMapMergesInParallel() throws Exception {
+      PersistentMap<Integer, Integer> testObject = IntStream.range(0, 100000).parallel().boxed()
+            .collect(PersistentCollectors.toMap(i -> i % 1000, i -> 1, Integer::sum));
+
+      Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+      for (int i = 0; i < 1000; i++)
+         expected.put(i, 100);
+      assertThat(testObject, equalTo(expected));
+   }
+
+   @Test
+   public void toMapWithoutMerge() throws Exception {
+      PersistentMap<Integer, String> testObject = IntStream.range(0, 50000).parallel().boxed()
+            .collect(PersistentCollectors.toMap(Function.identity(), String::valueOf));
+
+      assertThat(testObject.size(), equalTo(50000));
+      assertThat(testObject.get(49999), equalTo("49999"));
+   }
+
+   @Test(expected = IllegalStateException.class)
+   public void toMapRejectsDuplicateKeys() throws Exception {
+      IntStream.range(0, 10).boxed().collect(PersistentCollectors.toMap(i -> i % 3, i -> i));
+   }
+}
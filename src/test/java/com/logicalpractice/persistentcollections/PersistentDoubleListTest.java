@@ -0,0 +1,112 @@
+package com.logicalpractice.persistentcollections;
+
+import org.junit.Test;
+
+import java.util.PrimitiveIterator;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+/**
+ *
+ */
+public class PersistentDoubleListTest {
+
+   private static double[] halves(int from, int to) {
+      return IntStream.range(from, to).mapToDouble(i -> i / 2.0).toArray();
+   }
+
+   @Test
+   public void appendMatchesCreateAcrossTailAndTrieBoundaries() throws Exception {
+      for (int size : new int[]{0, 1, 31, 32, 33, 64, 1056, 1057, 33 * 1024 + 7}) {
+         double[] items = halves(0, size);
+         PersistentDoubleList expected = PersistentDoubleList.EMPTY;
+         for (double item : items)
+            expected = expected.withAppended(item);
+
+         PersistentDoubleList testObject = PersistentDoubleList.create(items);
+
+         assertThat(testObject, equalTo(expected));
+         assertThat(testObject.hashCode(), equalTo(expected.hashCode()));
+         assertThat(expected.toArray(), equalTo(items));
+         for (int i = 0; i < size; i += 97)
+            assertThat(expected.get(i), equalTo(i / 2.0));
+      }
+   }
+
+   @Test
+   public void withLeavesOriginalUnchanged() throws Exception {
+      PersistentDoubleList original = PersistentDoubleList.create(halves(0, 2000));
+
+      PersistentDoubleList result = original.with(5, -5.5).with(1999, Double.NaN).with(2000, 0.25);
+
+      assertThat(result.size(), equalTo(2001));
+      assertThat(result.get(5), equalTo(-5.5));
+      assertThat(Double.isNaN(result.get(1999)), equalTo(true));
+      assertThat(result.get(2000), equalTo(0.25));
+      assertThat(original.size(), equalTo(2000));
+      assertThat(original.get(5), equalTo(2.5));
+      assertThat(original.get(1999), equalTo(999.5));
+   }
+
+   @Test
+   public void popToEmpty() throws Exception {
+      int size = 33 * 32 + 40;
+      PersistentDoubleList testObject = PersistentDoubleList.create(halves(0, size));
+
+      for (int n = size - 1; n >= 0; n--) {
+         testObject = testObject.pop();
+         assertThat(testObject.size(), equalTo(n));
+         if (n % 32 <= 1 || n < 40)
+            assertThat(testObject, equalTo(PersistentDoubleList.create(halves(0, n))));
+      }
+      assertThat(testObject, equalTo(PersistentDoubleList.EMPTY));
+      assertThat(testObject.withAppended(7.5).get(0), equalTo(7.5));
+   }
+
+   @Test
+   public void transientEdits() throws Exception {
+      PersistentDoubleList original = PersistentDoubleList.create(halves(0, 100));
+      TransientDoubleList testObject = original.toTransientList();
+
+      testObject.set(3, 42.0);
+      testObject.addAll(halves(100, 2000));
+      testObject.add(1000.0);
+      PersistentDoubleList result = testObject.toPersistentList();
+
+      assertThat(result.size(), equalTo(2001));
+      assertThat(result.get(3), equalTo(42.0));
+      assertThat(result.get(1500), equalTo(750.0));
+      assertThat(result.get(2000), equalTo(1000.0));
+      assertThat(original.size(), equalTo(100));
+      assertThat(original.get(3), equalTo(1.5));
+   }
+
+   @Test
+   public void equalityFollowsDoubleEquals() throws Exception {
+      PersistentDoubleList nan = PersistentDoubleList.create(1.0, Double.NaN);
+      PersistentDoubleList zero = PersistentDoubleList.create(0.0);
+      PersistentDoubleList negativeZero = PersistentDoubleList.create(-0.0);
+
+      assertThat(nan, equalTo(PersistentDoubleList.create(1.0, Double.NaN)));
+      assertThat(nan.hashCode(), equalTo(PersistentDoubleList.create(1.0, Double.NaN).hashCode()));
+      assertThat(zero, not(equalTo(negativeZero)));
+      assertThat(nan.indexOf(Double.NaN), equalTo(1));
+      assertThat(zero.indexOf(-0.0), equalTo(-1));
+      assertThat(negativeZero.indexOf(-0.0), equalTo(0));
+      assertThat(PersistentDoubleList.create(halves(0, 1000)).indexOf(250.5), equalTo(501));
+   }
+
+   @Test
+   public void streams() throws Exception {
+      PersistentDoubleList testObject = PersistentDoubleList.create(halves(0, 100000));
+
+      assertThat(testObject.stream().parallel().sum(), equalTo(100000.0 * 99999 / 4));
+      double sum = 0;
+      for (PrimitiveIterator.OfDouble iterator = testObject.iterator(); iterator.hasNext(); )
+         sum += iterator.nextDouble();
+      assertThat(sum, equalTo(100000.0 * 99999 / 4));
+   }
+}
@@ -0,0 +1,375 @@
+package com.logicalpractice.persistentcollections;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class PersistentHashMapTest {
+
+   @Test
+   public void emptyMapIterates() throws Exception {
+      PersistentMap<String, Integer> testObject = PersistentHashMap.create(new HashMap<String, Integer>());
+
+      assertFalse(testObject.entrySet().iterator().hasNext());
+      assertThat(testObject.size(), equalTo(0));
+   }
+
+   @Test
+   public void iteratesEveryNodeType() throws Exception {
+      Map<Object, Integer> expected = new HashMap<Object, Integer>();
+      for (int i = 0; i < 5000; i++)
+         expected.put(i, i);
+      for (int i = 0; i < 10; i++)
+         expected.put(new Colliding(i), i); // all share a hash so end up in a HashCollisionNode
+
+      PersistentMap<Object, Integer> testObject = PersistentHashMap.create(expected);
+
+      assertThat(testObject.size(), equalTo(expected.size()));
+      assertThat(new HashMap<Object, Integer>(testObject), equalTo(expected));
+      assertThat(testObject, equalTo((Map<Object, Integer>) expected));
+      assertThat(testObject.hashCode(), equalTo(expected.hashCode()));
+   }
+
+   @Test
+   public void transientRemoveFromCollisionNodeShrinksSize() throws Exception {
+      Map<Object, Integer> source = new HashMap<Object, Integer>();
+      for (int i = 0; i < 10; i++)
+         source.put(new Colliding(i), i);
+      TransientMap<Object, Integer> testObject = PersistentHashMap.create(source).toTransientMap();
+
+      for (int i = 0; i < 10; i++)
+         assertThat(testObject.remove(new Colliding(i)), equalTo(i));
+
+      assertThat(testObject.size(), equalTo(0));
+      assertThat(testObject.toPersistentMap().size(), equalTo(0));
+   }
+
+   @Test
+   public void createParallelMatchesCreate() throws Exception {
+      Map<Object, Integer> expected = new HashMap<Object, Integer>();
+      for (int i = 0; i < 100000; i++)
+         expected.put(i * 31, i);
+      for (int i = 0; i < 10; i++)
+         expected.put(new Colliding(i), i);
+      expected.put(null, -1);
+
+      PersistentMap<Object, Integer> testObject = PersistentHashMap.createParallel(expected);
+
+      assertThat(testObject.size(), equalTo(expected.size()));
+      assertThat(testObject, equalTo((Map<Object, Integer>) expected));
+      assertThat(testObject.get(null), equalTo(-1));
+      PersistentMap<Object, Integer> updated = testObject.with(31, 0).with(new Colliding(3), 0).with(-7, 0);
+      assertThat(updated.size(), equalTo(expected.size() + 1));
+      assertThat(testObject.get(31), equalTo(1));
+   }
+
+   @Test
+   public void reduceVisitsEveryEntryWithoutIterating() throws Exception {
+      Map<Object, Integer> expected = new HashMap<Object, Integer>();
+      for (int i = 0; i < 5000; i++)
+         expected.put(i, i);
+      for (int i = 0; i < 10; i++)
+         expected.put(new Colliding(i), i);
+      expected.put(null, 7);
+      PersistentMap<Object, Integer> testObject = PersistentHashMap.create(expected);
+
+      Map<Object, Integer> result = testObject.reduce(new HashMap<Object, Integer>(), (acc, k, v) -> {
+         acc.put(k, v);
+         return acc;
+      });
+      assertThat(result, equalTo(expected));
+
+      AtomicLong calls = new AtomicLong();
+      Object found = testObject.reduce(null, (acc, k, v) -> {
+         calls.incrementAndGet();
+         return v == 4321 ? k : acc;
+      }, acc -> acc != null);
+      assertThat(found, equalTo((Object) 4321));
+      assertThat(calls.get() < expected.size(), equalTo(true));
+   }
+
+   @Test
+   public void iteratesNullKey() throws Exception {
+      TransientMap<String, Integer> transientMap = PersistentHashMap.create(new HashMap<String, Integer>()).toTransientMap();
+      transientMap.put("a", 1);
+      transientMap.put(null, 2);
+
+      PersistentMap<String, Integer> testObject = transientMap.toPersistentMap();
+
+      Map<String, Integer> expected = new HashMap<String, Integer>();
+      expected.put("a", 1);
+      expected.put(null, 2);
+      assertThat(new HashMap<String, Integer>(testObject), equalTo(expected));
+      assertThat(testObject.get(null), equalTo(2));
+   }
+
+   @Test
+   public void parallelStreamsCoverEveryEntry() throws Exception {
+      Map<Integer, Integer> source = new HashMap<Integer, Integer>();
+      for (int i = 0; i < 100000; i++)
+         source.put(i, i);
+      PersistentMap<Integer, Integer> testObject = PersistentHashMap.create(source);
+
+      long expected = 100000L * 99999 / 2;
+      assertThat(testObject.keySet().parallelStream().mapToLong(Integer::longValue).sum(), equalTo(expected));
+      assertThat(testObject.values().parallelStream().mapToLong(Integer::longValue).sum(), equalTo(expected));
+      assertThat(testObject.entrySet().parallelStream().count(), equalTo(100000L));
+   }
+
+   @Test
+   public void foldAndParallelForEach() throws Exception {
+      Map<Integer, Integer> source = new HashMap<Integer, Integer>();
+      for (int i = 0; i < 100000; i++)
+         source.put(i, 1);
+      PersistentHashMap<Integer, Integer> testObject = (PersistentHashMap<Integer, Integer>) PersistentHashMap.create(source);
+
+      Long total = testObject.fold(0L, (acc, entry) -> acc + entry.getValue(), Long::sum);
+      assertThat(total, equalTo(100000L));
+
+      final AtomicLong visited = new AtomicLong();
+      testObject.parallelForEach((key, value) -> visited.incrementAndGet());
+      assertThat(visited.get(), equalTo(100000L));
+   }
+
+   @Test
+   public void mergeMatchesHashMapMerge() throws Exception {
+      Random random = new Random(17);
+      for (int round = 0; round < 100; round++) {
+         PersistentHashMap<Object, Integer> base = randomMap(random, emptyMap(), random.nextInt(3000));
+         // derive both sides from a common base so they share structure
+         PersistentHashMap<Object, Integer> left = randomMap(random, base, random.nextInt(200));
+         PersistentHashMap<Object, Integer> right = randomMap(random, random.nextBoolean() ? base : emptyMap(), random.nextInt(300));
+
+         Map<Object, Integer> expected = new HashMap<Object, Integer>(left);
+         for (Map.Entry<Object, Integer> entry : right.entrySet())
+            expected.merge(entry.getKey(), entry.getValue(), (a, b) -> a == b ? a : a - b);
+
+         PersistentHashMap<Object, Integer> result = left.merge(right, (a, b) -> a - b);
+         assertThat(result.size(), equalTo(expected.size()));
+         assertThat(new HashMap<Object, Integer>(result), equalTo(expected));
+      }
+   }
+
+   @Test
+   public void mergeReusesSharedStructure() throws Exception {
+      PersistentHashMap<Object, Integer> testObject = randomMap(new Random(1), emptyMap(), 5000);
+      PersistentHashMap<Object, Integer> smaller = testObject.without(testObject.keySet().iterator().next());
+
+      assertThat(testObject.merge(testObject, (a, b) -> a + b), sameInstance(testObject));
+      assertThat(testObject.merge(smaller, (a, b) -> a + b), sameInstance(testObject));
+      assertThat(smaller.merge(testObject, (a, b) -> a + b), equalTo((Map<Object, Integer>) testObject));
+   }
+
+   @Test
+   public void diffMatchesComparingHashMaps() throws Exception {
+      Random random = new Random(23);
+      PersistentHashMap<Object, Integer> before = randomMap(random, emptyMap(), 5000);
+      for (int round = 0; round < 50; round++) {
+         PersistentHashMap<Object, Integer> after = randomMap(random, before, random.nextInt(100));
+
+         final Map<Object, Integer> added = new HashMap<Object, Integer>();
+         final Map<Object, Integer> removed = new HashMap<Object, Integer>();
+         final Map<Object, Integer> changed = new HashMap<Object, Integer>();
+         before.diff(after, new PersistentHashMap.DiffVisitor<Object, Integer>() {
+            public void added(Object key, Integer value) {
+               added.put(key, value);
+            }
+
+            public void removed(Object key, Integer value) {
+               removed.put(key, value);
+            }
+
+            public void changed(Object key, Integer oldValue, Integer newValue) {
+               changed.put(key, newValue);
+            }
+         });
+
+         Map<Object, Integer> expected = new HashMap<Object, Integer>(before);
+         expected.keySet().removeAll(removed.keySet());
+         expected.putAll(added);
+         expected.putAll(changed);
+         assertThat(expected, equalTo((Map<Object, Integer>) new HashMap<Object, Integer>(after)));
+         for (Object key : added.keySet())
+            assertFalse(before.containsKey(key));
+         for (Object key : changed.keySet())
+            assertFalse(before.get(key).equals(after.get(key)));
+         before = after;
+      }
+   }
+
+   @Test
+   public void keysVaryingOnlyInHighBitsStillSpread() throws Exception {
+      Map<Object, Integer> expected = new HashMap<Object, Integer>();
+      for (int i = 0; i < 4096; i++)
+         expected.put(i << 20, i); // the low 20 bits, four levels of the trie, all zero
+
+      PersistentHashMap<Object, Integer> testObject = (PersistentHashMap<Object, Integer>) PersistentHashMap.create(expected);
+
+      assertThat(testObject, equalTo((Map<Object, Integer>) expected));
+      // unmixed, the root and the three levels below would each hold a single child
+      assertTrue(testObject.toTransientMap().root instanceof PersistentHashMap.ArrayNode);
+      assertTrue("depth " + depth(testObject), depth(testObject) <= 5);
+      assertThat(collisionNodes(testObject), equalTo(0));
+   }
+
+   @Test
+   public void hasherSplitsKeysWhoseHashCodesCollide() throws Exception {
+      Hasher<Colliding> byId = new Hasher<Colliding>() {
+         public int hash(Colliding key) {
+            return Hashers.mix(key.id);
+         }
+
+         public boolean equivalent(Colliding key, Colliding other) {
+            return key.equals(other);
+         }
+      };
+      PersistentHashMap<Colliding, Integer> plain = (PersistentHashMap<Colliding, Integer>) PersistentHashMap.<Colliding, Integer>empty();
+      PersistentHashMap<Colliding, Integer> testObject = PersistentHashMap.empty(byId);
+      for (int i = 0; i < 2000; i++) {
+         plain = plain.with(new Colliding(i), i);
+         testObject = testObject.with(new Colliding(i), i);
+      }
+
+      assertThat(collisionNodes(plain), equalTo(1));
+      assertThat(collisionNodes(testObject), equalTo(0));
+      assertTrue("depth " + depth(testObject), depth(testObject) <= 4);
+      assertThat(testObject, equalTo((Map<Colliding, Integer>) plain));
+      assertThat(testObject.get(new Colliding(1234)), equalTo(1234));
+      assertThat(testObject.without(new Colliding(1234)).containsKey(new Colliding(1234)), equalTo(false));
+      assertThat(testObject.hasher(), sameInstance((Hasher) byId));
+   }
+
+   @Test
+   public void byteArrayKeysCompareByContent() throws Exception {
+      TransientMap<byte[], Integer> map = PersistentHashMap.<byte[], Integer>empty(Hashers.BYTE_ARRAY).toTransientMap();
+      for (int i = 0; i < 1000; i++)
+         map.put(Integer.toString(i).getBytes("UTF-8"), i);
+      map.put("7".getBytes("UTF-8"), -7);
+      PersistentMap<byte[], Integer> testObject = map.toPersistentMap();
+
+      assertThat(testObject.size(), equalTo(1000));
+      assertThat(testObject.get("7".getBytes("UTF-8")), equalTo(-7));
+      assertThat(testObject.get("999".getBytes("UTF-8")), equalTo(999));
+      assertThat(testObject.containsKey("1000".getBytes("UTF-8")), equalTo(false));
+   }
+
+   @Test
+   public void caseInsensitiveKeysThroughMergeAndDiff() throws Exception {
+      PersistentHashMap<String, Integer> testObject = PersistentHashMap.<String, Integer>empty(Hashers.CASE_INSENSITIVE)
+            .with("Hello", 1).with("HELLO", 2).with("world", 3);
+      PersistentHashMap<String, Integer> plain = (PersistentHashMap<String, Integer>) PersistentHashMap.<String, Integer>empty()
+            .with("WORLD", 30).with("new", 4);
+
+      assertThat(testObject.size(), equalTo(2));
+      assertThat(testObject.get("hello"), equalTo(2));
+
+      PersistentHashMap<String, Integer> merged = testObject.merge(plain, (a, b) -> a + b);
+      assertThat(merged.size(), equalTo(3));
+      assertThat(merged.get("World"), equalTo(33));
+      assertThat(merged.hasher(), sameInstance((Hasher) Hashers.CASE_INSENSITIVE));
+
+      final Map<String, Integer> changed = new HashMap<String, Integer>();
+      testObject.diff(merged, new PersistentHashMap.DiffVisitor<String, Integer>() {
+         public void added(String key, Integer value) {
+            changed.put(key, value);
+         }
+
+         public void removed(String key, Integer value) {
+            changed.put(key, null);
+         }
+
+         public void changed(String key, Integer oldValue, Integer newValue) {
+            changed.put(key.toLowerCase(), newValue);
+         }
+      });
+      Map<String, Integer> expected = new HashMap<String, Integer>();
+      expected.put("world", 33);
+      expected.put("new", 4);
+      assertThat(changed, equalTo(expected));
+   }
+
+   private static int depth(PersistentHashMap<?, ?> map) {
+      return depth(map.toTransientMap().root);
+   }
+
+   private static int depth(Object node) {
+      int max = 0;
+      for (Object child : children(node))
+         max = Math.max(max, depth(child));
+      return max + 1;
+   }
+
+   private static int collisionNodes(PersistentHashMap<?, ?> map) {
+      return collisionNodes(map.toTransientMap().root);
+   }
+
+   private static int collisionNodes(Object node) {
+      int count = node instanceof PersistentHashMap.HashCollisionNode ? 1 : 0;
+      for (Object child : children(node))
+         count += collisionNodes(child);
+      return count;
+   }
+
+   private static List<Object> children(Object node) {
+      List<Object> children = new ArrayList<Object>();
+      if (node instanceof PersistentHashMap.ArrayNode) {
+         for (Object child : ((PersistentHashMap.ArrayNode) node).array)
+            if (child != null)
+               children.add(child);
+      } else if (node instanceof PersistentHashMap.BitmapIndexedNode) {
+         Object[] array = ((PersistentHashMap.BitmapIndexedNode) node).array;
+         for (int i = 0; i < array.length; i += 2)
+            if (array[i] == null && array[i + 1] != null)
+               children.add(array[i + 1]);
+      }
+      return children;
+   }
+
+   private static PersistentHashMap<Object, Integer> emptyMap() {
+      return (PersistentHashMap<Object, Integer>) PersistentHashMap.create(new HashMap<Object, Integer>());
+   }
+
+   private static PersistentHashMap<Object, Integer> randomMap(Random random, PersistentHashMap<Object, Integer> map, int edits) {
+      for (int i = 0; i < edits; i++) {
+         int id = random.nextInt(4000);
+         Object key = id % 5 == 0 ? new Colliding(id) : (Object) id;
+         if (random.nextInt(4) == 0)
+            map = map.without(key);
+         else
+            map = map.with(key, random.nextInt(100));
+      }
+      return map;
+   }
+
+   static final class Colliding {
+      private final int id;
+
+      Colliding(int id) {
+         this.id = id;
+      }
+
+      @Override
+      public boolean equals(Object o) {
+         return o instanceof Colliding && ((Colliding) o).id == id;
+      }
+
+      @Override
+      public int hashCode() {
+         return 42;
+      }
+   }
+}
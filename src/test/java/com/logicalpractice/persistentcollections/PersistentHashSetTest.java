@@ -0,0 +1,196 @@
+package com.logicalpractice.persistentcollections;
+
+import com.logicalpractice.persistentcollections.PersistentHashMap.BitmapIndexedKeyNode;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ *
+ */
+public class PersistentHashSetTest {
+
+   @Test
+   public void randomOperationsMatchHashSet() throws Exception {
+      Random random = new Random(3);
+      Set<Object> expected = new HashSet<Object>();
+      PersistentHashSet<Object> testObject = PersistentHashSet.empty();
+
+      for (int step = 0; step < 20000; step++) {
+         Object item = randomItem(random, 3000);
+         if (random.nextInt(3) == 0) {
+            expected.remove(item);
+            testObject = testObject.without(item);
+         } else {
+            expected.add(item);
+            testObject = testObject.with(item);
+         }
+         assertThat(testObject.size(), equalTo(expected.size()));
+      }
+      assertThat(new HashSet<Object>(testObject), equalTo(expected));
+      assertThat(testObject, equalTo(expected));
+   }
+
+   @Test
+   public void transientAddAndRemove() throws Exception {
+      TransientSet<Object> testObject = PersistentHashSet.empty().toTransientSet();
+      Set<Object> expected = new HashSet<Object>();
+      Random random = new Random(5);
+      for (int step = 0; step < 20000; step++) {
+         Object item = randomItem(random, 3000);
+         if (random.nextInt(3) == 0)
+            assertThat(testObject.remove(item), equalTo(expected.remove(item)));
+         else
+            assertThat(testObject.add(item), equalTo(expected.add(item)));
+      }
+      PersistentSet<Object> result = testObject.toPersistentSet();
+      assertThat(result.size(), equalTo(expected.size()));
+      assertThat(new HashSet<Object>(result), equalTo(expected));
+   }
+
+   @Test
+   public void transientEditsLeaveTheSourceAlone() throws Exception {
+      Random random = new Random(7);
+      PersistentHashSet<Object> source = randomSet(random, 2000);
+      Set<Object> expected = new HashSet<Object>(source);
+
+      TransientSet<Object> testObject = source.toTransientSet();
+      for (int step = 0; step < 5000; step++) {
+         Object item = randomItem(random, 3000);
+         if (random.nextBoolean())
+            testObject.add(item);
+         else
+            testObject.remove(item);
+      }
+      testObject.toPersistentSet();
+
+      assertMatches(source, expected);
+   }
+
+   @Test
+   public void setAlgebraMatchesHashSet() throws Exception {
+      Random random = new Random(9);
+      for (int round = 0; round < 200; round++) {
+         PersistentHashSet<Object> base = randomSet(random, random.nextInt(2000));
+         // derive both sides from a common base so they share structure
+         PersistentHashSet<Object> left = edit(random, base);
+         PersistentHashSet<Object> right = edit(random, random.nextBoolean() ? base : randomSet(random, 300));
+
+         Set<Object> union = new HashSet<Object>(left);
+         union.addAll(right);
+         Set<Object> intersection = new HashSet<Object>(left);
+         intersection.retainAll(right);
+         Set<Object> difference = new HashSet<Object>(left);
+         difference.removeAll(right);
+
+         assertMatches(left.union(right), union);
+         assertMatches(left.intersection(right), intersection);
+         assertMatches(left.difference(right), difference);
+      }
+   }
+
+   @Test
+   public void sharedStructureIsReturnedAsIs() throws Exception {
+      PersistentHashSet<Object> testObject = randomSet(new Random(1), 1000);
+      PersistentHashSet<Object> subset = testObject.without(Integer.valueOf(-1));
+
+      assertThat(testObject.union(testObject), sameInstance(testObject));
+      assertThat(testObject.intersection(testObject), sameInstance(testObject));
+      assertThat(testObject.difference(PersistentHashSet.empty()), sameInstance(testObject));
+      assertThat(testObject.union(subset), sameInstance(testObject));
+      assertThat(testObject.difference(testObject).size(), equalTo(0));
+   }
+
+   @Test
+   public void elementsTakeOneSlotEach() throws Exception {
+      PersistentHashSet<Object> testObject = PersistentHashSet.empty();
+      for (int i = 0; i < 20; i++)
+         testObject = testObject.with(i);
+
+      BitmapIndexedKeyNode root = (BitmapIndexedKeyNode) testObject.root;
+      assertThat(root.array.length, equalTo(Integer.bitCount(root.datamap | root.nodemap)));
+      assertThat(PersistentHashMap.nodeSize(root), equalTo(20));
+   }
+
+   @Test
+   public void sharedSubtreesAreNotVisited() throws Exception {
+      PersistentHashSet<Object> testObject = PersistentHashSet.empty();
+      for (int i = 0; i < 10000; i++)
+         testObject = testObject.with(i);
+      PersistentHashSet<Object> edited = testObject.with(-1);
+
+      // break every subtree of the root the two still share, visiting one would now throw
+      BitmapIndexedKeyNode before = (BitmapIndexedKeyNode) testObject.root;
+      BitmapIndexedKeyNode after = (BitmapIndexedKeyNode) edited.root;
+      int shared = 0;
+      for (int j = 0; j < before.array.length; j++)
+         if (before.array[j] == after.array[j] && before.array[j] instanceof BitmapIndexedKeyNode) {
+            ((BitmapIndexedKeyNode) before.array[j]).array = null;
+            shared++;
+         }
+      assertThat(shared, equalTo(31));
+
+      assertThat(testObject.intersection(edited).size(), equalTo(10000));
+      assertThat(edited.intersection(testObject).size(), equalTo(10000));
+      assertThat(testObject.difference(edited).size(), equalTo(0));
+      PersistentHashSet<Object> added = edited.difference(testObject);
+      assertThat(added.size(), equalTo(1));
+      assertThat(added.contains(-1), equalTo(true));
+      assertThat(testObject.union(edited).size(), equalTo(10001));
+   }
+
+   private static void assertMatches(PersistentHashSet<Object> actual, Set<Object> expected) {
+      assertThat(actual.size(), equalTo(expected.size()));
+      assertThat(new HashSet<Object>(actual), equalTo(expected));
+   }
+
+   private static PersistentHashSet<Object> edit(Random random, PersistentHashSet<Object> set) {
+      for (int i = random.nextInt(200); i > 0; i--)
+         set = random.nextBoolean() ? set.with(randomItem(random, 3000)) : set.without(randomItem(random, 3000));
+      return set;
+   }
+
+   private static PersistentHashSet<Object> randomSet(Random random, int size) {
+      TransientSet<Object> ret = PersistentHashSet.empty().toTransientSet();
+      for (int i = 0; i < size; i++)
+         ret.add(randomItem(random, 3000));
+      return (PersistentHashSet<Object>) ret.toPersistentSet();
+   }
+
+   private static Object randomItem(Random random, int range) {
+      int id = random.nextInt(range);
+      return random.nextInt(4) == 0 ? new Clustered(id) : (Object) id;
+   }
+
+   /**
+    * Three ids to a hash, so the tries are full of collision nodes.
+    */
+   static final class Clustered {
+      private final int id;
+
+      Clustered(int id) {
+         this.id = id;
+      }
+
+      @Override
+      public boolean equals(Object o) {
+         return o instanceof Clustered && ((Clustered) o).id == id;
+      }
+
+      @Override
+      public int hashCode() {
+         return (id / 3) * 0x9e3779b9;
+      }
+
+      @Override
+      public String toString() {
+         return "Clustered(" + id + ")";
+      }
+   }
+}
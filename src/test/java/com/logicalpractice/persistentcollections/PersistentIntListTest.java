@@ -0,0 +1,107 @@
+package com.logicalpractice.persistentcollections;
+
+import org.junit.Test;
+
+import java.util.PrimitiveIterator;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ *
+ */
+public class PersistentIntListTest {
+
+   @Test
+   public void appendMatchesCreateAcrossTailAndTrieBoundaries() throws Exception {
+      for (int size : new int[]{0, 1, 31, 32, 33, 64, 1056, 1057, 33 * 1024 + 7}) {
+         int[] items = IntStream.range(0, size).toArray();
+         PersistentIntList expected = PersistentIntList.EMPTY;
+         for (int item : items)
+            expected = expected.withAppended(item);
+
+         PersistentIntList testObject = PersistentIntList.create(items);
+
+         assertThat(testObject, equalTo(expected));
+         assertThat(testObject.hashCode(), equalTo(expected.hashCode()));
+         assertThat(expected.toArray(), equalTo(items));
+         for (int i = 0; i < size; i += 97)
+            assertThat(expected.get(i), equalTo(i));
+      }
+   }
+
+   @Test
+   public void withLeavesOriginalUnchanged() throws Exception {
+      PersistentIntList original = PersistentIntList.create(IntStream.range(0, 2000).toArray());
+
+      PersistentIntList result = original.with(5, -5).with(1999, -1999).with(2000, 2000);
+
+      assertThat(result.size(), equalTo(2001));
+      assertThat(result.get(5), equalTo(-5));
+      assertThat(result.get(1999), equalTo(-1999));
+      assertThat(result.get(2000), equalTo(2000));
+      assertThat(original.size(), equalTo(2000));
+      assertThat(original.get(5), equalTo(5));
+      assertThat(original.get(1999), equalTo(1999));
+   }
+
+   @Test
+   public void popToEmpty() throws Exception {
+      int size = 33 * 32 + 40;
+      PersistentIntList testObject = PersistentIntList.create(IntStream.range(0, size).toArray());
+
+      for (int n = size - 1; n >= 0; n--) {
+         testObject = testObject.pop();
+         assertThat(testObject.size(), equalTo(n));
+         if (n % 32 <= 1 || n < 40)
+            assertThat(testObject, equalTo(PersistentIntList.create(IntStream.range(0, n).toArray())));
+      }
+      assertThat(testObject, equalTo(PersistentIntList.EMPTY));
+      assertThat(testObject.withAppended(7).get(0), equalTo(7));
+   }
+
+   @Test(expected = IllegalStateException.class)
+   public void popEmpty() throws Exception {
+      PersistentIntList.EMPTY.pop();
+   }
+
+   @Test
+   public void transientEdits() throws Exception {
+      PersistentIntList original = PersistentIntList.create(IntStream.range(0, 100).toArray());
+      TransientIntList testObject = original.toTransientList();
+
+      testObject.set(3, 42);
+      testObject.addAll(IntStream.range(100, 2000).toArray());
+      testObject.add(2000);
+      PersistentIntList result = testObject.toPersistentList();
+
+      assertThat(result.size(), equalTo(2001));
+      assertThat(result.get(3), equalTo(42));
+      assertThat(result.get(1500), equalTo(1500));
+      assertThat(result.get(2000), equalTo(2000));
+      assertThat(original.size(), equalTo(100));
+      assertThat(original.get(3), equalTo(3));
+   }
+
+   @Test
+   public void indexOf() throws Exception {
+      PersistentIntList testObject = PersistentIntList.create(IntStream.range(0, 1000).map(i -> i % 500).toArray());
+
+      assertThat(testObject.indexOf(0), equalTo(0));
+      assertThat(testObject.indexOf(499), equalTo(499));
+      assertThat(testObject.indexOf(500), equalTo(-1));
+      assertThat(PersistentIntList.EMPTY.indexOf(0), equalTo(-1));
+   }
+
+   @Test
+   public void streams() throws Exception {
+      PersistentIntList testObject = PersistentIntList.create(IntStream.range(0, 100000).toArray());
+
+      assertThat(testObject.stream().parallel().asLongStream().sum(), equalTo(100000L * 99999 / 2));
+      long sum = 0;
+      for (PrimitiveIterator.OfInt iterator = testObject.iterator(); iterator.hasNext(); )
+         sum += iterator.nextInt();
+      assertThat(sum, equalTo(100000L * 99999 / 2));
+   }
+}
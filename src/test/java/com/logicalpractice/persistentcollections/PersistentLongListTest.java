@@ -0,0 +1,79 @@
+package com.logicalpractice.persistentcollections;
+
+import org.junit.Test;
+
+import java.util.PrimitiveIterator;
+import java.util.stream.LongStream;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ *
+ */
+public class PersistentLongListTest {
+
+   @Test
+   public void createMatchesAppendedList() throws Exception {
+      for (int size : new int[]{0, 1, 32, 33, 1056, 1057, 33 * 1024 + 7}) {
+         long[] items = LongStream.range(0, size).toArray();
+         PersistentLongList expected = PersistentLongList.EMPTY;
+         for (long item : items)
+            expected = expected.withAppended(item);
+
+         PersistentLongList testObject = PersistentLongList.create(items);
+
+         assertThat(testObject, equalTo(expected));
+         assertThat(testObject.toArray(), equalTo(items));
+         if (size > 0)
+            assertThat(testObject.pop(), equalTo(expected.pop()));
+      }
+   }
+
+   @Test
+   public void withLeavesOriginalUnchanged() throws Exception {
+      PersistentLongList original = PersistentLongList.create(LongStream.range(0, 2000).toArray());
+
+      PersistentLongList result = original.with(5, -5L).with(1999, -1999L);
+
+      assertThat(result.get(5), equalTo(-5L));
+      assertThat(result.get(1999), equalTo(-1999L));
+      assertThat(original.get(5), equalTo(5L));
+      assertThat(original.get(1999), equalTo(1999L));
+   }
+
+   @Test
+   public void transientEdits() throws Exception {
+      PersistentLongList original = PersistentLongList.create(LongStream.range(0, 100).toArray());
+      TransientLongList testObject = original.toTransientList();
+
+      testObject.set(3, 42L);
+      testObject.addAll(LongStream.range(100, 2000).toArray());
+      testObject.add(2000L);
+      PersistentLongList result = testObject.toPersistentList();
+
+      assertThat(result.size(), equalTo(2001));
+      assertThat(result.get(3), equalTo(42L));
+      assertThat(result.get(2000), equalTo(2000L));
+      assertThat(original.get(3), equalTo(3L));
+   }
+
+   @Test
+   public void indexOf() throws Exception {
+      PersistentLongList testObject = PersistentLongList.create(LongStream.range(0, 1000).map(i -> i % 500).toArray());
+
+      assertThat(testObject.indexOf(499L), equalTo(499));
+      assertThat(testObject.indexOf(500L), equalTo(-1));
+   }
+
+   @Test
+   public void streams() throws Exception {
+      PersistentLongList testObject = PersistentLongList.create(LongStream.range(0, 100000).toArray());
+
+      assertThat(testObject.stream().parallel().sum(), equalTo(100000L * 99999 / 2));
+      long sum = 0;
+      for (PrimitiveIterator.OfLong iterator = testObject.iterator(); iterator.hasNext(); )
+         sum += iterator.nextLong();
+      assertThat(sum, equalTo(100000L * 99999 / 2));
+   }
+}
@@ -0,0 +1,115 @@
+package com.logicalpractice.persistentcollections;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ *
+ */
+public class PersistentLongMapTest {
+
+   @Test
+   public void randomOperationsMatchHashMap() throws Exception {
+      Random random = new Random(11);
+      Map<Long, String> expected = new HashMap<Long, String>();
+      PersistentLongMap<String> testObject = PersistentLongMap.empty();
+
+      for (int step = 0; step < 50000; step++) {
+         long key = random.nextInt(5000) - 2500;
+         if (random.nextInt(3) == 0) {
+            expected.remove(key);
+            testObject = testObject.without(key);
+         } else {
+            expected.put(key, "v" + step);
+            testObject = testObject.with(key, "v" + step);
+         }
+         assertThat(testObject.size(), equalTo(expected.size()));
+      }
+      assertThat(toMap(testObject), equalTo(expected));
+      for (long key = -2600; key < 2600; key++)
+         assertThat(testObject.get(key), equalTo(expected.get(key)));
+   }
+
+   @Test
+   public void collidingKeys() throws Exception {
+      long[] pair = findCollision();
+      PersistentLongMap<String> testObject = PersistentLongMap.<String>empty()
+            .with(pair[0], "a")
+            .with(pair[1], "b")
+            .with(pair[0] + 1, "c");
+
+      assertThat(testObject.size(), equalTo(3));
+      assertThat(testObject.get(pair[0]), equalTo("a"));
+      assertThat(testObject.get(pair[1]), equalTo("b"));
+
+      PersistentLongMap<String> removed = testObject.without(pair[0]);
+      assertThat(removed.size(), equalTo(2));
+      assertThat(removed.get(pair[0]), nullValue());
+      assertThat(removed.get(pair[1]), equalTo("b"));
+      assertThat(removed.without(pair[1]).without(pair[0] + 1), equalTo(PersistentLongMap.<String>empty()));
+   }
+
+   @Test
+   public void unchangedMapIsReturned() throws Exception {
+      PersistentLongMap<String> testObject = PersistentLongMap.<String>empty().with(1L, "a");
+
+      assertThat(testObject.with(1L, "a"), sameInstance(testObject));
+      assertThat(testObject.without(2L), sameInstance(testObject));
+   }
+
+   @Test
+   public void keyIterator() throws Exception {
+      PersistentLongMap<String> testObject = PersistentLongMap.empty();
+      for (long key = 0; key < 1000; key++)
+         testObject = testObject.with(key * 31, "v");
+
+      long sum = 0;
+      int count = 0;
+      for (PrimitiveIterator.OfLong it = testObject.keyIterator(); it.hasNext(); count++)
+         sum += it.nextLong();
+
+      assertThat(count, equalTo(1000));
+      assertThat(sum, equalTo(31L * 999 * 1000 / 2));
+   }
+
+   @Test
+   public void intKeys() throws Exception {
+      PersistentIntMap<Integer> testObject = PersistentIntMap.empty();
+      for (int key = 0; key < 10000; key++)
+         testObject = testObject.with(key, key * 2);
+      for (int key = 0; key < 10000; key += 2)
+         testObject = testObject.without(key);
+
+      assertThat(testObject.size(), equalTo(5000));
+      assertThat(testObject.get(7), equalTo(14));
+      assertThat(testObject.containsKey(8), equalTo(false));
+   }
+
+   private static Map<Long, String> toMap(PersistentLongMap<String> map) {
+      final Map<Long, String> ret = new HashMap<Long, String>();
+      map.forEach(new PersistentLongMap.EntryConsumer<String>() {
+         public void accept(long key, String value) {
+            ret.put(key, value);
+         }
+      });
+      return ret;
+   }
+
+   private static long[] findCollision() {
+      Map<Integer, Long> seen = new HashMap<Integer, Long>();
+      for (long key = 0; ; key++) {
+         Long previous = seen.put(PersistentLongMap.hash(key), key);
+         if (previous != null)
+            return new long[]{previous, key};
+      }
+   }
+}
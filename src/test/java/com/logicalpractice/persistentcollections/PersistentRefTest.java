@@ -0,0 +1,99 @@
+package com.logicalpractice.persistentcollections;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ *
+ */
+public class PersistentRefTest {
+
+   private static final int THREADS = 4;
+   private static final int UPDATES = 2000;
+
+   private static void runConcurrently(Runnable task) throws InterruptedException {
+      List<Thread> threads = new ArrayList<Thread>();
+      for (int t = 0; t < THREADS; t++)
+         threads.add(new Thread(task));
+      for (Thread thread : threads)
+         thread.start();
+      for (Thread thread : threads)
+         thread.join();
+   }
+
+   @Test
+   public void swapAppliesEveryUpdate() throws Exception {
+      PersistentRef<PersistentMap<String, Integer>> testObject =
+            new PersistentRef<PersistentMap<String, Integer>>(PersistentHashMap.create(new HashMap<String, Integer>()));
+
+      runConcurrently(() -> {
+         for (int i = 0; i < UPDATES; i++)
+            testObject.swap(m -> m.with("count", m.getOrDefault("count", 0) + 1));
+      });
+
+      assertThat(testObject.get().get("count"), equalTo(THREADS * UPDATES));
+      assertThat(testObject.swapCount(), equalTo((long) THREADS * UPDATES));
+   }
+
+   @Test
+   public void compareAndSetAndReset() throws Exception {
+      PersistentList<Integer> first = PersistentLists.create(1);
+      PersistentList<Integer> second = PersistentLists.create(2);
+      PersistentRef<PersistentList<Integer>> testObject = new PersistentRef<PersistentList<Integer>>(first);
+
+      assertThat(testObject.compareAndSet(second, first), equalTo(false));
+      assertThat(testObject.compareAndSet(first, second), equalTo(true));
+      assertThat(testObject.reset(first), equalTo(second));
+      assertThat(testObject.get(), equalTo(first));
+   }
+
+   @Test
+   public void swapMapAppliesBatchesAtomically() throws Exception {
+      PersistentRef<PersistentMap<Integer, Integer>> testObject =
+            new PersistentRef<PersistentMap<Integer, Integer>>(PersistentHashMap.create(new HashMap<Integer, Integer>()));
+      AtomicBoolean torn = new AtomicBoolean();
+
+      runConcurrently(() -> {
+         for (int i = 0; i < UPDATES / 10; i++) {
+            List<Consumer<TransientMap<Integer, Integer>>> batch = new ArrayList<Consumer<TransientMap<Integer, Integer>>>();
+            for (int j = 0; j < 10; j++) {
+               final int key = j;
+               batch.add(m -> m.put(key, m.getOrDefault(key, 0) + 1));
+            }
+            PersistentMap<Integer, Integer> published = PersistentRef.swapMap(testObject, batch);
+            // every key moves together, so a published version never shows half a batch
+            if (!published.get(9).equals(published.get(0)))
+               torn.set(true);
+         }
+      });
+
+      assertThat(torn.get(), equalTo(false));
+      for (int j = 0; j < 10; j++)
+         assertThat(testObject.get().get(j), equalTo(THREADS * UPDATES / 10));
+   }
+
+   @Test
+   public void swapListAppendsBatch() throws Exception {
+      PersistentRef<PersistentList<Integer>> testObject =
+            new PersistentRef<PersistentList<Integer>>(PersistentLists.create(1, 2));
+
+      List<Consumer<TransientList<Integer>>> batch = new ArrayList<Consumer<TransientList<Integer>>>();
+      batch.add(l -> l.add(3));
+      batch.add(l -> l.set(0, 10));
+
+      assertThat(PersistentRef.swapList(testObject, batch), equalTo(PersistentLists.create(10, 2, 3)));
+      assertThat(PersistentRef.swapList(testObject, Collections.<Consumer<TransientList<Integer>>>emptyList()),
+            equalTo(PersistentLists.create(10, 2, 3)));
+      assertThat(testObject.swapCount(), equalTo(2L));
+      assertThat(testObject.retryCount(), equalTo(0L));
+   }
+}
@@ -0,0 +1,105 @@
+package com.logicalpractice.persistentcollections;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ *
+ */
+public class PersistentRrbTreeListTest {
+
+   @Test
+   public void concatAndSlice() throws Exception {
+      PersistentRrbTreeList<Integer> left = PersistentLists.createRelaxed(range(0, 1000));
+      PersistentRrbTreeList<Integer> right = PersistentLists.createRelaxed(range(1000, 2500));
+
+      PersistentRrbTreeList<Integer> testObject = left.concat(right);
+
+      assertThat(testObject, equalTo(range(0, 2500)));
+      assertThat(testObject.slice(17, 2003), equalTo(range(17, 2003)));
+      assertThat(left, equalTo(range(0, 1000)));
+   }
+
+   @Test
+   public void reduceAndChunksFollowConcatenatedLeaves() throws Exception {
+      PersistentRrbTreeList<Integer> testObject = PersistentLists.createRelaxed(range(0, 1000))
+            .concat(PersistentLists.createRelaxed(range(1000, 1017)))
+            .concat(PersistentLists.createRelaxed(range(1017, 2500)))
+            .slice(3, 2400);
+
+      assertThat(testObject.reduce(0L, (acc, i) -> acc + i), equalTo(range(3, 2400).stream().mapToLong(i -> i).sum()));
+      assertThat(testObject.reduce(0, (acc, i) -> i, acc -> acc >= 1500), equalTo(1500));
+
+      final List<Object> chunked = new ArrayList<Object>();
+      testObject.forEachChunk(chunk -> chunked.addAll(Arrays.asList(chunk)));
+      assertThat(chunked, equalTo((List<Object>) new ArrayList<Object>(range(3, 2400))));
+   }
+
+   @Test
+   public void insertAt() throws Exception {
+      PersistentRrbTreeList<Integer> testObject = PersistentLists.createRelaxed(range(0, 100));
+
+      PersistentRrbTreeList<Integer> result = testObject.insertAt(40, -1);
+
+      List<Integer> expected = range(0, 100);
+      expected.add(40, -1);
+      assertThat(result, equalTo(expected));
+   }
+
+   @Test
+   public void randomOperationsMatchArrayList() throws Exception {
+      Random random = new Random(7);
+      List<Integer> expected = new ArrayList<Integer>();
+      PersistentRrbTreeList<Integer> testObject = PersistentLists.createRelaxed();
+
+      for (int step = 0; step < 2000; step++) {
+         int size = expected.size();
+         switch (random.nextInt(5)) {
+            case 0:
+               List<Integer> items = range(step * 1000, step * 1000 + random.nextInt(200));
+               expected.addAll(items);
+               testObject = testObject.concat(PersistentLists.createRelaxed(items));
+               break;
+            case 1:
+               int from = random.nextInt(size + 1);
+               int to = from + random.nextInt(size - from + 1);
+               expected = new ArrayList<Integer>(expected.subList(from, to));
+               testObject = testObject.slice(from, to);
+               break;
+            case 2:
+               int at = random.nextInt(size + 1);
+               expected.add(at, -step);
+               testObject = testObject.insertAt(at, -step);
+               break;
+            case 3:
+               if (size > 0) {
+                  int i = random.nextInt(size);
+                  expected.set(i, step);
+                  testObject = testObject.with(i, step);
+               }
+               break;
+            default:
+               expected.add(step);
+               testObject = testObject.withAppended(step);
+         }
+         assertThat(testObject.size(), equalTo(expected.size()));
+         if (step % 50 == 0)
+            assertThat(testObject, equalTo(expected));
+      }
+      assertThat(testObject, equalTo(expected));
+   }
+
+   private static List<Integer> range(int from, int to) {
+      List<Integer> ret = new ArrayList<Integer>();
+      for (int i = from; i < to; i++)
+         ret.add(i);
+      return ret;
+   }
+}
@@ -0,0 +1,226 @@
+package com.logicalpractice.persistentcollections;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ *
+ */
+public class PersistentSortedMapTest {
+
+   @Test
+   public void withAndWithoutMatchTreeMap() throws Exception {
+      Random random = new Random(11);
+      TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+      PersistentSortedMap<Integer, Integer> testObject = PersistentSortedMap.empty();
+      for (int i = 0; i < 20000; i++) {
+         int key = random.nextInt(5000);
+         if (random.nextInt(3) == 0) {
+            expected.remove(key);
+            testObject = testObject.without(key);
+         } else {
+            expected.put(key, i);
+            testObject = testObject.with(key, i);
+         }
+         if (i % 1000 == 0)
+            checkTree(testObject);
+      }
+      checkTree(testObject);
+
+      assertThat(testObject.size(), equalTo(expected.size()));
+      assertThat(new ArrayList<Integer>(testObject.keySet()), equalTo(new ArrayList<Integer>(expected.keySet())));
+      assertThat(testObject, equalTo((Map<Integer, Integer>) expected));
+      assertThat(testObject.firstKey(), equalTo(expected.firstKey()));
+      assertThat(testObject.lastKey(), equalTo(expected.lastKey()));
+   }
+
+   @Test
+   public void updatesLeaveEarlierVersionsAlone() throws Exception {
+      PersistentSortedMap<Integer, String> before = PersistentSortedMap.empty();
+      for (int i = 0; i < 1000; i++)
+         before = before.with(i, "v" + i);
+
+      PersistentSortedMap<Integer, String> after = before.with(500, "changed").without(10).with(1000, "new");
+
+      assertThat(before.size(), equalTo(1000));
+      assertThat(before.get(500), equalTo("v500"));
+      assertThat(before.get(10), equalTo("v10"));
+      assertThat(before.containsKey(1000), equalTo(false));
+      assertThat(after.size(), equalTo(1000));
+      assertThat(after.get(500), equalTo("changed"));
+      assertThat(after.containsKey(10), equalTo(false));
+      assertThat(before.with(7, before.get(7)), sameInstance(before));
+      assertThat(before.without(-1), sameInstance(before));
+   }
+
+   @Test
+   public void transientMatchesTreeMap() throws Exception {
+      Random random = new Random(5);
+      TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+      PersistentSortedMap<Integer, Integer> start = PersistentSortedMap.empty();
+      for (int i = 0; i < 3000; i++) {
+         start = start.with(i * 2, i);
+         expected.put(i * 2, i);
+      }
+      PersistentSortedMap.TransientSortedMap<Integer, Integer> testObject = start.toTransientMap();
+      for (int i = 0; i < 50000; i++) {
+         int key = random.nextInt(10000);
+         if (random.nextInt(2) == 0)
+            assertThat(testObject.remove(key), equalTo(expected.remove(key)));
+         else
+            assertThat(testObject.put(key, i), equalTo(expected.put(key, i)));
+      }
+      PersistentSortedMap<Integer, Integer> result = testObject.toPersistentMap();
+      checkTree(result);
+
+      assertThat(result, equalTo((Map<Integer, Integer>) expected));
+      assertThat(new ArrayList<Integer>(result.keySet()), equalTo(new ArrayList<Integer>(expected.keySet())));
+      assertThat(start.size(), equalTo(3000));
+      assertThat(start.get(2), equalTo(1));
+   }
+
+   @Test
+   public void floorCeilingLowerHigher() throws Exception {
+      TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+      for (int i = 0; i < 5000; i++)
+         expected.put(i * 3, i);
+      PersistentSortedMap<Integer, Integer> testObject = PersistentSortedMap.create(expected);
+      // removals leave stale bounds in the branches, which the searches have to cope with
+      for (int i = 0; i < 5000; i += 7) {
+         expected.remove(i * 3);
+         testObject = testObject.without(i * 3);
+      }
+
+      for (int key = -2; key < 15003; key++) {
+         assertThat(testObject.floorEntry(key), equalTo(expected.floorEntry(key)));
+         assertThat(testObject.ceilingEntry(key), equalTo(expected.ceilingEntry(key)));
+         assertThat(testObject.lowerKey(key), equalTo(expected.lowerKey(key)));
+         assertThat(testObject.higherKey(key), equalTo(expected.higherKey(key)));
+      }
+      assertThat(PersistentSortedMap.<Integer, Integer>empty().floorKey(1), nullValue());
+   }
+
+   @Test
+   public void rangeViews() throws Exception {
+      TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+      for (int i = 0; i < 10000; i++)
+         expected.put(i * 2, i);
+      PersistentSortedMap<Integer, Integer> testObject = PersistentSortedMap.create(expected);
+      Random random = new Random(3);
+      for (int round = 0; round < 200; round++) {
+         int lo = random.nextInt(21000) - 500;
+         int hi = lo + random.nextInt(3000);
+         checkView(testObject.subMap(lo, hi), expected.subMap(lo, hi));
+         checkView(testObject.headMap(hi), expected.headMap(hi));
+         checkView(testObject.tailMap(lo), expected.tailMap(lo));
+         checkView(testObject.tailMap(lo).headMap(hi), expected.subMap(lo, hi));
+      }
+
+      SortedMap<Integer, Integer> view = testObject.subMap(100, 200);
+      assertThat(view.get(300), nullValue());
+      assertThat(view.containsKey(98), equalTo(false));
+      try {
+         view.subMap(150, 250);
+         fail();
+      } catch (IllegalArgumentException expectedException) {
+      }
+      try {
+         testObject.subMap(7, 7).firstKey();
+         fail();
+      } catch (NoSuchElementException expectedException) {
+      }
+   }
+
+   @Test
+   public void ordersWithComparator() throws Exception {
+      Map<String, Integer> entries = new HashMap<String, Integer>();
+      for (int i = 0; i < 2000; i++)
+         entries.put("key" + i, i);
+      TreeMap<String, Integer> expected = new TreeMap<String, Integer>(Collections.reverseOrder());
+      expected.putAll(entries);
+
+      PersistentSortedMap<String, Integer> testObject = PersistentSortedMap.create(entries, Collections.<String>reverseOrder());
+      checkTree(testObject);
+
+      assertThat(new ArrayList<String>(testObject.keySet()), equalTo(new ArrayList<String>(expected.keySet())));
+      assertThat(testObject.firstKey(), equalTo("key999"));
+      assertThat(testObject.ceilingKey("key1000x"), equalTo(expected.ceilingKey("key1000x")));
+      checkView(testObject.subMap("key50", "key1"), expected.subMap("key50", "key1"));
+
+      PersistentSortedMap<String, Integer> caseless = PersistentSortedMap.<String, Integer>empty(String.CASE_INSENSITIVE_ORDER)
+            .with("b", 1).with("A", 2).with("B", 3);
+      assertThat(caseless.size(), equalTo(2));
+      assertThat(caseless.get("a"), equalTo(2));
+      assertThat(new ArrayList<String>(caseless.keySet()), equalTo(Arrays.asList("A", "b")));
+   }
+
+   @Test
+   public void createKeepsTheLastOfKeysComparingEqual() throws Exception {
+      TreeMap<String, Integer> source = new TreeMap<String, Integer>();
+      source.put("a", 1);
+      source.put("A", 2);
+      source.put("b", 3);
+
+      PersistentSortedMap<String, Integer> testObject = PersistentSortedMap.create(source, String.CASE_INSENSITIVE_ORDER);
+
+      assertThat(testObject.size(), equalTo(2));
+      assertThat(testObject.get("A"), equalTo(1)); // "a" comes after "A" in the source's order
+   }
+
+   private static <K, V> void checkView(SortedMap<K, V> view, SortedMap<K, V> expected) {
+      assertThat(view.size(), equalTo(expected.size()));
+      assertThat(new ArrayList<K>(view.keySet()), equalTo(new ArrayList<K>(expected.keySet())));
+      assertThat(view, equalTo((Map<K, V>) expected));
+      if (!expected.isEmpty()) {
+         assertThat(view.firstKey(), equalTo(expected.firstKey()));
+         assertThat(view.lastKey(), equalTo(expected.lastKey()));
+      }
+   }
+
+   /**
+    * Checks the node sizes, entry counts and bounds throughout the tree.
+    */
+   private static void checkTree(PersistentSortedMap<?, ?> map) {
+      if (map.root == null) {
+         assertThat(map.size(), equalTo(0));
+         return;
+      }
+      assertThat(checkNode(map, map.root, true, null, null), equalTo(map.size()));
+   }
+
+   private static int checkNode(PersistentSortedMap<?, ?> map, PersistentSortedMap.Node node, boolean isRoot, Object lo, Object hi) {
+      assertTrue("node of " + node.n, node.n <= PersistentSortedMap.MAX && (isRoot || node.n >= PersistentSortedMap.MIN));
+      if (node instanceof PersistentSortedMap.Leaf) {
+         for (int i = 0; i < node.n; i++) {
+            assertTrue(lo == null || PersistentSortedMap.compare(map.comparator, node.keys[i], lo) >= 0);
+            assertTrue(hi == null || PersistentSortedMap.compare(map.comparator, node.keys[i], hi) < 0);
+            assertTrue(i == 0 || PersistentSortedMap.compare(map.comparator, node.keys[i - 1], node.keys[i]) < 0);
+         }
+         return node.n;
+      }
+      PersistentSortedMap.Branch branch = (PersistentSortedMap.Branch) node;
+      assertTrue(isRoot ? branch.n >= 2 : true);
+      int count = 0;
+      for (int i = 0; i < branch.n; i++)
+         count += checkNode(map, branch.children[i], false, i == 0 ? lo : branch.keys[i], i + 1 < branch.n ? branch.keys[i + 1] : hi);
+      assertThat(branch.count, equalTo(count));
+      return count;
+   }
+}
@@ -2,9 +2,22 @@ package com.logicalpractice.persistentcollections;
 
 import org.junit.Test;
 
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 
 /**
@@ -37,4 +50,210 @@ public class PersistentTreeListTest {
 
       assertThat(result.size(), equalTo(80));
    }
+
+   @Test
+   public void createTakesTheCollectionsArrayAsItIs() throws Exception {
+      // as a concurrent collection changed between the two calls would
+      Collection<Integer> shrinking = new AbstractCollection<Integer>() {
+         @Override
+         public Object[] toArray() {
+            return new Object[]{1, 2, 3};
+         }
+
+         @Override
+         public Iterator<Integer> iterator() {
+            throw new UnsupportedOperationException();
+         }
+
+         @Override
+         public int size() {
+            return 40;
+         }
+      };
+
+      assertThat(PersistentLists.create(shrinking), equalTo((List<Integer>) Arrays.asList(1, 2, 3)));
+   }
+
+   @Test
+   public void createMatchesAppendedList() throws Exception {
+      for (int size : new int[]{0, 1, 31, 32, 33, 64, 65, 1056, 1057, 33 * 1024 + 7}) {
+         Integer[] items = IntStream.range(0, size).boxed().toArray(Integer[]::new);
+         PersistentList<Integer> expected = PersistentLists.emptyPersistentList();
+         for (Integer item : items)
+            expected = expected.withAppended(item);
+
+         PersistentTreeList<Integer> testObject = (PersistentTreeList<Integer>) PersistentLists.create(items);
+
+         assertThat(testObject, equalTo((List<Integer>) expected));
+         assertThat(testObject.withAppended(-1).get(size), equalTo(-1));
+         if (size > 0)
+            assertThat(testObject.pop(), equalTo(((PersistentTreeList<Integer>) expected).pop()));
+      }
+   }
+
+   @Test
+   public void createParallelMatchesCreate() throws Exception {
+      for (int size : new int[]{0, 33, 8192, 8193, 8192 + 31, 33 * 1024 + 7, 100000}) {
+         List<Integer> items = Arrays.asList(IntStream.range(0, size).boxed().toArray(Integer[]::new));
+
+         PersistentList<Integer> testObject = PersistentLists.createParallel(items);
+
+         assertThat(testObject, equalTo(items));
+         assertThat(testObject.withAppended(-1).get(size), equalTo(-1));
+      }
+   }
+
+   @Test
+   public void createParallelCopiesSplitRunsIntoLeaves() throws Exception {
+      for (int size : new int[]{PersistentLists.PARALLEL_THRESHOLD - 1, PersistentLists.PARALLEL_THRESHOLD, 3 * PersistentLists.PARALLEL_RUN + 45, 100007}) {
+         final List<Integer> contents = new ArrayList<Integer>();
+         for (int i = 0; i < size; i++)
+            contents.add(i);
+         final AtomicInteger drained = new AtomicInteger();
+         Collection<Integer> items = new AbstractCollection<Integer>() {
+            public Iterator<Integer> iterator() {
+               return contents.iterator();
+            }
+
+            public int size() {
+               return contents.size();
+            }
+
+            public Spliterator<Integer> spliterator() {
+               return new DrainCountingSpliterator(contents.spliterator(), drained);
+            }
+         };
+
+         PersistentList<Integer> testObject = PersistentLists.createParallel(items);
+
+         assertThat(testObject, equalTo(contents));
+         assertThat(testObject.withAppended(-1).get(size), equalTo(-1));
+         if (size < PersistentLists.PARALLEL_THRESHOLD)
+            assertThat(drained.get(), equalTo(0)); // built by create from the collection's array
+         else
+            assertThat(drained.get(), greaterThanOrEqualTo(size / PersistentLists.PARALLEL_RUN));
+      }
+   }
+
+   /**
+    * Counts the runs drained, each by a task of its own.
+    */
+   static final class DrainCountingSpliterator implements Spliterator<Integer> {
+      private final Spliterator<Integer> items;
+      private final AtomicInteger drained;
+
+      DrainCountingSpliterator(Spliterator<Integer> items, AtomicInteger drained) {
+         this.items = items;
+         this.drained = drained;
+      }
+
+      public boolean tryAdvance(Consumer<? super Integer> action) {
+         return items.tryAdvance(action);
+      }
+
+      public void forEachRemaining(Consumer<? super Integer> action) {
+         drained.incrementAndGet();
+         items.forEachRemaining(action);
+      }
+
+      public Spliterator<Integer> trySplit() {
+         Spliterator<Integer> prefix = items.trySplit();
+         return prefix == null ? null : new DrainCountingSpliterator(prefix, drained);
+      }
+
+      public long estimateSize() {
+         return items.estimateSize();
+      }
+
+      public int characteristics() {
+         return items.characteristics();
+      }
+   }
+
+   @Test
+   public void reduceStopsEarly() throws Exception {
+      PersistentList<Integer> testObject = PersistentLists.create(IntStream.range(0, 1100).boxed().toArray(Integer[]::new));
+      final int[] calls = new int[1];
+
+      int found = testObject.reduce(-1, (acc, i) -> { calls[0]++; return i * i > 5000 ? i : acc; }, acc -> acc >= 0);
+
+      assertThat(found, equalTo(71));
+      assertThat(calls[0], equalTo(72));
+      assertThat(testObject.reduce(0L, (acc, i) -> acc + i), equalTo(1100L * 1099 / 2));
+   }
+
+   @Test
+   public void forEachChunkCoversEveryElement() throws Exception {
+      for (int size : new int[]{0, 31, 32, 33, 1056, 1100}) {
+         PersistentList<Integer> testObject = PersistentLists.create(IntStream.range(0, size).boxed().toArray(Integer[]::new))
+               .withAppended(-1);
+         final List<Object> chunked = new ArrayList<Object>();
+
+         testObject.forEachChunk(chunk -> chunked.addAll(Arrays.asList(chunk)));
+
+         assertThat(chunked, equalTo((List<Object>) new ArrayList<Object>(testObject)));
+      }
+   }
+
+   @Test
+   public void iteratorVisitsEveryElementInOrder() throws Exception {
+      PersistentList<Integer> testObject = PersistentLists.create(IntStream.range(0, 1100).boxed().toArray(Integer[]::new));
+
+      Iterator<Integer> iterator = testObject.iterator();
+      for (int i = 0; i < 1100; i++)
+         assertThat(iterator.next(), equalTo(i));
+
+      assertFalse(iterator.hasNext());
+   }
+
+   @Test
+   public void spliteratorSplitsOnLeafBoundaries() throws Exception {
+      PersistentList<Integer> testObject = PersistentLists.create(IntStream.range(0, 1100).boxed().toArray(Integer[]::new));
+
+      Spliterator<Integer> rest = testObject.spliterator();
+      Spliterator<Integer> prefix = rest.trySplit();
+
+      assertThat(prefix.estimateSize() % 32, equalTo(0L));
+      assertThat(prefix.estimateSize() + rest.estimateSize(), equalTo(1100L));
+      assertThat(testObject.parallelStream().mapToLong(Integer::longValue).sum(), equalTo(1100L * 1099 / 2));
+   }
+
+   @Test
+   public void diffReportsChangesByIndex() throws Exception {
+      Integer[] items = new Integer[5000];
+      for (int i = 0; i < items.length; i++)
+         items[i] = i;
+      PersistentTreeList<Integer> before = (PersistentTreeList<Integer>) PersistentLists.create(items);
+      PersistentTreeList<Integer> after = (PersistentTreeList<Integer>) before.with(17, -17).with(4000, -4000);
+      for (int i = 0; i < 40000; i++)
+         after = (PersistentTreeList<Integer>) after.withAppended(i);
+
+      final List<String> changes = new ArrayList<String>();
+      PersistentTreeList.DiffVisitor<Integer> visitor = new PersistentTreeList.DiffVisitor<Integer>() {
+         public void added(int index, Integer value) {
+            changes.add("+" + index);
+         }
+
+         public void removed(int index, Integer value) {
+            changes.add("-" + index);
+         }
+
+         public void changed(int index, Integer oldValue, Integer newValue) {
+            changes.add(index + ":" + oldValue + "->" + newValue);
+         }
+      };
+      before.diff(after, visitor);
+
+      assertThat(changes.size(), equalTo(40002));
+      assertThat(changes.subList(0, 3), equalTo(Arrays.asList("17:17->-17", "4000:4000->-4000", "+5000")));
+
+      changes.clear();
+      after.diff(before, visitor);
+      assertThat(changes.get(2), equalTo("-5000"));
+      assertThat(changes.size(), equalTo(40002));
+
+      changes.clear();
+      after.diff((PersistentTreeList<Integer>) after.pop().withAppended(-1), visitor);
+      assertThat(changes, equalTo(Arrays.asList("44999:39999->-1")));
+   }
 }
@@ -11,9 +11,17 @@
 package com.logicalpractice.persistentcollections;
 
 import org.junit.Test;
-import sun.swing.text.CountingPrintable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
 
 /**
@@ -40,4 +48,110 @@ public class SequencesTest {
 
         assertThat(count, equalTo(10));
     }
+
+    @Test
+    public void steppedRangeIncludesItsEnd() throws Exception {
+        assertThat(toList(new RangeSequence(0, 9, 3)), equalTo(Arrays.asList(0, 3, 6, 9)));
+        assertThat(toList(new RangeSequence(0, 10, 3)), equalTo(Arrays.asList(0, 3, 6, 9)));
+        assertThat(toList(new RangeSequence(5, 1, -2)), equalTo(Arrays.asList(5, 3, 1)));
+        assertThat(toList(new RangeSequence(Integer.MAX_VALUE - 1, Integer.MAX_VALUE, 5)), equalTo(Arrays.asList(Integer.MAX_VALUE - 1)));
+    }
+
+    private static <T> List<T> toList(Sequence<T> sequence) {
+        List<T> ret = new ArrayList<T>();
+        for (T item : Sequences.iterable(sequence))
+            ret.add(item);
+        return ret;
+    }
+
+    private static List<Integer> range(int from, int to) {
+        return IntStream.range(from, to).boxed().collect(Collectors.toList());
+    }
+
+    @Test
+    public void lazySequenceRealizesOnce() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        LazySequence<Integer> testObject = new LazySequence<Integer>(() -> {
+            calls.incrementAndGet();
+            return Sequences.construct(1, Sequences.construct(2));
+        });
+
+        assertThat(testObject.isRealized(), equalTo(false));
+        assertThat(toList(testObject), equalTo(Arrays.asList(1, 2)));
+        assertThat(toList(testObject), equalTo(Arrays.asList(1, 2)));
+        assertThat(calls.get(), equalTo(1));
+    }
+
+    @Test
+    public void emptyLazySequence() throws Exception {
+        Sequence<Integer> testObject = new LazySequence<Integer>(() -> null);
+
+        assertThat(Sequences.seq(testObject), nullValue());
+        assertThat(toList(testObject).isEmpty(), equalTo(true));
+    }
+
+    @Test
+    public void restOfAChainedSequenceEndsInNull() throws Exception {
+        List<Integer> result = new ArrayList<Integer>();
+        for (Sequence<Integer> s = Sequences.seq(Sequences.map(x -> x * 2, new RangeSequence(1, 3))); s != null; s = s.rest())
+            result.add(s.first());
+
+        assertThat(result, equalTo(Arrays.asList(2, 4, 6)));
+    }
+
+    @Test
+    public void combinatorsEvaluateEachElementOnce() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        Sequence<Integer> mapped = Sequences.map(i -> { calls.incrementAndGet(); return i * 2; },
+                Sequences.sequence(range(0, 1000)));
+        Sequence<Integer> testObject = Sequences.filter(i -> i % 3 == 0, mapped);
+
+        List<Integer> expected = range(0, 1000).stream().map(i -> i * 2).filter(i -> i % 3 == 0).collect(Collectors.toList());
+        assertThat(toList(testObject), equalTo(expected));
+        assertThat(toList(testObject), equalTo(expected));
+        assertThat(calls.get(), equalTo(1000));
+    }
+
+    @Test
+    public void mapRealizesAChunkAtATime() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        Sequence<Integer> testObject = Sequences.map(i -> { calls.incrementAndGet(); return i; },
+                Sequences.sequence(range(0, 1000)));
+
+        assertThat(testObject.first(), equalTo(0));
+        assertThat(calls.get(), equalTo(32));
+    }
+
+    @Test
+    public void takeStopsEarlyOnUnchunkedSequences() throws Exception {
+        assertThat(toList(Sequences.take(3, new RangeSequence(0, Integer.MAX_VALUE - 1))), equalTo(Arrays.asList(0, 1, 2)));
+        assertThat(toList(Sequences.take(100, Sequences.sequence(range(0, 1000)))), equalTo(range(0, 100)));
+        assertThat(toList(Sequences.take(100, Sequences.sequence(range(0, 10)))), equalTo(range(0, 10)));
+        assertThat(Sequences.seq(Sequences.take(0, new RangeSequence(0, 10))), nullValue());
+    }
+
+    @Test
+    public void concatSkipsEmptySequences() throws Exception {
+        Sequence<Integer> empty = Sequences.filter(i -> false, Sequences.sequence(range(0, 100)));
+
+        Sequence<Integer> testObject = Sequences.concat(empty, Sequences.sequence(range(0, 40)), empty, new RangeSequence(40, 49), empty);
+
+        assertThat(toList(testObject), equalTo(range(0, 50)));
+        Iterator<Integer> iterator = Sequences.iterable(testObject).iterator();
+        for (int i = 0; i < 50; i++)
+            iterator.next();
+        assertThat(iterator.hasNext(), equalTo(false));
+    }
+
+    @Test
+    public void firstAndRestThroughChunks() throws Exception {
+        Sequence<Integer> testObject = Sequences.sequence(range(0, 40));
+
+        List<Integer> result = new ArrayList<Integer>();
+        for (Sequence<Integer> s = Sequences.seq(testObject); s != null; s = Sequences.seq(s.rest()))
+            result.add(s.first());
+
+        assertThat(result, equalTo(range(0, 40)));
+        assertThat(PersistentLists.create(testObject), equalTo((List<Integer>) range(0, 40)));
+    }
 }
@@ -0,0 +1,115 @@
+package com.logicalpractice.persistentcollections;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ *
+ */
+public class SnapshotsTest {
+
+   @Test
+   public void serializesThroughProxy() throws Exception {
+      List<Integer> items = new ArrayList<Integer>();
+      Map<String, Integer> entries = new HashMap<String, Integer>();
+      for (int i = 0; i < 2000; i++) {
+         items.add(i);
+         entries.put("k" + i, i);
+      }
+      entries.put(null, -1);
+
+      PersistentList<Integer> list = PersistentLists.create(items);
+      PersistentList<Integer> relaxed = PersistentLists.createRelaxed(items);
+      PersistentMap<String, Integer> map = PersistentHashMap.create(entries);
+      PersistentHashSet<Integer> set = PersistentHashSet.create(items);
+      PersistentLongList longs = PersistentLongList.create(1L, 2L, Long.MAX_VALUE);
+      PersistentLongMap<String> longMap = PersistentLongMap.<String>empty().with(7L, "seven").with(-1L, "minus one");
+
+      assertThat(roundTrip(list), equalTo(list));
+      assertThat(roundTrip(relaxed), instanceOf(PersistentRrbTreeList.class));
+      assertThat(roundTrip(relaxed), equalTo(relaxed));
+      assertThat(roundTrip(map), equalTo(map));
+      assertThat(roundTrip(set), equalTo((Object) set));
+      assertThat(roundTrip(longs), equalTo(longs));
+      assertThat(roundTrip(longMap), equalTo(longMap));
+      assertThat(roundTrip(PersistentLists.emptyPersistentList()), equalTo(PersistentLists.emptyPersistentList()));
+   }
+
+   @Test
+   public void serializesSortedMapWithItsComparator() throws Exception {
+      PersistentSortedMap<String, Integer> map = PersistentSortedMap.empty(String.CASE_INSENSITIVE_ORDER);
+      for (int i = 0; i < 3000; i++)
+         map = map.with("k" + i, i);
+
+      PersistentSortedMap<String, Integer> copy = roundTrip(map);
+
+      assertThat(copy, equalTo((Map<String, Integer>) map));
+      assertThat(copy.comparator(), sameInstance((Object) String.CASE_INSENSITIVE_ORDER));
+      assertThat(copy.firstKey(), equalTo(map.firstKey()));
+      assertThat(copy.get("K42"), equalTo(42));
+   }
+
+   @Test
+   public void serializesTheHasherOfAHashMap() throws Exception {
+      PersistentHashMap<String, Integer> map = PersistentHashMap.<String, Integer>empty(Hashers.CASE_INSENSITIVE)
+            .with("One", 1).with("two", 2);
+
+      PersistentHashMap<String, Integer> copy = roundTrip(map);
+
+      assertThat(copy, equalTo((Map<String, Integer>) map));
+      assertThat(copy.hasher(), sameInstance((Hasher) Hashers.CASE_INSENSITIVE));
+      assertThat(copy.get("ONE"), equalTo(1));
+   }
+
+   @Test
+   public void codecsRoundTrip() throws Exception {
+      List<String> items = new ArrayList<String>();
+      Map<String, Long> entries = new HashMap<String, Long>();
+      for (int i = 0; i < 1000; i++) {
+         items.add("item " + i);
+         entries.put("key " + i, (long) i * i);
+      }
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      Snapshots.writeList(out, items, Snapshots.STRING);
+      Snapshots.writeMap(out, entries, Snapshots.STRING, Snapshots.LONG);
+      Snapshots.writeSet(out, PersistentHashSet.create(items), Snapshots.STRING);
+      out.flush();
+
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+      assertThat(Snapshots.readList(in, Snapshots.STRING), equalTo(items));
+      assertThat(Snapshots.readMap(in, Snapshots.STRING, Snapshots.LONG), equalTo((Map<String, Long>) entries));
+      assertThat(Snapshots.readSet(in, Snapshots.STRING).size(), equalTo(1000));
+      assertThat(in.read(), equalTo(-1));
+   }
+
+   @SuppressWarnings("unchecked")
+   private static <T> T roundTrip(T value) throws Exception {
+      ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialize(value)));
+      return (T) in.readObject();
+   }
+
+   private static byte[] serialize(Object value) throws Exception {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ObjectOutputStream out = new ObjectOutputStream(bytes);
+      out.writeObject(value);
+      out.close();
+      return bytes.toByteArray();
+   }
+}
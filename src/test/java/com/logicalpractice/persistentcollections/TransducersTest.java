@@ -0,0 +1,95 @@
+package com.logicalpractice.persistentcollections;
+
+import org.junit.Test;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ *
+ */
+public class TransducersTest {
+
+   private static final Transducer<Integer, Integer> EVEN_SQUARES =
+         Transducers.<Integer>filter(i -> i % 2 == 0).then(Transducers.<Integer, Integer>map(i -> i * i));
+
+   private static List<Integer> range(int from, int to) {
+      return IntStream.range(from, to).boxed().collect(Collectors.toList());
+   }
+
+   @Test
+   public void sameResultFromEverySource() throws Exception {
+      List<Integer> expected = range(0, 1000).stream().filter(i -> i % 2 == 0).map(i -> i * i).collect(Collectors.toList());
+
+      assertThat(Transducers.intoList(EVEN_SQUARES, PersistentLists.create(range(0, 1000))), equalTo(expected));
+      assertThat(Transducers.intoList(EVEN_SQUARES, range(0, 1000)), equalTo(expected));
+      assertThat(Transducers.intoList(EVEN_SQUARES, range(0, 1000).stream()), equalTo(expected));
+      assertThat(Transducers.intoList(EVEN_SQUARES, new RangeSequence(0, 999)), equalTo(expected));
+      assertThat(Transducers.intoList(EVEN_SQUARES, Sequences.sequence(range(0, 1000))), equalTo(expected));
+   }
+
+   @Test
+   public void takeStopsPullingFromTheSource() throws Exception {
+      final AtomicInteger pulled = new AtomicInteger();
+      Transducer<Integer, Integer> xf = Transducers.<Integer, Integer>map(i -> { pulled.incrementAndGet(); return i; })
+            .then(Transducers.<Integer>take(5));
+
+      assertThat(Transducers.intoList(xf, new RangeSequence(0, Integer.MAX_VALUE - 1)), equalTo(range(0, 5)));
+      assertThat(pulled.get(), equalTo(5));
+
+      pulled.set(0);
+      assertThat(Transducers.intoList(xf, PersistentLists.create(range(0, 1000))), equalTo(range(0, 5)));
+      assertThat(pulled.get(), equalTo(5));
+
+      pulled.set(0);
+      assertThat(Transducers.intoList(xf, Stream.iterate(0, i -> i + 1)), equalTo(range(0, 5)));
+      assertThat(pulled.get(), equalTo(5));
+   }
+
+   @Test
+   public void partitionAllFlushesTheRemainder() throws Exception {
+      PersistentList<PersistentList<Integer>> result =
+            Transducers.intoList(Transducers.<Integer>partitionAll(4), range(0, 10));
+
+      assertThat(result.size(), equalTo(3));
+      assertThat(result.get(0), equalTo(range(0, 4)));
+      assertThat(result.get(2), equalTo(range(8, 10)));
+
+      PersistentList<PersistentList<Integer>> taken = Transducers.intoList(
+            Transducers.<Integer>partitionAll(4).then(Transducers.<PersistentList<Integer>>take(1)), range(0, 10));
+      assertThat(taken, equalTo(Arrays.asList(PersistentLists.create(0, 1, 2, 3))));
+   }
+
+   @Test
+   public void intoMapSink() throws Exception {
+      Transducer<String, Map.Entry<String, Integer>> xf = Transducers.<String>filter(s -> !s.isEmpty())
+            .then(Transducers.<String, Map.Entry<String, Integer>>map(s -> new AbstractMap.SimpleEntry<String, Integer>(s, s.length())));
+
+      PersistentMap<String, Integer> result = Transducers.intoMap(xf, Arrays.asList("a", "", "bb", "ccc", "bb"));
+
+      Map<String, Integer> expected = new HashMap<String, Integer>();
+      expected.put("a", 1);
+      expected.put("bb", 2);
+      expected.put("ccc", 3);
+      assertThat(result, equalTo(expected));
+   }
+
+   @Test
+   public void transduceWithCustomSink() throws Exception {
+      Reducer<Long, Integer> sum = (acc, i) -> acc + i;
+
+      long result = Transducers.transduce(EVEN_SQUARES, sum, 0L, new RangeSequence(1, 10));
+
+      assertThat(result, equalTo(4L + 16 + 36 + 64 + 100));
+   }
+}
@@ -2,6 +2,11 @@ package com.logicalpractice.persistentcollections;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
 import static org.hamcrest.Matchers.equalTo;
 import static org.junit.Assert.assertThat;
 
@@ -31,4 +36,86 @@ public class TransientTreeListTest {
       assertThat(testObject.size(), equalTo(5));
       assertThat(testObject.get(3), equalTo(5));
    }
+
+   @Test
+   public void testRemoveFromTheFront() throws Exception {
+      TransientList<Integer> testObject = PersistentLists.create(range(0, 2000)).toTransientList();
+
+      testObject.remove(0);
+
+      assertThat(testObject.size(), equalTo(1999));
+      assertThat(testObject.get(0), equalTo(1));
+      assertThat(testObject.get(1998), equalTo(1999));
+   }
+
+   @Test
+   public void testBulkEditsMatchArrayList() throws Exception {
+      Random random = new Random(42);
+      List<Integer> expected = new ArrayList<Integer>(range(0, 3000));
+      TransientList<Integer> testObject = PersistentLists.create(expected).toTransientList();
+
+      for (int i = 0; i < 200; i++) {
+         int from = random.nextInt(expected.size() + 1);
+         switch (random.nextInt(3)) {
+            case 0:
+               List<Integer> items = range(i * 10000, i * 10000 + random.nextInt(100));
+               expected.addAll(from, items);
+               testObject.addAll(from, items);
+               break;
+            case 1:
+               int to = from + random.nextInt(expected.size() - from + 1);
+               expected.subList(from, to).clear();
+               testObject.subList(from, to).clear();
+               break;
+            default:
+               List<Integer> appended = range(0, random.nextInt(70));
+               expected.addAll(appended);
+               testObject.addAll(appended);
+         }
+         assertThat(testObject, equalTo(expected));
+      }
+
+      assertThat(testObject.toPersistentList(), equalTo(expected));
+   }
+
+   @Test
+   public void testClear() throws Exception {
+      PersistentList<Integer> original = PersistentLists.create(range(0, 1500));
+      TransientList<Integer> testObject = original.toTransientList();
+
+      testObject.clear();
+      testObject.addAll(Arrays.asList(7, 8));
+
+      assertThat(testObject.toPersistentList(), equalTo(Arrays.asList(7, 8)));
+      assertThat(original, equalTo(range(0, 1500)));
+   }
+
+   @Test
+   public void testAppendAllSharesLeavesWhenAligned() throws Exception {
+      int[][] sizes = {{0, 0}, {0, 40}, {32, 5}, {64, 32}, {32, 33 * 32 + 7}, {1024, 1024 * 33 + 1}, {40, 70}, {7, 1100}};
+      for (int[] size : sizes) {
+         PersistentTreeList<Integer> other = (PersistentTreeList<Integer>) PersistentLists.create(range(size[0], size[0] + size[1]));
+         TransientTreeList<Integer> testObject = ((PersistentTreeList<Integer>) PersistentLists.create(range(0, size[0]))).toTransientList();
+
+         testObject.appendAll(other);
+         testObject.add(-1);
+         testObject.set(size[0], -2);
+         PersistentTreeList<Integer> result = (PersistentTreeList<Integer>) testObject.toPersistentList();
+
+         List<Integer> expected = range(0, size[0] + size[1]);
+         expected.add(-1);
+         expected.set(size[0], -2);
+         assertThat(result, equalTo(expected));
+         assertThat(other, equalTo(range(size[0], size[0] + size[1]))); // the edit was not seen through a shared leaf
+         if (size[0] % 32 == 0 && size[1] > 64)
+            assertThat(result.arrayFor(size[0] + 32) == other.arrayFor(32), equalTo(true));
+      }
+   }
+
+   private static List<Integer> range(int from, int to) {
+      List<Integer> ret = new ArrayList<Integer>();
+      for (int i = from; i < to; i++)
+         ret.add(i);
+      return ret;
+   }
 }